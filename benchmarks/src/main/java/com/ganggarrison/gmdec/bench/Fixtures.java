@@ -0,0 +1,114 @@
+/*
+ * This file is part of GmkSplitter.
+ * GmkSplitter is free software and comes with ABSOLUTELY NO WARRANTY.
+ * See LICENSE for details.
+ */
+package com.ganggarrison.gmdec.bench;
+
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
+import org.lateralgm.file.GmFile;
+import org.lateralgm.resources.Background;
+import org.lateralgm.resources.GmObject;
+import org.lateralgm.resources.Room;
+import org.lateralgm.resources.library.LibManager;
+import org.lateralgm.resources.sub.Action;
+import org.lateralgm.resources.sub.Instance;
+import org.lateralgm.resources.sub.Tile;
+import org.lateralgm.resources.sub.Instance.PInstance;
+import org.lateralgm.resources.sub.Tile.PTile;
+
+/**
+ * Deterministic test data for the benchmarks. Everything is derived from the
+ * given Random, so runs with the same seed compare like with like.
+ */
+final class Fixtures {
+	private Fixtures() {
+	}
+
+	/**
+	 * A sprite-like image: a transparent border around an opaque, noisy blob.
+	 */
+	static BufferedImage createImage(Random random, int width, int height) {
+		BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		int bx = width / 8, by = height / 8;
+		for (int y = by; y < height - by; y++) {
+			for (int x = bx; x < width - bx; x++) {
+				img.setRGB(x, y, 0xFF000000 | (random.nextInt() & 0x3F3F3F) | 0x204080);
+			}
+		}
+		return img;
+	}
+
+	/** Data that compresses roughly like game sounds and images do. */
+	static byte[] createCompressibleData(Random random, int size) {
+		byte[] data = new byte[size];
+		for (int i = 0; i < size; i++) {
+			data[i] = (byte) ((i >> 6) + random.nextInt(8));
+		}
+		return data;
+	}
+
+	static String createCode(Random random, int lines) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < lines; i++) {
+			sb.append("if (x > ").append(random.nextInt(640)).append(") { hspeed = -hspeed; }\r\n");
+		}
+		return sb.toString();
+	}
+
+	static Action createCodeAction(Random random, int lines) {
+		Action act = new Action(LibManager.codeAction);
+		act.getArguments().get(0).setVal(createCode(random, lines));
+		return act;
+	}
+
+	static Room createRoom(Random random, int instances, int tiles, List<GmObject> objects, List<Background> backgrounds,
+			GmFile gmf) {
+		Room room = new Room();
+		for (int i = 0; i < instances; i++) {
+			Instance inst = room.addInstance(gmf);
+			inst.setPosition(new Point(random.nextInt(2048), random.nextInt(2048)));
+			if (!objects.isEmpty()) {
+				inst.properties.put(PInstance.OBJECT, objects.get(random.nextInt(objects.size())).reference);
+			}
+			if (random.nextInt(10) == 0) {
+				inst.setCreationCode(createCode(random, 2));
+			}
+		}
+		for (int i = 0; i < tiles; i++) {
+			Tile tile = new Tile(room, gmf);
+			tile.setRoomPosition(new Point(random.nextInt(64) * 32, random.nextInt(64) * 32));
+			tile.setBackgroundPosition(new Point(random.nextInt(8) * 32, random.nextInt(8) * 32));
+			tile.setDepth(1000000);
+			if (!backgrounds.isEmpty()) {
+				tile.properties.put(PTile.BACKGROUND, backgrounds.get(random.nextInt(backgrounds.size())).reference);
+			}
+			room.tiles.add(tile);
+		}
+		return room;
+	}
+
+	static File createTempDir(String prefix) throws IOException {
+		File dir = File.createTempFile(prefix, "");
+		if (!dir.delete() || !dir.mkdir()) {
+			throw new IOException("Unable to create temporary directory " + dir);
+		}
+		return dir;
+	}
+
+	static void deleteRecursively(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				deleteRecursively(child);
+			}
+		}
+		file.delete();
+	}
+}
@@ -0,0 +1,91 @@
+/*
+ * This file is part of GmkSplitter.
+ * GmkSplitter is free software and comes with ABSOLUTELY NO WARRANTY.
+ * See LICENSE for details.
+ */
+package com.ganggarrison.gmdec.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.lateralgm.components.impl.ResNode;
+import org.lateralgm.file.GmFile;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ganggarrison.gmdec.GmkSplitter;
+import com.ganggarrison.gmdec.ProjectGenerator;
+import com.ganggarrison.gmdec.ProjectGenerator.Settings;
+
+/**
+ * End to end decompose and compose of a generated project. Each invocation
+ * writes to a fresh destination, since the tool never overwrites.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class SplitterBenchmark {
+	/** Multiplier for the number of resources in the generated project. */
+	@Param({ "1", "10", "100" })
+	public int scale;
+
+	private File dir;
+	private File gmkFile;
+	private File treeDir;
+	private File outputDir;
+	private File outputGmk;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		dir = Fixtures.createTempDir("splitbench");
+		ResNode root = new ResNode("Root", (byte) 0, null, null);
+		GmFile gmf = new ProjectGenerator(new Settings().scale(scale), 42).generate(root);
+		gmkFile = new File(dir, "project.gm81");
+		ProjectGenerator.writeGmk(gmf, root, gmkFile, 810);
+		treeDir = new File(dir, "tree");
+		GmkSplitter.decompose(gmkFile, treeDir);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		Fixtures.deleteRecursively(dir);
+	}
+
+	@Setup(Level.Invocation)
+	public void chooseOutput() {
+		String name = "out" + System.nanoTime();
+		outputDir = new File(dir, name);
+		outputGmk = new File(dir, name + ".gm81");
+	}
+
+	@TearDown(Level.Invocation)
+	public void deleteOutput() {
+		Fixtures.deleteRecursively(outputDir);
+		outputGmk.delete();
+	}
+
+	@Benchmark
+	public void decompose() throws IOException {
+		GmkSplitter.decompose(gmkFile, outputDir);
+	}
+
+	@Benchmark
+	public void compose() throws IOException {
+		GmkSplitter.compose(treeDir, outputGmk);
+	}
+}
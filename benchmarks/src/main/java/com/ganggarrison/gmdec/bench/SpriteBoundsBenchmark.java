@@ -0,0 +1,71 @@
+/*
+ * This file is part of GmkSplitter.
+ * GmkSplitter is free software and comes with ABSOLUTELY NO WARRANTY.
+ * See LICENSE for details.
+ */
+package com.ganggarrison.gmdec.bench;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.lateralgm.resources.Sprite;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Automatic bounding box computation, which runs for every subimage of every
+ * sprite with BBMode.AUTO.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class SpriteBoundsBenchmark {
+	@Param({ "32", "256" })
+	public int imageSize;
+
+	private BufferedImage argbImage;
+	private BufferedImage abgrImage;
+
+	@Setup
+	public void setup() {
+		argbImage = Fixtures.createImage(new Random(42), imageSize, imageSize);
+		abgrImage = new BufferedImage(imageSize, imageSize, BufferedImage.TYPE_4BYTE_ABGR);
+		abgrImage.getGraphics().drawImage(argbImage, 0, 0, null);
+	}
+
+	@Benchmark
+	public Rectangle alpha() {
+		Rectangle r = new Rectangle(imageSize - 1, imageSize - 1, 0, 0);
+		Sprite.getCropBounds(argbImage, r, false);
+		return r;
+	}
+
+	@Benchmark
+	public Rectangle transparentPixel() {
+		Rectangle r = new Rectangle(imageSize - 1, imageSize - 1, 0, 0);
+		Sprite.getCropBounds(argbImage, r, true);
+		return r;
+	}
+
+	/** Images not backed by an ARGB int array, as ImageIO may return them. */
+	@Benchmark
+	public Rectangle alphaConverted() {
+		Rectangle r = new Rectangle(imageSize - 1, imageSize - 1, 0, 0);
+		Sprite.getCropBounds(abgrImage, r, false);
+		return r;
+	}
+}
@@ -0,0 +1,118 @@
+/*
+ * This file is part of GmkSplitter.
+ * GmkSplitter is free software and comes with ABSOLUTELY NO WARRANTY.
+ * See LICENSE for details.
+ */
+package com.ganggarrison.gmdec.bench;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+
+import org.lateralgm.file.GmStreamDecoder;
+import org.lateralgm.file.GmStreamEncoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The binary primitives that every GMK read and write goes through.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class StreamCodecBenchmark {
+	private static final int INT_COUNT = 16384;
+
+	/** Edge length of the square test image. */
+	@Param({ "32", "256" })
+	public int imageSize;
+
+	/** Size of the uncompressed block for compress/decompress. */
+	@Param({ "65536", "1048576" })
+	public int blockSize;
+
+	private byte[] ints;
+	private byte[] bgraImage;
+	private BufferedImage image;
+	private byte[] block;
+	private byte[] compressedBlock;
+
+	@Setup
+	public void setup() throws IOException {
+		Random random = new Random(42);
+
+		ints = new byte[INT_COUNT * 4];
+		random.nextBytes(ints);
+
+		image = Fixtures.createImage(random, imageSize, imageSize);
+		ByteArrayOutputStream imageOut = new ByteArrayOutputStream();
+		GmStreamEncoder enc = new GmStreamEncoder(imageOut);
+		enc.writeBGRAImage(image, false);
+		enc.close();
+		bgraImage = imageOut.toByteArray();
+
+		block = Fixtures.createCompressibleData(random, blockSize);
+		ByteArrayOutputStream blockOut = new ByteArrayOutputStream();
+		enc = new GmStreamEncoder(blockOut);
+		enc.compress(block);
+		enc.close();
+		compressedBlock = blockOut.toByteArray();
+	}
+
+	@Benchmark
+	public int read4() throws IOException {
+		GmStreamDecoder in = new GmStreamDecoder(new ByteArrayInputStream(ints));
+		int sum = 0;
+		for (int i = 0; i < INT_COUNT; i++) {
+			sum += in.read4();
+		}
+		return sum;
+	}
+
+	@Benchmark
+	public BufferedImage readBGRAImage() throws IOException {
+		GmStreamDecoder in = new GmStreamDecoder(new ByteArrayInputStream(bgraImage));
+		return in.readBGRAImage(imageSize, imageSize);
+	}
+
+	@Benchmark
+	public byte[] decompress() throws IOException, DataFormatException {
+		GmStreamDecoder in = new GmStreamDecoder(new ByteArrayInputStream(compressedBlock));
+		return in.decompress(in.read4());
+	}
+
+	@Benchmark
+	public void writeBGRAImage(Blackhole bh) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(bgraImage.length);
+		GmStreamEncoder enc = new GmStreamEncoder(out);
+		enc.writeBGRAImage(image, true);
+		enc.flush();
+		bh.consume(out.size());
+	}
+
+	@Benchmark
+	public void compress(Blackhole bh) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(compressedBlock.length);
+		GmStreamEncoder enc = new GmStreamEncoder(out);
+		enc.compress(block);
+		enc.flush();
+		bh.consume(out.size());
+	}
+}
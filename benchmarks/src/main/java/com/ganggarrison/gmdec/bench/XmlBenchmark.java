@@ -0,0 +1,142 @@
+/*
+ * This file is part of GmkSplitter.
+ * GmkSplitter is free software and comes with ABSOLUTELY NO WARRANTY.
+ * See LICENSE for details.
+ */
+package com.ganggarrison.gmdec.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.lateralgm.file.GmFile;
+import org.lateralgm.resources.Background;
+import org.lateralgm.resources.GmObject;
+import org.lateralgm.resources.Room;
+import org.lateralgm.resources.library.LibManager;
+import org.lateralgm.resources.sub.Action;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ganggarrison.easyxml.XmlReader;
+import com.ganggarrison.easyxml.XmlWriter;
+import com.ganggarrison.gmdec.ConversionContext;
+import com.ganggarrison.gmdec.xml.ActionXmlFormat;
+import com.ganggarrison.gmdec.xml.RoomXmlFormat;
+
+/**
+ * XML writing and parsing, both raw through easyxml and through the room and
+ * action formats, which dominate the file tree of a typical project.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class XmlBenchmark {
+	/** Number of instances in the room; tiles are twice as many. */
+	@Param({ "100", "2000" })
+	public int instances;
+
+	private File dir;
+	private Room room;
+	private File roomFile;
+	private Action action;
+	private File actionFile;
+	private File outFile;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		LibManager.ensureLoaded();
+		Random random = new Random(42);
+		GmFile gmf = new GmFile();
+
+		List<GmObject> objects = new ArrayList<GmObject>();
+		for (int i = 0; i < 16; i++) {
+			GmObject obj = new GmObject();
+			obj.setName("obj_" + i);
+			objects.add(obj);
+		}
+		room = Fixtures.createRoom(random, instances, instances * 2, objects, Collections.<Background> emptyList(),
+				gmf);
+		action = Fixtures.createCodeAction(random, 50);
+
+		dir = Fixtures.createTempDir("xmlbench");
+		roomFile = new File(dir, "room.xml");
+		new RoomXmlFormat().write(room, roomFile, new ConversionContext());
+		actionFile = new File(dir, "action.xml");
+		new ActionXmlFormat().write(action, actionFile, new ConversionContext());
+		outFile = new File(dir, "out.xml");
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		Fixtures.deleteRecursively(dir);
+	}
+
+	@TearDown(Level.Invocation)
+	public void deleteOutput() {
+		outFile.delete();
+	}
+
+	@Benchmark
+	public void xmlWriter() throws IOException {
+		XmlWriter writer = new XmlWriter();
+		writer.startElement("room");
+		writer.startElement("instances");
+		for (int i = 0; i < instances * 3; i++) {
+			writer.startElement("instance");
+			writer.putAttribute("x", i);
+			writer.putAttribute("y", i * 2);
+			writer.putElement("object", "obj_" + (i & 15));
+			writer.putElement("creationCode", "");
+			writer.endElement();
+		}
+		writer.endElement();
+		writer.endElement();
+		writer.write(outFile);
+	}
+
+	@Benchmark
+	public XmlReader xmlReader() throws IOException {
+		return new XmlReader(roomFile);
+	}
+
+	@Benchmark
+	public Room roomRoundTrip() throws IOException {
+		new RoomXmlFormat().write(room, outFile, new ConversionContext());
+		return new RoomXmlFormat().read(outFile, new ConversionContext());
+	}
+
+	@Benchmark
+	public Room roomRead() throws IOException {
+		return new RoomXmlFormat().read(roomFile, new ConversionContext());
+	}
+
+	@Benchmark
+	public Action actionRoundTrip() throws IOException {
+		new ActionXmlFormat().write(action, outFile, new ConversionContext());
+		return new ActionXmlFormat().read(outFile, new ConversionContext());
+	}
+
+	@Benchmark
+	public Action actionRead() throws IOException {
+		return new ActionXmlFormat().read(actionFile, new ConversionContext());
+	}
+}
@@ -9,27 +9,45 @@ package com.ganggarrison.easyxml;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 
+import org.lateralgm.file.Metrics;
+import org.lateralgm.file.Metrics.Counter;
+import org.lateralgm.file.StringPool;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.xml.sax.SAXException;
 
+import com.ganggarrison.gmdec.storage.TreePath;
+
 public class XmlReader {
 	private final Document domDocument;
 	private Element currentParent = null;
 	private Element currentChild = null;
 
 	public XmlReader(File xmlFile) throws IOException {
+		this(TreePath.of(xmlFile));
+	}
+
+	public XmlReader(TreePath xmlFile) throws IOException {
 		try {
 			DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
 			factory.setIgnoringComments(true);
 			DocumentBuilder builder = factory.newDocumentBuilder();
-			domDocument = builder.parse(xmlFile);
+			InputStream in = xmlFile.openInput();
+			try {
+				domDocument = builder.parse(in, xmlFile.toString());
+			} finally {
+				in.close();
+			}
+			Metrics m = Metrics.get();
+			m.count(Counter.XML_PARSED, 1);
+			m.count(Counter.XML_BYTES, xmlFile.length());
 		} catch (SAXException e) {
 			throw new IOException(e);
 		} catch (ParserConfigurationException e) {
@@ -38,7 +56,6 @@ public class XmlReader {
 	}
 
 	public void enterElement(String elementName) {
-		elementName = elementName.toLowerCase();
 		if (currentParent == null) {
 			currentParent = domDocument.getDocumentElement();
 		} else {
@@ -49,7 +66,7 @@ public class XmlReader {
 			throw new IllegalArgumentException("No child element found while attempting to enter element "
 					+ elementName);
 		}
-		if (!elementName.equals(currentParent.getTagName().toLowerCase())) {
+		if (!elementName.equalsIgnoreCase(currentParent.getTagName())) {
 			throw new IllegalArgumentException("Unexpected tag name. Expected: " + elementName + ", got:"
 					+ currentParent.getTagName());
 		}
@@ -65,21 +82,28 @@ public class XmlReader {
 	}
 
 	public double getDoubleElement(String elementName) {
-		return Double.valueOf(getStringElement(elementName));
+		return Double.parseDouble(getElementText(elementName));
 	}
 
 	public int getIntElement(String elementName) {
-		return Integer.valueOf(getStringElement(elementName));
+		return Integer.parseInt(getElementText(elementName));
 	}
 
 	public boolean getBoolElement(String elementName) {
-		return Boolean.valueOf(getStringElement(elementName));
+		return Boolean.parseBoolean(getElementText(elementName));
 	}
 
+	/**
+	 * Returns the text of the next element, shared with equal strings read
+	 * before, see {@link StringPool}.
+	 */
 	public String getStringElement(String elementName) {
-		elementName = elementName.toLowerCase();
+		return StringPool.get().intern(getElementText(elementName));
+	}
+
+	private String getElementText(String elementName) {
 		nextChild();
-		if (currentChild == null || !elementName.equals(currentChild.getTagName().toLowerCase())) {
+		if (currentChild == null || !elementName.equalsIgnoreCase(currentChild.getTagName())) {
 			throw new IllegalArgumentException("Element with name " + elementName + " expected but not found.");
 		} else {
 			return currentChild.getTextContent();
@@ -87,18 +111,26 @@ public class XmlReader {
 	}
 
 	public double getDoubleAttribute(String attributeName) {
-		return Double.valueOf(getStringAttribute(attributeName));
+		return Double.parseDouble(getAttributeText(attributeName));
 	}
 
 	public int getIntAttribute(String attributeName) {
-		return Integer.valueOf(getStringAttribute(attributeName));
+		return Integer.parseInt(getAttributeText(attributeName));
 	}
 
 	public boolean getBoolAttribute(String attributeName) {
-		return Boolean.valueOf(getStringAttribute(attributeName));
+		return Boolean.parseBoolean(getAttributeText(attributeName));
 	}
 
+	/**
+	 * Returns the value of an attribute of the current element, shared with
+	 * equal strings read before, see {@link StringPool}.
+	 */
 	public String getStringAttribute(String attributeName) {
+		return StringPool.get().intern(getAttributeText(attributeName));
+	}
+
+	private String getAttributeText(String attributeName) {
 		if (!hasAttribute(attributeName)) {
 			throw new IllegalArgumentException("Attribute with name " + attributeName + " expected in element "
 					+ currentParent.getTagName() + " but not found.");
@@ -120,7 +152,7 @@ public class XmlReader {
 
 	public boolean hasNextElement(String name) {
 		Element nextElement = getNextChildElement();
-		return nextElement != null && nextElement.getTagName().toLowerCase().equals(name.toLowerCase());
+		return nextElement != null && nextElement.getTagName().equalsIgnoreCase(name);
 	}
 
 	private void nextChild() {
@@ -152,4 +184,4 @@ public class XmlReader {
 		} while (cur != null && cur.getNodeType() != Node.ELEMENT_NODE);
 		return (Element) cur;
 	}
-}
\ No newline at end of file
+}
\ No newline at end of file
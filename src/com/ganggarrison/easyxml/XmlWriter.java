@@ -23,6 +23,8 @@ import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 
+import org.lateralgm.file.Metrics;
+import org.lateralgm.file.Metrics.Counter;
 import org.w3c.dom.Comment;
 import org.w3c.dom.DOMImplementation;
 import org.w3c.dom.Document;
@@ -30,6 +32,7 @@ import org.w3c.dom.Element;
 import org.w3c.dom.Text;
 
 import com.ganggarrison.gmdec.FileTools;
+import com.ganggarrison.gmdec.storage.TreePath;
 
 public class XmlWriter {
 	protected Document domDocument;
@@ -52,10 +55,26 @@ public class XmlWriter {
 		elem.setTextContent(textContent.toString());
 	}
 
+	public void putElement(String elementName, int textContent) {
+		createElement(elementName).setTextContent(Integer.toString(textContent));
+	}
+
+	public void putElement(String elementName, boolean textContent) {
+		createElement(elementName).setTextContent(textContent ? "true" : "false");
+	}
+
 	public void putAttribute(String attributeName, Object value) {
 		openElementStack.peek().setAttribute(attributeName, value.toString());
 	}
 
+	public void putAttribute(String attributeName, int value) {
+		openElementStack.peek().setAttribute(attributeName, Integer.toString(value));
+	}
+
+	public void putAttribute(String attributeName, boolean value) {
+		openElementStack.peek().setAttribute(attributeName, value ? "true" : "false");
+	}
+
 	public void putComment(String comment) {
 		Comment node = domDocument.createComment(comment);
 		openElementStack.peek().appendChild(node);
@@ -88,8 +107,10 @@ public class XmlWriter {
 	}
 
 	public void write(File file) throws IOException {
-		String lineSep = System.getProperty("line.separator");
-		System.setProperty("line.separator", "\n");
+		write(TreePath.of(file));
+	}
+
+	public void write(TreePath file) throws IOException {
 		try {
 			Transformer trans = createTransformer();
 			writeXml(trans, file);
@@ -97,10 +118,7 @@ public class XmlWriter {
 			throw new AssertionError(e);
 		} catch (TransformerException e) {
 			throw new IOException(e);
-		} finally {
-			System.setProperty("line.separator", lineSep);
 		}
-
 	}
 
 	private Transformer createTransformer() throws TransformerConfigurationException {
@@ -113,11 +131,26 @@ public class XmlWriter {
 		return trans;
 	}
 
-	private void writeXml(Transformer trans, File file) throws TransformerException, IOException {
+	private void writeXml(Transformer trans, TreePath file) throws TransformerException, IOException {
 		StringWriter sw = new StringWriter();
 		StreamResult result = new StreamResult(sw);
 		DOMSource source = new DOMSource(domDocument);
 		trans.transform(source, result);
-		FileTools.writeFile(file, sw.toString());
+		byte[] content = toLf(sw.toString()).getBytes("UTF-8");
+		FileTools.writeFile(file, content);
+		Metrics m = Metrics.get();
+		m.count(Counter.XML_WRITTEN, 1);
+		m.count(Counter.XML_BYTES, content.length);
+	}
+
+	/**
+	 * The serializer of the JDK ends lines, including those in text, with
+	 * line.separator. Rather than changing that for all threads, its output is
+	 * converted, so the files are the same on every platform. Carriage returns
+	 * in the content are always written as &amp;#13;, so they are kept.
+	 */
+	private static String toLf(String xml) {
+		String lineSeparator = System.getProperty("line.separator");
+		return lineSeparator.equals("\n") ? xml : xml.replace(lineSeparator, "\n");
 	}
 }
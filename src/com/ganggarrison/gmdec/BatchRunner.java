@@ -0,0 +1,320 @@
+/*
+ * This file is part of GmkSplitter.
+ * GmkSplitter is free software and comes with ABSOLUTELY NO WARRANTY.
+ * See LICENSE for details.
+ */
+package com.ganggarrison.gmdec;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.lateralgm.file.Metrics;
+import org.lateralgm.resources.library.LibManager;
+
+/**
+ * Runs many conversions in one process on a bounded thread pool. The
+ * libraries are loaded once and shared by all jobs, and the JIT stays warm
+ * from one project to the next.
+ */
+public class BatchRunner {
+	public static class Result {
+		public final ConversionJob job;
+		public final boolean success;
+		/** The reason of a failure, null on success */
+		public final String message;
+		public final long millis;
+
+		Result(ConversionJob job, boolean success, String message, long millis) {
+			this.job = job;
+			this.success = success;
+			this.message = message;
+			this.millis = millis;
+		}
+	}
+
+	private final int threads;
+	private final List<ConversionJob> jobs = new ArrayList<ConversionJob>();
+	private boolean update;
+	private boolean packEvents;
+	private int roomChunkSize;
+	private PngEncoder.Preset pngPreset = PngEncoder.Preset.DEFAULT;
+	private boolean palettePngs;
+	private boolean spriteStrips;
+
+	/**
+	 * @param threads
+	 *            The maximum number of jobs to run at the same time, or 0 to
+	 *            use one per available processor.
+	 */
+	public BatchRunner(int threads) {
+		this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * Makes the decompose jobs added from now on update existing trees, see
+	 * {@link ConversionJob#forUpdate()}.
+	 */
+	public void setUpdate(boolean update) {
+		this.update = update;
+	}
+
+	/**
+	 * Makes the decompose jobs added from now on write the packed event
+	 * layout, see {@link ConversionJob#withPackedEvents()}.
+	 */
+	public void setPackEvents(boolean packEvents) {
+		this.packEvents = packEvents;
+	}
+
+	/**
+	 * Makes the decompose jobs added from now on split large rooms into chunk
+	 * files, see {@link ConversionJob#withRoomChunks(int)}.
+	 */
+	public void setRoomChunkSize(int roomChunkSize) {
+		this.roomChunkSize = roomChunkSize;
+	}
+
+	/**
+	 * Makes the decompose jobs added from now on compress their images with
+	 * the given preset, see {@link ConversionJob#withPngPreset(PngEncoder.Preset)}.
+	 */
+	public void setPngPreset(PngEncoder.Preset pngPreset) {
+		this.pngPreset = pngPreset;
+	}
+
+	/**
+	 * Makes the decompose jobs added from now on write low-color images as
+	 * palette files, see {@link ConversionJob#withPalettePngs()}.
+	 */
+	public void setPalettePngs(boolean palettePngs) {
+		this.palettePngs = palettePngs;
+	}
+
+	/**
+	 * Makes the decompose jobs added from now on write the subimages of each
+	 * sprite into one image, see {@link ConversionJob#withSpriteStrips()}.
+	 */
+	public void setSpriteStrips(boolean spriteStrips) {
+		this.spriteStrips = spriteStrips;
+	}
+
+	/**
+	 * Adds a job. Relative paths are resolved against baseDir, or the working
+	 * directory if it is null.
+	 */
+	public void add(File baseDir, String source, String destination) {
+		add(baseDir, source, destination, packEvents, roomChunkSize, pngPreset, palettePngs, spriteStrips);
+	}
+
+	private void add(File baseDir, String source, String destination, boolean packEvents, int roomChunkSize,
+			PngEncoder.Preset pngPreset, boolean palettePngs, boolean spriteStrips) {
+		ConversionJob job = ConversionJob.fromArgs(baseDir, source, destination);
+		if (job == null) {
+			throw new IllegalArgumentException("Neither " + source + " nor " + destination
+					+ " is a .gmk or .gm81 file.");
+		}
+		if (update) {
+			job = job.forUpdate();
+		}
+		if (packEvents) {
+			job = job.withPackedEvents();
+		}
+		if (roomChunkSize > 0) {
+			job = job.withRoomChunks(roomChunkSize);
+		}
+		job = job.withPngPreset(pngPreset);
+		if (palettePngs) {
+			job = job.withPalettePngs();
+		}
+		jobs.add(spriteStrips ? job.withSpriteStrips() : job);
+	}
+
+	public List<ConversionJob> getJobs() {
+		return jobs;
+	}
+
+	/**
+	 * Adds the jobs listed in a manifest file. Each line holds a source and a
+	 * destination, separated by whitespace; paths containing spaces must be
+	 * put in double quotes. Empty lines and lines starting with # are
+	 * ignored. Relative paths are resolved against the directory of the
+	 * manifest. A line can start with the options --packed-events,
+	 * --room-chunks &lt;n&gt;, --png &lt;preset&gt;, --png-palette and
+	 * --sprite-strips to select the tree layout for that project only.
+	 */
+	public void addManifest(File manifest) throws IOException {
+		File baseDir = manifest.getAbsoluteFile().getParentFile();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(manifest), "UTF-8"));
+		try {
+			String line;
+			int lineNumber = 0;
+			while ((line = reader.readLine()) != null) {
+				lineNumber++;
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				List<String> paths = splitLine(line);
+				boolean packLine = packEvents;
+				int chunkLine = roomChunkSize;
+				PngEncoder.Preset pngLine = pngPreset;
+				boolean paletteLine = palettePngs;
+				boolean stripLine = spriteStrips;
+				while (paths != null && !paths.isEmpty() && paths.get(0).startsWith("--")) {
+					String option = paths.remove(0);
+					if (option.equals("--packed-events")) {
+						packLine = true;
+					} else if (option.equals("--room-chunks") && !paths.isEmpty() && paths.get(0).matches("\\d+")) {
+						chunkLine = Integer.parseInt(paths.remove(0));
+					} else if (option.equals("--png") && !paths.isEmpty()
+							&& PngEncoder.Preset.forName(paths.get(0)) != null) {
+						pngLine = PngEncoder.Preset.forName(paths.remove(0));
+					} else if (option.equals("--png-palette")) {
+						paletteLine = true;
+					} else if (option.equals("--sprite-strips")) {
+						stripLine = true;
+					} else {
+						paths = null;
+					}
+				}
+				if (paths == null || paths.size() != 2) {
+					throw new IOException(manifest + ":" + lineNumber + ": Expected [options] <source> <dest>");
+				}
+				try {
+					add(baseDir, paths.get(0), paths.get(1), packLine, chunkLine, pngLine, paletteLine, stripLine);
+				} catch (IllegalArgumentException e) {
+					throw new IOException(manifest + ":" + lineNumber + ": " + e.getMessage());
+				}
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	/** Splits at whitespace outside of double quotes. Returns null on an unclosed quote. */
+	private static List<String> splitLine(String line) {
+		List<String> result = new ArrayList<String>();
+		StringBuilder current = null;
+		boolean quoted = false;
+		for (char c : line.toCharArray()) {
+			if (c == '"') {
+				quoted = !quoted;
+				if (current == null) {
+					current = new StringBuilder();
+				}
+			} else if (!quoted && Character.isWhitespace(c)) {
+				if (current != null) {
+					result.add(current.toString());
+					current = null;
+				}
+			} else {
+				if (current == null) {
+					current = new StringBuilder();
+				}
+				current.append(c);
+			}
+		}
+		if (quoted) {
+			return null;
+		}
+		if (current != null) {
+			result.add(current.toString());
+		}
+		return result;
+	}
+
+	/**
+	 * Runs all jobs and waits for them to finish. A failing job doesn't stop
+	 * the others.
+	 *
+	 * @param report
+	 *            Collects the metrics of all jobs if not null.
+	 * @param out
+	 *            Where the jobs report what they did.
+	 * @param warnings
+	 *            Where the jobs report information lost in the conversion.
+	 * @return The results, in the order the jobs were added.
+	 */
+	public List<Result> run(final MetricsReport report, final PrintStream out, final PrintStream warnings)
+			throws IOException {
+		LibManager.ensureLoaded();
+		int poolSize = Math.max(1, Math.min(threads, jobs.size()));
+		ExecutorService pool = Executors.newFixedThreadPool(poolSize);
+		try {
+			List<Future<Result>> futures = new ArrayList<Future<Result>>();
+			for (final ConversionJob job : jobs) {
+				futures.add(pool.submit(new Callable<Result>() {
+					@Override
+					public Result call() {
+						return runJob(job, report, out, warnings);
+					}
+				}));
+			}
+
+			List<Result> results = new ArrayList<Result>();
+			for (Future<Result> future : futures) {
+				try {
+					results.add(future.get());
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted while waiting for the batch to finish", e);
+				} catch (ExecutionException e) {
+					throw new IOException(e.getCause());
+				}
+			}
+			return results;
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	private static Result runJob(ConversionJob job, MetricsReport report, PrintStream out, PrintStream warnings) {
+		String problem = job.check();
+		if (problem != null) {
+			return new Result(job, false, problem, 0);
+		}
+		long start = System.currentTimeMillis();
+		if (report != null) {
+			Metrics.install(new Metrics(report));
+		}
+		try {
+			job.run(new ConversionContext(out, warnings));
+			return new Result(job, true, null, System.currentTimeMillis() - start);
+		} catch (Exception e) {
+			String message = e.getMessage() != null ? e.getMessage() : e.toString();
+			return new Result(job, false, message, System.currentTimeMillis() - start);
+		} finally {
+			Metrics.install(null);
+		}
+	}
+
+	/**
+	 * Prints one line per job and a total.
+	 *
+	 * @return true if all jobs succeeded.
+	 */
+	public static boolean printSummary(List<Result> results, PrintStream out) {
+		int failed = 0;
+		for (Result r : results) {
+			if (r.success) {
+				out.println(String.format("OK     %8.2fs  %s", r.millis / 1000.0, r.job));
+			} else {
+				out.println(String.format("FAILED %8.2fs  %s: %s", r.millis / 1000.0, r.job, r.message));
+				failed++;
+			}
+		}
+		out.println((results.size() - failed) + " of " + results.size() + " jobs succeeded.");
+		return failed == 0;
+	}
+}
@@ -0,0 +1,90 @@
+/*
+ * This file is part of GmkSplitter.
+ * GmkSplitter is free software and comes with ABSOLUTELY NO WARRANTY.
+ * See LICENSE for details.
+ */
+package com.ganggarrison.gmdec;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * The hashes of the resource blocks of the gmk file that a tree was split
+ * from, with the names of the resources and where their files are in the tree.
+ * The hashes are taken over the inflated blocks without the 8 bytes of the time
+ * the resource was last saved, see GmStreamDecoder.hashResourceBlock, so saving
+ * a project again doesn't change them. See {@link TreeUpdater}.
+ */
+public class BlockManifest {
+	/**
+	 * The version of the manifest format, manifests of other versions are
+	 * ignored. Version 1 hashed the compressed blocks.
+	 */
+	public static final int VERSION = 2;
+
+	public static class Entry {
+		public final PrimaryResourceType type;
+		public final int id;
+		/** The hex string of the block hash */
+		public final String hash;
+		public final String name;
+		/** The path of the resource files without extension, relative to the tree and separated by '/' */
+		public final String path;
+
+		public Entry(PrimaryResourceType type, int id, String hash, String name, String path) {
+			this.type = type;
+			this.id = id;
+			this.hash = hash;
+			this.name = name;
+			this.path = path;
+		}
+	}
+
+	/** The settings the tree was written with, see {@link #getSettings(ConversionContext)} */
+	public String settings;
+
+	private final Map<PrimaryResourceType, SortedMap<Integer, Entry>> entries;
+
+	public BlockManifest() {
+		entries = new EnumMap<PrimaryResourceType, SortedMap<Integer, Entry>>(PrimaryResourceType.class);
+		for (PrimaryResourceType type : PrimaryResourceType.values()) {
+			entries.put(type, new TreeMap<Integer, Entry>());
+		}
+	}
+
+	/**
+	 * Describes the settings that affect the files written for a resource.
+	 * Entries are only valid for a tree written with the same settings.
+	 */
+	public static String getSettings(ConversionContext context) {
+		return "targetVersion=" + context.targetVersion + ",convertLineEndings=" + context.convertLineEndings
+				+ ",omitDisabledFields=" + context.omitDisabledFields + ",preserveIds=" + context.preserveIds
+				+ ",packEvents=" + context.packEvents + ",roomChunkSize=" + context.roomChunkSize
+				+ ",pngPreset=" + context.pngPreset + ",palettePngs=" + context.palettePngs
+				+ ",spriteStrips=" + context.spriteStrips;
+	}
+
+	public void add(Entry entry) {
+		entries.get(entry.type).put(entry.id, entry);
+	}
+
+	/** The entry of the resource with the given ID, or null if there is none */
+	public Entry get(PrimaryResourceType type, int id) {
+		return entries.get(type).get(id);
+	}
+
+	/** The entries of the given type, ordered by ID */
+	public List<Entry> getEntries(PrimaryResourceType type) {
+		return new ArrayList<Entry>(entries.get(type).values());
+	}
+
+	/** The highest ID of the given type, or -1 if there are no entries of it */
+	public int getMaxId(PrimaryResourceType type) {
+		SortedMap<Integer, Entry> map = entries.get(type);
+		return map.isEmpty() ? -1 : map.lastKey();
+	}
+}
@@ -0,0 +1,119 @@
+/*
+ * This file is part of GmkSplitter.
+ * GmkSplitter is free software and comes with ABSOLUTELY NO WARRANTY.
+ * See LICENSE for details.
+ */
+package com.ganggarrison.gmdec;
+
+import java.io.PrintStream;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The settings and state of one conversion. Every decompose or compose run
+ * gets its own context, which is passed to the readers, writers and formats
+ * involved, so several conversions can run in the same process at once.
+ */
+public class ConversionContext {
+	public enum IdPreservation {
+		NONE, OBJECTS, ALL
+	};
+
+	public boolean convertLineEndings = true;
+	public boolean omitDisabledFields = true;
+	public IdPreservation preserveIds = IdPreservation.OBJECTS;
+	/**
+	 * True to write all events of an object into one file instead of a
+	 * directory with one file per event. Trees of either layout can be read.
+	 */
+	public boolean packEvents = false;
+	/**
+	 * The number of instances or tiles per chunk file, for rooms with more of
+	 * them than that. 0 keeps them in the room file.
+	 */
+	public int roomChunkSize = 0;
+	/** How images are compressed when they are written as PNG files */
+	public PngEncoder.Preset pngPreset = PngEncoder.Preset.DEFAULT;
+	/** True to write images with at most 256 colors as palette PNG files */
+	public boolean palettePngs = false;
+	/** True to store the subimages of each sprite in a single image instead of one file each */
+	public boolean spriteStrips = false;
+	/** The GM version of the gmk file that is read or written */
+	public int targetVersion = 800;
+	/** Set while a tree is written over an older version of it, see {@link TreeUpdater} */
+	public TreeUpdater treeUpdate;
+
+	private final DeferredReferenceCreatorNotifier notifier = new DeferredReferenceCreatorNotifier();
+	private final Set<String> issuedVersionWarnings = new HashSet<String>();
+	private final PrintStream out;
+	private final PrintStream warnings;
+
+	public ConversionContext() {
+		this(System.err);
+	}
+
+	/**
+	 * @param warnings
+	 *            Where to report information that gets lost in the conversion.
+	 */
+	public ConversionContext(PrintStream warnings) {
+		this(System.out, warnings);
+	}
+
+	/**
+	 * @param out
+	 *            Where to report what the conversion did.
+	 * @param warnings
+	 *            Where to report information that gets lost in the conversion.
+	 */
+	public ConversionContext(PrintStream out, PrintStream warnings) {
+		this.out = out;
+		this.warnings = warnings;
+	}
+
+	/**
+	 * Creates a context with the same settings and streams as the given one,
+	 * but with its own references and warnings.
+	 */
+	public ConversionContext(ConversionContext settings) {
+		this(settings.out, settings.warnings);
+		convertLineEndings = settings.convertLineEndings;
+		omitDisabledFields = settings.omitDisabledFields;
+		preserveIds = settings.preserveIds;
+		packEvents = settings.packEvents;
+		roomChunkSize = settings.roomChunkSize;
+		pngPreset = settings.pngPreset;
+		palettePngs = settings.palettePngs;
+		spriteStrips = settings.spriteStrips;
+		targetVersion = settings.targetVersion;
+	}
+
+	/**
+	 * Collects the references between resources while the file tree is read,
+	 * which can only be resolved once all resources are known.
+	 */
+	public DeferredReferenceCreatorNotifier getNotifier() {
+		return notifier;
+	}
+
+	/** Reports what the conversion did, e.g. how much of a tree was updated. */
+	public void report(String message) {
+		out.println(message);
+	}
+
+	/**
+	 * Reports a problem with the input that the conversion works around.
+	 * Can be called by the threads reading resources at the same time.
+	 */
+	public void warn(String message) {
+		warnings.println(message);
+	}
+
+	/** Can be called by the threads reading resources at the same time. */
+	public synchronized void issueVersionWarning(String info) {
+		if (issuedVersionWarnings.add(info)) {
+			warnings.println("Warning: The information \"" + info
+					+ "\" cannot be represented in the target format.");
+		}
+	}
+}
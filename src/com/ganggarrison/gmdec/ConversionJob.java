@@ -0,0 +1,198 @@
+/*
+ * This file is part of GmkSplitter.
+ * GmkSplitter is free software and comes with ABSOLUTELY NO WARRANTY.
+ * See LICENSE for details.
+ */
+package com.ganggarrison.gmdec;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.lateralgm.file.Metrics;
+import org.lateralgm.file.StringPool;
+
+import com.ganggarrison.gmdec.storage.TreeArchive;
+
+/**
+ * A single decompose or compose run, as given on the command line or in a
+ * batch manifest.
+ */
+public class ConversionJob {
+	public final File source;
+	public final File destination;
+	/** True to split the gmk source into a tree, false to build the gmk destination */
+	public final boolean decompose;
+	/** True to split over an existing tree, see {@link TreeUpdater} */
+	public final boolean update;
+	/** True to write the events of each object into one file, see {@link ConversionContext#packEvents} */
+	public final boolean packEvents;
+	/** The number of room instances or tiles per chunk file, see {@link ConversionContext#roomChunkSize} */
+	public final int roomChunkSize;
+	/** How the images of the tree are compressed, see {@link ConversionContext#pngPreset} */
+	public final PngEncoder.Preset pngPreset;
+	/** True to write low-color images as palette files, see {@link ConversionContext#palettePngs} */
+	public final boolean palettePngs;
+	/** True to write the subimages of each sprite into one image, see {@link ConversionContext#spriteStrips} */
+	public final boolean spriteStrips;
+
+	public ConversionJob(File source, File destination, boolean decompose) {
+		this(source, destination, decompose, false, false, 0, PngEncoder.Preset.DEFAULT, false, false);
+	}
+
+	private ConversionJob(File source, File destination, boolean decompose, boolean update, boolean packEvents,
+			int roomChunkSize, PngEncoder.Preset pngPreset, boolean palettePngs, boolean spriteStrips) {
+		this.source = source;
+		this.destination = destination;
+		this.decompose = decompose;
+		this.update = update;
+		this.packEvents = packEvents;
+		this.roomChunkSize = roomChunkSize;
+		this.pngPreset = pngPreset;
+		this.palettePngs = palettePngs;
+		this.spriteStrips = spriteStrips;
+	}
+
+	/**
+	 * Creates the job for a source/destination pair, where one of them must
+	 * name a .gmk or .gm81 file. Returns null if neither does. Relative paths
+	 * are resolved against baseDir, or the working directory if it is null.
+	 */
+	public static ConversionJob fromArgs(File baseDir, String source, String destination) {
+		File sourceFile = FileTools.resolve(baseDir, source);
+		File destinationFile = FileTools.resolve(baseDir, destination);
+		if (isGmkFile(source)) {
+			return new ConversionJob(sourceFile, destinationFile, true);
+		} else if (isGmkFile(destination)) {
+			return new ConversionJob(sourceFile, destinationFile, false);
+		} else {
+			return null;
+		}
+	}
+
+	private static boolean isGmkFile(String arg) {
+		return arg.toLowerCase().endsWith(".gmk") || arg.toLowerCase().endsWith(".gm81");
+	}
+
+	/**
+	 * The same job, but splitting over the destination tree if it already
+	 * exists. Compose jobs are not affected.
+	 */
+	public ConversionJob forUpdate() {
+		return new ConversionJob(source, destination, decompose, decompose, packEvents, roomChunkSize, pngPreset,
+				palettePngs, spriteStrips);
+	}
+
+	/**
+	 * The same job, but writing the packed event layout. Compose jobs read
+	 * either layout anyway.
+	 */
+	public ConversionJob withPackedEvents() {
+		return new ConversionJob(source, destination, decompose, update, decompose, roomChunkSize, pngPreset,
+				palettePngs, spriteStrips);
+	}
+
+	/**
+	 * The same job, but splitting the instances and tiles of large rooms into
+	 * chunk files of the given size. Compose jobs read chunked rooms anyway.
+	 */
+	public ConversionJob withRoomChunks(int size) {
+		return new ConversionJob(source, destination, decompose, update, packEvents, decompose ? size : 0, pngPreset,
+				palettePngs, spriteStrips);
+	}
+
+	/**
+	 * The same job, but compressing the images of the tree with the given
+	 * preset. Compose jobs read any PNG file anyway.
+	 */
+	public ConversionJob withPngPreset(PngEncoder.Preset preset) {
+		return new ConversionJob(source, destination, decompose, update, packEvents, roomChunkSize,
+				decompose ? preset : PngEncoder.Preset.DEFAULT, palettePngs, spriteStrips);
+	}
+
+	/**
+	 * The same job, but writing images with at most 256 colors as palette
+	 * PNG files. Compose jobs read them anyway.
+	 */
+	public ConversionJob withPalettePngs() {
+		return new ConversionJob(source, destination, decompose, update, packEvents, roomChunkSize, pngPreset,
+				decompose, spriteStrips);
+	}
+
+	/**
+	 * The same job, but writing the subimages of each sprite into a single
+	 * strip image. Compose jobs read either layout anyway.
+	 */
+	public ConversionJob withSpriteStrips() {
+		return new ConversionJob(source, destination, decompose, update, packEvents, roomChunkSize, pngPreset,
+				palettePngs, decompose);
+	}
+
+	public String getOperation() {
+		return update ? "update" : decompose ? "decompose" : "compose";
+	}
+
+	/**
+	 * Checks that the source exists and the destination doesn't, unless it is
+	 * a tree to update.
+	 *
+	 * @return A description of the problem, or null if the job can run.
+	 */
+	public String check() {
+		if (decompose) {
+			if (!source.isFile()) {
+				return "Source file " + source + " not found.";
+			}
+			if (update && TreeArchive.isArchive(destination)) {
+				return "Archive " + destination + " can't be updated, only directory trees can.";
+			}
+			if (destination.exists() && !(update && destination.isDirectory())) {
+				return "Destination directory " + destination + " already exists.";
+			}
+		} else {
+			if (TreeArchive.isArchive(source) ? !source.isFile() : !source.isDirectory()) {
+				return "Source directory " + source + " not found.";
+			}
+			if (destination.exists()) {
+				return "Destination file " + destination + " already exists.";
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Runs the job with the given settings. Jobs with different contexts can
+	 * run at the same time. Equal strings read by the job share one instance
+	 * from a {@link StringPool} of its own.
+	 */
+	public void run(ConversionContext context) throws IOException {
+		context.packEvents = packEvents;
+		context.roomChunkSize = roomChunkSize;
+		context.pngPreset = pngPreset;
+		context.palettePngs = palettePngs;
+		context.spriteStrips = spriteStrips;
+		Metrics.get().begin(getOperation(), (String) null);
+		StringPool.install(new StringPool(StringPool.DEFAULT_SIZE, Metrics.get()));
+		try {
+			if (update) {
+				TreeUpdater.update(source, destination, context);
+			} else if (decompose) {
+				GmkSplitter.decompose(source, destination, context);
+			} else {
+				GmkSplitter.compose(source, destination, context);
+			}
+		} finally {
+			StringPool.install(null);
+		}
+		Metrics.get().end();
+	}
+
+	/** The gmk file of this job, whether it is read or written. */
+	public File getGmkFile() {
+		return decompose ? source : destination;
+	}
+
+	@Override
+	public String toString() {
+		return source + " -> " + destination;
+	}
+}
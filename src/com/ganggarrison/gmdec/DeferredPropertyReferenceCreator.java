@@ -7,7 +7,7 @@
  */
 package com.ganggarrison.gmdec;
 
-import org.lateralgm.file.GmFile;
+import org.lateralgm.file.StringPool;
 import org.lateralgm.resources.InstantiableResource;
 import org.lateralgm.resources.Resource;
 import org.lateralgm.util.PropertyMap;
@@ -24,17 +24,18 @@ public class DeferredPropertyReferenceCreator<EnumType extends Enum<EnumType>> i
 		this.propertyMap = propertyMap;
 		this.property = property;
 		this.refKind = refKind;
-		this.refStr = refStr;
+		// Many references to the same resource are collected before they are resolved
+		this.refStr = StringPool.get().intern(refStr);
 	}
 
 	@Override
-	public void createReferences(GmFile gmf) {
+	public void createReferences(ResourceNames resources, ConversionContext context) {
 		if (refStr != null && !refStr.isEmpty()) {
-			Resource<?, ?> res = gmf.resMap.getList(refKind).get(refStr);
+			Resource<?, ?> res = resources.get(refKind, refStr);
 			if (res != null) {
 				propertyMap.put(property, res.reference);
 			} else {
-				System.err.println("Warning: Reference to unknown " + property + " " + refStr);
+				context.warn("Warning: Reference to unknown " + property + " " + refStr);
 			}
 		}
 	}
@@ -7,8 +7,6 @@
  */
 package com.ganggarrison.gmdec;
 
-import org.lateralgm.file.GmFile;
-
 /**
  * Some model objects from LateralGM hold references to other model objects.
  * These references can't be created directly when reading the objects, since
@@ -17,12 +15,14 @@ import org.lateralgm.file.GmFile;
  * To solve this problem, all wrapper beans that are used for reading model
  * objects which may reference other model objects should implement this
  * interface. The method createReferences will be called after all objects have
- * been read, so that the references can be created properly.
+ * been read, so that the references can be created properly. The resources
+ * are looked up by name in the given {@link ResourceNames}, and references to
+ * unknown resources are reported as warnings of the context.
  * 
  * In order for this to work, all code that creates DeferredReferenceCreators
  * must make sure that they are added to a DeferredReferenceCreatorNotifier, to
  * ensure that the method will actually get called.
  */
 public interface DeferredReferenceCreator {
-	void createReferences(GmFile gmf);
+	void createReferences(ResourceNames resources, ConversionContext context);
 }
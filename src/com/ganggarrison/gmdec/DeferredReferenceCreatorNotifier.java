@@ -7,8 +7,8 @@
  */
 package com.ganggarrison.gmdec;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import org.lateralgm.file.GmFile;
 
@@ -19,17 +19,21 @@ import org.lateralgm.file.GmFile;
  * 
  * When the GmFile is read completely from the file tree, createReferences will
  * be called on all DeferredReferenceCreator objects in this list.
+ * 
+ * Resources are read on several threads at once, which add to the list
+ * without locking.
  */
 public class DeferredReferenceCreatorNotifier {
-	private Set<DeferredReferenceCreator> drcSet = new HashSet<DeferredReferenceCreator>();
+	private final Queue<DeferredReferenceCreator> drcQueue = new ConcurrentLinkedQueue<DeferredReferenceCreator>();
 
 	public void addDeferredReferenceCreator(DeferredReferenceCreator drc) {
-		drcSet.add(drc);
+		drcQueue.add(drc);
 	}
 
-	public void createReferences(GmFile gmf) {
-		for (DeferredReferenceCreator drc : drcSet) {
-			drc.createReferences(gmf);
+	public void createReferences(GmFile gmf, ConversionContext context) {
+		ResourceNames resources = new ResourceNames(gmf);
+		for (DeferredReferenceCreator drc : drcQueue) {
+			drc.createReferences(resources, context);
 		}
 	}
 }
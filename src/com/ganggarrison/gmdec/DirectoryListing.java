@@ -0,0 +1,93 @@
+/*
+ * This file is part of GmkSplitter.
+ * GmkSplitter is free software and comes with ABSOLUTELY NO WARRANTY.
+ * See LICENSE for details.
+ */
+package com.ganggarrison.gmdec;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * The names of the files and directories in a directory, read in a single
+ * pass. Checking for a file in the listing costs no file system access, which
+ * matters on network drives and on Windows, where every isFile() or
+ * isDirectory() call is slow.
+ */
+public class DirectoryListing {
+	private final Set<String> files = new TreeSet<String>();
+	private final Set<String> directories = new TreeSet<String>();
+
+	private DirectoryListing() {
+	}
+
+	public DirectoryListing(Collection<String> files, Collection<String> directories) {
+		this.files.addAll(files);
+		this.directories.addAll(directories);
+	}
+
+	/**
+	 * Lists the directory. Walking the tree instead of calling isFile() on
+	 * each entry lets the platform pass on the attributes it gets with the
+	 * listing.
+	 */
+	public static DirectoryListing read(File dir) throws IOException {
+		final DirectoryListing listing = new DirectoryListing();
+		final Path root = dir.toPath();
+		Files.walkFileTree(root, EnumSet.of(FileVisitOption.FOLLOW_LINKS), 1, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+				String name = file.getFileName().toString();
+				if (attrs.isDirectory()) {
+					listing.directories.add(name);
+				} else if (attrs.isRegularFile()) {
+					listing.files.add(name);
+				}
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
+				if (file.equals(root)) {
+					throw e;
+				}
+				// Like a broken link, which is neither file nor directory
+				return FileVisitResult.CONTINUE;
+			}
+		});
+		return listing;
+	}
+
+	public boolean isEmpty() {
+		return files.isEmpty() && directories.isEmpty();
+	}
+
+	public boolean isFile(String name) {
+		return files.contains(name);
+	}
+
+	public boolean isDirectory(String name) {
+		return directories.contains(name);
+	}
+
+	/** The names of the regular files, sorted */
+	public Set<String> getFiles() {
+		return Collections.unmodifiableSet(files);
+	}
+
+	/** The names of the directories, sorted */
+	public Set<String> getDirectories() {
+		return Collections.unmodifiableSet(directories);
+	}
+}
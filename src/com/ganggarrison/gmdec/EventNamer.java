@@ -35,7 +35,7 @@ public class EventNamer {
 	 * version control. Therefore it would be bad if different collaborators in
 	 * different countries got different filenames.
 	 */
-	public static String createName(Event event, GmFile gmf) {
+	public static String createName(Event event, GmFile gmf, ConversionContext context) {
 		switch (event.mainId) {
 		case MainEvent.EV_CREATE:
 			return "Create";
@@ -100,7 +100,7 @@ public class EventNamer {
 				return "Trigger id " + event.id;
 			}
 		default:
-			System.err.println("Warning: Unknown event category " + event.mainId + " encountered.");
+			context.warn("Warning: Unknown event category " + event.mainId + " encountered.");
 			return Integer.toString(event.mainId);
 		}
 	}
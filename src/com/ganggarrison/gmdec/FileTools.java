@@ -7,35 +7,41 @@
  */
 package com.ganggarrison.gmdec;
 
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
 import java.io.Closeable;
 import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+import org.lateralgm.file.Payload;
+import org.lateralgm.util.RawImage;
+
+import com.ganggarrison.gmdec.storage.TreePath;
 
 public class FileTools {
 	public static void writeFile(File file, String content) throws IOException {
-		writeFile(file, content.getBytes("UTF-8"));
+		writeFile(TreePath.of(file), content);
 	}
 
-	public static void writeFile(File file, byte[] content) throws IOException {
-		// Never overwrite
-		if (file.exists()) {
-			throw new IOException("File " + file + " already exists.");
-		}
-
-		FileOutputStream fos = null;
-		DataOutputStream dos = null;
+	public static void writeFile(TreePath file, String content) throws IOException {
+		writeFile(file, content.getBytes("UTF-8"));
+	}
 
+	/**
+	 * Writes a new file. Existing files are never overwritten.
+	 */
+	public static void writeFile(TreePath file, byte[] content) throws IOException {
+		OutputStream out = file.createFile();
 		try {
-			fos = new FileOutputStream(file);
-			dos = new DataOutputStream(fos);
-			dos.write(content);
+			out.write(content);
 		} finally {
-			tryToClose(fos);
-			tryToClose(dos);
+			out.close();
 		}
 	}
 
@@ -47,6 +53,15 @@ public class FileTools {
 	 * reversible. The implementation might change in the future, so don't rely
 	 * on the output staying the same.
 	 */
+	/**
+	 * Resolves a path given by the user against baseDir, or against the
+	 * working directory if baseDir is null.
+	 */
+	public static File resolve(File baseDir, String path) {
+		File file = new File(path);
+		return baseDir == null || file.isAbsolute() ? file : new File(baseDir, path);
+	}
+
 	public static String replaceBadChars(String name) {
 		if (name == null || name.trim().isEmpty())
 			return "_";
@@ -72,26 +87,66 @@ public class FileTools {
 
 	private static final String[] badChars = new String[] { "/", "\\", ":", "*", "?", "\"", "<", ">", "|", ".", "\0" };
 
-	public static String readFileAsString(File file) throws IOException {
+	public static String readFileAsString(TreePath file) throws IOException {
 		return new String(readWholeFileBytes(file), "UTF-8");
 	}
 
-	public static byte[] readWholeFileBytes(File file) throws IOException {
-		FileInputStream fis = null;
-		DataInputStream dis = null;
+	/**
+	 * Streams a payload into a new file, without holding it in memory as a whole.
+	 */
+	public static void writeFile(TreePath file, Payload content) throws IOException {
+		OutputStream os = file.createFile();
+		try {
+			content.writeTo(os);
+		} finally {
+			os.close();
+		}
+	}
+
+	public static byte[] readWholeFileBytes(TreePath file) throws IOException {
+		DataInputStream dis = new DataInputStream(file.openInput());
 		try {
-			fis = new FileInputStream(file);
-			dis = new DataInputStream(fis);
 			byte[] buffer = new byte[(int) file.length()];
 			dis.readFully(buffer);
-
 			return buffer;
 		} finally {
-			tryToClose(fis);
 			tryToClose(dis);
 		}
 	}
 
+	/**
+	 * Reads an image, or returns null if its format is unknown. PNG files are
+	 * read by {@link PngDecoder} where possible, other files by ImageIO.
+	 */
+	public static BufferedImage readImage(TreePath file) throws IOException {
+		return PngDecoder.read(file);
+	}
+
+	/**
+	 * Writes an image as PNG file with the preset and palette setting of the
+	 * context. Images backed by packed ARGB pixels are written by
+	 * {@link PngEncoder}. Others are written by ImageIO with the default
+	 * settings, to keep their color type, and converted otherwise.
+	 */
+	public static void writePng(RenderedImage image, TreePath file, ConversionContext context) throws IOException {
+		OutputStream out = file.createFile();
+		try {
+			boolean defaults = context.pngPreset == PngEncoder.Preset.DEFAULT && !context.palettePngs;
+			if (image instanceof BufferedImage && (!defaults || RawImage.isPacked((BufferedImage) image))) {
+				PngEncoder.write(RawImage.wrap((BufferedImage) image), context.pngPreset, context.palettePngs, out);
+				return;
+			}
+			ImageOutputStream ios = new MemoryCacheImageOutputStream(out);
+			try {
+				ImageIO.write(image, "PNG", ios);
+			} finally {
+				ios.close();
+			}
+		} finally {
+			out.close();
+		}
+	}
+
 	private static void tryToClose(Closeable stream) {
 		if (stream != null) {
 			try {
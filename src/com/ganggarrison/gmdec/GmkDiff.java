@@ -0,0 +1,516 @@
+/*
+ * This file is part of GmkSplitter.
+ * GmkSplitter is free software and comes with ABSOLUTELY NO WARRANTY.
+ * See LICENSE for details.
+ */
+package com.ganggarrison.gmdec;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.lateralgm.components.impl.ResNode;
+import org.lateralgm.file.GmFile;
+import org.lateralgm.file.GmFormatException;
+import org.lateralgm.file.GmFileReader;
+import org.lateralgm.file.ResourceList;
+import org.lateralgm.file.StoredBlock;
+import org.lateralgm.file.iconio.ICOFile;
+import org.lateralgm.resources.Background;
+import org.lateralgm.resources.GameSettings.PGameSettings;
+import org.lateralgm.resources.GmObject;
+import org.lateralgm.resources.InstantiableResource;
+import org.lateralgm.resources.Path;
+import org.lateralgm.resources.Resource;
+import org.lateralgm.resources.ResourceReference;
+import org.lateralgm.resources.Room;
+import org.lateralgm.resources.Sound;
+import org.lateralgm.resources.Sprite;
+import org.lateralgm.resources.Timeline;
+import org.lateralgm.resources.library.LibAction;
+import org.lateralgm.resources.sub.Action;
+import org.lateralgm.resources.sub.Argument;
+import org.lateralgm.resources.sub.BackgroundDef;
+import org.lateralgm.resources.sub.Event;
+import org.lateralgm.resources.sub.Instance;
+import org.lateralgm.resources.sub.MainEvent;
+import org.lateralgm.resources.sub.Moment;
+import org.lateralgm.resources.sub.PathPoint;
+import org.lateralgm.resources.sub.Tile;
+import org.lateralgm.resources.sub.View;
+import org.lateralgm.util.PropertyMap;
+
+/**
+ * Lists the differences between two gmk files, without splitting them.
+ * <p>
+ * Both files are read once with only the names of the resources, hashing the
+ * block of each resource. Resources are paired by type and name, or by ID if
+ * they were renamed. Only the pairs whose blocks differ are decoded, from the
+ * blocks found while reading, and compared part by part. The settings, game
+ * information and constants are always compared.
+ * <p>
+ * The events of an object are compared regardless of their order, since GM
+ * runs them by their type and not in the order they are stored in.
+ */
+public class GmkDiff {
+	/** Timestamps are not compared, just like they are left out of split trees */
+	private static final Set<Enum<?>> IGNORED_KEYS = Collections.<Enum<?>> singleton(PGameSettings.LAST_CHANGED);
+
+	public enum Status {
+		ADDED, REMOVED, CHANGED
+	}
+
+	/**
+	 * A changed resource. Printed as one line of tab separated fields: the
+	 * status, the type, the name in the left and in the right file (empty if
+	 * the resource is missing there) and the comma separated changed parts.
+	 */
+	public static class Change {
+		public final Status status;
+		public final String type;
+		public final String leftName;
+		public final String rightName;
+		/** The properties and parts of the resource that differ, e.g. "subImages" */
+		public final List<String> parts;
+
+		public Change(Status status, String type, String leftName, String rightName, List<String> parts) {
+			this.status = status;
+			this.type = type;
+			this.leftName = leftName;
+			this.rightName = rightName;
+			this.parts = parts;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder();
+			sb.append(status.name().toLowerCase()).append('\t').append(type);
+			sb.append('\t').append(leftName != null ? leftName : "");
+			sb.append('\t').append(rightName != null ? rightName : "");
+			sb.append('\t');
+			for (int i = 0; i < parts.size(); i++) {
+				sb.append(i > 0 ? "," : "").append(parts.get(i));
+			}
+			return sb.toString();
+		}
+	}
+
+	/** A resource in the left file with its counterpart in the right file */
+	private static class Pair {
+		final PrimaryResourceType type;
+		final int leftId;
+		final int rightId;
+
+		Pair(PrimaryResourceType type, int leftId, int rightId) {
+			this.type = type;
+			this.leftId = leftId;
+			this.rightId = rightId;
+		}
+	}
+
+	/**
+	 * Reads all blocks of a file only up to the name, remembering which
+	 * resources were left out, so they can be decoded from their blocks later.
+	 */
+	private static class Filter implements GmFileReader.BlockFilter {
+		final Map<PrimaryResourceType, Set<Integer>> known;
+
+		Filter() {
+			known = new EnumMap<PrimaryResourceType, Set<Integer>>(PrimaryResourceType.class);
+			for (PrimaryResourceType type : PrimaryResourceType.values()) {
+				known.put(type, new HashSet<Integer>());
+			}
+		}
+
+		@Override
+		public boolean isKnown(Class<? extends Resource<?, ?>> kind, int id, byte[] hash) {
+			known.get(PrimaryResourceType.forKind(kind)).add(id);
+			return true;
+		}
+	}
+
+	/**
+	 * Runs the diff from the command line, printing the changes to the file
+	 * if one is given, otherwise to out.
+	 *
+	 * @return The exit status: 0 if the files are the same, 1 if they differ
+	 *         and 2 if one of them can't be read, which is reported to err.
+	 */
+	public static int run(File left, File right, File changesFile, PrintStream out, PrintStream err)
+			throws IOException {
+		List<Change> changes;
+		try {
+			// out only gets the changes
+			changes = compare(left, right, new ConversionContext(err, err));
+		} catch (IOException e) {
+			err.println(e.getMessage());
+			return 2;
+		}
+		PrintStream changesOut = changesFile != null ? new PrintStream(changesFile, "UTF-8") : out;
+		try {
+			for (Change change : changes) {
+				changesOut.println(change);
+			}
+		} finally {
+			if (changesFile != null) {
+				changesOut.close();
+			}
+		}
+		return changes.isEmpty() ? 0 : 1;
+	}
+
+	public static List<Change> compare(File leftGmk, File rightGmk) throws IOException {
+		return compare(leftGmk, rightGmk, new ConversionContext());
+	}
+
+	/** Compares the files, reporting progress and warnings through the context */
+	public static List<Change> compare(File leftGmk, File rightGmk, ConversionContext context) throws IOException {
+		Filter leftFilter = new Filter();
+		Filter rightFilter = new Filter();
+		GmFile left = read(leftGmk, leftFilter, context);
+		GmFile right = read(rightGmk, rightFilter, context);
+
+		List<Change> changes = new ArrayList<Change>();
+		List<Pair> pairs = new ArrayList<Pair>();
+		for (PrimaryResourceType type : PrimaryResourceType.values()) {
+			pairs.addAll(pairResources(type, left, right, changes));
+		}
+
+		// Only the resources whose blocks differ are decoded
+		Map<PrimaryResourceType, Map<Integer, InstantiableResource<?, ?>>> leftById = mapById(left);
+		Map<PrimaryResourceType, Map<Integer, InstantiableResource<?, ?>>> rightById = mapById(right);
+		for (Pair pair : pairs) {
+			InstantiableResource<?, ?> l = leftById.get(pair.type).get(pair.leftId);
+			InstantiableResource<?, ?> r = rightById.get(pair.type).get(pair.rightId);
+			readBlock(leftGmk, left, l, pair.type, leftFilter);
+			readBlock(rightGmk, right, r, pair.type, rightFilter);
+			List<String> parts = compareResources(l, r);
+			if (!parts.isEmpty()) {
+				changes.add(new Change(Status.CHANGED, pair.type.name(), l.getName(), r.getName(), parts));
+			}
+		}
+
+		List<String> parts = compareProperties(left.gameSettings.properties, right.gameSettings.properties);
+		if (!parts.isEmpty()) {
+			changes.add(new Change(Status.CHANGED, "SETTINGS", null, null, parts));
+		}
+		parts = compareProperties(left.gameInfo.properties, right.gameInfo.properties);
+		if (!parts.isEmpty()) {
+			changes.add(new Change(Status.CHANGED, "GAME_INFO", null, null, parts));
+		}
+		if (!left.constants.equals(right.constants)) {
+			changes.add(new Change(Status.CHANGED, "CONSTANTS", null, null, Arrays.asList("constants")));
+		}
+		left.releasePayloads();
+		right.releasePayloads();
+		return changes;
+	}
+
+	private static GmFile read(File gmk, Filter filter, ConversionContext context) throws IOException {
+		ResNode root = new ResNode("Root", (byte) 0, null, null);
+		try {
+			return GmkSplitter.readGmk(gmk, root, filter, context);
+		} catch (IOException e) {
+			// readGmk wraps format errors, whose messages are more useful
+			Throwable cause = e.getCause() instanceof GmFormatException ? e.getCause() : e;
+			throw new IOException("Can't read " + gmk + ": " + cause.getMessage(), e);
+		}
+	}
+
+	/** Decodes the resource from its block, if it was left out when reading the file */
+	private static void readBlock(File gmk, GmFile gmf, InstantiableResource<?, ?> resource,
+			PrimaryResourceType type, Filter filter) throws IOException {
+		if (!filter.known.get(type).contains(resource.getId())) {
+			return;
+		}
+		try {
+			GmFileReader.readStoredBlock(gmf, resource);
+		} catch (GmFormatException e) {
+			throw new IOException("Can't read " + type + " " + resource.getName() + " in " + gmk + ": "
+					+ e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Pairs the resources of a type by name, and the remaining ones by ID if
+	 * their names don't occur in the other file. Unpaired resources are added
+	 * to the changes as added or removed. Returns the pairs whose blocks
+	 * differ.
+	 */
+	private static List<Pair> pairResources(PrimaryResourceType type, GmFile left, GmFile right,
+			List<Change> changes) {
+		Map<String, InstantiableResource<?, ?>> rightByName = new HashMap<String, InstantiableResource<?, ?>>();
+		Map<Integer, InstantiableResource<?, ?>> rightById = new HashMap<Integer, InstantiableResource<?, ?>>();
+		for (InstantiableResource<?, ?> r : getList(right, type)) {
+			rightByName.put(r.getName(), r);
+			rightById.put(r.getId(), r);
+		}
+		Set<String> leftNames = new HashSet<String>();
+		for (InstantiableResource<?, ?> l : getList(left, type)) {
+			leftNames.add(l.getName());
+		}
+
+		List<Pair> pairs = new ArrayList<Pair>();
+		List<InstantiableResource<?, ?>> removed = new ArrayList<InstantiableResource<?, ?>>();
+		for (InstantiableResource<?, ?> l : getList(left, type)) {
+			InstantiableResource<?, ?> r = rightByName.remove(l.getName());
+			if (r == null) {
+				r = rightById.get(l.getId());
+				if (r != null && (leftNames.contains(r.getName()) || !rightByName.containsKey(r.getName()))) {
+					r = null;
+				}
+				if (r != null) {
+					rightByName.remove(r.getName());
+				}
+			}
+			if (r != null) {
+				if (l.getId() != r.getId() || !sameBlock(l, r)) {
+					pairs.add(new Pair(type, l.getId(), r.getId()));
+				}
+			} else {
+				removed.add(l);
+			}
+		}
+		List<String> none = Collections.emptyList();
+		for (InstantiableResource<?, ?> l : removed) {
+			changes.add(new Change(Status.REMOVED, type.name(), l.getName(), null, none));
+		}
+		for (InstantiableResource<?, ?> r : getList(right, type)) {
+			if (rightByName.containsKey(r.getName())) {
+				changes.add(new Change(Status.ADDED, type.name(), null, r.getName(), none));
+			}
+		}
+		return pairs;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static ResourceList<? extends InstantiableResource<?, ?>> getList(GmFile gmf, PrimaryResourceType type) {
+		return gmf.resMap.getList((Class) type.resourceKind);
+	}
+
+	private static Map<PrimaryResourceType, Map<Integer, InstantiableResource<?, ?>>> mapById(GmFile gmf) {
+		Map<PrimaryResourceType, Map<Integer, InstantiableResource<?, ?>>> map;
+		map = new EnumMap<PrimaryResourceType, Map<Integer, InstantiableResource<?, ?>>>(PrimaryResourceType.class);
+		for (PrimaryResourceType type : PrimaryResourceType.values()) {
+			Map<Integer, InstantiableResource<?, ?>> byId = new HashMap<Integer, InstantiableResource<?, ?>>();
+			for (InstantiableResource<?, ?> resource : getList(gmf, type)) {
+				byId.put(resource.getId(), resource);
+			}
+			map.put(type, byId);
+		}
+		return map;
+	}
+
+	/** True if both resources have a hashed block, and the hashes are equal */
+	private static boolean sameBlock(Resource<?, ?> left, Resource<?, ?> right) {
+		StoredBlock l = left.getStoredBlock();
+		StoredBlock r = right.getStoredBlock();
+		return l != null && r != null && l.getHash() != null && Arrays.equals(l.getHash(), r.getHash());
+	}
+
+	/** The names of the parts in which the resources differ */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private static List<String> compareResources(InstantiableResource<?, ?> left, InstantiableResource<?, ?> right)
+			throws IOException {
+		List<String> parts = new ArrayList<String>();
+		if (!left.getName().equals(right.getName())) {
+			parts.add("name");
+		}
+		if (left.getId() != right.getId()) {
+			parts.add("id");
+		}
+		parts.addAll(compareProperties((PropertyMap) left.properties, (PropertyMap) right.properties));
+		if (left instanceof Sprite) {
+			comparePart(parts, "subImages", ((Sprite) left).subImages, ((Sprite) right).subImages);
+		} else if (left instanceof Background) {
+			comparePart(parts, "image", ((Background) left).getBackgroundImage(),
+					((Background) right).getBackgroundImage());
+		} else if (left instanceof Sound) {
+			comparePart(parts, "data", ((Sound) left).data, ((Sound) right).data);
+		} else if (left instanceof Path) {
+			comparePart(parts, "points", ((Path) left).points, ((Path) right).points);
+		} else if (left instanceof Timeline) {
+			comparePart(parts, "moments", ((Timeline) left).moments, ((Timeline) right).moments);
+		} else if (left instanceof GmObject) {
+			comparePart(parts, "events", ((GmObject) left).mainEvents, ((GmObject) right).mainEvents);
+		} else if (left instanceof Room) {
+			Room l = (Room) left;
+			Room r = (Room) right;
+			comparePart(parts, "backgrounds", l.backgroundDefs, r.backgroundDefs);
+			comparePart(parts, "views", l.views, r.views);
+			comparePart(parts, "instances", l.instances, r.instances);
+			comparePart(parts, "tiles", l.tiles, r.tiles);
+		}
+		return parts;
+	}
+
+	private static void comparePart(List<String> parts, String name, Object left, Object right)
+			throws IOException {
+		if (!same(left, right)) {
+			parts.add(name);
+		}
+	}
+
+	/** The names of the keys whose values differ */
+	private static <K extends Enum<K>> List<String> compareProperties(PropertyMap<K> left, PropertyMap<K> right)
+			throws IOException {
+		List<String> keys = new ArrayList<String>();
+		Set<K> all = new LinkedHashSet<K>(left.keySet());
+		all.addAll(right.keySet());
+		for (K key : all) {
+			if (!IGNORED_KEYS.contains(key) && !same(left.get(key), right.get(key))) {
+				keys.add(key.name());
+			}
+		}
+		return keys;
+	}
+
+	/**
+	 * Compares two values of the model. References to resources are equal if
+	 * they point to resources with the same ID, since the resources themselves
+	 * are different objects in the two files.
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private static boolean same(Object left, Object right) throws IOException {
+		if (left == right) {
+			return true;
+		}
+		if (left == null || right == null) {
+			return false;
+		}
+		if (left instanceof ResourceReference && right instanceof ResourceReference) {
+			return sameResource(((ResourceReference<?>) left).get(), ((ResourceReference<?>) right).get());
+		}
+		if (left instanceof PropertyMap && right instanceof PropertyMap) {
+			return compareProperties((PropertyMap) left, (PropertyMap) right).isEmpty();
+		}
+		if (left instanceof List && right instanceof List) {
+			List<?> l = (List<?>) left;
+			List<?> r = (List<?>) right;
+			if (l.size() != r.size()) {
+				return false;
+			}
+			for (int i = 0; i < l.size(); i++) {
+				if (!same(l.get(i), r.get(i))) {
+					return false;
+				}
+			}
+			return true;
+		}
+		if (left instanceof BufferedImage && right instanceof BufferedImage) {
+			return sameImage((BufferedImage) left, (BufferedImage) right);
+		}
+		if (left instanceof MainEvent && right instanceof MainEvent) {
+			return sameEvents(((MainEvent) left).events, ((MainEvent) right).events);
+		}
+		if (left instanceof Moment && right instanceof Moment) {
+			Moment l = (Moment) left;
+			Moment r = (Moment) right;
+			return l.stepNo == r.stepNo && same(l.actions, r.actions);
+		}
+		if (left instanceof Action && right instanceof Action) {
+			Action l = (Action) left;
+			Action r = (Action) right;
+			return sameLibAction(l.getLibAction(), r.getLibAction()) && l.isRelative() == r.isRelative()
+					&& l.isNot() == r.isNot() && same(l.getAppliesTo(), r.getAppliesTo())
+					&& same(l.getArguments(), r.getArguments());
+		}
+		if (left instanceof Argument && right instanceof Argument) {
+			Argument l = (Argument) left;
+			Argument r = (Argument) right;
+			return l.kind == r.kind && same(l.getVal(), r.getVal()) && same(l.getRes(), r.getRes());
+		}
+		if (left instanceof Instance && right instanceof Instance) {
+			return same(((Instance) left).properties, ((Instance) right).properties);
+		}
+		if (left instanceof Tile && right instanceof Tile) {
+			return same(((Tile) left).properties, ((Tile) right).properties);
+		}
+		if (left instanceof View && right instanceof View) {
+			return same(((View) left).properties, ((View) right).properties);
+		}
+		if (left instanceof BackgroundDef && right instanceof BackgroundDef) {
+			return same(((BackgroundDef) left).properties, ((BackgroundDef) right).properties);
+		}
+		if (left instanceof PathPoint && right instanceof PathPoint) {
+			return same(((PathPoint) left).properties, ((PathPoint) right).properties);
+		}
+		if (left instanceof byte[] && right instanceof byte[]) {
+			return Arrays.equals((byte[]) left, (byte[]) right);
+		}
+		if (left instanceof ICOFile && right instanceof ICOFile) {
+			ByteArrayOutputStream l = new ByteArrayOutputStream();
+			ByteArrayOutputStream r = new ByteArrayOutputStream();
+			((ICOFile) left).write(l);
+			((ICOFile) right).write(r);
+			return Arrays.equals(l.toByteArray(), r.toByteArray());
+		}
+		return left.equals(right);
+	}
+
+	/** Pairs the events by their type, regardless of their order, and compares their actions */
+	private static boolean sameEvents(List<Event> left, List<Event> right) throws IOException {
+		if (left.size() != right.size()) {
+			return false;
+		}
+		for (Event l : left) {
+			Event match = null;
+			for (Event r : right) {
+				if (l.mainId == r.mainId && l.id == r.id && same(l.other, r.other)) {
+					match = r;
+					break;
+				}
+			}
+			if (match == null || !same(l.actions, match.actions)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean sameResource(Resource<?, ?> left, Resource<?, ?> right) {
+		if (left == right) {
+			return true;
+		}
+		if (left instanceof InstantiableResource && right instanceof InstantiableResource) {
+			return left.getClass() == right.getClass()
+					&& ((InstantiableResource<?, ?>) left).getId() == ((InstantiableResource<?, ?>) right).getId();
+		}
+		return left != null && left.equals(right);
+	}
+
+	private static boolean sameLibAction(LibAction left, LibAction right) {
+		if (left == right) {
+			return true;
+		}
+		if (left == null || right == null) {
+			return false;
+		}
+		int leftLib = left.parent != null ? left.parent.id : left.parentId;
+		int rightLib = right.parent != null ? right.parent.id : right.parentId;
+		return left.id == right.id && leftLib == rightLib;
+	}
+
+	private static boolean sameImage(BufferedImage left, BufferedImage right) {
+		int width = left.getWidth();
+		int height = left.getHeight();
+		if (width != right.getWidth() || height != right.getHeight()) {
+			return false;
+		}
+		int[] l = left.getRGB(0, 0, width, height, null, 0, width);
+		int[] r = right.getRGB(0, 0, width, height, null, 0, width);
+		return Arrays.equals(l, r);
+	}
+}
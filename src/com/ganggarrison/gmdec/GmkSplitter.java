@@ -9,10 +9,10 @@ package com.ganggarrison.gmdec;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.PrintStream;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Arrays;
 import java.util.List;
 
 import org.lateralgm.components.impl.ResNode;
@@ -23,159 +23,416 @@ import org.lateralgm.resources.sub.Constant;
 
 import com.ganggarrison.easyxml.XmlReader;
 import com.ganggarrison.gmdec.files.IncludedFileFormat;
+import com.ganggarrison.gmdec.storage.TreeArchive;
+import com.ganggarrison.gmdec.storage.TreePath;
 import com.ganggarrison.gmdec.xml.ConstantsXmlFormat;
 
 public class GmkSplitter {
+	private static final ConstantsXmlFormat CONSTANTS_FORMAT = new ConstantsXmlFormat();
 	private static final String CONSTANTS_FILENAME = "Constants.xml";
 
-	public enum IdPreservation {
-		NONE, OBJECTS, ALL
-	};
-
-	public static boolean convertLineEndings = true;
-	public static boolean omitDisabledFields = true;
-	public static IdPreservation preserveIds = IdPreservation.OBJECTS;
-	public static int targetVersion = 800;
-
-	public static void main(String[] args) throws IOException {
-		if (args.length != 2) {
-			printUsage();
+	public static void main(String[] commandLine) throws IOException {
+		if (commandLine.length > 0 && commandLine[0].equals("--client")) {
+			SplitClient.main(Arrays.copyOfRange(commandLine, 1, commandLine.length));
 			return;
 		}
+		if (commandLine.length == 1 && commandLine[0].equals("--server")) {
+			new SplitServer().serve();
+			return;
+		}
+		if (commandLine.length == 3 && commandLine[0].equals("--watch")) {
+			System.exit(watch(new File(commandLine[1]), new File(commandLine[2])));
+		}
+		int status = execute(Arrays.asList(commandLine), null, System.out, System.err);
+		if (status != 0) {
+			System.exit(status);
+		}
+	}
 
-		if (isGmkFile(args[0])) {
-			File gmkFile = new File(args[0]);
-			File dir = new File(args[1]);
-			if (!gmkFile.isFile()) {
-				System.err.println("Source file " + gmkFile + " not found.");
-				return;
+	/**
+	 * Runs a command line, in this process or on behalf of a client of the
+	 * server.
+	 * 
+	 * @param baseDir
+	 *            The directory to resolve relative paths against, or null for
+	 *            the working directory.
+	 * @return The exit status: 0 on success, 1 if a job failed.
+	 */
+	public static int execute(List<String> commandLine, File baseDir, PrintStream out, PrintStream err)
+			throws IOException {
+		List<String> args = new ArrayList<String>(commandLine);
+		File statsFile = null;
+		File manifest = null;
+		int threads = 0;
+		boolean update = false;
+		boolean packEvents = false;
+		int roomChunkSize = 0;
+		PngEncoder.Preset pngPreset = PngEncoder.Preset.DEFAULT;
+		boolean palettePngs = false;
+		boolean spriteStrips = false;
+		while (!args.isEmpty() && args.get(0).startsWith("--")) {
+			String option = args.remove(0);
+			if (option.equals("--stats") && !args.isEmpty()) {
+				statsFile = FileTools.resolve(baseDir, args.remove(0));
+			} else if (option.equals("--batch") && !args.isEmpty()) {
+				manifest = FileTools.resolve(baseDir, args.remove(0));
+			} else if (option.equals("--jobs") && !args.isEmpty() && args.get(0).matches("\\d+")) {
+				threads = Integer.parseInt(args.remove(0));
+			} else if (option.equals("--update")) {
+				update = true;
+			} else if (option.equals("--packed-events")) {
+				packEvents = true;
+			} else if (option.equals("--room-chunks") && !args.isEmpty() && args.get(0).matches("\\d+")) {
+				roomChunkSize = Integer.parseInt(args.remove(0));
+			} else if (option.equals("--png") && !args.isEmpty() && PngEncoder.Preset.forName(args.get(0)) != null) {
+				pngPreset = PngEncoder.Preset.forName(args.remove(0));
+			} else if (option.equals("--png-palette")) {
+				palettePngs = true;
+			} else if (option.equals("--sprite-strips")) {
+				spriteStrips = true;
+			} else if (option.equals("--diff") && (args.size() == 2 || args.size() == 3)) {
+				return diff(args, baseDir, out, err);
+			} else {
+				printUsage(out);
+				return 0;
 			}
+		}
 
-			if (dir.exists()) {
-				System.err.println("Destination directory " + dir + " already exists.");
-				return;
+		if (manifest != null || args.size() > 2) {
+			if (args.size() % 2 != 0) {
+				printUsage(out);
+				return 0;
 			}
+			return runBatch(manifest, args, baseDir, threads, update, packEvents, roomChunkSize, pngPreset,
+					palettePngs, spriteStrips, statsFile, out, err);
+		}
+
+		if (args.size() != 2) {
+			printUsage(out);
+			return 0;
+		}
+		ConversionJob job = ConversionJob.fromArgs(baseDir, args.get(0), args.get(1));
+		if (job == null) {
+			printUsage(out);
+			return 0;
+		}
+		if (update) {
+			job = job.forUpdate();
+		}
+		if (packEvents) {
+			job = job.withPackedEvents();
+		}
+		if (roomChunkSize > 0) {
+			job = job.withRoomChunks(roomChunkSize);
+		}
+		job = job.withPngPreset(pngPreset);
+		if (palettePngs) {
+			job = job.withPalettePngs();
+		}
+		if (spriteStrips) {
+			job = job.withSpriteStrips();
+		}
+		String problem = job.check();
+		if (problem != null) {
+			err.println(problem);
+			return 1;
+		}
+		run(job, statsFile, out, err);
+		return 0;
+	}
 
-			decompose(gmkFile, dir);
-		} else if (isGmkFile(args[1])) {
-			File dir = new File(args[0]);
-			File gmkFile = new File(args[1]);
-			if (!dir.isDirectory()) {
-				System.err.println("Source directory " + dir + " not found.");
-				return;
+	/**
+	 * Compares two gmk files, see {@link GmkDiff}.
+	 * 
+	 * @return The exit status: 0 if the files are the same, 1 if they differ
+	 *         and 2 if they can't be read.
+	 */
+	private static int diff(List<String> args, File baseDir, PrintStream out, PrintStream err) throws IOException {
+		File left = FileTools.resolve(baseDir, args.get(0));
+		File right = FileTools.resolve(baseDir, args.get(1));
+		File changes = args.size() == 3 ? FileTools.resolve(baseDir, args.get(2)) : null;
+		for (File file : new File[] { left, right }) {
+			if (!file.isFile()) {
+				err.println("Source file " + file + " not found.");
+				return 2;
 			}
+		}
+		return GmkDiff.run(left, right, changes, out, err);
+	}
 
-			if (gmkFile.exists()) {
-				System.err.println("Destination file " + gmkFile + " already exists.");
-				return;
+	/**
+	 * Composes the tree into the gmk file, and then keeps the gmk file up to
+	 * date with the tree until the process is stopped.
+	 */
+	private static int watch(File sourcePath, File destinationGmk) throws IOException {
+		String name = destinationGmk.getName().toLowerCase();
+		if (!sourcePath.isDirectory() || !(name.endsWith(".gmk") || name.endsWith(".gm81"))) {
+			printUsage(System.out);
+			return 1;
+		}
+		new TreeWatcher(sourcePath, destinationGmk, System.out, System.err).start();
+		while (true) {
+			try {
+				Thread.sleep(Long.MAX_VALUE);
+			} catch (InterruptedException e) {
+				return 0;
 			}
+		}
+	}
 
-			compose(dir, gmkFile);
-		} else {
-			printUsage();
+	/**
+	 * Runs a decompose or compose job. If statsFile is given, the time spent in
+	 * each phase is measured and written to it as a JSON report.
+	 */
+	private static void run(ConversionJob job, File statsFile, PrintStream out, PrintStream err)
+			throws IOException {
+		MetricsReport report = null;
+		if (statsFile != null) {
+			report = new MetricsReport();
+			Metrics.install(new Metrics(report));
+		}
+		try {
+			job.run(new ConversionContext(out, err));
+		} finally {
+			Metrics.install(null);
+		}
+
+		if (report != null) {
+			report.putInfo("operation", job.getOperation());
+			report.putInfo("source", job.source);
+			report.putInfo("destination", job.destination);
+			report.putInfo("gmkBytes", job.getGmkFile().length());
+			report.putInfo("javaVersion", System.getProperty("java.version"));
+			report.write(statsFile);
 		}
 	}
 
-	private static void printUsage() {
-		System.out.println("Usage: java -jar GmkSplit.jar <source> <dest>");
-		System.out.println("One of <source> or <dest> must be the name of a .gmk or .gm81 file.");
-		System.out.println("Using a .gmk file as destination will create a GM 8.0 file.");
-		System.out.println("Using a .gm81 file as destination will create a GM 8.1 file.");
-		System.out.println("The destination must not already exist. This tool won't overwrite.");
+	/**
+	 * Runs the jobs of the manifest (if any) and the source/destination pairs
+	 * in one process and prints a summary.
+	 */
+	private static int runBatch(File manifest, List<String> pairs, File baseDir, int threads, boolean update,
+			boolean packEvents, int roomChunkSize, PngEncoder.Preset pngPreset, boolean palettePngs,
+			boolean spriteStrips, File statsFile, PrintStream out, PrintStream err) throws IOException {
+		BatchRunner batch = new BatchRunner(threads);
+		batch.setUpdate(update);
+		batch.setPackEvents(packEvents);
+		batch.setRoomChunkSize(roomChunkSize);
+		batch.setPngPreset(pngPreset);
+		batch.setPalettePngs(palettePngs);
+		batch.setSpriteStrips(spriteStrips);
+		try {
+			if (manifest != null) {
+				batch.addManifest(manifest);
+			}
+			for (int i = 0; i < pairs.size(); i += 2) {
+				batch.add(baseDir, pairs.get(i), pairs.get(i + 1));
+			}
+		} catch (IllegalArgumentException e) {
+			err.println(e.getMessage());
+			return 1;
+		}
+
+		MetricsReport report = statsFile != null ? new MetricsReport() : null;
+		long start = System.currentTimeMillis();
+		List<BatchRunner.Result> results = batch.run(report, out, err);
+		long millis = System.currentTimeMillis() - start;
+
+		out.println();
+		boolean success = BatchRunner.printSummary(results, out);
+		out.println(String.format("Total time: %.2fs", millis / 1000.0));
+		if (report != null) {
+			report.putInfo("operation", "batch");
+			report.putInfo("jobs", results.size());
+			report.putInfo("threads", threads > 0 ? threads : Runtime.getRuntime().availableProcessors());
+			report.putInfo("wallMs", millis);
+			report.putInfo("javaVersion", System.getProperty("java.version"));
+			report.write(statsFile);
+		}
+		return success ? 0 : 1;
 	}
 
-	private static boolean isGmkFile(String arg) {
-		return arg.toLowerCase().endsWith(".gmk") || arg.toLowerCase().endsWith(".gm81");
+	private static void printUsage(PrintStream out) {
+		out.println("Usage: java -jar GmkSplit.jar [options] <source> <dest> [<source> <dest>...]");
+		out.println("One of <source> or <dest> must be the name of a .gmk or .gm81 file.");
+		out.println("Using a .gmk file as destination will create a GM 8.0 file.");
+		out.println("Using a .gm81 file as destination will create a GM 8.1 file.");
+		out.println("The destination must not already exist. This tool won't overwrite.");
+		out.println("A tree name ending in .gmktree stores the tree in a single archive file instead of a directory.");
+		out.println();
+		out.println("Options:");
+		out.println("  --batch <manifest>    Also convert the <source> <dest> pairs listed in the file, one per line.");
+		out.println("  --jobs <n>            Convert up to n projects at once in batch mode (default: one per CPU).");
+		out.println("  --stats <report.json> Write the time spent in each phase to a JSON file.");
+		out.println("  --update              Split over an existing tree, keeping the files of unchanged resources.");
+		out.println("  --packed-events       Write all events of an object into one file instead of a directory.");
+		out.println("  --room-chunks <n>     Store instances and tiles of rooms with more than n in chunk files.");
+		out.println("  --png fast|small      Compress images fast for local use, or small for committing them.");
+		out.println("  --png-palette         Write images with at most 256 colors as palette PNG files.");
+		out.println("  --sprite-strips       Store all subimages of a sprite in one image instead of one file each.");
+		out.println();
+		out.println("       java -jar GmkSplit.jar --server");
+		out.println("Keeps running in the background and serves conversions for --client.");
+		out.println("       java -jar GmkSplit.jar --client [options] <source> <dest>");
+		out.println("Runs the conversion in the server started with --server. --client --stop stops it.");
+		out.println("       java -jar GmkSplit.jar --watch <source directory> <dest.gm81>");
+		out.println("Composes the gmk file, then updates it whenever files in the source directory change.");
+		out.println("       java -jar GmkSplit.jar --diff <a.gm81> <b.gm81> [<changes.txt>]");
+		out.println("Lists the resources that differ between two gmk files, one per line with tab separated fields:");
+		out.println("added/removed/changed, type, name in a, name in b, changed properties. Exit status 1 if any.");
 	}
 
 	public static void decompose(File sourceGmk, File destinationPath) throws IOException {
-		LibManager.autoLoad();
+		decompose(sourceGmk, destinationPath, new ConversionContext());
+	}
+
+	public static void decompose(File sourceGmk, File destinationPath, ConversionContext context)
+			throws IOException {
+		ResNode root = new ResNode("Root", (byte) 0, null, null);
+		GmFile gmf = readGmk(sourceGmk, root, null, context);
+		try {
+			writeTree(gmf, root, destinationPath, context);
+		} finally {
+			gmf.releasePayloads();
+		}
+	}
+
+	/**
+	 * Reads a gmk file into memory, leaving out the resources whose blocks are
+	 * known to the filter, if one is given.
+	 */
+	static GmFile readGmk(File sourceGmk, ResNode root, GmFileReader.BlockFilter filter, ConversionContext context)
+			throws IOException {
+		LibManager.ensureLoaded();
+		long startTime = System.currentTimeMillis();
 		try {
-			ResNode root = new ResNode("Root", (byte) 0, null, null);
 			FileInputStream fis = new FileInputStream(sourceGmk);
 			GmFile gmf;
 			try {
-				gmf = GmFileReader.readGmFile(fis, sourceGmk.toURI(), root);
-				// Workaround for bug in LateralGM (fixed there in https://github.com/IsmAvatar/LateralGM/commit/c1826a829f1ebc9751015d05c9c15f87aa1488b9)
-				// where they never filled the resource references that could not be resolved immediately
-				// Can be removed if we ever update the LateralGM dependency
-				PostponeRunner.runPostponedRefUpdates();
+				gmf = GmFileReader.readGmFile(fis, sourceGmk.toURI(), root, filter);
 			} finally {
 				try {
 					fis.close();
 				} catch (IOException e) {
 				}
 			}
+			context.report("time taken to load file: " + (System.currentTimeMillis() - startTime) + " ms");
 			if (gmf.format != FormatFlavor.GM_800 && gmf.format != FormatFlavor.GM_810) {
-				System.err
-						.println("Warning: The source file is not of GM version 8 or 8.1. GMK Splitter is *not tested* with this format.");
+				context.warn("Warning: The source file is not of GM version 8 or 8.1. "
+						+ "GMK Splitter is *not tested* with this format.");
 			}
-			targetVersion = gmf.format.getVersion();
-			ResourceWriter.writeTree(root, gmf, destinationPath);
-
-			writeConstants(gmf, destinationPath);
-			writeIncludedFiles(gmf, destinationPath);
+			context.targetVersion = gmf.format.getVersion();
+			return gmf;
 		} catch (GmFormatException e) {
 			throw new IOException(e);
 		}
 	}
 
+	/**
+	 * Writes a project that is already in memory as a split tree.
+	 */
+	public static void writeTree(GmFile gmf, ResNode root, File destinationPath, ConversionContext context)
+			throws IOException {
+		if (TreeArchive.isArchive(destinationPath)) {
+			TreeArchive archive = TreeArchive.create(destinationPath);
+			try {
+				writeTree(gmf, root, archive.getRoot(), context);
+			} finally {
+				archive.close();
+			}
+		} else {
+			writeTree(gmf, root, TreePath.of(destinationPath), context);
+		}
+	}
+
+	private static void writeTree(GmFile gmf, ResNode root, TreePath destinationPath, ConversionContext context)
+			throws IOException {
+		ResourceWriter.writeTree(root, gmf, destinationPath, context);
+
+		writeConstants(gmf, destinationPath, context);
+		writeIncludedFiles(gmf, destinationPath, context);
+	}
+
 	public static void compose(File sourcePath, File destinationGmk) throws IOException {
-		LibManager.autoLoad();
+		compose(sourcePath, destinationGmk, new ConversionContext());
+	}
+
+	public static void compose(File sourcePath, File destinationGmk, ConversionContext context)
+			throws IOException {
+		ResNode root = new ResNode("Root", (byte) 0, null, null);
+		GmFile gmf = readTree(sourcePath, root, destinationGmk, context);
+		writeGmk(gmf, root, destinationGmk, context);
+	}
+
+	/**
+	 * Reads a split tree into memory, as the project that will be written to
+	 * destinationGmk.
+	 */
+	static GmFile readTree(File sourcePath, ResNode root, File destinationGmk, ConversionContext context)
+			throws IOException {
+		if (TreeArchive.isArchive(sourcePath)) {
+			TreeArchive archive = TreeArchive.open(sourcePath, false);
+			try {
+				return readTree(archive.getRoot(), root, destinationGmk, context);
+			} finally {
+				archive.close();
+			}
+		}
+		return readTree(TreePath.of(sourcePath), root, destinationGmk, context);
+	}
+
+	private static GmFile readTree(TreePath sourcePath, ResNode root, File destinationGmk,
+			ConversionContext context) throws IOException {
+		LibManager.ensureLoaded();
 		GmFile gmf = new GmFile();
 		gmf.uri = destinationGmk.toURI();
-		targetVersion = destinationGmk.getName().toLowerCase().endsWith(".gmk") ? 800 : 810;
-		ResNode root = new ResNode("Root", (byte) 0, null, null);
-		new ResourceReader().readTree(root, gmf, sourcePath);
+		context.targetVersion = destinationGmk.getName().toLowerCase().endsWith(".gmk") ? 800 : 810;
+		new ResourceReader(context).readTree(root, gmf, sourcePath);
 
 		readConstants(gmf, sourcePath);
-		readIncludedFiles(gmf, sourcePath);
+		readIncludedFiles(gmf, sourcePath, context);
+		return gmf;
+	}
 
-		FileOutputStream fos = new FileOutputStream(destinationGmk);
-		try {
-			GmFileWriter.writeGmFile(fos, gmf, root, targetVersion);
-		} finally {
-			fos.close();
-		}
+	/**
+	 * @return The file the resources of gmf now keep their blocks in, see
+	 *         {@link GmFileWriter#writeGmFile(File, GmFile, ResNode, int)}
+	 */
+	static StoredBlock.Source writeGmk(GmFile gmf, ResNode root, File destinationGmk, ConversionContext context)
+			throws IOException {
+		return GmFileWriter.writeGmFile(destinationGmk, gmf, root, context.targetVersion);
 	}
 
-	private static void writeConstants(GmFile gmf, File destinationPath) throws IOException {
-		File constantsFile = new File(destinationPath, CONSTANTS_FILENAME);
-		new ConstantsXmlFormat().write(gmf.constants, constantsFile);
+	private static void writeConstants(GmFile gmf, TreePath destinationPath, ConversionContext context)
+			throws IOException {
+		TreePath constantsFile = destinationPath.resolve(CONSTANTS_FILENAME);
+		CONSTANTS_FORMAT.write(gmf.constants, constantsFile, context);
 	}
 
-	private static void readConstants(GmFile gmf, File sourcePath) throws IOException {
-		File constantsFile = new File(sourcePath, CONSTANTS_FILENAME);
-		List<Constant> constants = new ConstantsXmlFormat().read(new XmlReader(constantsFile));
+	private static void readConstants(GmFile gmf, TreePath sourcePath) throws IOException {
+		TreePath constantsFile = sourcePath.resolve(CONSTANTS_FILENAME);
+		List<Constant> constants = CONSTANTS_FORMAT.read(new XmlReader(constantsFile));
 		gmf.constants = new ArrayList<Constant>(constants);
 	}
 
 	private static String INCLUDED_FILES_DIR = "Included Files";
 
-	private static void writeIncludedFiles(GmFile gmf, File destinationPath) throws IOException {
+	private static void writeIncludedFiles(GmFile gmf, TreePath destinationPath, ConversionContext context)
+			throws IOException {
 		if (!gmf.includes.isEmpty()) {
-			File includedFilesPath = new File(destinationPath, INCLUDED_FILES_DIR);
+			TreePath includedFilesPath = destinationPath.resolve(INCLUDED_FILES_DIR);
 			if (!includedFilesPath.mkdirs()) {
 				throw new IOException("Unable to create path: " + includedFilesPath);
 			}
-			IncludedFileFormat.write(includedFilesPath, gmf.includes);
+			IncludedFileFormat.write(includedFilesPath, gmf.includes, context);
 		}
 	}
 
-	private static void readIncludedFiles(GmFile gmf, File sourcePath) throws IOException {
-		File includedFilesPath = new File(sourcePath, INCLUDED_FILES_DIR);
+	private static void readIncludedFiles(GmFile gmf, TreePath sourcePath, ConversionContext context)
+			throws IOException {
+		TreePath includedFilesPath = sourcePath.resolve(INCLUDED_FILES_DIR);
 		if (includedFilesPath.isDirectory()) {
-			IncludedFileFormat.read(includedFilesPath, gmf);
-		}
-	}
-
-	private static HashSet<String> issuedVersionWarnings = new HashSet<String>();
-
-	public static void issueVersionWarning(String info) {
-		if (!issuedVersionWarnings.contains(info)) {
-			System.err.println("Warning: The information \"" + info
-					+ "\" cannot be represented in the target format.");
-			issuedVersionWarnings.add(info);
+			IncludedFileFormat.read(includedFilesPath, gmf, context);
 		}
 	}
 }
@@ -0,0 +1,99 @@
+/*
+ * This file is part of GmkSplitter.
+ * GmkSplitter is free software and comes with ABSOLUTELY NO WARRANTY.
+ * See LICENSE for details.
+ */
+package com.ganggarrison.gmdec;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.lateralgm.file.Metrics;
+import org.lateralgm.file.StringPool;
+
+/**
+ * Runs tasks of the current conversion on a thread pool shared by all
+ * conversions. The tasks count into the {@link Metrics} of the thread that
+ * submitted them and share its {@link StringPool}, so a conversion reports
+ * the same numbers whether its work is spread over other threads or not.
+ * <p>
+ * Tasks must only touch objects of their own, or ones that aren't changed
+ * while they run. Their results are handed back to the submitting thread by
+ * {@link Task#get()}.
+ */
+public class JobExecutor {
+	public class Task<T> {
+		private final Future<T> future;
+		private final Metrics metrics;
+
+		private Task(Future<T> future, Metrics metrics) {
+			this.future = future;
+			this.metrics = metrics;
+		}
+
+		/**
+		 * Waits for the task, and adds its counts to the metrics of the
+		 * current thread. Must be called on the thread that submitted the
+		 * task, at most once.
+		 */
+		public T get() throws IOException {
+			try {
+				T result = future.get();
+				Metrics.get().join(metrics);
+				return result;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while waiting for " + name, e);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof IOException) {
+					throw (IOException) e.getCause();
+				}
+				throw new IOException(e.getCause());
+			}
+		}
+	}
+
+	private final ExecutorService pool;
+	private final String name;
+
+	/**
+	 * @param name
+	 *            Names the threads, and what is waited for in error messages.
+	 */
+	public JobExecutor(final String name) {
+		this.name = name;
+		pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, name);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/** Starts a task for the conversion running on the current thread. */
+	public <T> Task<T> submit(final Callable<T> callable) {
+		final Metrics metrics = Metrics.get().fork();
+		final StringPool strings = StringPool.get().share(metrics);
+		Future<T> future = pool.submit(new Callable<T>() {
+			@Override
+			public T call() throws Exception {
+				Metrics.install(metrics);
+				StringPool.install(strings);
+				try {
+					return callable.call();
+				} finally {
+					StringPool.install(null);
+					Metrics.install(null);
+				}
+			}
+		});
+		return new Task<T>(future, metrics);
+	}
+}
@@ -1,24 +1,56 @@
 package com.ganggarrison.gmdec;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 public final class LgmConst {
 	public static interface Provider {
 		byte getLgmConst();
 	}
 
+	/** The names and constants of one enum, looked up by constant and by name */
+	private static class Table {
+		final String[] names = new String[256];
+		final Map<String, Byte> constants = new HashMap<String, Byte>();
+
+		Table(Class<?> enumType) {
+			for (Object constant : enumType.getEnumConstants()) {
+				byte lgmConst = ((Provider) constant).getLgmConst();
+				names[lgmConst & 0xFF] = constant.toString();
+				constants.put(((Enum<?>) constant).name(), lgmConst);
+			}
+		}
+	}
+
+	private static final Map<Class<?>, Table> TABLES = new ConcurrentHashMap<Class<?>, Table>();
+
 	private LgmConst() {
 		throw new AssertionError("This class isn't supposed to be instantiated.");
 	}
 
+	private static Table getTable(Class<?> enumType) {
+		Table table = TABLES.get(enumType);
+		if (table == null) {
+			table = new Table(enumType);
+			TABLES.put(enumType, table);
+		}
+		return table;
+	}
+
 	public static <T extends Enum<? extends Provider>> String toString(byte lgmConst, Class<T> enumType) {
-		for (Provider lcp : (Provider[]) enumType.getEnumConstants()) {
-			if (lcp.getLgmConst() == lgmConst) {
-				return lcp.toString();
-			}
+		String name = getTable(enumType).names[lgmConst & 0xFF];
+		if (name == null) {
+			throw new IllegalArgumentException("Error: Found "+enumType+" with unknown integer constant "+lgmConst+".");
 		}
-		throw new IllegalArgumentException("Error: Found "+enumType+" with unknown integer constant "+lgmConst+".");
+		return name;
 	}
 
 	public static <T extends Enum<? extends Provider>> byte fromString(String string, Class<T> enumType) {
-		return ((Provider) Enum.valueOf((Class) enumType, string)).getLgmConst();
+		Byte lgmConst = getTable(enumType).constants.get(string);
+		if (lgmConst == null) {
+			throw new IllegalArgumentException("No enum constant " + enumType.getCanonicalName() + "." + string);
+		}
+		return lgmConst;
 	}
 }
@@ -0,0 +1,170 @@
+/*
+ * This file is part of GmkSplitter.
+ * GmkSplitter is free software and comes with ABSOLUTELY NO WARRANTY.
+ * See LICENSE for details.
+ */
+package com.ganggarrison.gmdec;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.lateralgm.file.Metrics;
+import org.lateralgm.file.Metrics.Counter;
+import org.lateralgm.file.Metrics.Sample;
+
+/**
+ * Collects the phases reported by Metrics, summed up per phase and resource
+ * kind, and writes them as a JSON report.
+ */
+public class MetricsReport implements Metrics.Listener {
+	private static class Entry {
+		final String phase;
+		final String kind;
+		final int depth;
+		int calls;
+		long wallNanos;
+		long cpuNanos;
+		long allocatedBytes;
+		final long[] counters = new long[Counter.values().length];
+
+		Entry(Sample s) {
+			phase = s.phase;
+			kind = s.kind;
+			depth = s.depth;
+		}
+
+		void add(Sample s) {
+			calls++;
+			wallNanos += s.wallNanos;
+			cpuNanos = (cpuNanos < 0 || s.cpuNanos < 0) ? -1 : cpuNanos + s.cpuNanos;
+			allocatedBytes = (allocatedBytes < 0 || s.allocatedBytes < 0) ? -1 : allocatedBytes + s.allocatedBytes;
+			for (Counter c : Counter.values()) {
+				counters[c.ordinal()] += s.get(c);
+			}
+		}
+	}
+
+	private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+	private final Map<String, String> info = new LinkedHashMap<String, String>();
+
+	public synchronized void phaseEnded(Sample sample) {
+		String key = sample.depth + "\0" + sample.phase + "\0" + sample.kind;
+		Entry e = entries.get(key);
+		if (e == null) {
+			e = new Entry(sample);
+			entries.put(key, e);
+		}
+		e.add(sample);
+	}
+
+	/** Adds a value to the "job" section of the report, e.g. the source file. */
+	public synchronized void putInfo(String key, Object value) {
+		info.put(key, String.valueOf(value));
+	}
+
+	public synchronized String toJson() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\n  \"job\": {");
+		boolean first = true;
+		for (Map.Entry<String, String> i : info.entrySet()) {
+			sb.append(first ? "\n" : ",\n");
+			sb.append("    ").append(quote(i.getKey())).append(": ").append(quote(i.getValue()));
+			first = false;
+		}
+		sb.append(first ? "},\n" : "\n  },\n");
+
+		sb.append("  \"phases\": [");
+		first = true;
+		for (Entry e : sortedEntries()) {
+			sb.append(first ? "\n" : ",\n");
+			first = false;
+			sb.append("    {\"phase\": ").append(quote(e.phase));
+			sb.append(", \"kind\": ").append(e.kind == null ? "null" : quote(e.kind));
+			sb.append(", \"depth\": ").append(e.depth);
+			sb.append(", \"calls\": ").append(e.calls);
+			sb.append(", \"wallMs\": ").append(millis(e.wallNanos));
+			sb.append(", \"cpuMs\": ").append(e.cpuNanos < 0 ? "null" : millis(e.cpuNanos));
+			sb.append(", \"allocatedBytes\": ").append(e.allocatedBytes < 0 ? "null" : e.allocatedBytes);
+			for (Counter c : Counter.values()) {
+				long n = e.counters[c.ordinal()];
+				if (n != 0) {
+					sb.append(", ").append(quote(camelCase(c.name()))).append(": ").append(n);
+				}
+			}
+			long resources = e.counters[Counter.RESOURCES.ordinal()];
+			if (resources > 0 && e.wallNanos > 0) {
+				sb.append(", \"resourcesPerSecond\": ").append(Math.round(resources * 1e9 / e.wallNanos));
+			}
+			long pooled = e.counters[Counter.STRINGS_POOLED.ordinal()];
+			if (pooled > 0) {
+				long deduplicated = e.counters[Counter.STRINGS_DEDUPLICATED.ordinal()];
+				sb.append(", \"stringPoolHitRate\": ").append(
+						String.format(Locale.ROOT, "%.3f", (double) deduplicated / pooled));
+			}
+			sb.append("}");
+		}
+		sb.append(first ? "]\n" : "\n  ]\n");
+		sb.append("}\n");
+		return sb.toString();
+	}
+
+	public void write(File file) throws IOException {
+		FileTools.writeFile(file, toJson());
+	}
+
+	/**
+	 * Outermost phases first. Nested phases end (and are reported) before the
+	 * phases that contain them, so they need to be moved behind them.
+	 */
+	private List<Entry> sortedEntries() {
+		List<Entry> sorted = new ArrayList<Entry>(entries.values());
+		List<Entry> result = new ArrayList<Entry>(sorted.size());
+		for (int depth = 0; !sorted.isEmpty(); depth++) {
+			for (int i = 0; i < sorted.size();) {
+				if (sorted.get(i).depth == depth) {
+					result.add(sorted.remove(i));
+				} else {
+					i++;
+				}
+			}
+		}
+		return result;
+	}
+
+	private static String millis(long nanos) {
+		return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+	}
+
+	private static String camelCase(String constant) {
+		StringBuilder sb = new StringBuilder();
+		boolean upper = false;
+		for (char c : constant.toLowerCase().toCharArray()) {
+			if (c == '_') {
+				upper = true;
+			} else {
+				sb.append(upper ? Character.toUpperCase(c) : c);
+				upper = false;
+			}
+		}
+		return sb.toString();
+	}
+
+	private static String quote(String s) {
+		StringBuilder sb = new StringBuilder("\"");
+		for (char c : s.toCharArray()) {
+			if (c == '"' || c == '\\') {
+				sb.append('\\').append(c);
+			} else if (c < 0x20) {
+				sb.append(String.format("\\u%04x", (int) c));
+			} else {
+				sb.append(c);
+			}
+		}
+		return sb.append('"').toString();
+	}
+}
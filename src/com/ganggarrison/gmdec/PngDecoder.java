@@ -0,0 +1,253 @@
+/*
+ * This file is part of GmkSplitter.
+ * GmkSplitter is free software and comes with ABSOLUTELY NO WARRANTY.
+ * See LICENSE for details.
+ */
+package com.ganggarrison.gmdec;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import javax.imageio.ImageIO;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+
+import org.lateralgm.util.RawImage;
+
+import com.ganggarrison.gmdec.storage.TreePath;
+
+/**
+ * Reads 8 bit RGBA, RGB and palette PNG files, like the ones written by
+ * {@link PngEncoder}, straight into the packed ARGB pixels of a
+ * {@link RawImage}, which the gmk writer stores without conversion. Each
+ * thread reuses one decoder, with its file buffer, inflater and row buffers,
+ * for all the images it reads.
+ * <p>
+ * Other images, e.g. gray, 16 bit or interlaced ones, are read by ImageIO. So
+ * are RGB images with a transparent color, which ImageIO ignores.
+ */
+public class PngDecoder {
+	private static final byte[] SIGNATURE = { (byte) 137, 'P', 'N', 'G', '\r', '\n', 26, '\n' };
+	private static final int IHDR = 0x49484452;
+	private static final int PLTE = 0x504C5445;
+	private static final int TRNS = 0x74524E53;
+	private static final int IDAT = 0x49444154;
+	private static final int IEND = 0x49454E44;
+	private static final int COLOR_RGB = 2;
+	private static final int COLOR_PALETTE = 3;
+	private static final int COLOR_RGBA = 6;
+
+	private static final ThreadLocal<PngDecoder> DECODERS = new ThreadLocal<PngDecoder>() {
+		@Override
+		protected PngDecoder initialValue() {
+			return new PngDecoder();
+		}
+	};
+
+	private final Inflater inflater = new Inflater();
+	private final int[] palette = new int[256];
+	/** The content of the file being read */
+	private byte[] data = new byte[0];
+	/** The filtered current and unfiltered previous row, each behind one byte for the filter type */
+	private byte[] row = new byte[0];
+	private byte[] previousRow = new byte[0];
+
+	private PngDecoder() {
+	}
+
+	/**
+	 * Reads an image, or returns null if its format is unknown. Images that
+	 * this decoder can't read are passed on to ImageIO.
+	 */
+	public static BufferedImage read(TreePath file) throws IOException {
+		return DECODERS.get().readFile(file);
+	}
+
+	private BufferedImage readFile(TreePath file) throws IOException {
+		int length = (int) file.length();
+		if (data.length < length) {
+			data = new byte[length];
+		}
+		DataInputStream in = new DataInputStream(file.openInput());
+		try {
+			in.readFully(data, 0, length);
+		} finally {
+			in.close();
+		}
+
+		RawImage image = decode(length);
+		if (image != null) {
+			return image.toBufferedImage();
+		}
+		return ImageIO.read(new MemoryCacheImageInputStream(new ByteArrayInputStream(data, 0, length)));
+	}
+
+	/** Returns null if the file isn't a PNG file in one of the supported formats. */
+	private RawImage decode(int length) throws IOException {
+		if (length < SIGNATURE.length + 25) {
+			return null;
+		}
+		for (int i = 0; i < SIGNATURE.length; i++) {
+			if (data[i] != SIGNATURE[i]) {
+				return null;
+			}
+		}
+		int pos = SIGNATURE.length;
+		if (getInt(pos + 4) != IHDR || getInt(pos) != 13) {
+			return null;
+		}
+		int width = getInt(pos + 8);
+		int height = getInt(pos + 12);
+		int bitDepth = data[pos + 16];
+		int colorType = data[pos + 17];
+		boolean standard = data[pos + 18] == 0 && data[pos + 19] == 0 && data[pos + 20] == 0;
+		int bytesPerPixel = colorType == COLOR_RGBA ? 4 : colorType == COLOR_RGB ? 3 : 1;
+		if (bitDepth != 8 || !standard || colorType != COLOR_RGBA && colorType != COLOR_RGB
+				&& colorType != COLOR_PALETTE) {
+			return null;
+		}
+		if (width <= 0 || height <= 0 || (long) width * height > Integer.MAX_VALUE / 4) {
+			throw new IOException("Invalid PNG image size " + width + "x" + height);
+		}
+		pos += 25;
+
+		int stride = width * bytesPerPixel + 1;
+		if (row.length < stride) {
+			row = new byte[stride];
+			previousRow = new byte[stride];
+		}
+		for (int i = 0; i < stride; i++) {
+			previousRow[i] = 0;
+		}
+		inflater.reset();
+		int paletteSize = 0;
+		RawImage image = new RawImage(width, height);
+		int y = 0;
+		int rowFill = 0;
+		while (pos + 8 <= length) {
+			int chunkLength = getInt(pos);
+			int type = getInt(pos + 4);
+			int start = pos + 8;
+			if (chunkLength < 0 || start + chunkLength + 4 > length) {
+				throw new IOException("Truncated PNG chunk");
+			}
+			pos = start + chunkLength + 4;
+			if (type == PLTE) {
+				paletteSize = Math.min(chunkLength / 3, palette.length);
+				for (int i = 0; i < paletteSize; i++) {
+					int p = start + i * 3;
+					palette[i] = 0xFF000000 | (data[p] & 0xFF) << 16 | (data[p + 1] & 0xFF) << 8 | data[p + 2] & 0xFF;
+				}
+			} else if (type == TRNS) {
+				if (colorType != COLOR_PALETTE) {
+					return null;
+				}
+				for (int i = 0; i < chunkLength && i < paletteSize; i++) {
+					palette[i] = (data[start + i] & 0xFF) << 24 | palette[i] & 0x00FFFFFF;
+				}
+			} else if (type == IDAT) {
+				if (colorType == COLOR_PALETTE && paletteSize == 0) {
+					throw new IOException("PNG palette image without palette");
+				}
+				inflater.setInput(data, start, chunkLength);
+				while (y < height) {
+					try {
+						rowFill += inflater.inflate(row, rowFill, stride - rowFill);
+					} catch (DataFormatException e) {
+						throw new IOException("Invalid PNG image data", e);
+					}
+					if (rowFill < stride) {
+						if (inflater.needsInput()) {
+							break;
+						}
+						if (inflater.finished() || inflater.needsDictionary()) {
+							throw new IOException("Truncated PNG image data");
+						}
+						continue;
+					}
+					unfilter(stride, bytesPerPixel);
+					toArgb(image.pixels, y * width, width, colorType, paletteSize);
+					byte[] swap = previousRow;
+					previousRow = row;
+					row = swap;
+					rowFill = 0;
+					y++;
+				}
+			} else if (type == IEND) {
+				break;
+			}
+		}
+		if (y < height) {
+			throw new IOException("Truncated PNG image data");
+		}
+		return image;
+	}
+
+	private void unfilter(int stride, int bytesPerPixel) throws IOException {
+		switch (row[0]) {
+		case 0:
+			break;
+		case 1:
+			for (int i = bytesPerPixel + 1; i < stride; i++) {
+				row[i] += row[i - bytesPerPixel];
+			}
+			break;
+		case 2:
+			for (int i = 1; i < stride; i++) {
+				row[i] += previousRow[i];
+			}
+			break;
+		case 3:
+			for (int i = 1; i < stride; i++) {
+				int left = i > bytesPerPixel ? row[i - bytesPerPixel] & 0xFF : 0;
+				row[i] += (left + (previousRow[i] & 0xFF)) >>> 1;
+			}
+			break;
+		case 4:
+			for (int i = 1; i < stride; i++) {
+				int a = i > bytesPerPixel ? row[i - bytesPerPixel] & 0xFF : 0;
+				int b = previousRow[i] & 0xFF;
+				int c = i > bytesPerPixel ? previousRow[i - bytesPerPixel] & 0xFF : 0;
+				int pa = Math.abs(b - c);
+				int pb = Math.abs(a - c);
+				int pc = Math.abs(a + b - 2 * c);
+				row[i] += pa <= pb && pa <= pc ? a : pb <= pc ? b : c;
+			}
+			break;
+		default:
+			throw new IOException("Unknown PNG filter type " + row[0]);
+		}
+	}
+
+	private void toArgb(int[] pixels, int offset, int width, int colorType, int paletteSize) throws IOException {
+		switch (colorType) {
+		case COLOR_RGBA:
+			for (int x = 0, i = 1; x < width; x++, i += 4) {
+				pixels[offset + x] = (row[i + 3] & 0xFF) << 24 | (row[i] & 0xFF) << 16 | (row[i + 1] & 0xFF) << 8
+						| row[i + 2] & 0xFF;
+			}
+			break;
+		case COLOR_RGB:
+			for (int x = 0, i = 1; x < width; x++, i += 3) {
+				pixels[offset + x] = 0xFF000000 | (row[i] & 0xFF) << 16 | (row[i + 1] & 0xFF) << 8 | row[i + 2] & 0xFF;
+			}
+			break;
+		default:
+			for (int x = 0; x < width; x++) {
+				int index = row[x + 1] & 0xFF;
+				if (index >= paletteSize) {
+					throw new IOException("PNG palette index " + index + " out of range");
+				}
+				pixels[offset + x] = palette[index];
+			}
+		}
+	}
+
+	private int getInt(int pos) {
+		return (data[pos] & 0xFF) << 24 | (data[pos + 1] & 0xFF) << 16 | (data[pos + 2] & 0xFF) << 8 | data[pos + 3]
+				& 0xFF;
+	}
+}
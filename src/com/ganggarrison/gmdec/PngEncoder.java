@@ -0,0 +1,420 @@
+/*
+ * This file is part of GmkSplitter.
+ * GmkSplitter is free software and comes with ABSOLUTELY NO WARRANTY.
+ * See LICENSE for details.
+ */
+package com.ganggarrison.gmdec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import org.lateralgm.util.RawImage;
+
+/**
+ * Writes 8 bit RGBA PNG files straight from the packed ARGB pixels of a
+ * {@link RawImage}. Images with at most 256 colors can be written as palette
+ * files instead, with a tRNS chunk for the transparent colors. Each thread
+ * reuses one encoder, with its deflater and row buffers, for all the images
+ * it writes.
+ * <p>
+ * The default preset produces exactly the files the ImageIO PNG writer of Java
+ * 6 to 8 did, so trees split by earlier versions don't change when they are
+ * split again.
+ */
+public class PngEncoder {
+	/** How the bytes of each row are predicted from their neighbours before compression */
+	public enum Filter {
+		NONE, SUB, UP,
+		/** For each row, whichever of the five PNG filters gives the smallest sum of differences */
+		ADAPTIVE
+	}
+
+	public enum Preset {
+		/** Best compression of the unfiltered rows, like ImageIO */
+		DEFAULT(Deflater.BEST_COMPRESSION, Filter.NONE),
+		/** Fastest compression, for trees that are only used locally */
+		FAST(Deflater.BEST_SPEED, Filter.SUB),
+		/**
+		 * Best compression, and whichever filter gives the smallest file for
+		 * each image, for trees that are committed
+		 */
+		SMALL(Deflater.BEST_COMPRESSION, Filter.SUB, Filter.ADAPTIVE);
+
+		public final int level;
+		/** The filters to try, if more than one the image is compressed once with each */
+		private final Filter[] filters;
+
+		private Preset(int level, Filter... filters) {
+			this.level = level;
+			this.filters = filters;
+		}
+
+		/** The preset with the given name in any case, or null if there is none */
+		public static Preset forName(String name) {
+			for (Preset preset : values()) {
+				if (preset.name().equalsIgnoreCase(name)) {
+					return preset;
+				}
+			}
+			return null;
+		}
+	}
+
+	private static final byte[] SIGNATURE = { (byte) 137, 'P', 'N', 'G', '\r', '\n', 26, '\n' };
+	private static final byte[] IHDR = { 'I', 'H', 'D', 'R' };
+	private static final byte[] PLTE = { 'P', 'L', 'T', 'E' };
+	private static final byte[] TRNS = { 't', 'R', 'N', 'S' };
+	private static final byte[] IDAT = { 'I', 'D', 'A', 'T' };
+	private static final byte[] IEND = { 'I', 'E', 'N', 'D' };
+	/** The IDAT chunk size of ImageIO, which the default preset has to match */
+	private static final int CHUNK_SIZE = 32768;
+	private static final int BYTES_PER_PIXEL = 4;
+
+	private static final ThreadLocal<PngEncoder> ENCODERS = new ThreadLocal<PngEncoder>() {
+		@Override
+		protected PngEncoder initialValue() {
+			return new PngEncoder();
+		}
+	};
+
+	private final CRC32 crc = new CRC32();
+	/** Length, type, data and CRC of the chunk being written */
+	private final byte[] chunk = new byte[CHUNK_SIZE + 12];
+	private int chunkLength;
+	private final byte[] deflated = new byte[8192];
+	private Deflater deflater;
+	private int deflaterLevel = -1;
+	/** The results of encoding an image in several ways, the smallest one first */
+	private ByteArrayOutputStream smallest = new ByteArrayOutputStream();
+	private ByteArrayOutputStream candidate = new ByteArrayOutputStream();
+	/** The colors of a palette image, the transparent ones first so the tRNS chunk stays short */
+	private final int[] palette = new int[256];
+	private final int[] sortedPalette = new int[256];
+	/** The number of colors of the palette image being written, or 0 for an RGBA image */
+	private int paletteSize;
+	private int transparentColors;
+	/** Open addressing hash table from the colors of the image to their palette index + 1 */
+	private final int[] colorKeys = new int[1024];
+	private final short[] colorIndices = new short[1024];
+	/** The unfiltered current and previous row, each behind one byte for the filter type */
+	private byte[] row = new byte[0];
+	private byte[] previousRow = new byte[0];
+	/** The current row with each of the five filters applied, including the filter type byte */
+	private byte[][] filtered = new byte[5][0];
+
+	private PngEncoder() {
+	}
+
+	/**
+	 * Writes the image as PNG file to out, which is left open. If palette is
+	 * true and the image has at most 256 colors, it is written as palette
+	 * image where that is smaller. It reads back into the same pixels.
+	 */
+	public static void write(RawImage image, Preset preset, boolean palette, OutputStream out) throws IOException {
+		ENCODERS.get().encode(image, preset, palette, out);
+	}
+
+	private void encode(RawImage image, Preset preset, boolean palette, OutputStream out) throws IOException {
+		int colors = palette ? buildPalette(image.pixels) : 0;
+		paletteSize = 0;
+		if (colors == 0 && preset.filters.length == 1) {
+			encode(image, preset.level, preset.filters[0], out);
+			return;
+		}
+		// The palette of a small image can take more space than it saves
+		smallest.reset();
+		for (Filter filter : preset.filters) {
+			encodeCandidate(image, preset.level, filter);
+		}
+		if (colors > 0) {
+			paletteSize = colors;
+			// Filters hardly ever make palette indices compress better
+			encodeCandidate(image, preset.level, Filter.NONE);
+		}
+		smallest.writeTo(out);
+	}
+
+	/** Encodes the image, and keeps the result if it is the smallest one so far. */
+	private void encodeCandidate(RawImage image, int level, Filter filter) throws IOException {
+		candidate.reset();
+		encode(image, level, filter, candidate);
+		if (smallest.size() == 0 || candidate.size() < smallest.size()) {
+			ByteArrayOutputStream swap = smallest;
+			smallest = candidate;
+			candidate = swap;
+		}
+	}
+
+	private void encode(RawImage image, int level, Filter filter, OutputStream out) throws IOException {
+		int stride = image.width * (paletteSize > 0 ? 1 : BYTES_PER_PIXEL) + 1;
+		if (row.length < stride) {
+			row = new byte[stride];
+			previousRow = new byte[stride];
+			for (int i = 0; i < filtered.length; i++) {
+				filtered[i] = new byte[stride];
+			}
+		}
+		if (deflaterLevel != level) {
+			if (deflater != null) {
+				deflater.end();
+			}
+			deflater = new Deflater(level);
+			deflaterLevel = level;
+		} else {
+			deflater.reset();
+		}
+
+		out.write(SIGNATURE);
+		startChunk(IHDR);
+		putInt(image.width);
+		putInt(image.height);
+		putByte(8); // bit depth
+		putByte(paletteSize > 0 ? 3 : 6); // palette or RGBA
+		putByte(0); // deflate
+		putByte(0); // adaptive filtering
+		putByte(0); // not interlaced
+		finishChunk(out);
+		if (paletteSize > 0) {
+			startChunk(PLTE);
+			for (int i = 0; i < paletteSize; i++) {
+				putByte(palette[i] >>> 16);
+				putByte(palette[i] >>> 8);
+				putByte(palette[i]);
+			}
+			finishChunk(out);
+			if (transparentColors > 0) {
+				startChunk(TRNS);
+				for (int i = 0; i < transparentColors; i++) {
+					putByte(palette[i] >>> 24);
+				}
+				finishChunk(out);
+			}
+		}
+
+		startChunk(IDAT);
+		Arrays.fill(previousRow, 0, stride, (byte) 0);
+		int[] pixels = image.pixels;
+		for (int y = 0; y < image.height; y++) {
+			int offset = y * image.width;
+			if (paletteSize > 0) {
+				for (int x = 0; x < image.width; x++) {
+					row[x + 1] = (byte) (colorIndices[findSlot(pixels[offset + x])] - 1);
+				}
+			} else {
+				for (int x = 0, i = 1; x < image.width; x++, i += BYTES_PER_PIXEL) {
+					int argb = pixels[offset + x];
+					row[i] = (byte) (argb >>> 16);
+					row[i + 1] = (byte) (argb >>> 8);
+					row[i + 2] = (byte) argb;
+					row[i + 3] = (byte) (argb >>> 24);
+				}
+			}
+			deflate(out, filterRow(filter, stride), stride);
+			byte[] swap = previousRow;
+			previousRow = row;
+			row = swap;
+		}
+		deflater.finish();
+		while (!deflater.finished()) {
+			putDeflated(out);
+		}
+		finishChunk(out);
+
+		startChunk(IEND);
+		finishChunk(out);
+	}
+
+	/**
+	 * Collects the colors of the image into the palette, with the transparent
+	 * ones first, and maps each of them to its index.
+	 *
+	 * @return The number of colors, or 0 if there are more than 256.
+	 */
+	private int buildPalette(int[] pixels) {
+		Arrays.fill(colorIndices, (short) 0);
+		int count = 0;
+		int previous = 0;
+		for (int i = 0; i < pixels.length; i++) {
+			int argb = pixels[i];
+			if (i > 0 && argb == previous) {
+				continue;
+			}
+			previous = argb;
+			int slot = findSlot(argb);
+			if (colorIndices[slot] == 0) {
+				if (count == palette.length) {
+					return 0;
+				}
+				palette[count++] = argb;
+				colorKeys[slot] = argb;
+				colorIndices[slot] = (short) count;
+			}
+		}
+
+		transparentColors = 0;
+		for (int i = 0; i < count; i++) {
+			if (palette[i] >>> 24 != 0xFF) {
+				transparentColors++;
+			}
+		}
+		int nextTransparent = 0;
+		int nextOpaque = transparentColors;
+		for (int i = 0; i < count; i++) {
+			int index = palette[i] >>> 24 != 0xFF ? nextTransparent++ : nextOpaque++;
+			sortedPalette[index] = palette[i];
+			colorIndices[findSlot(palette[i])] = (short) (index + 1);
+		}
+		System.arraycopy(sortedPalette, 0, palette, 0, count);
+		return count;
+	}
+
+	/** The slot of the color in the hash table, or the empty slot where it belongs */
+	private int findSlot(int argb) {
+		int slot = (argb * 0x9E3779B9) >>> 22;
+		while (colorIndices[slot] != 0 && colorKeys[slot] != argb) {
+			slot = (slot + 1) & (colorKeys.length - 1);
+		}
+		return slot;
+	}
+
+	/** Returns the row to compress, with its filter type as first byte. */
+	private byte[] filterRow(Filter filter, int stride) {
+		switch (filter) {
+		case NONE:
+			row[0] = 0;
+			return row;
+		case SUB:
+			return filterSub(stride);
+		case UP:
+			return filterUp(stride);
+		default:
+			row[0] = 0;
+			byte[] best = row;
+			long bestSum = sumOfDifferences(row, stride);
+			for (int type = 1; type < filtered.length; type++) {
+				byte[] candidate = type == 1 ? filterSub(stride) : type == 2 ? filterUp(stride)
+						: type == 3 ? filterAverage(stride) : filterPaeth(stride);
+				long sum = sumOfDifferences(candidate, stride);
+				if (sum < bestSum) {
+					best = candidate;
+					bestSum = sum;
+				}
+			}
+			return best;
+		}
+	}
+
+	private byte[] filterSub(int stride) {
+		byte[] result = filtered[1];
+		result[0] = 1;
+		for (int i = 1; i < stride; i++) {
+			int left = i > BYTES_PER_PIXEL ? row[i - BYTES_PER_PIXEL] : 0;
+			result[i] = (byte) (row[i] - left);
+		}
+		return result;
+	}
+
+	private byte[] filterUp(int stride) {
+		byte[] result = filtered[2];
+		result[0] = 2;
+		for (int i = 1; i < stride; i++) {
+			result[i] = (byte) (row[i] - previousRow[i]);
+		}
+		return result;
+	}
+
+	private byte[] filterAverage(int stride) {
+		byte[] result = filtered[3];
+		result[0] = 3;
+		for (int i = 1; i < stride; i++) {
+			int left = i > BYTES_PER_PIXEL ? row[i - BYTES_PER_PIXEL] & 0xFF : 0;
+			result[i] = (byte) (row[i] - ((left + (previousRow[i] & 0xFF)) >>> 1));
+		}
+		return result;
+	}
+
+	private byte[] filterPaeth(int stride) {
+		byte[] result = filtered[4];
+		result[0] = 4;
+		for (int i = 1; i < stride; i++) {
+			int a = i > BYTES_PER_PIXEL ? row[i - BYTES_PER_PIXEL] & 0xFF : 0;
+			int b = previousRow[i] & 0xFF;
+			int c = i > BYTES_PER_PIXEL ? previousRow[i - BYTES_PER_PIXEL] & 0xFF : 0;
+			int pa = Math.abs(b - c);
+			int pb = Math.abs(a - c);
+			int pc = Math.abs(a + b - 2 * c);
+			int predictor = pa <= pb && pa <= pc ? a : pb <= pc ? b : c;
+			result[i] = (byte) (row[i] - predictor);
+		}
+		return result;
+	}
+
+	/** The heuristic of libpng: filtered bytes close to 0, taken as signed, compress best. */
+	private static long sumOfDifferences(byte[] filteredRow, int stride) {
+		long sum = 0;
+		for (int i = 1; i < stride; i++) {
+			sum += Math.abs(filteredRow[i]);
+		}
+		return sum;
+	}
+
+	private void deflate(OutputStream out, byte[] data, int length) throws IOException {
+		deflater.setInput(data, 0, length);
+		while (!deflater.needsInput()) {
+			putDeflated(out);
+		}
+	}
+
+	/**
+	 * Adds the next compressed bytes to the IDAT chunk. Like ImageIO, a new
+	 * chunk is only started when there is data for it, so none is empty.
+	 */
+	private void putDeflated(OutputStream out) throws IOException {
+		int length = deflater.deflate(deflated, 0, deflated.length);
+		int offset = 0;
+		while (length > 0) {
+			if (chunkLength == CHUNK_SIZE) {
+				finishChunk(out);
+				startChunk(IDAT);
+			}
+			int count = Math.min(length, CHUNK_SIZE - chunkLength);
+			System.arraycopy(deflated, offset, chunk, chunkLength + 8, count);
+			chunkLength += count;
+			offset += count;
+			length -= count;
+		}
+	}
+
+	private void startChunk(byte[] type) {
+		System.arraycopy(type, 0, chunk, 4, 4);
+		chunkLength = 0;
+	}
+
+	private void putByte(int value) {
+		chunk[chunkLength++ + 8] = (byte) value;
+	}
+
+	private void putInt(int value) {
+		setInt(chunkLength + 8, value);
+		chunkLength += 4;
+	}
+
+	private void setInt(int offset, int value) {
+		chunk[offset] = (byte) (value >>> 24);
+		chunk[offset + 1] = (byte) (value >>> 16);
+		chunk[offset + 2] = (byte) (value >>> 8);
+		chunk[offset + 3] = (byte) value;
+	}
+
+	private void finishChunk(OutputStream out) throws IOException {
+		setInt(0, chunkLength);
+		crc.reset();
+		crc.update(chunk, 4, chunkLength + 4);
+		setInt(chunkLength + 8, (int) crc.getValue());
+		out.write(chunk, 0, chunkLength + 12);
+	}
+}
@@ -55,4 +55,14 @@ public enum PrimaryResourceType {
 		this.pathName = pathName;
 		this.resourceKind = resKind;
 	}
+
+	/** The type of the given resource kind, or null if it isn't a primary resource kind */
+	public static PrimaryResourceType forKind(Class<?> kind) {
+		for (PrimaryResourceType type : values()) {
+			if (type.resourceKind.equals(kind)) {
+				return type;
+			}
+		}
+		return null;
+	}
 }
\ No newline at end of file
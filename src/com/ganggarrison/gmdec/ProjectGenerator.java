@@ -0,0 +1,494 @@
+/*
+ * This file is part of GmkSplitter.
+ * GmkSplitter is free software and comes with ABSOLUTELY NO WARRANTY.
+ * See LICENSE for details.
+ */
+package com.ganggarrison.gmdec;
+
+import java.awt.Dimension;
+import java.awt.Point;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.lateralgm.components.impl.ResNode;
+import org.lateralgm.file.GmFile;
+import org.lateralgm.file.GmFileWriter;
+import org.lateralgm.file.Payload;
+import org.lateralgm.resources.Background;
+import org.lateralgm.resources.GmObject;
+import org.lateralgm.resources.Include;
+import org.lateralgm.resources.InstantiableResource;
+import org.lateralgm.resources.Room;
+import org.lateralgm.resources.Script;
+import org.lateralgm.resources.Sound;
+import org.lateralgm.resources.Sprite;
+import org.lateralgm.resources.Timeline;
+import org.lateralgm.resources.Background.PBackground;
+import org.lateralgm.resources.GameSettings.PGameSettings;
+import org.lateralgm.resources.GmObject.PGmObject;
+import org.lateralgm.resources.Script.PScript;
+import org.lateralgm.resources.Sound.PSound;
+import org.lateralgm.resources.library.LibManager;
+import org.lateralgm.resources.sub.Action;
+import org.lateralgm.resources.sub.ActionContainer;
+import org.lateralgm.resources.sub.Constant;
+import org.lateralgm.resources.sub.Event;
+import org.lateralgm.resources.sub.Instance;
+import org.lateralgm.resources.sub.MainEvent;
+import org.lateralgm.resources.sub.Moment;
+import org.lateralgm.resources.sub.Tile;
+import org.lateralgm.resources.sub.Instance.PInstance;
+import org.lateralgm.resources.sub.Tile.PTile;
+import org.lateralgm.util.RawImage;
+
+import com.ganggarrison.gmdec.files.ExtensionsFormat;
+import com.ganggarrison.gmdec.files.GameInfoFormat;
+import com.ganggarrison.gmdec.files.GameSettingsFormat;
+import com.ganggarrison.gmdec.files.ResourceFormat;
+
+/**
+ * Generates synthetic projects for benchmarks and stress tests.
+ *
+ * The generated project is built in memory, the same way ResourceReader
+ * assembles a project from a file tree, and can then be written as a GMK file
+ * or as a split tree. Generation is fully determined by the settings and the
+ * seed, so two runs with the same input produce identical projects. (GMK
+ * files written from them still differ in their save timestamps.)
+ */
+public class ProjectGenerator {
+	/**
+	 * Resource counts and sizes. The defaults roughly resemble a small
+	 * finished game; use scale() to get larger projects of the same shape.
+	 */
+	public static class Settings {
+		public int sprites = 40;
+		public int maxFramesPerSprite = 6;
+		public int maxSpriteSize = 64;
+		public int backgrounds = 8;
+		public int backgroundSize = 256;
+		public int sounds = 15;
+		public int maxSoundSize = 65536;
+		public int scripts = 60;
+		public int maxScriptLines = 60;
+		public int objects = 50;
+		public int maxEventsPerObject = 6;
+		public int maxActionsPerEvent = 3;
+		public int maxCodeLines = 15;
+		public int rooms = 10;
+		public int maxInstancesPerRoom = 300;
+		public int maxTilesPerRoom = 600;
+		public int timelines = 4;
+		public int maxMomentsPerTimeline = 10;
+		public int includedFiles = 3;
+		public int maxIncludedFileSize = 32768;
+		public int constants = 30;
+		/** Resources are put into groups of this size. 0 disables groups. */
+		public int groupSize = 16;
+
+		/**
+		 * Returns settings with all resource counts multiplied by the given
+		 * factor. The size of individual resources stays the same.
+		 */
+		public Settings scale(int factor) {
+			Settings s = new Settings();
+			s.sprites = sprites * factor;
+			s.maxFramesPerSprite = maxFramesPerSprite;
+			s.maxSpriteSize = maxSpriteSize;
+			s.backgrounds = backgrounds * factor;
+			s.backgroundSize = backgroundSize;
+			s.sounds = sounds * factor;
+			s.maxSoundSize = maxSoundSize;
+			s.scripts = scripts * factor;
+			s.maxScriptLines = maxScriptLines;
+			s.objects = objects * factor;
+			s.maxEventsPerObject = maxEventsPerObject;
+			s.maxActionsPerEvent = maxActionsPerEvent;
+			s.maxCodeLines = maxCodeLines;
+			s.rooms = rooms * factor;
+			s.maxInstancesPerRoom = maxInstancesPerRoom;
+			s.maxTilesPerRoom = maxTilesPerRoom;
+			s.timelines = timelines * factor;
+			s.maxMomentsPerTimeline = maxMomentsPerTimeline;
+			s.includedFiles = includedFiles * factor;
+			s.maxIncludedFileSize = maxIncludedFileSize;
+			s.constants = constants * factor;
+			s.groupSize = groupSize;
+			return s;
+		}
+	}
+
+	/** The (main, sub) event ids objects draw their events from. */
+	private static final int[][] EVENT_TYPES = {
+			{ MainEvent.EV_CREATE, 0 }, { MainEvent.EV_DESTROY, 0 },
+			{ MainEvent.EV_ALARM, Event.EV_ALARM0 }, { MainEvent.EV_ALARM, Event.EV_ALARM1 },
+			{ MainEvent.EV_STEP, Event.EV_STEP_NORMAL }, { MainEvent.EV_STEP, Event.EV_STEP_BEGIN },
+			{ MainEvent.EV_STEP, Event.EV_STEP_END }, { MainEvent.EV_KEYBOARD, 37 },
+			{ MainEvent.EV_KEYBOARD, 39 }, { MainEvent.EV_MOUSE, Event.EV_LEFT_PRESS },
+			{ MainEvent.EV_OTHER, Event.EV_ROOM_START }, { MainEvent.EV_OTHER, Event.EV_USER0 },
+			{ MainEvent.EV_DRAW, 0 }, { MainEvent.EV_KEYPRESS, 32 }
+	};
+
+	private static final String[] CODE_LINES = {
+			"if (x > room_width) { x = 0; }",
+			"hspeed = lengthdir_x(speed, direction);",
+			"with (obj_%d) { instance_destroy(); }",
+			"global.score += %d;",
+			"alarm[0] = room_speed * %d;",
+			"draw_sprite(sprite_index, image_index, x, y);",
+			"var i; for (i = 0; i < %d; i += 1) { ds_list_add(list, i); }",
+			"// Generated comment line %d",
+			"if (keyboard_check(vk_left)) { x -= %d; }",
+			"sound_play(snd_%d);"
+	};
+
+	private final Settings settings;
+	private final Random random;
+
+	private GmFile gmf;
+	private final List<Background> backgroundList = new ArrayList<Background>();
+	private final List<GmObject> objectList = new ArrayList<GmObject>();
+	private final List<Sprite> spriteList = new ArrayList<Sprite>();
+
+	public ProjectGenerator(Settings settings, long seed) {
+		this.settings = settings;
+		this.random = new Random(seed);
+	}
+
+	/**
+	 * Generates the project. The resource tree is added to the given (empty)
+	 * root node, like GmFileReader does.
+	 */
+	public GmFile generate(ResNode root) {
+		LibManager.ensureLoaded();
+		gmf = new GmFile();
+		// GmFile randomizes these, derive them from the seed instead
+		byte[] guid = new byte[16];
+		random.nextBytes(guid);
+		gmf.gameSettings.put(PGameSettings.GAME_ID, random.nextInt(100000000));
+		gmf.gameSettings.put(PGameSettings.DPLAY_GUID, guid);
+
+		List<Sprite> sprites = new ArrayList<Sprite>();
+		for (int i = 0; i < settings.sprites; i++) {
+			sprites.add(generateSprite(i));
+		}
+		spriteList.addAll(sprites);
+
+		List<Sound> sounds = new ArrayList<Sound>();
+		for (int i = 0; i < settings.sounds; i++) {
+			sounds.add(generateSound(i));
+		}
+
+		for (int i = 0; i < settings.backgrounds; i++) {
+			backgroundList.add(generateBackground(i));
+		}
+
+		List<Script> scripts = new ArrayList<Script>();
+		for (int i = 0; i < settings.scripts; i++) {
+			Script script = new Script();
+			script.setName("scr_" + i);
+			script.put(PScript.CODE, generateCode(1 + random.nextInt(settings.maxScriptLines)));
+			scripts.add(script);
+		}
+
+		// Objects first, so that timelines and rooms can refer to them
+		for (int i = 0; i < settings.objects; i++) {
+			GmObject obj = new GmObject();
+			obj.setName("obj_" + i);
+			objectList.add(obj);
+		}
+		for (GmObject obj : objectList) {
+			fillObject(obj);
+		}
+
+		List<Timeline> timelines = new ArrayList<Timeline>();
+		for (int i = 0; i < settings.timelines; i++) {
+			timelines.add(generateTimeline(i));
+		}
+
+		List<Room> rooms = new ArrayList<Room>();
+		for (int i = 0; i < settings.rooms; i++) {
+			rooms.add(generateRoom(i));
+		}
+
+		addResources(PrimaryResourceType.SPRITES, sprites, root);
+		addResources(PrimaryResourceType.SOUNDS, sounds, root);
+		addResources(PrimaryResourceType.BACKGROUNDS, backgroundList, root);
+		addResources(PrimaryResourceType.PATHS, Collections.emptyList(), root);
+		addResources(PrimaryResourceType.SCRIPTS, scripts, root);
+		addResources(PrimaryResourceType.FONTS, Collections.emptyList(), root);
+		addResources(PrimaryResourceType.TIMELINES, timelines, root);
+		addResources(PrimaryResourceType.OBJECTS, objectList, root);
+		addResources(PrimaryResourceType.ROOMS, rooms, root);
+
+		new GameInfoFormat().addResToTree(gmf.gameInfo, root);
+		new GameSettingsFormat().addResToTree(gmf.gameSettings, root);
+		new ExtensionsFormat().addResToTree(gmf.packages, root);
+
+		for (int i = 0; i < settings.constants; i++) {
+			Constant c = new Constant();
+			c.name = "CONST_" + i;
+			c.value = Integer.toString(random.nextInt(1000));
+			gmf.constants.add(c);
+		}
+		for (int i = 0; i < settings.includedFiles; i++) {
+			generateIncludedFile(i);
+		}
+		return gmf;
+	}
+
+	private Sprite generateSprite(int index) {
+		Sprite sprite = new Sprite();
+		sprite.setName("spr_" + index);
+		int width = 8 + random.nextInt(settings.maxSpriteSize - 7);
+		int height = 8 + random.nextInt(settings.maxSpriteSize - 7);
+		int frames = 1 + random.nextInt(settings.maxFramesPerSprite);
+		for (int f = 0; f < frames; f++) {
+			sprite.subImages.add(generateImage(width, height, true).toBufferedImage());
+		}
+		return sprite;
+	}
+
+	private Background generateBackground(int index) {
+		Background bg = new Background();
+		bg.setName("bg_" + index);
+		bg.setBackgroundImage(generateImage(settings.backgroundSize, settings.backgroundSize, false));
+		boolean tileset = random.nextBoolean();
+		bg.put(PBackground.USE_AS_TILESET, tileset);
+		if (tileset) {
+			bg.put(PBackground.TILE_WIDTH, 32);
+			bg.put(PBackground.TILE_HEIGHT, 32);
+		}
+		return bg;
+	}
+
+	/**
+	 * An image with some structure, so that it compresses like real art does:
+	 * a gradient with a noisy blob, optionally on a transparent border.
+	 */
+	private RawImage generateImage(int width, int height, boolean transparentBorder) {
+		RawImage img = new RawImage(width, height);
+		int base = random.nextInt() & 0xFFFFFF;
+		int bx = transparentBorder ? width / 6 : 0;
+		int by = transparentBorder ? height / 6 : 0;
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int argb;
+				if (x < bx || y < by || x >= width - bx || y >= height - by) {
+					argb = 0;
+				} else {
+					argb = 0xFF000000 | ((base + (x << 16) + (y << 8)) & 0xFFFFFF);
+					if (random.nextInt(4) == 0) {
+						argb ^= random.nextInt(0x10) * 0x010101;
+					}
+				}
+				img.pixels[y * width + x] = argb;
+			}
+		}
+		return img;
+	}
+
+	private Sound generateSound(int index) {
+		Sound sound = new Sound();
+		sound.setName("snd_" + index);
+		sound.put(PSound.FILE_TYPE, ".wav");
+		sound.put(PSound.FILE_NAME, "snd_" + index + ".wav");
+		sound.data = new SyntheticPayload(random.nextLong(), 1 + random.nextInt(settings.maxSoundSize));
+		return sound;
+	}
+
+	private void generateIncludedFile(int index) {
+		Include inc = new Include();
+		inc.filename = "data_" + index + ".bin";
+		inc.filepath = "C:\\Projects\\data\\" + inc.filename;
+		inc.isOriginal = true;
+		inc.data = new SyntheticPayload(random.nextLong(), 1 + random.nextInt(settings.maxIncludedFileSize));
+		inc.size = (int) inc.data.length();
+		gmf.includes.add(inc);
+	}
+
+	private void fillObject(GmObject obj) {
+		if (!spriteList.isEmpty()) {
+			obj.put(PGmObject.SPRITE, spriteList.get(random.nextInt(spriteList.size())).reference);
+		}
+		List<int[]> types = new ArrayList<int[]>();
+		Collections.addAll(types, EVENT_TYPES);
+		Collections.shuffle(types, random);
+		int events = 1 + random.nextInt(settings.maxEventsPerObject);
+		for (int i = 0; i < events && i < types.size(); i++) {
+			int[] type = types.get(i);
+			Event ev = obj.mainEvents.get(type[0]).addEvent();
+			ev.mainId = type[0];
+			ev.id = type[1];
+			fillActions(ev);
+		}
+	}
+
+	private Timeline generateTimeline(int index) {
+		Timeline timeline = new Timeline();
+		timeline.setName("tl_" + index);
+		int step = 0;
+		int moments = 1 + random.nextInt(settings.maxMomentsPerTimeline);
+		for (int i = 0; i < moments; i++) {
+			Moment moment = timeline.addMoment();
+			step += 1 + random.nextInt(60);
+			moment.stepNo = step;
+			fillActions(moment);
+		}
+		return timeline;
+	}
+
+	private void fillActions(ActionContainer container) {
+		int actions = 1 + random.nextInt(settings.maxActionsPerEvent);
+		for (int i = 0; i < actions; i++) {
+			Action act = new Action(LibManager.codeAction);
+			act.getArguments().get(0).setVal(generateCode(1 + random.nextInt(settings.maxCodeLines)));
+			container.actions.add(act);
+		}
+	}
+
+	private Room generateRoom(int index) {
+		Room room = new Room();
+		room.setName("rm_" + index);
+		int instances = random.nextInt(settings.maxInstancesPerRoom + 1);
+		for (int i = 0; i < instances && !objectList.isEmpty(); i++) {
+			Instance inst = room.addInstance(gmf);
+			inst.setPosition(new Point(random.nextInt(128) * 16, random.nextInt(128) * 16));
+			inst.properties.put(PInstance.OBJECT, objectList.get(random.nextInt(objectList.size())).reference);
+			if (random.nextInt(20) == 0) {
+				inst.setCreationCode(generateCode(1 + random.nextInt(3)));
+			}
+		}
+		int tiles = random.nextInt(settings.maxTilesPerRoom + 1);
+		for (int i = 0; i < tiles && !backgroundList.isEmpty(); i++) {
+			Tile tile = new Tile(room, gmf);
+			tile.properties.put(PTile.BACKGROUND,
+					backgroundList.get(random.nextInt(backgroundList.size())).reference);
+			tile.setBackgroundPosition(new Point(random.nextInt(8) * 32, random.nextInt(8) * 32));
+			tile.setRoomPosition(new Point(random.nextInt(64) * 32, random.nextInt(64) * 32));
+			tile.setSize(new Dimension(32, 32));
+			tile.setDepth(1000000 - random.nextInt(4) * 1000);
+			room.tiles.add(tile);
+		}
+		return room;
+	}
+
+	private String generateCode(int lines) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < lines; i++) {
+			String line = CODE_LINES[random.nextInt(CODE_LINES.length)];
+			sb.append(String.format(line, random.nextInt(Math.max(1, settings.objects)))).append("\r\n");
+		}
+		return sb.toString();
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private void addResources(PrimaryResourceType prt, List<?> resources, ResNode root) {
+		ResourceFormat format = prt.format;
+		ResNode typeNode = root.addChild(prt.pathName, ResNode.STATUS_PRIMARY, prt.resourceKind);
+		ResNode parent = typeNode;
+		for (int i = 0; i < resources.size(); i++) {
+			if (settings.groupSize > 0 && i % settings.groupSize == 0 && resources.size() > settings.groupSize) {
+				parent = typeNode.addChild("group_" + (i / settings.groupSize), ResNode.STATUS_GROUP,
+						prt.resourceKind);
+			}
+			format.addResToTree((InstantiableResource<?, ?>) resources.get(i), parent);
+		}
+		format.addAllResourcesToGmFile(resources, gmf, new ConversionContext());
+	}
+
+	/**
+	 * Sound-like filler data that is produced on demand from a seed, so large
+	 * projects don't need to keep their sounds and included files in memory.
+	 */
+	private static class SyntheticPayload extends Payload {
+		private final long seed;
+		private final long length;
+
+		public SyntheticPayload(long seed, long length) {
+			this.seed = seed;
+			this.length = length;
+		}
+
+		@Override
+		public long length() {
+			return length;
+		}
+
+		@Override
+		public InputStream openStream() {
+			return new InputStream() {
+				private final Random random = new Random(seed);
+				private long pos = 0;
+				private int value = 0;
+
+				@Override
+				public int read() {
+					if (pos >= length) {
+						return -1;
+					}
+					// A noisy wave, which compresses about as badly as real audio
+					if ((pos & 63) == 0) {
+						value = random.nextInt(256);
+					}
+					pos++;
+					return (value + (int) (pos & 15)) & 0xFF;
+				}
+
+				@Override
+				public int read(byte[] b, int off, int len) {
+					if (pos >= length) {
+						return -1;
+					}
+					int n = (int) Math.min(len, length - pos);
+					for (int i = 0; i < n; i++) {
+						b[off + i] = (byte) read();
+					}
+					return n;
+				}
+			};
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length != 3) {
+			System.out.println("Usage: java -cp gmksplit.jar com.ganggarrison.gmdec.ProjectGenerator <scale> <seed> <dest>");
+			System.out.println("Generates a synthetic project with <scale> times the resources of a small game.");
+			System.out.println("If <dest> ends with .gmk or .gm81 a GMK file is written, otherwise a split tree.");
+			return;
+		}
+		int scale = Integer.parseInt(args[0]);
+		long seed = Long.parseLong(args[1]);
+		File dest = new File(args[2]);
+		if (dest.exists()) {
+			System.err.println("Destination " + dest + " already exists.");
+			return;
+		}
+
+		ResNode root = new ResNode("Root", (byte) 0, null, null);
+		GmFile gmf = new ProjectGenerator(new Settings().scale(scale), seed).generate(root);
+		String name = dest.getName().toLowerCase();
+		if (name.endsWith(".gmk") || name.endsWith(".gm81")) {
+			writeGmk(gmf, root, dest, name.endsWith(".gmk") ? 800 : 810);
+		} else {
+			ConversionContext context = new ConversionContext();
+			context.targetVersion = 810;
+			GmkSplitter.writeTree(gmf, root, dest, context);
+		}
+	}
+
+	public static void writeGmk(GmFile gmf, ResNode root, File dest, int version) throws IOException {
+		gmf.uri = dest.toURI();
+		FileOutputStream fos = new FileOutputStream(dest);
+		try {
+			GmFileWriter.writeGmFile(fos, gmf, root, version);
+		} finally {
+			fos.close();
+		}
+	}
+}
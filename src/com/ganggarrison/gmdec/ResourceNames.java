@@ -0,0 +1,48 @@
+/*
+ * This file is part of GmkSplitter.
+ * GmkSplitter is free software and comes with ABSOLUTELY NO WARRANTY.
+ * See LICENSE for details.
+ */
+package com.ganggarrison.gmdec;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.lateralgm.file.GmFile;
+import org.lateralgm.resources.InstantiableResource;
+
+/**
+ * Finds the resources of a GmFile by name. ResourceList.get(String) searches
+ * the whole list, which made resolving the references of a large project take
+ * time quadratic in its size. Here the names of each kind are indexed the first
+ * time they are looked up, so the resources must not be renamed, added or
+ * removed in the meantime.
+ */
+public class ResourceNames {
+	private final GmFile gmf;
+	private final Map<Class<?>, Map<String, InstantiableResource<?, ?>>> byKind;
+
+	public ResourceNames(GmFile gmf) {
+		this.gmf = gmf;
+		byKind = new HashMap<Class<?>, Map<String, InstantiableResource<?, ?>>>();
+	}
+
+	/**
+	 * Returns the resource of the kind with the given name, or null if there is
+	 * none. Like ResourceList.get(String), the first one if there are several.
+	 */
+	@SuppressWarnings("unchecked")
+	public <R extends InstantiableResource<R, ?>> R get(Class<R> kind, String name) {
+		Map<String, InstantiableResource<?, ?>> names = byKind.get(kind);
+		if (names == null) {
+			names = new HashMap<String, InstantiableResource<?, ?>>();
+			for (R resource : gmf.resMap.getList(kind)) {
+				if (!names.containsKey(resource.getName())) {
+					names.put(resource.getName(), resource);
+				}
+			}
+			byKind.put(kind, names);
+		}
+		return (R) names.get(name);
+	}
+}
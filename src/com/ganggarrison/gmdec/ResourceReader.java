@@ -7,22 +7,26 @@
  */
 package com.ganggarrison.gmdec;
 
-import java.io.File;
-import java.io.FileFilter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.EnumMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
 
 import org.lateralgm.components.impl.ResNode;
 import org.lateralgm.file.GmFile;
+import org.lateralgm.file.Metrics;
+import org.lateralgm.file.Metrics.Counter;
 import org.lateralgm.resources.GameInformation;
 import org.lateralgm.resources.GameSettings;
 import org.lateralgm.resources.InstantiableResource;
 import org.lateralgm.resources.Resource;
 
 import com.ganggarrison.easyxml.XmlReader;
+import com.ganggarrison.gmdec.JobExecutor.Task;
 import com.ganggarrison.gmdec.ResourceTreeEntry.Type;
 import com.ganggarrison.gmdec.dupes.InstanceAccessor;
 import com.ganggarrison.gmdec.dupes.OrderPreservingDupeRemoval;
@@ -30,10 +34,35 @@ import com.ganggarrison.gmdec.dupes.TileAccessor;
 import com.ganggarrison.gmdec.files.ExtensionsFormat;
 import com.ganggarrison.gmdec.files.GameInfoFormat;
 import com.ganggarrison.gmdec.files.GameSettingsFormat;
+import com.ganggarrison.gmdec.files.ObjectFormat;
 import com.ganggarrison.gmdec.files.ResourceFormat;
+import com.ganggarrison.gmdec.storage.TreePath;
 import com.ganggarrison.gmdec.xml.ResourceListXmlFormat;
 
+/**
+ * Reads a file tree into a GmFile. The resources of each kind are read in
+ * parallel: each one is built by a single thread, and nothing else sees it
+ * until it is complete. Only then, on the thread that called
+ * {@link #readTree(ResNode, GmFile, TreePath)}, are they put into the
+ * resource tree and the GmFile, in the order of the resource lists. The
+ * LateralGM model classes themselves are not thread-safe, and don't have to
+ * be.
+ * <p>
+ * The references between the resources are resolved on the same thread at the
+ * end, since setting one registers a listener on the referenced resource. The
+ * resources are looked up by name through {@link ResourceNames}, which keeps
+ * this pass small next to reading the files.
+ */
 public class ResourceReader {
+	private static final ResourceListXmlFormat RESOURCE_LIST_FORMAT = new ResourceListXmlFormat();
+	/** Shared by all conversions. Its tasks each read one resource and never wait for others. */
+	private static final JobExecutor READ_POOL = new JobExecutor("Resource reader");
+
+	/** Name of the {@link Metrics} phases for reading a file tree */
+	public static final String PHASE = "tree.read";
+
+	private static final String RESOURCE_LIST_FILENAME = "_resources.list.xml";
+
 	private static final PrimaryResourceType[] resTypeReadingOrder = new PrimaryResourceType[] {
 			PrimaryResourceType.BACKGROUNDS, PrimaryResourceType.FONTS, PrimaryResourceType.SCRIPTS,
 			PrimaryResourceType.SPRITES, PrimaryResourceType.SOUNDS, PrimaryResourceType.OBJECTS,
@@ -41,16 +70,19 @@ public class ResourceReader {
 	};
 
 	private final EnumMap<PrimaryResourceType, List<Resource<?, ?>>> resources;
+	private final ConversionContext context;
 
-	public ResourceReader() {
+	public ResourceReader(ConversionContext context) {
+		this.context = context;
 		resources = new EnumMap<PrimaryResourceType, List<Resource<?, ?>>>(PrimaryResourceType.class);
 		for (PrimaryResourceType prt : PrimaryResourceType.values()) {
 			resources.put(prt, new ArrayList<Resource<?, ?>>());
 		}
 	}
 
-	public void readTree(ResNode root, GmFile gmf, File sourcePath) throws IOException {
-		DeferredReferenceCreatorNotifier notifier = new DeferredReferenceCreatorNotifier();
+	public void readTree(ResNode root, GmFile gmf, TreePath sourcePath) throws IOException {
+		Metrics metrics = Metrics.get();
+		metrics.begin(PHASE, (String) null);
 		EnumMap<PrimaryResourceType, ResNode> primaryNodes = new EnumMap<PrimaryResourceType, ResNode>(
 				PrimaryResourceType.class);
 
@@ -60,153 +92,191 @@ public class ResourceReader {
 		}
 
 		for (PrimaryResourceType prt : resTypeReadingOrder) {
-			File subdir = new File(sourcePath, prt.pathName);
+			TreePath subdir = sourcePath.resolve(prt.pathName);
 			if (subdir.isDirectory()) {
-				new SubtreeReader(prt, notifier).readSubtree(primaryNodes.get(prt), subdir);
+				metrics.begin(PHASE, prt.resourceKind);
+				SubtreeReader reader = new SubtreeReader(prt);
+				reader.addSubtree(primaryNodes.get(prt), reader.readSubtree(subdir));
+				metrics.count(Counter.RESOURCES, resources.get(prt).size());
+				metrics.end();
 			}
 		}
 
+		metrics.begin(PHASE, "Settings");
 		GameInfoFormat gameInfoFormat = new GameInfoFormat();
-		GameInformation gameInfo = gameInfoFormat.read(sourcePath, null, notifier);
+		GameInformation gameInfo = gameInfoFormat.read(sourcePath, null, context);
 		gameInfoFormat.addResToTree(gameInfo, root);
-		gameInfoFormat.addAllResourcesToGmFile(Collections.singletonList(gameInfo), gmf);
+		gameInfoFormat.addAllResourcesToGmFile(Collections.singletonList(gameInfo), gmf, context);
 
 		GameSettingsFormat gameSettingsFormat = new GameSettingsFormat();
-		GameSettings gameSettings = gameSettingsFormat.read(sourcePath, null, notifier);
+		GameSettings gameSettings = gameSettingsFormat.read(sourcePath, null, context);
 		gameSettingsFormat.addResToTree(gameSettings, root);
-		gameSettingsFormat.addAllResourcesToGmFile(Collections.singletonList(gameSettings), gmf);
+		gameSettingsFormat.addAllResourcesToGmFile(Collections.singletonList(gameSettings), gmf, context);
 
 		ExtensionsFormat extensionsFormat = new ExtensionsFormat();
-		List<String> extensions = extensionsFormat.read(sourcePath, null, notifier);
+		List<String> extensions = extensionsFormat.read(sourcePath, null, context);
 		extensionsFormat.addResToTree(extensions, root);
-		extensionsFormat.addAllResourcesToGmFile(Collections.singletonList(extensions), gmf);
+		extensionsFormat.addAllResourcesToGmFile(Collections.singletonList(extensions), gmf, context);
+		metrics.end();
 
+		metrics.begin(PHASE, "References");
 		for (PrimaryResourceType prt : PrimaryResourceType.values()) {
 			addAllResourcesToGmFile(prt.format, resources.get(prt), gmf);
 		}
 
-		OrderPreservingDupeRemoval.perform(new TileAccessor(gmf));
-		OrderPreservingDupeRemoval.perform(new InstanceAccessor(gmf));
+		OrderPreservingDupeRemoval.perform(new TileAccessor(gmf, context.preserveIds), context);
+		OrderPreservingDupeRemoval.perform(new InstanceAccessor(gmf, context.preserveIds), context);
 
-		notifier.createReferences(gmf);
+		context.getNotifier().createReferences(gmf, context);
+		metrics.end();
+		metrics.end();
 	}
 
 	@SuppressWarnings("unchecked")
 	private <T extends InstantiableResource<T, ?>> void addAllResourcesToGmFile(ResourceFormat<T> format,
 			List<?> resources,
 			GmFile gmf) {
-		format.addAllResourcesToGmFile((List<T>) resources, gmf);
+		format.addAllResourcesToGmFile((List<T>) resources, gmf, context);
+	}
+
+	/** A group, or a resource that is being read */
+	private static class TreeItem {
+		final String groupName;
+		final List<TreeItem> children;
+		final Task<? extends Resource<?, ?>> resource;
+
+		TreeItem(String groupName, List<TreeItem> children) {
+			this.groupName = groupName;
+			this.children = children;
+			resource = null;
+		}
+
+		TreeItem(Task<? extends Resource<?, ?>> resource) {
+			groupName = null;
+			children = null;
+			this.resource = resource;
+		}
 	}
 
 	private class SubtreeReader {
 		private final PrimaryResourceType prt;
-		private final DeferredReferenceCreatorNotifier notifier;
 
-		public SubtreeReader(PrimaryResourceType type, DeferredReferenceCreatorNotifier notifier) {
+		public SubtreeReader(PrimaryResourceType type) {
 			this.prt = type;
-			this.notifier = notifier;
 		}
 
-		public void readSubtree(ResNode node, File dir)
-				throws IOException {
-			List<ResourceTreeEntry> resources = readResourceList(dir);
+		/**
+		 * Reads the resource lists of the directory and its groups, and starts
+		 * reading the resources.
+		 */
+		public List<TreeItem> readSubtree(TreePath dir) throws IOException {
+			DirectoryListing listing = dir.list();
+			List<ResourceTreeEntry> resources = readResourceList(dir, listing);
+			List<TreeItem> items = new ArrayList<TreeItem>(resources.size());
 			for (ResourceTreeEntry rte : resources) {
 				if (rte.type == Type.GROUP) {
-					String childName = rte.name;
-					File subdir = new File(dir, rte.getFilename());
-					ResNode child = node.addChild(childName, ResNode.STATUS_GROUP, node.kind);
-					if (!subdir.isDirectory()) {
+					if (!listing.isDirectory(rte.getFilename())) {
 						throw new IOException("Resource group directory: " + rte.getFilename() + " not found!");
 					}
-					readSubtree(child, subdir);
+					items.add(new TreeItem(rte.name, readSubtree(dir.resolve(rte.getFilename()))));
 				} else {
-					readResource(dir, rte, node, prt);
+					items.add(new TreeItem(startReading(dir, rte, prt.format)));
 				}
 			}
+			return items;
 		}
 
-		private void readResource(File dir, ResourceTreeEntry entry, ResNode node, PrimaryResourceType prt)
-				throws IOException {
-			Resource<?, ?> resource = readResource(dir, entry, node, prt.format);
-			resources.get(prt).add(resource);
+		private <T extends InstantiableResource<T, ?>> Task<T> startReading(final TreePath dir,
+				final ResourceTreeEntry entry, final ResourceFormat<T> format) {
+			return READ_POOL.submit(new Callable<T>() {
+				@Override
+				public T call() throws IOException {
+					return format.read(dir, entry, context);
+				}
+			});
 		}
 
-		private <T extends InstantiableResource<T, ?>> T readResource(File dir, ResourceTreeEntry entry, ResNode node,
-				ResourceFormat<T> format)
-				throws IOException {
-			T res = format.read(dir, entry, notifier);
-			format.addResToTree(res, node);
-			return res;
+		/** Waits for the resources, and adds them and the groups to the tree in order. */
+		public void addSubtree(ResNode node, List<TreeItem> items) throws IOException {
+			for (TreeItem item : items) {
+				if (item.resource == null) {
+					addSubtree(node.addChild(item.groupName, ResNode.STATUS_GROUP, node.kind), item.children);
+				} else {
+					Resource<?, ?> resource = item.resource.get();
+					addResToTree(prt.format, resource, node);
+					ResourceReader.this.resources.get(prt).add(resource);
+				}
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		private <T extends InstantiableResource<T, ?>> void addResToTree(ResourceFormat<T> format,
+				Resource<?, ?> resource, ResNode node) {
+			format.addResToTree((T) resource, node);
 		}
 
 		/**
 		 * Read the resource list file and return the list of resources and
 		 * groups in this path.
 		 * 
-		 * For completeness, this function scans the directory for any files and
-		 * directories that could be resources or groups but aren't accounted
-		 * for. A warning is written to stderr for these. This function could be
-		 * changed to actually add additional resources and groups to the end of
-		 * the list and remove nonexistant resources from it, for higher
-		 * tolerance to manual editing of the resource tree.
+		 * For completeness, this function checks the directory listing for any
+		 * files and directories that could be resources or groups but aren't
+		 * accounted for. A warning is written to stderr for these. This
+		 * function could be changed to actually add additional resources and
+		 * groups to the end of the list and remove nonexistant resources from
+		 * it, for higher tolerance to manual editing of the resource tree.
 		 * 
 		 * @param subdir
+		 * @param listing
+		 *            The content of subdir
 		 * @return
 		 * @throws IOException
 		 */
-		private List<ResourceTreeEntry> readResourceList(File subdir) throws IOException {
-			File listFile = new File(subdir, "_resources.list.xml");
-			if (!listFile.isFile()) {
-				System.err.print("WARNING: Directory " + subdir + " doesn't contain a resource list file. ");
-				System.err.println("No resources from this directory or its subdirectories will be processed.");
+		private List<ResourceTreeEntry> readResourceList(TreePath subdir, DirectoryListing listing)
+				throws IOException {
+			if (!listing.isFile(RESOURCE_LIST_FILENAME)) {
+				context.warn("WARNING: Directory " + subdir + " doesn't contain a resource list file. "
+						+ "No resources from this directory or its subdirectories will be processed.");
 				return Collections.emptyList();
 			}
 
-			List<ResourceTreeEntry> resources = new ResourceListXmlFormat().read(new XmlReader(listFile));
+			List<ResourceTreeEntry> resources = RESOURCE_LIST_FORMAT.read(new XmlReader(subdir
+					.resolve(RESOURCE_LIST_FILENAME)));
 
-			File[] resFiles = subdir.listFiles(new FileFilter() {
-				@Override
-				public boolean accept(File pathname) {
-					String filename = pathname.getName().toLowerCase();
-					if (pathname.isDirectory()) {
-						return !filename.contains(".");
-					} else if (pathname.isFile()) {
-						return (filename.endsWith(".xml") || filename.endsWith(".gml"))
-								&& !filename.equals("_resources.list.xml");
-					} else {
-						return false;
-					}
-				}
-			});
+			Set<String> groupNames = new HashSet<String>();
+			Set<String> resourceNames = new HashSet<String>();
+			for (ResourceTreeEntry rte : resources) {
+				(rte.type == Type.GROUP ? groupNames : resourceNames).add(rte.getFilename());
+			}
 
-			for (File resFile : resFiles) {
-				if (!resourcesContainFile(resources, resFile)) {
-					System.err.println("Warning: Potential resource/group not in list file and won't be included: "
-							+ resFile);
+			for (String name : listing.getDirectories()) {
+				if (!name.contains(".") && !groupNames.contains(name)) {
+					warnNotInList(subdir.resolve(name));
+				}
+			}
+			for (String name : listing.getFiles()) {
+				String lowName = name.toLowerCase();
+				if ((lowName.endsWith(".xml") || lowName.endsWith(".gml"))
+						&& !lowName.equals(RESOURCE_LIST_FILENAME)
+						&& !resourceNames.contains(name.substring(0, name.length() - 4))
+						&& !isPackedEvents(name, resourceNames)) {
+					warnNotInList(subdir.resolve(name));
 				}
 			}
 
 			return resources;
 		}
 
-		private boolean resourcesContainFile(List<ResourceTreeEntry> resources, File resFile) {
-			String resName = getResourceName(resFile);
-			Type resType = resFile.isDirectory() ? Type.GROUP : Type.RESOURCE;
-			for (ResourceTreeEntry rte : resources) {
-				if (rte.getFilename().equals(resName) && rte.type == resType) {
-					return true;
-				}
-			}
-			return false;
+		/** The packed events of an object belong to it, and are read with it. */
+		private boolean isPackedEvents(String name, Set<String> resourceNames) {
+			int suffix = ObjectFormat.PACKED_EVENTS_SUFFIX.length();
+			return prt == PrimaryResourceType.OBJECTS && name.length() > suffix
+					&& name.toLowerCase().endsWith(ObjectFormat.PACKED_EVENTS_SUFFIX)
+					&& resourceNames.contains(name.substring(0, name.length() - suffix));
 		}
 
-		private String getResourceName(File resFile) {
-			String name = resFile.getName();
-			String lowName = name.toLowerCase();
-			if (resFile.isFile() && (lowName.endsWith(".xml") || lowName.endsWith(".gml"))) {
-				name = name.substring(0, name.length() - 4);
-			}
-			return name;
+		private void warnNotInList(TreePath resFile) {
+			context.warn("Warning: Potential resource/group not in list file and won't be included: " + resFile);
 		}
 	}
 }
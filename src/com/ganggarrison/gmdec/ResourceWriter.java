@@ -7,13 +7,14 @@
  */
 package com.ganggarrison.gmdec;
 
-import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Enumeration;
 
 import org.lateralgm.components.impl.ResNode;
 import org.lateralgm.file.GmFile;
+import org.lateralgm.file.Metrics;
+import org.lateralgm.file.Metrics.Counter;
 import org.lateralgm.file.ResourceList;
 import org.lateralgm.resources.Extensions;
 import org.lateralgm.resources.GameInformation;
@@ -27,57 +28,74 @@ import com.ganggarrison.gmdec.files.GameInfoFormat;
 import com.ganggarrison.gmdec.files.GameSettingsFormat;
 import com.ganggarrison.gmdec.files.FileTreeFormat;
 import com.ganggarrison.gmdec.files.ResourceFormat;
+import com.ganggarrison.gmdec.storage.TreePath;
 import com.ganggarrison.gmdec.xml.ResourceListXmlFormat;
 
 public class ResourceWriter {
-	public static void writeTree(ResNode root, GmFile gmf, File startPath) throws IOException {
+	private static final ResourceListXmlFormat RESOURCE_LIST_FORMAT = new ResourceListXmlFormat();
+
+	/** Name of the {@link Metrics} phases for writing a file tree */
+	public static final String PHASE = "tree.write";
+
+	public static void writeTree(ResNode root, GmFile gmf, TreePath startPath, ConversionContext context)
+			throws IOException {
 		for (Class<?> resKind : gmf.resMap.keySet()) {
 			if (InstantiableResource.class.isAssignableFrom(resKind)) {
 				ResourceList<?> list = gmf.resMap.getList((Class) resKind);
 				if (list != null) {
-					ResourceFormat.checkDuplicateNames(list, resKind);
+					ResourceFormat.checkDuplicateNames(list, resKind, context);
 				}
 			}
 		}
-		if (startPath.exists()) {
+		// The root of a new archive exists, but is empty
+		if (startPath.exists() && !startPath.list().isEmpty()) {
 			throw new IOException("Output folder already exists! Overwriting is not supported.");
 		}
+		startPath.mkdirs();
+		Metrics metrics = Metrics.get();
+		metrics.begin(PHASE, (String) null);
 		int numChilds = root.getChildCount();
 		for (int i = 0; i < numChilds; i++) {
 			ResNode child = (ResNode) root.getChildAt(i);
 			if (child.status == ResNode.STATUS_PRIMARY) {
-				writeChildTree(startPath, child, gmf);
+				writeChildTree(startPath, child, gmf, context);
 			} else if (child.status == ResNode.STATUS_SECONDARY) {
+				metrics.begin(PHASE, "Settings");
 				if (GameInformation.class.equals(child.kind)) {
-					new GameInfoFormat().write(startPath, gmf.gameInfo, gmf);
+					new GameInfoFormat().write(startPath, gmf.gameInfo, gmf, context);
 				} else if (Extensions.class.equals(child.kind)) {
-					new ExtensionsFormat().write(startPath, gmf.packages, gmf);
+					new ExtensionsFormat().write(startPath, gmf.packages, gmf, context);
 				} else if (GameSettings.class.equals(child.kind)) {
-					new GameSettingsFormat().write(startPath, gmf.gameSettings, gmf);
+					new GameSettingsFormat().write(startPath, gmf.gameSettings, gmf, context);
 				} else {
 					throw new IOException("Unexpected secondary resource kind " + child.kind
 							+ " in first level of the tree.");
 				}
+				metrics.end();
 			} else {
 				throw new IOException("Unexpected resource group \"" + child.getUserObject()
 						+ "\" in resource tree root.");
 			}
 		}
-
+		metrics.end();
 	}
 
 	// TODO: create a subclass like in the Reader case to reduce parameter count
-	private static void writeChildTree(File startPath, ResNode child, GmFile gmf) throws IOException {
+	private static void writeChildTree(TreePath startPath, ResNode child, GmFile gmf,
+			ConversionContext context) throws IOException {
 		for (PrimaryResourceType type : PrimaryResourceType.values()) {
 			if (type.resourceKind.equals(child.kind)) {
-				writeTreeRecursive(child, new File(startPath, type.pathName), type, gmf);
+				Metrics.get().begin(PHASE, type.resourceKind);
+				writeTreeRecursive(child, startPath.resolve(type.pathName), type, gmf, context);
+				Metrics.get().end();
 				return;
 			}
 		}
 		throw new IOException("Unknown primary resource group \"" + child.getUserObject() + "\"");
 	}
 
-	private static void writeTreeRecursive(ResNode node, File path, PrimaryResourceType type, GmFile gmf)
+	private static void writeTreeRecursive(ResNode node, TreePath path, PrimaryResourceType type, GmFile gmf,
+			ConversionContext context)
 			throws IOException {
 		if (!path.mkdirs()) {
 			throw new IOException("Duplicate resource group: \"" + node.getUserObject() + "\"");
@@ -89,20 +107,25 @@ public class ResourceWriter {
 			if (child.status != ResNode.STATUS_SECONDARY) {
 				String childName = (String) child.getUserObject();
 				String filename = FileTools.replaceBadChars(childName);
-				File subPath = new File(path, filename);
-				writeTreeRecursive(child, subPath, type, gmf);
+				TreePath subPath = path.resolve(filename);
+				writeTreeRecursive(child, subPath, type, gmf, context);
 				groupResList.add(new ResourceTreeEntry(childName, filename, Type.GROUP));
 			} else {
 				if (child.getRes() != null) {
 					FileTreeFormat format = type.format;
 					Resource<?, ?> resource = child.getRes().get();
-					format.write(path, resource, gmf);
+					if (context.treeUpdate != null) {
+						context.treeUpdate.writeResource(path, resource, type, gmf, context);
+					} else {
+						format.write(path, resource, gmf, context);
+					}
+					Metrics.get().count(Counter.RESOURCES, 1);
 					groupResList.add(format.createResourceTreeEntry(resource));
 				} else {
-					System.err.println("Ressource without reference in tree: " + child.getUserObject());
+					context.warn("Ressource without reference in tree: " + child.getUserObject());
 				}
 			}
 		}
-		new ResourceListXmlFormat().write(groupResList, new File(path, "_resources.list.xml"));
+		RESOURCE_LIST_FORMAT.write(groupResList, path.resolve("_resources.list.xml"), context);
 	}
 }
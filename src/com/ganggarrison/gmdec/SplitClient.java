@@ -0,0 +1,117 @@
+/*
+ * This file is part of GmkSplitter.
+ * GmkSplitter is free software and comes with ABSOLUTELY NO WARRANTY.
+ * See LICENSE for details.
+ */
+package com.ganggarrison.gmdec;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.Socket;
+
+/**
+ * Thin client for {@link SplitServer}. It only sends its command line and
+ * working directory to the server and prints the answer, so it starts fast and
+ * never loads the project model.
+ *
+ * Protocol, one item per line in UTF-8: the client sends the access token,
+ * its working directory, the number of arguments and the arguments. The server
+ * answers with lines starting with "O " (standard output) or "E " (error
+ * output), followed by "X " and the exit status.
+ */
+public class SplitClient {
+	/** Argument that makes the server shut down */
+	static final String STOP = "--stop";
+	static final String OUT_PREFIX = "O ";
+	static final String ERR_PREFIX = "E ";
+	static final String EXIT_PREFIX = "X ";
+
+	/** Exit status if the server can't be reached */
+	private static final int NO_SERVER = 2;
+
+	/**
+	 * The file in which a running server publishes its port and access token.
+	 * It is only readable by the user who started the server.
+	 */
+	static File getServerInfoFile() {
+		return new File(System.getProperty("user.home"), ".gmksplit-server");
+	}
+
+	public static void main(String[] args) throws IOException {
+		System.exit(run(args));
+	}
+
+	/**
+	 * Runs the command line in the server.
+	 *
+	 * @return The exit status of the command, or 2 if no server is running.
+	 */
+	public static int run(String[] args) throws IOException {
+		File infoFile = getServerInfoFile();
+		String[] info = readServerInfo(infoFile);
+		if (info == null) {
+			System.err.println("No GmkSplitter server is running (" + infoFile + " not found).");
+			return NO_SERVER;
+		}
+
+		Socket socket;
+		try {
+			socket = new Socket(InetAddress.getLoopbackAddress(), Integer.parseInt(info[0]));
+		} catch (ConnectException e) {
+			System.err.println("The GmkSplitter server on port " + info[0] + " is not running anymore.");
+			return NO_SERVER;
+		}
+		try {
+			Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), "UTF-8"));
+			out.write(info[1] + "\n");
+			out.write(new File("").getAbsolutePath() + "\n");
+			out.write(args.length + "\n");
+			for (String arg : args) {
+				if (arg.indexOf('\n') >= 0 || arg.indexOf('\r') >= 0) {
+					throw new IllegalArgumentException("Arguments must not contain line breaks.");
+				}
+				out.write(arg + "\n");
+			}
+			out.flush();
+
+			BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (line.startsWith(OUT_PREFIX)) {
+					System.out.println(line.substring(OUT_PREFIX.length()));
+				} else if (line.startsWith(ERR_PREFIX)) {
+					System.err.println(line.substring(ERR_PREFIX.length()));
+				} else if (line.startsWith(EXIT_PREFIX)) {
+					return Integer.parseInt(line.substring(EXIT_PREFIX.length()));
+				}
+			}
+			System.err.println("The GmkSplitter server closed the connection.");
+			return NO_SERVER;
+		} finally {
+			socket.close();
+		}
+	}
+
+	/** Returns port and token, or null if there is no (valid) info file. */
+	private static String[] readServerInfo(File infoFile) throws IOException {
+		if (!infoFile.isFile()) {
+			return null;
+		}
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(infoFile), "UTF-8"));
+		try {
+			String line = reader.readLine();
+			String[] info = line == null ? null : line.trim().split(" ");
+			return info != null && info.length == 2 && info[0].matches("\\d+") ? info : null;
+		} finally {
+			reader.close();
+		}
+	}
+}
@@ -0,0 +1,286 @@
+/*
+ * This file is part of GmkSplitter.
+ * GmkSplitter is free software and comes with ABSOLUTELY NO WARRANTY.
+ * See LICENSE for details.
+ */
+package com.ganggarrison.gmdec;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.AclEntry;
+import java.nio.file.attribute.AclEntryPermission;
+import java.nio.file.attribute.AclEntryType;
+import java.nio.file.attribute.AclFileAttributeView;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.lateralgm.resources.library.LibManager;
+
+/**
+ * Long-running conversion server for {@link SplitClient}, so that tools which
+ * call GmkSplitter often (like git hooks) don't pay for starting the JVM and
+ * loading the libraries every time.
+ *
+ * The server only listens on the loopback interface. It publishes its port
+ * and a random access token in {@link SplitClient#getServerInfoFile()}, and
+ * ignores connections that don't present the token.
+ */
+public class SplitServer {
+	/** How long a client may take to send its request */
+	private static final int REQUEST_TIMEOUT = 10000;
+
+	private final ServerSocket serverSocket;
+	private final String token;
+	private final ExecutorService handlers;
+	private volatile boolean running = true;
+
+	public SplitServer() throws IOException {
+		serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+		byte[] random = new byte[16];
+		new SecureRandom().nextBytes(random);
+		StringBuilder sb = new StringBuilder();
+		for (byte b : random) {
+			sb.append(String.format("%02x", b & 0xFF));
+		}
+		token = sb.toString();
+		handlers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+	}
+
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	/**
+	 * Serves requests until a client sends the stop command.
+	 */
+	public void serve() throws IOException {
+		LibManager.ensureLoaded();
+		File infoFile = SplitClient.getServerInfoFile();
+		writeServerInfo(infoFile);
+		System.out.println("GmkSplitter server listening on port " + getPort());
+		try {
+			while (running) {
+				Socket socket;
+				try {
+					socket = serverSocket.accept();
+				} catch (SocketException e) {
+					if (!running) {
+						break;
+					}
+					throw e;
+				}
+				handlers.execute(new Handler(socket));
+			}
+		} finally {
+			handlers.shutdown();
+			infoFile.delete();
+		}
+	}
+
+	private void stop() throws IOException {
+		running = false;
+		serverSocket.close();
+	}
+
+	/**
+	 * Writes port and token to the info file. Only the owner may read the
+	 * token, so the file is created with owner-only access in the first place
+	 * instead of restricting it afterwards, and the server doesn't start if
+	 * that isn't possible.
+	 */
+	private void writeServerInfo(File infoFile) throws IOException {
+		Path path = infoFile.toPath().toAbsolutePath();
+		Files.deleteIfExists(path);
+		FileStore store = Files.getFileStore(path.getParent());
+		if (store.supportsFileAttributeView(PosixFileAttributeView.class)) {
+			Set<PosixFilePermission> ownerOnly = PosixFilePermissions.fromString("rw-------");
+			Files.createFile(path, PosixFilePermissions.asFileAttribute(ownerOnly));
+			if (!Files.getPosixFilePermissions(path).equals(ownerOnly)) {
+				Files.delete(path);
+				throw new IOException("Cannot restrict access to " + infoFile);
+			}
+		} else if (store.supportsFileAttributeView(AclFileAttributeView.class)) {
+			UserPrincipal owner = path.getFileSystem().getUserPrincipalLookupService()
+					.lookupPrincipalByName(System.getProperty("user.name"));
+			AclEntry entry = AclEntry.newBuilder().setType(AclEntryType.ALLOW).setPrincipal(owner)
+					.setPermissions(EnumSet.allOf(AclEntryPermission.class)).build();
+			Files.createFile(path, new AclAttribute(Collections.singletonList(entry)));
+		} else {
+			throw new IOException("Cannot restrict access to " + infoFile);
+		}
+		OutputStream out = Files.newOutputStream(path, StandardOpenOption.WRITE);
+		try {
+			out.write((getPort() + " " + token + "\n").getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+	}
+
+	/** An access control list to create a file with */
+	private static class AclAttribute implements FileAttribute<List<AclEntry>> {
+		private final List<AclEntry> acl;
+
+		AclAttribute(List<AclEntry> acl) {
+			this.acl = acl;
+		}
+
+		@Override
+		public String name() {
+			return "acl:acl";
+		}
+
+		@Override
+		public List<AclEntry> value() {
+			return acl;
+		}
+	}
+
+	private class Handler implements Runnable {
+		private final Socket socket;
+
+		Handler(Socket socket) {
+			this.socket = socket;
+		}
+
+		@Override
+		public void run() {
+			try {
+				try {
+					handle();
+				} finally {
+					socket.close();
+				}
+			} catch (IOException e) {
+				System.err.println("Error while serving a client: " + e);
+			}
+		}
+
+		private void handle() throws IOException {
+			socket.setSoTimeout(REQUEST_TIMEOUT);
+			BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+			String clientToken = in.readLine();
+			if (clientToken == null
+					|| !MessageDigest.isEqual(token.getBytes("UTF-8"), clientToken.getBytes("UTF-8"))) {
+				return;
+			}
+			String workingDir = in.readLine();
+			String argCount = in.readLine();
+			if (workingDir == null || argCount == null || !argCount.matches("\\d+")) {
+				return;
+			}
+			List<String> args = new ArrayList<String>();
+			for (int i = Integer.parseInt(argCount); i > 0; i--) {
+				String arg = in.readLine();
+				if (arg == null) {
+					return;
+				}
+				args.add(arg);
+			}
+			socket.setSoTimeout(0);
+
+			OutputStream socketOut = socket.getOutputStream();
+			PrintStream out = new PrintStream(new PrefixedLineStream(socketOut, SplitClient.OUT_PREFIX), true, "UTF-8");
+			PrintStream err = new PrintStream(new PrefixedLineStream(socketOut, SplitClient.ERR_PREFIX), true, "UTF-8");
+
+			if (args.size() == 1 && args.get(0).equals(SplitClient.STOP)) {
+				out.println("GmkSplitter server stopped.");
+				sendExitStatus(socketOut, 0);
+				stop();
+				return;
+			}
+
+			int status;
+			try {
+				status = GmkSplitter.execute(args, new File(workingDir), out, err);
+			} catch (Exception e) {
+				e.printStackTrace();
+				err.println("Error: " + e);
+				status = 1;
+			}
+			out.close();
+			err.close();
+			sendExitStatus(socketOut, status);
+		}
+
+		private void sendExitStatus(OutputStream socketOut, int status) throws IOException {
+			synchronized (socketOut) {
+				socketOut.write((SplitClient.EXIT_PREFIX + status + "\n").getBytes("UTF-8"));
+				socketOut.flush();
+			}
+		}
+	}
+
+	/**
+	 * Sends every line written to it as one line with the given prefix, so
+	 * output and error output can share the connection.
+	 */
+	private static class PrefixedLineStream extends OutputStream {
+		private final OutputStream target;
+		private final byte[] prefix;
+		private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+		PrefixedLineStream(OutputStream target, String prefix) throws IOException {
+			this.target = target;
+			this.prefix = prefix.getBytes("UTF-8");
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			if (b == '\n') {
+				sendLine();
+			} else if (b != '\r') {
+				line.write(b);
+			}
+		}
+
+		/**
+		 * PrintStream flushes after every write, so flushing can't end the
+		 * line. Closing sends an unfinished last line, but keeps the
+		 * connection open.
+		 */
+		@Override
+		public void close() throws IOException {
+			if (line.size() > 0) {
+				sendLine();
+			}
+		}
+
+		private void sendLine() throws IOException {
+			byte[] text = line.toByteArray();
+			byte[] packet = new byte[prefix.length + text.length + 1];
+			System.arraycopy(prefix, 0, packet, 0, prefix.length);
+			System.arraycopy(text, 0, packet, prefix.length, text.length);
+			packet[packet.length - 1] = '\n';
+			line.reset();
+			synchronized (target) {
+				target.write(packet);
+				target.flush();
+			}
+		}
+	}
+}
@@ -0,0 +1,311 @@
+/*
+ * This file is part of GmkSplitter.
+ * GmkSplitter is free software and comes with ABSOLUTELY NO WARRANTY.
+ * See LICENSE for details.
+ */
+package com.ganggarrison.gmdec;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.lateralgm.components.impl.ResNode;
+import org.lateralgm.file.GmFile;
+import org.lateralgm.file.GmFileReader;
+import org.lateralgm.file.ResourceList;
+import org.lateralgm.file.StoredBlock;
+import org.lateralgm.resources.InstantiableResource;
+import org.lateralgm.resources.Resource;
+
+import com.ganggarrison.gmdec.files.FileTreeFormat;
+import com.ganggarrison.gmdec.storage.TreePath;
+import com.ganggarrison.gmdec.xml.BlockManifestXmlFormat;
+
+/**
+ * Splits a gmk file over a tree that was split from an earlier version of the
+ * same file. A manifest next to the tree keeps the hashes of the resource
+ * blocks, which leave out the time of the last save. Resources whose block
+ * hasn't changed are not decoded, and their files are taken over from the old
+ * tree instead of being written again.
+ * <p>
+ * The new tree is written next to the old one, and replaces it at the end. The
+ * files of a resource also contain the names of the resources it refers to,
+ * so if resources were renamed or removed, all of them are read and written.
+ */
+public class TreeUpdater implements GmFileReader.BlockFilter {
+	private static final BlockManifestXmlFormat BLOCK_MANIFEST_FORMAT = new BlockManifestXmlFormat();
+	private static final String MANIFEST_SUFFIX = ".blocks.xml";
+	private static final String NEW_SUFFIX = ".new";
+	private static final String OLD_SUFFIX = ".old";
+
+	private final File tree;
+	private final BlockManifest oldManifest;
+	private final BlockManifest newManifest = new BlockManifest();
+	/** The entries of the resources that were left out when reading */
+	private final Set<BlockManifest.Entry> knownEntries = new HashSet<BlockManifest.Entry>();
+	/** The old entries of the resources that were left out, once the file is read */
+	private final Map<Resource<?, ?>, BlockManifest.Entry> knownResources;
+	private final Map<File, DirectoryListing> oldListings = new HashMap<File, DirectoryListing>();
+	private File newTree;
+
+	private TreeUpdater(File tree, BlockManifest oldManifest) {
+		this.tree = tree;
+		this.oldManifest = oldManifest;
+		knownResources = new IdentityHashMap<Resource<?, ?>, BlockManifest.Entry>();
+	}
+
+	/** The manifest of the blocks the tree was split from, which is stored next to it. */
+	public static File getManifestFile(File tree) {
+		return new File(tree.getPath() + MANIFEST_SUFFIX);
+	}
+
+	/**
+	 * Splits the gmk file into the tree, reusing the files of the resources
+	 * that haven't changed since the tree was split. If the tree doesn't exist
+	 * yet, or has no manifest, all resources are written.
+	 */
+	public static void update(File sourceGmk, File tree, ConversionContext context) throws IOException {
+		File newTree = new File(tree.getPath() + NEW_SUFFIX);
+		File oldTree = new File(tree.getPath() + OLD_SUFFIX);
+		if (newTree.exists() || oldTree.exists()) {
+			throw new IOException(newTree + " or " + oldTree
+					+ " already exists, probably from an update that failed. Remove it to update the tree.");
+		}
+		File manifestFile = getManifestFile(tree);
+		BlockManifest manifest = new BlockManifest();
+		if (tree.exists() && manifestFile.isFile()) {
+			manifest = BLOCK_MANIFEST_FORMAT.read(manifestFile, context);
+		}
+
+		TreeUpdater updater = new TreeUpdater(tree, manifest);
+		ResNode root = new ResNode("Root", (byte) 0, null, null);
+		GmFile gmf = GmkSplitter.readGmk(sourceGmk, root, updater, context);
+		if (!updater.knownEntries.isEmpty() && !updater.findKnownResources(gmf, context)) {
+			context.report(tree + ": Resources were renamed or removed, reading all of them.");
+			gmf.releasePayloads();
+			updater = new TreeUpdater(tree, new BlockManifest());
+			root = new ResNode("Root", (byte) 0, null, null);
+			gmf = GmkSplitter.readGmk(sourceGmk, root, updater, context);
+		}
+		try {
+			updater.write(gmf, root, newTree, oldTree, context);
+		} finally {
+			gmf.releasePayloads();
+		}
+	}
+
+	@Override
+	public boolean isKnown(Class<? extends Resource<?, ?>> kind, int id, byte[] hash) {
+		BlockManifest.Entry entry = oldManifest.get(PrimaryResourceType.forKind(kind), id);
+		if (entry != null && entry.hash.equals(toHex(hash))) {
+			knownEntries.add(entry);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Finds the resources that were left out when reading, and checks that
+	 * their files in the old tree are still valid.
+	 *
+	 * @return false if the other resources have changed in a way that affects
+	 *         the files of the resources that were left out.
+	 */
+	private boolean findKnownResources(GmFile gmf, ConversionContext context) throws IOException {
+		if (!BlockManifest.getSettings(context).equals(oldManifest.settings)) {
+			return false;
+		}
+		for (PrimaryResourceType type : PrimaryResourceType.values()) {
+			Map<Integer, InstantiableResource<?, ?>> resources = new HashMap<Integer, InstantiableResource<?, ?>>();
+			ResourceList<?> list = (ResourceList<?>) gmf.resMap.get(type.resourceKind);
+			for (InstantiableResource<?, ?> resource : list) {
+				resources.put(resource.getId(), resource);
+			}
+			for (BlockManifest.Entry entry : oldManifest.getEntries(type)) {
+				InstantiableResource<?, ?> resource = resources.remove(entry.id);
+				if (resource == null || !resource.getName().equals(entry.name)) {
+					return false;
+				}
+				if (knownEntries.contains(entry)) {
+					if (listOldFiles(entry).isEmpty()) {
+						return false;
+					}
+					knownResources.put(resource, entry);
+				}
+			}
+			// References to IDs that didn't exist before might resolve now
+			for (int id : resources.keySet()) {
+				if (id <= oldManifest.getMaxId(type)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	private void write(GmFile gmf, ResNode root, File newTree, File oldTree, ConversionContext context)
+			throws IOException {
+		this.newTree = newTree;
+		context.treeUpdate = this;
+		try {
+			GmkSplitter.writeTree(gmf, root, newTree, context);
+		} finally {
+			context.treeUpdate = null;
+		}
+		newManifest.settings = BlockManifest.getSettings(context);
+
+		// The old manifest must not describe the new tree
+		File manifestFile = getManifestFile(tree);
+		Files.deleteIfExists(manifestFile.toPath());
+		if (tree.exists()) {
+			move(tree, oldTree);
+			move(newTree, tree);
+			deleteRecursively(oldTree);
+		} else {
+			move(newTree, tree);
+		}
+		File newManifestFile = new File(manifestFile.getPath() + NEW_SUFFIX);
+		Files.deleteIfExists(newManifestFile.toPath());
+		BLOCK_MANIFEST_FORMAT.write(newManifest, newManifestFile, context);
+		move(newManifestFile, manifestFile);
+		context.report(tree + ": " + knownResources.size() + " unchanged resources were kept.");
+	}
+
+	/**
+	 * Writes the files of a resource into the new tree, or takes them over
+	 * from the old tree if the resource was left out when reading. Either way,
+	 * the resource is added to the new manifest.
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	public void writeResource(TreePath path, Resource<?, ?> resource, PrimaryResourceType type, GmFile gmf,
+			ConversionContext context) throws IOException {
+		FileTreeFormat format = type.format;
+		String baseFilename = format.createResourceTreeEntry(resource).getFilename();
+		BlockManifest.Entry known = knownResources.get(resource);
+		File dir = path.toFile();
+		if (known != null) {
+			File oldDir = getOldFile(known).getParentFile();
+			for (String name : listOldFiles(known)) {
+				link(new File(oldDir, name), new File(dir, name));
+			}
+		} else {
+			format.write(path, resource, gmf, context);
+		}
+
+		StoredBlock block = resource.getStoredBlock();
+		if (block != null && block.getHash() != null) {
+			StringBuilder relativePath = new StringBuilder();
+			for (Path element : newTree.toPath().relativize(dir.toPath())) {
+				relativePath.append(element).append('/');
+			}
+			relativePath.append(baseFilename);
+			int id = ((InstantiableResource<?, ?>) resource).getId();
+			newManifest.add(new BlockManifest.Entry(type, id, toHex(block.getHash()), resource.getName(),
+					relativePath.toString()));
+		}
+	}
+
+	/** The files of the resource in the old tree, without extension */
+	private File getOldFile(BlockManifest.Entry entry) {
+		return new File(tree, entry.path.replace('/', File.separatorChar));
+	}
+
+	/**
+	 * The names of the files and directories of the resource in the old tree.
+	 * These are named like the resource, with any extension, or with ".xml",
+	 * ".images" etc. appended.
+	 */
+	private List<String> listOldFiles(BlockManifest.Entry entry) throws IOException {
+		File file = getOldFile(entry);
+		File dir = file.getParentFile();
+		DirectoryListing listing = oldListings.get(dir);
+		if (listing == null) {
+			listing = dir.isDirectory() ? DirectoryListing.read(dir) : new DirectoryListing(
+					new ArrayList<String>(), new ArrayList<String>());
+			oldListings.put(dir, listing);
+		}
+		String prefix = file.getName() + ".";
+		List<String> names = new ArrayList<String>();
+		for (String name : listing.getFiles()) {
+			if (name.equals(file.getName()) || name.startsWith(prefix)) {
+				names.add(name);
+			}
+		}
+		for (String name : listing.getDirectories()) {
+			if (name.startsWith(prefix)) {
+				names.add(name);
+			}
+		}
+		return names;
+	}
+
+	/**
+	 * Makes the file or directory of the old tree appear in the new tree. Files
+	 * are hard linked where the file system supports it, otherwise copied.
+	 */
+	private static void link(File source, File dest) throws IOException {
+		if (source.isDirectory()) {
+			if (!dest.mkdir()) {
+				throw new IOException("Unable to create directory " + dest);
+			}
+			DirectoryListing listing = DirectoryListing.read(source);
+			for (String name : listing.getDirectories()) {
+				link(new File(source, name), new File(dest, name));
+			}
+			for (String name : listing.getFiles()) {
+				link(new File(source, name), new File(dest, name));
+			}
+		} else {
+			try {
+				Files.createLink(dest.toPath(), source.toPath());
+			} catch (UnsupportedOperationException e) {
+				Files.copy(source.toPath(), dest.toPath());
+			} catch (IOException e) {
+				Files.copy(source.toPath(), dest.toPath());
+			}
+		}
+	}
+
+	private static void move(File source, File dest) throws IOException {
+		Files.move(source.toPath(), dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private static void deleteRecursively(File dir) throws IOException {
+		Files.walkFileTree(dir.toPath(), new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+				if (e != null) {
+					throw e;
+				}
+				Files.delete(dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	private static String toHex(byte[] hash) {
+		StringBuilder sb = new StringBuilder();
+		for (byte b : hash) {
+			sb.append(String.format("%02x", b & 0xFF));
+		}
+		return sb.toString();
+	}
+}
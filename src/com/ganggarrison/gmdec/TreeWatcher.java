@@ -0,0 +1,293 @@
+/*
+ * This file is part of GmkSplitter.
+ * GmkSplitter is free software and comes with ABSOLUTELY NO WARRANTY.
+ * See LICENSE for details.
+ */
+package com.ganggarrison.gmdec;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.lateralgm.components.impl.ResNode;
+import org.lateralgm.file.DirectoryWatcher;
+import org.lateralgm.file.GmFile;
+import org.lateralgm.file.ResourceList;
+import org.lateralgm.file.StoredBlock;
+import org.lateralgm.resources.InstantiableResource;
+import org.lateralgm.resources.Room;
+
+import com.ganggarrison.easyxml.XmlReader;
+import com.ganggarrison.gmdec.ResourceTreeEntry.Type;
+import com.ganggarrison.gmdec.dupes.InstanceAccessor;
+import com.ganggarrison.gmdec.dupes.OrderPreservingDupeRemoval;
+import com.ganggarrison.gmdec.dupes.TileAccessor;
+import com.ganggarrison.gmdec.storage.TreePath;
+import com.ganggarrison.gmdec.xml.ResourceListXmlFormat;
+
+/**
+ * Keeps a gmk file up to date with a split tree. The project stays in memory,
+ * and when files in the tree change, only the resources they belong to are
+ * read again before the gmk file is written.
+ *
+ * Changes to the structure of the tree (resource lists, groups) or to the
+ * files outside the resource directories cause the whole tree to be read
+ * again.
+ */
+public class TreeWatcher implements DirectoryWatcher.Listener {
+	private static final ResourceListXmlFormat RESOURCE_LIST_FORMAT = new ResourceListXmlFormat();
+
+	/** How long the tree must stay unchanged before the gmk file is updated */
+	private static final long QUIET_PERIOD = 300;
+	private static final String RESOURCE_LIST_FILENAME = "_resources.list.xml";
+
+	private final File sourcePath;
+	private final File destinationGmk;
+	private final File tempGmk;
+	private final PrintStream out;
+	private final PrintStream err;
+	private final ConversionContext settings;
+	private DirectoryWatcher watcher;
+
+	private GmFile gmf;
+	private ResNode root;
+	/** Set if the project in memory may not match the tree anymore */
+	private boolean readAll = true;
+
+	/** A resource file or directory, as base filename in its group directory */
+	private static class ResourceLocation {
+		final PrimaryResourceType type;
+		final File dir;
+		final String filename;
+
+		ResourceLocation(PrimaryResourceType type, File dir, String filename) {
+			this.type = type;
+			this.dir = dir;
+			this.filename = filename;
+		}
+	}
+
+	public TreeWatcher(File sourcePath, File destinationGmk, PrintStream out, PrintStream err) {
+		this.sourcePath = sourcePath.getAbsoluteFile();
+		this.destinationGmk = destinationGmk.getAbsoluteFile();
+		this.tempGmk = new File(this.destinationGmk.getParentFile(), destinationGmk.getName() + ".tmp");
+		this.out = out;
+		this.err = err;
+		settings = new ConversionContext(out, err);
+		settings.targetVersion = destinationGmk.getName().toLowerCase().endsWith(".gmk") ? 800 : 810;
+	}
+
+	/**
+	 * Writes the gmk file and starts watching the tree. Returns immediately,
+	 * updates are done on the thread of the watcher.
+	 */
+	public void start() throws IOException {
+		update(null);
+		watcher = new DirectoryWatcher(QUIET_PERIOD, err);
+		watcher.watch(sourcePath.toPath(), true, this);
+		out.println("Watching " + sourcePath + " for changes.");
+	}
+
+	public void stop() throws IOException {
+		watcher.close();
+	}
+
+	@Override
+	public void filesChanged(Set<Path> changed) {
+		changed.remove(destinationGmk.toPath());
+		changed.remove(tempGmk.toPath());
+		if (changed.isEmpty()) {
+			return;
+		}
+		try {
+			update(changed);
+		} catch (Exception e) {
+			// Most likely a file that is still being edited, try again on the next change
+			String message = e.getMessage() != null ? e.getMessage() : e.toString();
+			err.println("Error: " + message);
+			readAll = true;
+		}
+	}
+
+	/**
+	 * @param changed
+	 *            The changed files, or null to read the whole tree.
+	 */
+	private void update(Set<Path> changed) throws IOException {
+		long start = System.currentTimeMillis();
+		String what;
+		Map<String, ResourceLocation> locations = null;
+		if (changed != null && !readAll) {
+			locations = findChangedResources(changed);
+		}
+		if (locations != null && locations.isEmpty()) {
+			return;
+		}
+		if (locations == null || !readResources(locations.values())) {
+			readAll = true;
+			root = new ResNode("Root", (byte) 0, null, null);
+			gmf = GmkSplitter.readTree(sourcePath, root, destinationGmk, new ConversionContext(settings));
+			readAll = false;
+			what = "all resources";
+		} else {
+			what = locations.size() + (locations.size() == 1 ? " resource" : " resources");
+		}
+
+		// Unchanged resources are copied from the last version of the file
+		StoredBlock.Source blocks = GmkSplitter.writeGmk(gmf, root, tempGmk, settings);
+		try {
+			Files.move(tempGmk.toPath(), destinationGmk.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(tempGmk.toPath(), destinationGmk.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		blocks.moveTo(destinationGmk);
+		out.println("Updated " + destinationGmk.getName() + " (" + what + ") in "
+				+ (System.currentTimeMillis() - start) + " ms");
+	}
+
+	/**
+	 * Maps the changed files to the resources they belong to.
+	 *
+	 * @return The resources, or null if the whole tree must be read again.
+	 */
+	private Map<String, ResourceLocation> findChangedResources(Set<Path> changed) {
+		Path rootPath = sourcePath.toPath().normalize();
+		Map<String, ResourceLocation> locations = new LinkedHashMap<String, ResourceLocation>();
+		for (Path path : changed) {
+			if (!path.startsWith(rootPath) || path.equals(rootPath)) {
+				return null;
+			}
+			Path relative = rootPath.relativize(path);
+			PrimaryResourceType type = findType(relative.getName(0).toString());
+			if (type == null) {
+				return null;
+			}
+			File dir = new File(sourcePath, type.pathName);
+			// Group directories have no dot in their name, resource files always do
+			int i = 1;
+			while (i < relative.getNameCount() && relative.getName(i).toString().indexOf('.') < 0) {
+				dir = new File(dir, relative.getName(i).toString());
+				i++;
+			}
+			if (i == relative.getNameCount()) {
+				if (Files.isDirectory(path)) {
+					return null;
+				}
+				// Temporary files of editors, a removed group also changes the list
+				continue;
+			}
+			String name = relative.getName(i).toString();
+			if (name.equals(RESOURCE_LIST_FILENAME)) {
+				return null;
+			}
+			if (name.startsWith(".")) {
+				// Hidden files of editors and version control
+				continue;
+			}
+			String filename = name.substring(0, name.indexOf('.'));
+			locations.put(new File(dir, filename).getPath(), new ResourceLocation(type, dir, filename));
+		}
+		return locations;
+	}
+
+	private static PrimaryResourceType findType(String pathName) {
+		for (PrimaryResourceType type : PrimaryResourceType.values()) {
+			if (type.pathName.equals(pathName)) {
+				return type;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Reads the resources again and replaces them in the project.
+	 *
+	 * @return false if a resource can't be replaced, and the whole tree must
+	 *         be read again.
+	 */
+	private boolean readResources(Iterable<ResourceLocation> locations) throws IOException {
+		ConversionContext context = new ConversionContext(settings);
+		Map<File, List<ResourceTreeEntry>> lists = new HashMap<File, List<ResourceTreeEntry>>();
+		List<InstantiableResource<?, ?>> oldResources = new ArrayList<InstantiableResource<?, ?>>();
+		List<InstantiableResource<?, ?>> newResources = new ArrayList<InstantiableResource<?, ?>>();
+		for (ResourceLocation location : locations) {
+			List<ResourceTreeEntry> entries = lists.get(location.dir);
+			if (entries == null) {
+				entries = RESOURCE_LIST_FORMAT.read(new XmlReader(new File(location.dir,
+						RESOURCE_LIST_FILENAME)));
+				lists.put(location.dir, entries);
+			}
+			ResourceTreeEntry entry = findEntry(entries, location.filename);
+			if (entry == null) {
+				// Not part of the project, like files ResourceReader warns about
+				continue;
+			}
+			InstantiableResource<?, ?> old = ((ResourceList<?>) gmf.resMap.get(location.type.resourceKind)).get(entry.name);
+			if (old == null) {
+				return false;
+			}
+			InstantiableResource<?, ?> resource = location.type.format.read(TreePath.of(location.dir), entry,
+					context);
+			if (resource.getId() >= 0 && resource.getId() != old.getId()) {
+				return false;
+			}
+			oldResources.add(old);
+			newResources.add(resource);
+		}
+
+		// The references point to the resources in the project, which are
+		// kept as they are, so they stay valid when the resources are replaced.
+		context.getNotifier().createReferences(gmf, context);
+		boolean roomsChanged = false;
+		for (int i = 0; i < oldResources.size(); i++) {
+			replace(oldResources.get(i), newResources.get(i));
+			roomsChanged |= oldResources.get(i) instanceof Room;
+		}
+		if (roomsChanged) {
+			OrderPreservingDupeRemoval.perform(new TileAccessor(gmf, settings.preserveIds), context);
+			OrderPreservingDupeRemoval.perform(new InstanceAccessor(gmf, settings.preserveIds), context);
+		}
+		return true;
+	}
+
+	private static ResourceTreeEntry findEntry(List<ResourceTreeEntry> entries, String filename) {
+		for (ResourceTreeEntry entry : entries) {
+			if (entry.type == Type.RESOURCE && entry.getFilename().equals(filename)) {
+				return entry;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Puts the content of the new resource into the project, as a resource with
+	 * the reference of the old one. Everything that refers to the old resource
+	 * then refers to the new one.
+	 */
+	@SuppressWarnings("unchecked")
+	private <T extends InstantiableResource<T, ?>> void replace(InstantiableResource<?, ?> old,
+			InstantiableResource<?, ?> resource) {
+		T oldResource = (T) old;
+		T replacement = oldResource.makeInstance(oldResource.reference);
+		((T) resource).copy(replacement);
+		replacement.setName(oldResource.getName());
+		replacement.setNode(oldResource.getNode());
+		if (replacement.getId() < 0) {
+			replacement.setId(oldResource.getId());
+		}
+		replacement.updateReference();
+		ResourceList<T> list = (ResourceList<T>) gmf.resMap.get(oldResource.getClass());
+		list.add(replacement);
+	}
+}
@@ -15,14 +15,15 @@ import org.lateralgm.resources.Room;
 import org.lateralgm.resources.sub.Instance;
 import org.lateralgm.resources.sub.Instance.PInstance;
 
-import com.ganggarrison.gmdec.GmkSplitter;
-import com.ganggarrison.gmdec.GmkSplitter.IdPreservation;
+import com.ganggarrison.gmdec.ConversionContext.IdPreservation;
 
 public class InstanceAccessor implements ItemAccessor<Instance> {
 	private final GmFile gmFile;
+	private final IdPreservation preserveIds;
 
-	public InstanceAccessor(GmFile gmFile) {
+	public InstanceAccessor(GmFile gmFile, IdPreservation preserveIds) {
 		this.gmFile = gmFile;
+		this.preserveIds = preserveIds;
 	}
 
 	@Override
@@ -68,6 +69,6 @@ public class InstanceAccessor implements ItemAccessor<Instance> {
 
 	@Override
 	public boolean informAboutNewIds() {
-		return GmkSplitter.preserveIds == IdPreservation.ALL;
+		return preserveIds == IdPreservation.ALL;
 	}
 }
\ No newline at end of file
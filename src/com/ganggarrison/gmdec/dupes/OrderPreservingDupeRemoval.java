@@ -11,13 +11,15 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
+import com.ganggarrison.gmdec.ConversionContext;
+
 /**
  * This dupe removal strategy will preserve the order of all items with valid
  * IDs. It tries to prevent changing IDs unless neccessary. Items without valid
  * IDs will be inserted at the upper end of the range.
  */
 public class OrderPreservingDupeRemoval {
-	public static <Item> void perform(ItemAccessor<Item> accessor) {
+	public static <Item> void perform(ItemAccessor<Item> accessor, ConversionContext context) {
 		int changed = 0;
 
 		List<Item> items = accessor.getItems();
@@ -53,10 +55,10 @@ public class OrderPreservingDupeRemoval {
 		accessor.setMaxId(nextFreeItemId - 1);
 
 		if (changed > 0) {
-			System.err.println("INFO: " + changed + " duplicate " + accessor.getItemName() + " IDs have been changed.");
+			context.warn("INFO: " + changed + " duplicate " + accessor.getItemName() + " IDs have been changed.");
 		}
 		if (invalidIdItems.size() > 0 && accessor.informAboutNewIds()) {
-			System.err.println("INFO: " + invalidIdItems.size() + " new " + accessor.getItemName()
+			context.warn("INFO: " + invalidIdItems.size() + " new " + accessor.getItemName()
 					+ " IDs have been assigned.");
 		}
 	}
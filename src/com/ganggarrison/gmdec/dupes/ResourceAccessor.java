@@ -6,14 +6,15 @@ import java.util.List;
 import org.lateralgm.resources.GmObject;
 import org.lateralgm.resources.InstantiableResource;
 
-import com.ganggarrison.gmdec.GmkSplitter;
-import com.ganggarrison.gmdec.GmkSplitter.IdPreservation;
+import com.ganggarrison.gmdec.ConversionContext.IdPreservation;
 
 public class ResourceAccessor<T extends InstantiableResource<T, ?>> implements ItemAccessor<T> {
 	private List<T> resources;
+	private final IdPreservation preserveIds;
 
-	public ResourceAccessor(List<T> resources) {
+	public ResourceAccessor(List<T> resources, IdPreservation preserveIds) {
 		this.resources = resources;
+		this.preserveIds = preserveIds;
 	}
 
 	@Override
@@ -57,9 +58,9 @@ public class ResourceAccessor<T extends InstantiableResource<T, ?>> implements I
 			return false;
 		} else {
 			if (resources.get(0) instanceof GmObject) {
-				return GmkSplitter.preserveIds == IdPreservation.ALL || GmkSplitter.preserveIds == IdPreservation.OBJECTS;
+				return preserveIds == IdPreservation.ALL || preserveIds == IdPreservation.OBJECTS;
 			} else {
-				return GmkSplitter.preserveIds == IdPreservation.ALL;
+				return preserveIds == IdPreservation.ALL;
 			}
 		}
 	}
@@ -15,14 +15,15 @@ import org.lateralgm.resources.Room;
 import org.lateralgm.resources.sub.Tile;
 import org.lateralgm.resources.sub.Tile.PTile;
 
-import com.ganggarrison.gmdec.GmkSplitter;
-import com.ganggarrison.gmdec.GmkSplitter.IdPreservation;
+import com.ganggarrison.gmdec.ConversionContext.IdPreservation;
 
 public class TileAccessor implements ItemAccessor<Tile> {
 	private final GmFile gmFile;
+	private final IdPreservation preserveIds;
 
-	public TileAccessor(GmFile gmFile) {
+	public TileAccessor(GmFile gmFile, IdPreservation preserveIds) {
 		this.gmFile = gmFile;
+		this.preserveIds = preserveIds;
 	}
 
 	@Override
@@ -68,6 +69,6 @@ public class TileAccessor implements ItemAccessor<Tile> {
 
 	@Override
 	public boolean informAboutNewIds() {
-		return GmkSplitter.preserveIds == IdPreservation.ALL;
+		return preserveIds == IdPreservation.ALL;
 	}
 }
\ No newline at end of file
@@ -8,41 +8,46 @@
 package com.ganggarrison.gmdec.files;
 
 import java.awt.image.BufferedImage;
-import java.io.File;
 import java.io.IOException;
 
-import javax.imageio.ImageIO;
-
 import org.lateralgm.file.GmFile;
+import org.lateralgm.file.Metrics;
+import org.lateralgm.file.Metrics.Counter;
 import org.lateralgm.resources.Background;
+import org.lateralgm.util.RawImage;
 
-import com.ganggarrison.gmdec.DeferredReferenceCreatorNotifier;
+import com.ganggarrison.gmdec.ConversionContext;
+import com.ganggarrison.gmdec.FileTools;
 import com.ganggarrison.gmdec.ResourceTreeEntry;
+import com.ganggarrison.gmdec.storage.TreePath;
 import com.ganggarrison.gmdec.xml.BackgroundXmlFormat;
 
 public class BackgroundFormat extends ResourceFormat<Background> {
+	private static final BackgroundXmlFormat XML_FORMAT = new BackgroundXmlFormat();
+
 	@Override
-	public Background read(File path, ResourceTreeEntry entry, DeferredReferenceCreatorNotifier drcn)
+	public Background read(TreePath path, ResourceTreeEntry entry, ConversionContext context)
 			throws IOException {
-		File imageFile = new File(path, baseFilename(entry) + ".png");
-		Background background = new BackgroundXmlFormat()
-				.read(getXmlFile(path, entry), drcn);
+		TreePath imageFile = path.resolve(baseFilename(entry) + ".png");
+		Background background = XML_FORMAT.read(getXmlFile(path, entry), context);
 		background.setName(entry.name);
 
 		if (imageFile.isFile()) {
-			BufferedImage bg = ImageIO.read(imageFile);
+			BufferedImage bg = RawImage.toArgb(FileTools.readImage(imageFile));
 			background.setBackgroundImage(bg);
+			Metrics.get().count(Counter.IMAGES_DECODED, 1);
 		}
 		return background;
 	}
 
 	@Override
-	public void write(File path, Background background, GmFile gmf) throws IOException {
-		new BackgroundXmlFormat().write(background, getXmlFile(path, background));
+	public void write(TreePath path, Background background, GmFile gmf, ConversionContext context) throws IOException {
+		XML_FORMAT.write(background, getXmlFile(path, background), context);
 
 		BufferedImage image = background.getBackgroundImage();
 		if (image != null) {
-			ImageIO.write(image, "PNG", new File(path, baseFilename(background) + ".png"));
+			FileTools.writePng(image, path.resolve(baseFilename(background) + ".png"), context);
+			Metrics.get().count(Counter.IMAGES_ENCODED, 1);
 		}
 	}
 }
@@ -7,7 +7,6 @@
  */
 package com.ganggarrison.gmdec.files;
 
-import java.io.File;
 import java.io.IOException;
 import java.util.List;
 
@@ -15,19 +14,21 @@ import org.lateralgm.components.impl.ResNode;
 import org.lateralgm.file.GmFile;
 import org.lateralgm.resources.Extensions;
 
-import com.ganggarrison.gmdec.DeferredReferenceCreatorNotifier;
+import com.ganggarrison.gmdec.ConversionContext;
 import com.ganggarrison.gmdec.ResourceTreeEntry;
 import com.ganggarrison.gmdec.ResourceTreeEntry.Type;
+import com.ganggarrison.gmdec.storage.TreePath;
 import com.ganggarrison.gmdec.xml.ExtensionsXmlFormat;
 
 public class ExtensionsFormat extends FileTreeFormat<List<String>> {
+	private static final ExtensionsXmlFormat XML_FORMAT = new ExtensionsXmlFormat();
 	private static String baseFilename = "Extension Packages";
 	private static String filename = baseFilename + ".xml";
 
 	@Override
-	public List<String> read(File path, ResourceTreeEntry entry, DeferredReferenceCreatorNotifier drcn)
+	public List<String> read(TreePath path, ResourceTreeEntry entry, ConversionContext context)
 			throws IOException {
-		return new ExtensionsXmlFormat().read(new File(path, filename), drcn);
+		return XML_FORMAT.read(path.resolve(filename), context);
 	}
 
 	@Override
@@ -41,7 +42,7 @@ public class ExtensionsFormat extends FileTreeFormat<List<String>> {
 	}
 
 	@Override
-	public void addAllResourcesToGmFile(List<List<String>> resources, GmFile gmf) {
+	public void addAllResourcesToGmFile(List<List<String>> resources, GmFile gmf, ConversionContext context) {
 		if (resources.size() != 1) {
 			throw new IllegalArgumentException("There is only one extension package list.");
 		}
@@ -50,7 +51,8 @@ public class ExtensionsFormat extends FileTreeFormat<List<String>> {
 	}
 
 	@Override
-	public void write(File path, List<String> extensions, GmFile gmf) throws IOException {
-		new ExtensionsXmlFormat().write(extensions, new File(path, filename));
+	public void write(TreePath path, List<String> extensions, GmFile gmf, ConversionContext context)
+			throws IOException {
+		XML_FORMAT.write(extensions, path.resolve(filename), context);
 	}
 }
@@ -7,7 +7,6 @@
  */
 package com.ganggarrison.gmdec.files;
 
-import java.io.File;
 import java.io.IOException;
 import java.util.List;
 
@@ -15,12 +14,13 @@ import org.lateralgm.components.impl.ResNode;
 import org.lateralgm.file.GmFile;
 import org.lateralgm.resources.Resource;
 
-import com.ganggarrison.gmdec.DeferredReferenceCreatorNotifier;
+import com.ganggarrison.gmdec.ConversionContext;
 import com.ganggarrison.gmdec.FileTools;
 import com.ganggarrison.gmdec.ResourceTreeEntry;
+import com.ganggarrison.gmdec.storage.TreePath;
 
 public abstract class FileTreeFormat<T> {
-	public abstract void write(File path, T resource, GmFile gmf) throws IOException;
+	public abstract void write(TreePath path, T resource, GmFile gmf, ConversionContext context) throws IOException;
 
 	/**
 	 * Add a resource into the resource tree.
@@ -37,9 +37,9 @@ public abstract class FileTreeFormat<T> {
 	 * method must be called with all resources of that type that should go into
 	 * the GmFile, so that ID conflicts can be properly resolved.
 	 */
-	public abstract void addAllResourcesToGmFile(List<T> resources, GmFile gmf);
+	public abstract void addAllResourcesToGmFile(List<T> resources, GmFile gmf, ConversionContext context);
 
-	public abstract T read(File path, ResourceTreeEntry entry, DeferredReferenceCreatorNotifier drcn)
+	public abstract T read(TreePath path, ResourceTreeEntry entry, ConversionContext context)
 			throws IOException;
 
 	public abstract ResourceTreeEntry createResourceTreeEntry(T resource);
@@ -56,15 +56,15 @@ public abstract class FileTreeFormat<T> {
 		return entry.getFilename();
 	}
 
-	protected File getXmlFile(File path, Resource<?, ?> resource) throws IOException {
-		return new File(path, baseFilename(resource) + ".xml");
+	protected TreePath getXmlFile(TreePath path, Resource<?, ?> resource) throws IOException {
+		return path.resolve(baseFilename(resource) + ".xml");
 	}
 
-	protected File getXmlFile(File path, String resourceName) throws IOException {
-		return new File(path, baseFilename(resourceName) + ".xml");
+	protected TreePath getXmlFile(TreePath path, String resourceName) throws IOException {
+		return path.resolve(baseFilename(resourceName) + ".xml");
 	}
 
-	protected File getXmlFile(File path, ResourceTreeEntry entry) throws IOException {
-		return new File(path, baseFilename(entry) + ".xml");
+	protected TreePath getXmlFile(TreePath path, ResourceTreeEntry entry) throws IOException {
+		return path.resolve(baseFilename(entry) + ".xml");
 	}
 }
@@ -7,26 +7,28 @@
  */
 package com.ganggarrison.gmdec.files;
 
-import java.io.File;
 import java.io.IOException;
 
 import org.lateralgm.file.GmFile;
 import org.lateralgm.resources.Font;
 
-import com.ganggarrison.gmdec.DeferredReferenceCreatorNotifier;
+import com.ganggarrison.gmdec.ConversionContext;
 import com.ganggarrison.gmdec.ResourceTreeEntry;
+import com.ganggarrison.gmdec.storage.TreePath;
 import com.ganggarrison.gmdec.xml.FontXmlFormat;
 
 public class FontFormat extends ResourceFormat<Font> {
+	private static final FontXmlFormat XML_FORMAT = new FontXmlFormat();
+
 	@Override
-	public Font read(File path, ResourceTreeEntry entry, DeferredReferenceCreatorNotifier drcn) throws IOException {
-		Font font = new FontXmlFormat().read(getXmlFile(path, entry), drcn);
+	public Font read(TreePath path, ResourceTreeEntry entry, ConversionContext context) throws IOException {
+		Font font = XML_FORMAT.read(getXmlFile(path, entry), context);
 		font.setName(entry.name);
 		return font;
 	}
 
 	@Override
-	public void write(File path, Font font, GmFile gmf) throws IOException {
-		new FontXmlFormat().write(font, getXmlFile(path, font));
+	public void write(TreePath path, Font font, GmFile gmf, ConversionContext context) throws IOException {
+		XML_FORMAT.write(font, getXmlFile(path, font), context);
 	}
 }
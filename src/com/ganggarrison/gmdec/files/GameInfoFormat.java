@@ -7,7 +7,6 @@
  */
 package com.ganggarrison.gmdec.files;
 
-import java.io.File;
 import java.io.IOException;
 import java.util.List;
 
@@ -16,21 +15,23 @@ import org.lateralgm.file.GmFile;
 import org.lateralgm.resources.GameInformation;
 import org.lateralgm.resources.GameInformation.PGameInformation;
 
-import com.ganggarrison.gmdec.DeferredReferenceCreatorNotifier;
+import com.ganggarrison.gmdec.ConversionContext;
 import com.ganggarrison.gmdec.FileTools;
 import com.ganggarrison.gmdec.ResourceTreeEntry;
 import com.ganggarrison.gmdec.ResourceTreeEntry.Type;
+import com.ganggarrison.gmdec.storage.TreePath;
 import com.ganggarrison.gmdec.xml.GameInfoXmlFormat;
 
 public class GameInfoFormat extends FileTreeFormat<GameInformation> {
+	private static final GameInfoXmlFormat XML_FORMAT = new GameInfoXmlFormat();
 	private static final String filename = "Game Information";
 
 	@Override
-	public GameInformation read(File path, ResourceTreeEntry entry, DeferredReferenceCreatorNotifier drcn)
+	public GameInformation read(TreePath path, ResourceTreeEntry entry, ConversionContext context)
 			throws IOException {
-		File xmlFile = new File(path, filename + ".xml");
-		File textFile = new File(path, filename + ".txt");
-		GameInformation info = new GameInfoXmlFormat().read(xmlFile, drcn);
+		TreePath xmlFile = path.resolve(filename + ".xml");
+		TreePath textFile = path.resolve(filename + ".txt");
+		GameInformation info = XML_FORMAT.read(xmlFile, context);
 		info.put(PGameInformation.TEXT, FileTools.readFileAsString(textFile));
 		return info;
 	}
@@ -46,7 +47,7 @@ public class GameInfoFormat extends FileTreeFormat<GameInformation> {
 	}
 
 	@Override
-	public void addAllResourcesToGmFile(List<GameInformation> resources, GmFile gmf) {
+	public void addAllResourcesToGmFile(List<GameInformation> resources, GmFile gmf, ConversionContext context) {
 		if (resources.size() != 1) {
 			throw new IllegalArgumentException("There is only one game info object.");
 		}
@@ -54,9 +55,10 @@ public class GameInfoFormat extends FileTreeFormat<GameInformation> {
 	}
 
 	@Override
-	public void write(File path, GameInformation gameInfo, GmFile gmf) throws IOException {
-		File xmlFile = new File(path, filename + ".xml");
-		new GameInfoXmlFormat().write(gameInfo, xmlFile);
-		FileTools.writeFile(new File(path, filename + ".txt"), (String) gameInfo.get(PGameInformation.TEXT));
+	public void write(TreePath path, GameInformation gameInfo, GmFile gmf, ConversionContext context)
+			throws IOException {
+		TreePath xmlFile = path.resolve(filename + ".xml");
+		XML_FORMAT.write(gameInfo, xmlFile, context);
+		FileTools.writeFile(path.resolve(filename + ".txt"), (String) gameInfo.get(PGameInformation.TEXT));
 	}
 }
@@ -8,26 +8,25 @@
 package com.ganggarrison.gmdec.files;
 
 import java.awt.image.RenderedImage;
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.List;
 
-import javax.imageio.ImageIO;
-
 import org.lateralgm.components.impl.ResNode;
 import org.lateralgm.file.GmFile;
 import org.lateralgm.file.iconio.ICOFile;
 import org.lateralgm.resources.GameSettings;
 import org.lateralgm.resources.GameSettings.PGameSettings;
 
-import com.ganggarrison.gmdec.DeferredReferenceCreatorNotifier;
+import com.ganggarrison.gmdec.ConversionContext;
 import com.ganggarrison.gmdec.FileTools;
 import com.ganggarrison.gmdec.ResourceTreeEntry;
 import com.ganggarrison.gmdec.ResourceTreeEntry.Type;
+import com.ganggarrison.gmdec.storage.TreePath;
 import com.ganggarrison.gmdec.xml.GameSettingsXmlFormat;
 
 public class GameSettingsFormat extends FileTreeFormat<GameSettings> {
+	private static final GameSettingsXmlFormat XML_FORMAT = new GameSettingsXmlFormat();
 	private static final String baseFilename = "Global Game Settings";
 	private static final String xmlFilename = baseFilename + ".xml";
 	private static final String frontLoadBarFilename = "loadbar front.png";
@@ -36,26 +35,26 @@ public class GameSettingsFormat extends FileTreeFormat<GameSettings> {
 	private static final String iconFilename = "game icon.ico";
 
 	@Override
-	public GameSettings read(File path, ResourceTreeEntry entry, DeferredReferenceCreatorNotifier drcn)
+	public GameSettings read(TreePath path, ResourceTreeEntry entry, ConversionContext context)
 			throws IOException {
-		GameSettings settings = new GameSettingsXmlFormat().read(new File(path, xmlFilename), drcn);
+		GameSettings settings = XML_FORMAT.read(path.resolve(xmlFilename), context);
 
-		File frontLoadBarFile = new File(path, frontLoadBarFilename);
+		TreePath frontLoadBarFile = path.resolve(frontLoadBarFilename);
 		if (frontLoadBarFile.isFile()) {
-			settings.put(PGameSettings.FRONT_LOAD_BAR, ImageIO.read(frontLoadBarFile));
+			settings.put(PGameSettings.FRONT_LOAD_BAR, FileTools.readImage(frontLoadBarFile));
 		}
 
-		File backLoadBarFile = new File(path, backLoadBarFilename);
+		TreePath backLoadBarFile = path.resolve(backLoadBarFilename);
 		if (backLoadBarFile.isFile()) {
-			settings.put(PGameSettings.BACK_LOAD_BAR, ImageIO.read(backLoadBarFile));
+			settings.put(PGameSettings.BACK_LOAD_BAR, FileTools.readImage(backLoadBarFile));
 		}
 
-		File loadingImageFile = new File(path, loadingImageFilename);
+		TreePath loadingImageFile = path.resolve(loadingImageFilename);
 		if (loadingImageFile.isFile()) {
-			settings.put(PGameSettings.LOADING_IMAGE, ImageIO.read(loadingImageFile));
+			settings.put(PGameSettings.LOADING_IMAGE, FileTools.readImage(loadingImageFile));
 		}
 
-		File iconFile = new File(path, iconFilename);
+		TreePath iconFile = path.resolve(iconFilename);
 		if (iconFile.isFile()) {
 			settings.put(PGameSettings.GAME_ICON, new ICOFile(FileTools.readWholeFileBytes(iconFile)));
 		}
@@ -73,7 +72,7 @@ public class GameSettingsFormat extends FileTreeFormat<GameSettings> {
 	}
 
 	@Override
-	public void addAllResourcesToGmFile(List<GameSettings> resources, GmFile gmf) {
+	public void addAllResourcesToGmFile(List<GameSettings> resources, GmFile gmf, ConversionContext context) {
 		if (resources.size() != 1) {
 			throw new IllegalArgumentException("There is only one game settings object.");
 		}
@@ -81,33 +80,30 @@ public class GameSettingsFormat extends FileTreeFormat<GameSettings> {
 	}
 
 	@Override
-	public void write(File path, GameSettings settings, GmFile gmf) throws IOException {
-		new GameSettingsXmlFormat().write(settings, new File(path, xmlFilename));
+	public void write(TreePath path, GameSettings settings, GmFile gmf, ConversionContext context) throws IOException {
+		XML_FORMAT.write(settings, path.resolve(xmlFilename), context);
 
 		if (settings.get(PGameSettings.FRONT_LOAD_BAR) != null) {
-			ImageIO.write((RenderedImage) settings.get(PGameSettings.FRONT_LOAD_BAR), "PNG", new File(path,
-					frontLoadBarFilename));
+			FileTools.writePng((RenderedImage) settings.get(PGameSettings.FRONT_LOAD_BAR),
+					path.resolve(frontLoadBarFilename), context);
 		}
 
 		if (settings.get(PGameSettings.BACK_LOAD_BAR) != null) {
-			ImageIO.write((RenderedImage) settings.get(PGameSettings.BACK_LOAD_BAR), "PNG", new File(path,
-					backLoadBarFilename));
+			FileTools.writePng((RenderedImage) settings.get(PGameSettings.BACK_LOAD_BAR),
+					path.resolve(backLoadBarFilename), context);
 		}
 
 		if (settings.get(PGameSettings.LOADING_IMAGE) != null) {
-			ImageIO.write((RenderedImage) settings.get(PGameSettings.LOADING_IMAGE), "PNG", new File(path,
-					loadingImageFilename));
+			FileTools.writePng((RenderedImage) settings.get(PGameSettings.LOADING_IMAGE),
+					path.resolve(loadingImageFilename), context);
 		}
 
 		if (settings.get(PGameSettings.GAME_ICON) != null) {
-			FileOutputStream fos = null;
+			OutputStream out = path.resolve(iconFilename).createFile();
 			try {
-				fos = new FileOutputStream(new File(path, iconFilename));
-				((ICOFile) settings.get(PGameSettings.GAME_ICON)).write(fos);
+				((ICOFile) settings.get(PGameSettings.GAME_ICON)).write(out);
 			} finally {
-				if (fos != null) {
-					fos.close();
-				}
+				out.close();
 			}
 		}
 	}
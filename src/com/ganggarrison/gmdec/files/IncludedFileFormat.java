@@ -1,54 +1,59 @@
 package com.ganggarrison.gmdec.files;
 
-import java.io.File;
-import java.io.FileFilter;
 import java.io.IOException;
 import java.util.Collection;
 
 import org.lateralgm.file.GmFile;
 import org.lateralgm.resources.Include;
 
+import com.ganggarrison.gmdec.ConversionContext;
+import com.ganggarrison.gmdec.DirectoryListing;
 import com.ganggarrison.gmdec.FileTools;
+import com.ganggarrison.gmdec.storage.TreePath;
 import com.ganggarrison.gmdec.xml.IncludedFileXmlFormat;
 
 public class IncludedFileFormat {
-	public static void read(File path, GmFile gmf) throws IOException {
-		File[] xmlFiles = path.listFiles(new FileFilter() {
-			@Override
-			public boolean accept(File pathname) {
-				return pathname.isFile() && pathname.getName().toLowerCase().endsWith(".meta.xml");
-			}
-		});
+	private static final IncludedFileXmlFormat XML_FORMAT = new IncludedFileXmlFormat();
 
-		for (File xmlFile : xmlFiles) {
-			File dataFile = new File(path, createDataFilename(xmlFile.getName()));
-			gmf.includes.add(read(xmlFile, dataFile));
+	public static void read(TreePath path, GmFile gmf, ConversionContext context) throws IOException {
+		DirectoryListing listing = path.list();
+		for (String name : listing.getFiles()) {
+			if (name.toLowerCase().endsWith(".meta.xml")) {
+				String dataFilename = createDataFilename(name);
+				TreePath dataFile = listing.isFile(dataFilename) ? path.resolve(dataFilename) : null;
+				gmf.includes.add(read(path.resolve(name), dataFile, context));
+			}
 		}
 	}
 
-	public static void write(File path, Collection<Include> includes) throws IOException {
+	public static void write(TreePath path, Collection<Include> includes, ConversionContext context)
+			throws IOException {
 		for (Include include : includes) {
-			write(path, include);
+			write(path, include, context);
 		}
 	}
 
-	private static Include read(File xmlPath, File dataPath) throws IOException {
-		Include include = new IncludedFileXmlFormat().read(xmlPath, null);
-		if (dataPath.isFile()) {
+	/**
+	 * @param dataPath
+	 *            The data file, or null if there is none
+	 */
+	private static Include read(TreePath xmlPath, TreePath dataPath, ConversionContext context) throws IOException {
+		Include include = XML_FORMAT.read(xmlPath, context);
+		if (dataPath != null) {
 			if (include.data == null) {
-				System.err.println("Warning: Included file \"" + include.filename + "\" found but not expected.");
+				context.warn("Warning: Included file \"" + include.filename + "\" found but not expected.");
 			}
-			include.data = FileTools.readWholeFileBytes(dataPath);
+			include.data = dataPath.toPayload();
 		} else {
 			if (include.data != null) {
-				System.err.println("Warning: Missing included file \"" + include.filename + "\".");
+				context.warn("Warning: Missing included file \"" + include.filename + "\".");
 			}
 			include.data = null;
 		}
 		return include;
 	}
 
-	private static void write(File path, Include include) throws IOException {
+	private static void write(TreePath path, Include include, ConversionContext context) throws IOException {
 		String filename;
 		String extension;
 		
@@ -62,19 +67,19 @@ public class IncludedFileFormat {
 		}
 		
 		String dataFileName = filename;
-		File xmlFile = new File(path, createXmlFilename(dataFileName, extension));
+		TreePath xmlFile = path.resolve(createXmlFilename(dataFileName, extension));
 
 		int i=2;
 		while (xmlFile.exists()) {
 			dataFileName = filename + "_" + i;
-			xmlFile = new File(path, createXmlFilename(dataFileName, extension));
+			xmlFile = path.resolve(createXmlFilename(dataFileName, extension));
 			i++;
 		}
 		
-		new IncludedFileXmlFormat().write(include, xmlFile);
+		XML_FORMAT.write(include, xmlFile, context);
 
 		if (include.data != null) {
-			File dataFile = new File(path, createDataFilename(xmlFile.getName()));
+			TreePath dataFile = path.resolve(createDataFilename(xmlFile.getName()));
 			FileTools.writeFile(dataFile, include.data);
 		}
 	}
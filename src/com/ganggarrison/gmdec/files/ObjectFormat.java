@@ -7,54 +7,73 @@
  */
 package com.ganggarrison.gmdec.files;
 
-import java.io.File;
-import java.io.FileFilter;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.lateralgm.file.GmFile;
 import org.lateralgm.resources.GmObject;
 import org.lateralgm.resources.sub.Event;
 import org.lateralgm.resources.sub.MainEvent;
 
-import com.ganggarrison.gmdec.DeferredReferenceCreatorNotifier;
+import com.ganggarrison.gmdec.ConversionContext;
 import com.ganggarrison.gmdec.EventNamer;
 import com.ganggarrison.gmdec.ResourceTreeEntry;
+import com.ganggarrison.gmdec.storage.TreePath;
+import com.ganggarrison.gmdec.xml.EventListXmlFormat;
 import com.ganggarrison.gmdec.xml.EventXmlFormat;
 import com.ganggarrison.gmdec.xml.GmObjectXmlFormat;
 
 public class ObjectFormat extends ResourceFormat<GmObject> {
+	/** Ending of the file with all events of an object in the packed layout */
+	public static final String PACKED_EVENTS_SUFFIX = ".events.xml";
+
+	private static final GmObjectXmlFormat GM_OBJECT_FORMAT = new GmObjectXmlFormat();
+	private static final EventXmlFormat EVENT_FORMAT = new EventXmlFormat();
+	private static final EventListXmlFormat EVENT_LIST_FORMAT = new EventListXmlFormat();
+
 	@Override
-	public GmObject read(File path, ResourceTreeEntry entry, DeferredReferenceCreatorNotifier drcn) throws IOException {
-		GmObject gmObject = new GmObjectXmlFormat().read(getXmlFile(path, entry), drcn);
+	public GmObject read(TreePath path, ResourceTreeEntry entry, ConversionContext context) throws IOException {
+		GmObject gmObject = GM_OBJECT_FORMAT.read(getXmlFile(path, entry), context);
 		gmObject.setName(entry.name);
 
-		File subdir = new File(path, baseFilename(entry) + ".events");
-		if (subdir.isDirectory()) {
-			File[] xmlFiles = subdir.listFiles(new FileFilter() {
-				@Override
-				public boolean accept(File pathname) {
-					return pathname.isFile()
-							&& pathname.getName().toLowerCase().endsWith(".xml");
-				}
-			});
-
-			for (File file : xmlFiles) {
-				Event event = new EventXmlFormat().read(file, drcn);
-				try {
-					gmObject.mainEvents.get(event.mainId).events.add(event);
-				} catch (IndexOutOfBoundsException e) {
-					throw new IOException("Unknown main event type: " + event.mainId, e);
+		TreePath subdir = path.resolve(baseFilename(entry) + ".events");
+		TreePath packedFile = path.resolve(baseFilename(entry) + PACKED_EVENTS_SUFFIX);
+		if (packedFile.isFile()) {
+			if (subdir.isDirectory()) {
+				throw new IOException("Object " + entry.name + " has both " + subdir + " and " + packedFile + ".");
+			}
+			for (Event event : EVENT_LIST_FORMAT.read(packedFile, context)) {
+				addEvent(gmObject, event);
+			}
+		} else if (subdir.isDirectory()) {
+			for (String name : subdir.list().getFiles()) {
+				if (!name.toLowerCase().endsWith(".xml")) {
+					continue;
 				}
+				TreePath file = subdir.resolve(name);
+				addEvent(gmObject, EVENT_FORMAT.read(file, context));
 			}
 		}
 		return gmObject;
 	}
 
 	@Override
-	public void write(File path, GmObject gmObject, GmFile gmf) throws IOException {
-		new GmObjectXmlFormat().write(gmObject, getXmlFile(path, gmObject));
+	public void write(TreePath path, GmObject gmObject, GmFile gmf, ConversionContext context) throws IOException {
+		GM_OBJECT_FORMAT.write(gmObject, getXmlFile(path, gmObject), context);
 
-		File subdir = new File(path, baseFilename(gmObject) + ".events");
+		if (context.packEvents) {
+			List<Event> events = new ArrayList<Event>();
+			for (MainEvent me : gmObject.mainEvents) {
+				events.addAll(me.events);
+			}
+			if (!events.isEmpty()) {
+				EVENT_LIST_FORMAT.write(events, path.resolve(baseFilename(gmObject) + PACKED_EVENTS_SUFFIX), context);
+			}
+			return;
+		}
+
+		TreePath subdir = path.resolve(baseFilename(gmObject) + ".events");
 
 		boolean subdirCreated = false;
 		for (MainEvent me : gmObject.mainEvents) {
@@ -65,10 +84,18 @@ public class ObjectFormat extends ResourceFormat<GmObject> {
 					}
 					subdirCreated = true;
 				}
-				String eventName = EventNamer.createName(e, gmf);
-				File eventFile = new File(subdir, eventName + ".xml");
-				new EventXmlFormat().write(e, eventFile);
+				String eventName = EventNamer.createName(e, gmf, context);
+				TreePath eventFile = subdir.resolve(eventName + ".xml");
+				EVENT_FORMAT.write(e, eventFile, context);
 			}
 		}
 	}
+
+	private static void addEvent(GmObject gmObject, Event event) throws IOException {
+		try {
+			gmObject.mainEvents.get(event.mainId).events.add(event);
+		} catch (IndexOutOfBoundsException e) {
+			throw new IOException("Unknown main event type: " + event.mainId, e);
+		}
+	}
 }
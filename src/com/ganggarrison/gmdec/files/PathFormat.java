@@ -7,26 +7,28 @@
  */
 package com.ganggarrison.gmdec.files;
 
-import java.io.File;
 import java.io.IOException;
 
 import org.lateralgm.file.GmFile;
 import org.lateralgm.resources.Path;
 
-import com.ganggarrison.gmdec.DeferredReferenceCreatorNotifier;
+import com.ganggarrison.gmdec.ConversionContext;
 import com.ganggarrison.gmdec.ResourceTreeEntry;
+import com.ganggarrison.gmdec.storage.TreePath;
 import com.ganggarrison.gmdec.xml.PathXmlFormat;
 
 public class PathFormat extends ResourceFormat<Path> {
+	private static final PathXmlFormat XML_FORMAT = new PathXmlFormat();
+
 	@Override
-	public Path read(File filePath, ResourceTreeEntry entry, DeferredReferenceCreatorNotifier drcn) throws IOException {
-		Path path = new PathXmlFormat().read(getXmlFile(filePath, entry), drcn);
+	public Path read(TreePath filePath, ResourceTreeEntry entry, ConversionContext context) throws IOException {
+		Path path = XML_FORMAT.read(getXmlFile(filePath, entry), context);
 		path.setName(entry.name);
 		return path;
 	}
 
 	@Override
-	public void write(File filePath, Path path, GmFile gmf) throws IOException {
-		new PathXmlFormat().write(path, getXmlFile(filePath, path));
+	public void write(TreePath filePath, Path path, GmFile gmf, ConversionContext context) throws IOException {
+		XML_FORMAT.write(path, getXmlFile(filePath, path), context);
 	}
 }
@@ -10,6 +10,7 @@ import org.lateralgm.file.ResourceList;
 import org.lateralgm.resources.InstantiableResource;
 import org.lateralgm.resources.Resource;
 
+import com.ganggarrison.gmdec.ConversionContext;
 import com.ganggarrison.gmdec.ResourceTreeEntry;
 import com.ganggarrison.gmdec.ResourceTreeEntry.Type;
 import com.ganggarrison.gmdec.dupes.OrderPreservingDupeRemoval;
@@ -24,18 +25,18 @@ public abstract class ResourceFormat<T extends InstantiableResource<T, ?>> exten
 	}
 
 	@Override
-	public void addAllResourcesToGmFile(List<T> resources, GmFile gmf) {
+	public void addAllResourcesToGmFile(List<T> resources, GmFile gmf, ConversionContext context) {
 		if (resources.isEmpty()) {
 			return;
 		}
 		@SuppressWarnings("unchecked")
 		Class<T> kind = (Class<T>) resources.get(0).getClass();
 
-		checkDuplicateNames(resources, kind);
+		checkDuplicateNames(resources, kind, context);
 
 		// Take care of dupes and unassigned IDs
-		ResourceAccessor<T> accessor = new ResourceAccessor<T>(resources);
-		OrderPreservingDupeRemoval.perform(accessor);
+		ResourceAccessor<T> accessor = new ResourceAccessor<T>(resources, context.preserveIds);
+		OrderPreservingDupeRemoval.perform(accessor, context);
 
 		ResourceList<T> list = (ResourceList<T>) gmf.resMap.getList(kind);
 		for (T resource : resources) {
@@ -51,7 +52,8 @@ public abstract class ResourceFormat<T extends InstantiableResource<T, ?>> exten
 		return new ResourceTreeEntry(resource.getName(), baseFilename(resource), Type.RESOURCE);
 	};
 
-	public static void checkDuplicateNames(Collection<? extends Resource<?, ?>> resources, Class<?> kind) {
+	public static void checkDuplicateNames(Collection<? extends Resource<?, ?>> resources, Class<?> kind,
+			ConversionContext context) {
 		HashSet<String> names = new HashSet<String>();
 		HashSet<String> lcNames = new HashSet<String>();
 		for (Resource<?, ?> resource : resources) {
@@ -62,7 +64,7 @@ public abstract class ResourceFormat<T extends InstantiableResource<T, ?>> exten
 						+ " has duplicate name!");
 			}
 			if (lcNames.contains(lcName)) {
-				System.err.println("Warning: The name of " + kind.getSimpleName() + " " + name
+				context.warn("Warning: The name of " + kind.getSimpleName() + " " + name
 						+ " only differs in case from a different " + kind.getSimpleName() + ".");
 			}
 			names.add(name);
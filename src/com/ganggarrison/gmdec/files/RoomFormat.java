@@ -7,26 +7,143 @@
  */
 package com.ganggarrison.gmdec.files;
 
-import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
 
 import org.lateralgm.file.GmFile;
 import org.lateralgm.resources.Room;
 
-import com.ganggarrison.gmdec.DeferredReferenceCreatorNotifier;
+import com.ganggarrison.easyxml.XmlReader;
+import com.ganggarrison.easyxml.XmlWriter;
+import com.ganggarrison.gmdec.ConversionContext;
+import com.ganggarrison.gmdec.DirectoryListing;
+import com.ganggarrison.gmdec.JobExecutor;
+import com.ganggarrison.gmdec.JobExecutor.Task;
 import com.ganggarrison.gmdec.ResourceTreeEntry;
+import com.ganggarrison.gmdec.storage.TreePath;
 import com.ganggarrison.gmdec.xml.RoomXmlFormat;
+import com.ganggarrison.gmdec.xml.RoomXmlFormat.ChunkCounts;
 
+/**
+ * Rooms are stored in an xml file. If a room has more instances or tiles than
+ * {@link ConversionContext#roomChunkSize}, they are split into chunk files in
+ * a directory next to it instead (&lt;room&gt;.chunks/instances-0000.xml,
+ * tiles-0000.xml etc.), which are written and parsed in parallel.
+ */
 public class RoomFormat extends ResourceFormat<Room> {
+	private static final RoomXmlFormat XML_FORMAT = new RoomXmlFormat();
+	private static final String INSTANCE_CHUNK = "instances-%04d.xml";
+	private static final String TILE_CHUNK = "tiles-%04d.xml";
+
+	/** Shared by all conversions. Its tasks each parse or write one file and never wait for others. */
+	private static final JobExecutor CHUNK_POOL = new JobExecutor("Room chunks");
+
 	@Override
-	public Room read(File path, ResourceTreeEntry entry, DeferredReferenceCreatorNotifier drcn) throws IOException {
-		Room room = new RoomXmlFormat().read(getXmlFile(path, entry), drcn);
+	public Room read(TreePath path, ResourceTreeEntry entry, ConversionContext context) throws IOException {
+		ChunkCounts chunks = new ChunkCounts();
+		Room room = XML_FORMAT.read(new XmlReader(getXmlFile(path, entry)), context, chunks);
 		room.setName(entry.name);
+
+		if (chunks.instances > 0 || chunks.tiles > 0) {
+			TreePath chunkDir = getChunkDir(path, baseFilename(entry));
+			DirectoryListing listing = chunkDir.list();
+			checkChunks(chunkDir, listing, INSTANCE_CHUNK, chunks.instances);
+			checkChunks(chunkDir, listing, TILE_CHUNK, chunks.tiles);
+			// Parse all chunks at once, but build the instances and tiles in order
+			List<Task<XmlReader>> instanceChunks = parseChunks(chunkDir, INSTANCE_CHUNK, chunks.instances);
+			List<Task<XmlReader>> tileChunks = parseChunks(chunkDir, TILE_CHUNK, chunks.tiles);
+			for (Task<XmlReader> chunk : instanceChunks) {
+				XML_FORMAT.readInstances(chunk.get(), room, context);
+			}
+			for (Task<XmlReader> chunk : tileChunks) {
+				XML_FORMAT.readTiles(chunk.get(), room, context);
+			}
+		}
 		return room;
 	}
 
 	@Override
-	public void write(File path, Room room, GmFile gmf) throws IOException {
-		new RoomXmlFormat().write(room, getXmlFile(path, room));
+	public void write(TreePath path, final Room room, GmFile gmf, final ConversionContext context)
+			throws IOException {
+		XML_FORMAT.write(room, getXmlFile(path, room), context);
+
+		int instanceChunks = RoomXmlFormat.getChunkCount(room.instances.size(), context);
+		int tileChunks = RoomXmlFormat.getChunkCount(room.tiles.size(), context);
+		if (instanceChunks == 0 && tileChunks == 0) {
+			return;
+		}
+		TreePath chunkDir = getChunkDir(path, baseFilename(room));
+		if (!chunkDir.mkdir()) {
+			throw new IOException("Directory " + chunkDir + " already exists.");
+		}
+		final int size = context.roomChunkSize;
+		List<Task<Void>> writes = new ArrayList<Task<Void>>();
+		for (int i = 0; i < instanceChunks; i++) {
+			final int from = i * size;
+			final TreePath file = chunkDir.resolve(String.format(INSTANCE_CHUNK, i));
+			writes.add(CHUNK_POOL.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws IOException {
+					XmlWriter writer = new XmlWriter();
+					int to = Math.min(from + size, room.instances.size());
+					XML_FORMAT.writeInstances(writer, room.instances.subList(from, to), context);
+					writer.write(file);
+					return null;
+				}
+			}));
+		}
+		for (int i = 0; i < tileChunks; i++) {
+			final int from = i * size;
+			final TreePath file = chunkDir.resolve(String.format(TILE_CHUNK, i));
+			writes.add(CHUNK_POOL.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws IOException {
+					XmlWriter writer = new XmlWriter();
+					int to = Math.min(from + size, room.tiles.size());
+					XML_FORMAT.writeTiles(writer, room.tiles.subList(from, to), context);
+					writer.write(file);
+					return null;
+				}
+			}));
+		}
+		for (Task<Void> write : writes) {
+			write.get();
+		}
+	}
+
+	private static TreePath getChunkDir(TreePath path, String baseFilename) {
+		return path.resolve(baseFilename + ".chunks");
+	}
+
+	/** Checks that there are exactly as many chunk files as the room file says. */
+	private static void checkChunks(TreePath chunkDir, DirectoryListing listing, String pattern, int count)
+			throws IOException {
+		for (int i = 0; i < count; i++) {
+			String name = String.format(pattern, i);
+			if (!listing.isFile(name)) {
+				throw new FileNotFoundException(chunkDir.resolve(name) + " (Room chunk missing)");
+			}
+		}
+		if (listing.isFile(String.format(pattern, count))) {
+			throw new IOException(chunkDir + " has more chunk files than the room file lists.");
+		}
+	}
+
+	/** Starts parsing the numbered chunk files. */
+	private static List<Task<XmlReader>> parseChunks(TreePath chunkDir, String pattern, int count) {
+		List<Task<XmlReader>> chunks = new ArrayList<Task<XmlReader>>();
+		for (int i = 0; i < count; i++) {
+			final TreePath file = chunkDir.resolve(String.format(pattern, i));
+			chunks.add(CHUNK_POOL.submit(new Callable<XmlReader>() {
+				@Override
+				public XmlReader call() throws IOException {
+					return new XmlReader(file);
+				}
+			}));
+		}
+		return chunks;
 	}
 }
@@ -7,7 +7,6 @@
  */
 package com.ganggarrison.gmdec.files;
 
-import java.io.File;
 import java.io.IOException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -16,16 +15,16 @@ import org.lateralgm.file.GmFile;
 import org.lateralgm.resources.Script;
 import org.lateralgm.resources.Script.PScript;
 
-import com.ganggarrison.gmdec.DeferredReferenceCreatorNotifier;
+import com.ganggarrison.gmdec.ConversionContext;
 import com.ganggarrison.gmdec.FileTools;
-import com.ganggarrison.gmdec.GmkSplitter;
 import com.ganggarrison.gmdec.ResourceTreeEntry;
-import com.ganggarrison.gmdec.GmkSplitter.IdPreservation;
+import com.ganggarrison.gmdec.ConversionContext.IdPreservation;
+import com.ganggarrison.gmdec.storage.TreePath;
 
 public class ScriptFormat extends ResourceFormat<Script> {
 	@Override
-	public Script read(File path, ResourceTreeEntry entry, DeferredReferenceCreatorNotifier drcn) throws IOException {
-		File scriptFile = new File(path, baseFilename(entry) + ".gml");
+	public Script read(TreePath path, ResourceTreeEntry entry, ConversionContext context) throws IOException {
+		TreePath scriptFile = path.resolve(baseFilename(entry) + ".gml");
 		Script script = new Script();
 		script.setName(entry.name);
 
@@ -34,7 +33,7 @@ public class ScriptFormat extends ResourceFormat<Script> {
 		Pattern pattern = Pattern.compile("/\\* !scriptId=(\\d+) \\*/\r\n");
 		Matcher matcher = pattern.matcher(code);
 		if (matcher.find()) {
-			if (GmkSplitter.preserveIds == IdPreservation.ALL) {
+			if (context.preserveIds == IdPreservation.ALL) {
 				script.setId(Integer.valueOf(matcher.group(1)));
 			}
 			code.delete(matcher.start(), matcher.end());
@@ -45,10 +44,10 @@ public class ScriptFormat extends ResourceFormat<Script> {
 	}
 
 	@Override
-	public void write(File path, Script script, GmFile gmf) throws IOException {
-		File scriptFile = new File(path, baseFilename(script) + ".gml");
+	public void write(TreePath path, Script script, GmFile gmf, ConversionContext context) throws IOException {
+		TreePath scriptFile = path.resolve(baseFilename(script) + ".gml");
 		StringBuilder code = new StringBuilder(script.getCode());
-		if (GmkSplitter.preserveIds == IdPreservation.ALL) {
+		if (context.preserveIds == IdPreservation.ALL) {
 			code.insert(0, "/* !scriptId=" + script.getId() + " */\r\n");
 		}
 		FileTools.writeFile(scriptFile, code.toString());
@@ -7,51 +7,53 @@
  */
 package com.ganggarrison.gmdec.files;
 
-import java.io.File;
 import java.io.IOException;
 
 import org.lateralgm.file.GmFile;
 import org.lateralgm.resources.Sound;
 import org.lateralgm.resources.Sound.PSound;
 
-import com.ganggarrison.gmdec.DeferredReferenceCreatorNotifier;
+import com.ganggarrison.gmdec.ConversionContext;
 import com.ganggarrison.gmdec.FileTools;
 import com.ganggarrison.gmdec.ResourceTreeEntry;
+import com.ganggarrison.gmdec.storage.TreePath;
 import com.ganggarrison.gmdec.xml.SoundXmlFormat;
 
 public class SoundFormat extends ResourceFormat<Sound> {
+	private static final SoundXmlFormat XML_FORMAT = new SoundXmlFormat();
+
 	@Override
-	public Sound read(File path, ResourceTreeEntry entry, DeferredReferenceCreatorNotifier drcn) throws IOException {
-		Sound sound = new SoundXmlFormat().read(getXmlFile(path, entry), drcn);
+	public Sound read(TreePath path, ResourceTreeEntry entry, ConversionContext context) throws IOException {
+		Sound sound = XML_FORMAT.read(getXmlFile(path, entry), context);
 		sound.setName(entry.name);
 
-		File soundfile = getSoundfile(path, sound);
+		TreePath soundfile = getSoundfile(path, sound, context);
 		if (soundfile.isFile()) {
-			sound.data = FileTools.readWholeFileBytes(soundfile);
+			sound.data = soundfile.toPayload();
 		}
 		return sound;
 	}
 
 	@Override
-	public void write(File path, Sound sound, GmFile gmf) throws IOException {
-		new SoundXmlFormat().write(sound, getXmlFile(path, sound));
-		boolean dataEmpty = (sound.data == null || sound.data.length == 0);
+	public void write(TreePath path, Sound sound, GmFile gmf, ConversionContext context) throws IOException {
+		XML_FORMAT.write(sound, getXmlFile(path, sound), context);
+		boolean dataEmpty = (sound.data == null || sound.data.isEmpty());
 		if (!dataEmpty) {
-			File soundfile = getSoundfile(path, sound);
+			TreePath soundfile = getSoundfile(path, sound, context);
 			FileTools.writeFile(soundfile, sound.data);
 		}
 	}
 
-	private File getSoundfile(File path, Sound sound) throws IOException {
+	private TreePath getSoundfile(TreePath path, Sound sound, ConversionContext context) throws IOException {
 		String filename = baseFilename(sound.getName());
 		String filetype = sound.get(PSound.FILE_TYPE);
 		if (filetype != null && filetype.startsWith(".")
 				&& FileTools.isGoodFilename(filename + filetype.substring(1))) {
-			return new File(path, filename + filetype);
+			return path.resolve(filename + filetype);
 		} else {
-			System.err.print("INFO: Bad file extension \"" + filetype + "\" in sound \"" + filename + "\", ");
-			System.err.println("not using any extension for this file.");
-			return new File(path, filename);
+			context.warn("INFO: Bad file extension \"" + filetype + "\" in sound \"" + filename + "\", "
+					+ "not using any extension for this file.");
+			return path.resolve(filename);
 		}
 	}
 }
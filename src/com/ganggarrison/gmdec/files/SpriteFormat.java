@@ -7,65 +7,116 @@
  */
 package com.ganggarrison.gmdec.files;
 
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
-import java.io.File;
-import java.io.FileFilter;
 import java.io.IOException;
-
-import javax.imageio.ImageIO;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
 
 import org.lateralgm.file.GmFile;
+import org.lateralgm.file.Metrics;
+import org.lateralgm.file.Metrics.Counter;
 import org.lateralgm.resources.Sprite;
+import org.lateralgm.util.RawImage;
 
-import com.ganggarrison.gmdec.DeferredReferenceCreatorNotifier;
+import com.ganggarrison.easyxml.XmlReader;
+import com.ganggarrison.gmdec.ConversionContext;
+import com.ganggarrison.gmdec.DirectoryListing;
+import com.ganggarrison.gmdec.FileTools;
 import com.ganggarrison.gmdec.ResourceTreeEntry;
+import com.ganggarrison.gmdec.storage.TreePath;
 import com.ganggarrison.gmdec.xml.SpriteXmlFormat;
 
+/**
+ * Sprites are stored in an xml file, and their subimages in a directory next
+ * to it (&lt;sprite&gt;.images/image 0.png etc.). With
+ * {@link ConversionContext#spriteStrips}, the subimages are stored one below
+ * the other in a single image (&lt;sprite&gt;.strip.png) instead, and their
+ * places in it are listed in the xml file.
+ */
 public class SpriteFormat extends ResourceFormat<Sprite> {
+	private static final SpriteXmlFormat XML_FORMAT = new SpriteXmlFormat();
+	private static final Pattern IMAGE_FILENAME = Pattern.compile("image \\d+\\.png");
+
 	@Override
-	public Sprite read(File path, ResourceTreeEntry entry, DeferredReferenceCreatorNotifier drcn) throws IOException {
-		Sprite sprite = new SpriteXmlFormat().read(getXmlFile(path, entry), drcn);
+	public Sprite read(TreePath path, ResourceTreeEntry entry, ConversionContext context) throws IOException {
+		List<Rectangle> stripFrames = new ArrayList<Rectangle>();
+		Sprite sprite = XML_FORMAT.read(new XmlReader(getXmlFile(path, entry)), context, stripFrames);
 		sprite.setName(entry.name);
 
-		File imagesDir = new File(path, baseFilename(entry) + ".images");
-		if (imagesDir.isDirectory()) {
-			readImages(sprite, imagesDir);
+		if (!stripFrames.isEmpty()) {
+			readStrip(sprite, getStripFile(path, baseFilename(entry)), stripFrames);
+		} else {
+			TreePath imagesDir = path.resolve(baseFilename(entry) + ".images");
+			if (imagesDir.isDirectory()) {
+				readImages(sprite, imagesDir, context);
+			}
 		}
 		return sprite;
 	}
 
-	private void readImages(Sprite sprite, File imagesDir) throws IOException {
-		File[] imageFiles = imagesDir.listFiles(new FileFilter() {
-			@Override
-			public boolean accept(File pathname) {
-				return pathname.isFile() && pathname.getName().toLowerCase().matches("image \\d+\\.png");
+	private static TreePath getStripFile(TreePath path, String baseFilename) {
+		return path.resolve(baseFilename + ".strip.png");
+	}
+
+	/** Cuts the subimages out of the strip image, copying the pixels row by row. */
+	private void readStrip(Sprite sprite, TreePath stripFile, List<Rectangle> frames) throws IOException {
+		BufferedImage stripImage = FileTools.readImage(stripFile);
+		if (stripImage == null) {
+			throw new IOException("Unable to read the sprite strip " + stripFile);
+		}
+		RawImage strip = RawImage.wrap(stripImage);
+		Metrics.get().count(Counter.IMAGES_DECODED, 1);
+		for (Rectangle frame : frames) {
+			if (frame.x < 0 || frame.y < 0 || frame.width <= 0 || frame.height <= 0
+					|| frame.x + frame.width > strip.width || frame.y + frame.height > strip.height) {
+				throw new IOException("Frame " + frame + " lies outside of the sprite strip " + stripFile);
+			}
+			RawImage image = new RawImage(frame.width, frame.height);
+			for (int y = 0; y < frame.height; y++) {
+				System.arraycopy(strip.pixels, (frame.y + y) * strip.width + frame.x, image.pixels, y * frame.width,
+						frame.width);
 			}
-		});
+			sprite.subImages.add(image.toBufferedImage());
+		}
+	}
 
-		int index = 0;
-		boolean imageFound = true;
-		do {
-			File imageFile = new File(imagesDir, "image " + index + ".png");
-			if (imageFile.isFile()) {
-				sprite.subImages.add(ImageIO.read(imageFile));
-			} else {
-				imageFound = false;
+	private void readImages(Sprite sprite, TreePath imagesDir, ConversionContext context) throws IOException {
+		DirectoryListing listing = imagesDir.list();
+		int imageFileCount = 0;
+		for (String name : listing.getFiles()) {
+			if (IMAGE_FILENAME.matcher(name.toLowerCase()).matches()) {
+				imageFileCount++;
 			}
+		}
+
+		int index = 0;
+		while (listing.isFile("image " + index + ".png")) {
+			TreePath imageFile = imagesDir.resolve("image " + index + ".png");
+			sprite.subImages.add(RawImage.toArgb(FileTools.readImage(imageFile)));
+			Metrics.get().count(Counter.IMAGES_DECODED, 1);
 			index++;
-		} while (imageFound);
-		if (index - 1 != imageFiles.length) {
-			System.err.println("The image directory " + imagesDir
+		}
+		if (index != imageFileCount) {
+			context.warn("The image directory " + imagesDir
 					+ " contains non-consecutive indices. Images after the first index gap won't be processed.");
 		}
 	}
 
 	@Override
-	public void write(File path, Sprite sprite, GmFile gmf) throws IOException {
-		new SpriteXmlFormat().write(sprite, getXmlFile(path, sprite));
+	public void write(TreePath path, Sprite sprite, GmFile gmf, ConversionContext context) throws IOException {
+		XML_FORMAT.write(sprite, getXmlFile(path, sprite), context);
+		if (context.spriteStrips) {
+			if (!sprite.subImages.isEmpty()) {
+				writeStrip(sprite, getStripFile(path, baseFilename(sprite)), context);
+			}
+			return;
+		}
 
-		File subPath = null;
+		TreePath subPath = null;
 		if (sprite.subImages.size() > 0) {
-			subPath = new File(path, baseFilename(sprite) + ".images");
+			subPath = path.resolve(baseFilename(sprite) + ".images");
 			if (!subPath.mkdirs()) {
 				throw new IOException("Cannot create path " + subPath + ", it already exists.");
 			}
@@ -73,7 +124,28 @@ public class SpriteFormat extends ResourceFormat<Sprite> {
 
 		for (int i = 0; i < sprite.subImages.size(); i++) {
 			BufferedImage image = sprite.subImages.get(i);
-			ImageIO.write(image, "PNG", new File(subPath, "image " + i + ".png"));
+			FileTools.writePng(image, subPath.resolve("image " + i + ".png"), context);
+			Metrics.get().count(Counter.IMAGES_ENCODED, 1);
+		}
+	}
+
+	/** Writes the subimages into one image, see {@link SpriteXmlFormat#getStripFrames(List)}. */
+	private void writeStrip(Sprite sprite, TreePath stripFile, ConversionContext context) throws IOException {
+		List<Rectangle> frames = SpriteXmlFormat.getStripFrames(sprite.subImages);
+		int width = 0;
+		for (Rectangle frame : frames) {
+			width = Math.max(width, frame.width);
+		}
+		Rectangle last = frames.get(frames.size() - 1);
+		RawImage strip = new RawImage(width, last.y + last.height);
+		for (int i = 0; i < frames.size(); i++) {
+			Rectangle frame = frames.get(i);
+			int[] pixels = RawImage.getPixels(sprite.subImages.get(i));
+			for (int y = 0; y < frame.height; y++) {
+				System.arraycopy(pixels, y * frame.width, strip.pixels, (frame.y + y) * width + frame.x, frame.width);
+			}
 		}
+		FileTools.writePng(strip.toBufferedImage(), stripFile, context);
+		Metrics.get().count(Counter.IMAGES_ENCODED, 1);
 	}
 }
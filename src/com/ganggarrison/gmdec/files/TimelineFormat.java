@@ -7,26 +7,28 @@
  */
 package com.ganggarrison.gmdec.files;
 
-import java.io.File;
 import java.io.IOException;
 
 import org.lateralgm.file.GmFile;
 import org.lateralgm.resources.Timeline;
 
-import com.ganggarrison.gmdec.DeferredReferenceCreatorNotifier;
+import com.ganggarrison.gmdec.ConversionContext;
 import com.ganggarrison.gmdec.ResourceTreeEntry;
+import com.ganggarrison.gmdec.storage.TreePath;
 import com.ganggarrison.gmdec.xml.TimelineXmlFormat;
 
 public class TimelineFormat extends ResourceFormat<Timeline> {
+	private static final TimelineXmlFormat XML_FORMAT = new TimelineXmlFormat();
+
 	@Override
-	public Timeline read(File path, ResourceTreeEntry entry, DeferredReferenceCreatorNotifier drcn) throws IOException {
-		Timeline timeline = new TimelineXmlFormat().read(getXmlFile(path, entry), drcn);
+	public Timeline read(TreePath path, ResourceTreeEntry entry, ConversionContext context) throws IOException {
+		Timeline timeline = XML_FORMAT.read(getXmlFile(path, entry), context);
 		timeline.setName(entry.name);
 		return timeline;
 	}
 
 	@Override
-	public void write(File path, Timeline timeline, GmFile gmf) throws IOException {
-		new TimelineXmlFormat().write(timeline, getXmlFile(path, timeline));
+	public void write(TreePath path, Timeline timeline, GmFile gmf, ConversionContext context) throws IOException {
+		XML_FORMAT.write(timeline, getXmlFile(path, timeline), context);
 	}
 }
@@ -0,0 +1,107 @@
+/*
+ * This file is part of GmkSplitter.
+ * GmkSplitter is free software and comes with ABSOLUTELY NO WARRANTY.
+ * See LICENSE for details.
+ */
+package com.ganggarrison.gmdec.storage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.lateralgm.file.Payload;
+
+import com.ganggarrison.gmdec.DirectoryListing;
+
+/** A file or directory on disk */
+class FileSystemPath extends TreePath {
+	private final File file;
+
+	FileSystemPath(File file) {
+		this.file = file;
+	}
+
+	@Override
+	public TreePath resolve(String name) {
+		return new FileSystemPath(new File(file, name));
+	}
+
+	@Override
+	public String getName() {
+		return file.getName();
+	}
+
+	@Override
+	public boolean isFile() {
+		return file.isFile();
+	}
+
+	@Override
+	public boolean isDirectory() {
+		return file.isDirectory();
+	}
+
+	@Override
+	public boolean exists() {
+		return file.exists();
+	}
+
+	@Override
+	public boolean mkdir() {
+		return file.mkdir();
+	}
+
+	@Override
+	public boolean mkdirs() {
+		return file.mkdirs();
+	}
+
+	@Override
+	public boolean delete() {
+		return file.delete();
+	}
+
+	@Override
+	public long length() {
+		return file.length();
+	}
+
+	@Override
+	public InputStream openInput() throws IOException {
+		return new BufferedInputStream(new FileInputStream(file), Payload.BUFFER_SIZE);
+	}
+
+	@Override
+	public OutputStream createFile() throws IOException {
+		// Never overwrite
+		if (file.exists()) {
+			throw new IOException("File " + file + " already exists.");
+		}
+		return new BufferedOutputStream(new FileOutputStream(file), Payload.BUFFER_SIZE);
+	}
+
+	@Override
+	public DirectoryListing list() throws IOException {
+		return DirectoryListing.read(file);
+	}
+
+	@Override
+	public Payload toPayload() {
+		return Payload.of(file);
+	}
+
+	@Override
+	public File toFile() {
+		return file;
+	}
+
+	@Override
+	public String toString() {
+		return file.toString();
+	}
+}
@@ -0,0 +1,644 @@
+/*
+ * This file is part of GmkSplitter.
+ * GmkSplitter is free software and comes with ABSOLUTELY NO WARRANTY.
+ * See LICENSE for details.
+ */
+package com.ganggarrison.gmdec.storage;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.InflaterInputStream;
+
+import org.lateralgm.file.Payload;
+import org.lateralgm.file.SpoolOutputStream;
+
+import com.ganggarrison.gmdec.DirectoryListing;
+
+/**
+ * A split tree stored in a single file instead of thousands of small ones.
+ *
+ * The file starts with the header "GMKTREE1", followed by the content of the
+ * files, one after the other, each one zlib-compressed or, if it is small and
+ * compression doesn't make it smaller, stored as it is. The directory of all files and
+ * directories comes last, so any file can be found without reading the others.
+ * The directory is:
+ *
+ * <pre>
+ * int   number of entries
+ * then for each entry:
+ *   UTF   path, with / as separator
+ *   byte  0 = stored, 1 = deflated, 2 = directory
+ *   long  offset of the content
+ *   long  size of the stored content
+ *   long  size of the file
+ *   int   CRC32 of the file
+ * long  offset of the directory
+ * "GMKTEND1"
+ * </pre>
+ *
+ * All numbers are big endian. Updating an archive only ever appends to it: new
+ * content and then a new directory are written after the old directory, which
+ * remains as unused space. Content that was written once never changes, so
+ * payloads that read it later stay valid.
+ *
+ * Reading is thread safe and files can be read in parallel. Files can also be
+ * created from several threads; their content is compressed by the writing
+ * thread while it is written, spooled to a temporary file if it gets large, and
+ * appended when the stream is closed.
+ */
+public class TreeArchive implements Closeable {
+	public static final String EXTENSION = ".gmktree";
+
+	private static final byte[] HEADER = { 'G', 'M', 'K', 'T', 'R', 'E', 'E', '1' };
+	private static final byte[] TRAILER = { 'G', 'M', 'K', 'T', 'E', 'N', 'D', '1' };
+	private static final int TRAILER_SIZE = 8 + TRAILER.length;
+
+	private static final byte STORED = 0;
+	private static final byte DEFLATED = 1;
+	private static final byte DIRECTORY = 2;
+
+	/**
+	 * Files up to this size are also kept as they are while they are written, so
+	 * they can be stored uncompressed if deflating doesn't make them smaller.
+	 * Larger files are always deflated.
+	 */
+	private static final int STORED_LIMIT = 64 << 10;
+	private static final int DEFLATE_BUFFER_SIZE = 8192;
+
+	private static class Entry {
+		final byte method;
+		final long offset;
+		final long storedSize;
+		final long size;
+		final int crc;
+
+		Entry(byte method, long offset, long storedSize, long size, int crc) {
+			this.method = method;
+			this.offset = offset;
+			this.storedSize = storedSize;
+			this.size = size;
+			this.crc = crc;
+		}
+	}
+
+	/** The names in a directory */
+	private static class Directory {
+		final Set<String> files = new TreeSet<String>();
+		final Set<String> directories = new TreeSet<String>();
+	}
+
+	private final File file;
+	private final FileChannel channel;
+	private final Map<String, Entry> entries = new HashMap<String, Entry>();
+	private final Map<String, Directory> directories = new HashMap<String, Directory>();
+	/** Where the next content is appended */
+	private long end;
+	private boolean modified;
+
+	private TreeArchive(File file, String mode) throws IOException {
+		this.file = file;
+		channel = new RandomAccessFile(file, mode).getChannel();
+		directories.put("", new Directory());
+	}
+
+	public static boolean isArchive(File file) {
+		return file.getName().toLowerCase().endsWith(EXTENSION);
+	}
+
+	/** Creates a new, empty archive. Existing files are never overwritten. */
+	public static TreeArchive create(File file) throws IOException {
+		if (file.exists()) {
+			throw new IOException("File " + file + " already exists.");
+		}
+		TreeArchive archive = new TreeArchive(file, "rw");
+		archive.writeFully(HEADER, 0);
+		archive.end = HEADER.length;
+		archive.modified = true;
+		return archive;
+	}
+
+	/**
+	 * Opens an existing archive. If writable is true, files can be added and
+	 * removed; the changes are appended when the archive is closed.
+	 */
+	public static TreeArchive open(File file, boolean writable) throws IOException {
+		TreeArchive archive = new TreeArchive(file, writable ? "rw" : "r");
+		try {
+			archive.readDirectory();
+		} catch (IOException e) {
+			archive.channel.close();
+			throw e;
+		}
+		return archive;
+	}
+
+	/** The root directory of the tree */
+	public TreePath getRoot() {
+		return new ArchivePath("");
+	}
+
+	/**
+	 * Writes the directory if anything changed, and closes the file.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		try {
+			if (modified) {
+				writeDirectory();
+			}
+		} finally {
+			channel.close();
+		}
+	}
+
+	private void readDirectory() throws IOException {
+		long length = channel.size();
+		byte[] header = new byte[HEADER.length];
+		if (length < HEADER.length + TRAILER_SIZE) {
+			throw new IOException(file + " is not a tree archive.");
+		}
+		readFully(header, 0);
+		byte[] trailer = new byte[TRAILER_SIZE];
+		readFully(trailer, length - TRAILER_SIZE);
+		if (!Arrays.equals(header, HEADER)
+				|| !Arrays.equals(Arrays.copyOfRange(trailer, 8, TRAILER_SIZE), TRAILER)) {
+			throw new IOException(file + " is not a tree archive or was not closed properly.");
+		}
+		long directoryOffset = ByteBuffer.wrap(trailer).getLong();
+		if (directoryOffset < HEADER.length || directoryOffset > length - TRAILER_SIZE) {
+			throw new IOException("Corrupt tree archive: " + file);
+		}
+		byte[] directory = new byte[(int) (length - TRAILER_SIZE - directoryOffset)];
+		readFully(directory, directoryOffset);
+
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(directory));
+		for (int i = in.readInt(); i > 0; i--) {
+			String path = in.readUTF();
+			Entry entry = new Entry(in.readByte(), in.readLong(), in.readLong(), in.readLong(), in.readInt());
+			if (entry.method == DIRECTORY) {
+				addDirectory(path);
+			} else {
+				addFile(path, entry);
+			}
+		}
+		end = length;
+	}
+
+	private void writeDirectory() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(entries.size() + directories.size() - 1);
+		// Sorted, so the same tree always gives the same directory
+		for (String path : new TreeSet<String>(directories.keySet())) {
+			if (!path.isEmpty()) {
+				writeEntry(out, path, new Entry(DIRECTORY, 0, 0, 0, 0));
+			}
+		}
+		for (Map.Entry<String, Entry> e : new TreeMap<String, Entry>(entries).entrySet()) {
+			writeEntry(out, e.getKey(), e.getValue());
+		}
+		out.writeLong(end);
+		out.write(TRAILER);
+		writeFully(bytes.toByteArray(), end);
+		end += bytes.size();
+		channel.force(false);
+		modified = false;
+	}
+
+	private static void writeEntry(DataOutputStream out, String path, Entry entry) throws IOException {
+		out.writeUTF(path);
+		out.writeByte(entry.method);
+		out.writeLong(entry.offset);
+		out.writeLong(entry.storedSize);
+		out.writeLong(entry.size);
+		out.writeInt(entry.crc);
+	}
+
+	private void readFully(byte[] buffer, long position) throws IOException {
+		ByteBuffer bb = ByteBuffer.wrap(buffer);
+		while (bb.hasRemaining()) {
+			if (channel.read(bb, position + bb.position()) < 0) {
+				throw new IOException("Unexpected end of tree archive " + file);
+			}
+		}
+	}
+
+	private void writeFully(byte[] data, long position) throws IOException {
+		writeFully(data, 0, data.length, position);
+	}
+
+	private void writeFully(byte[] data, int offset, int length, long position) throws IOException {
+		ByteBuffer bb = ByteBuffer.wrap(data, offset, length);
+		while (bb.hasRemaining()) {
+			channel.write(bb, position + bb.position() - offset);
+		}
+	}
+
+	private void addFile(String path, Entry entry) throws IOException {
+		Directory parent = directories.get(parentOf(path));
+		if (parent == null) {
+			parent = addDirectory(parentOf(path));
+		}
+		parent.files.add(nameOf(path));
+		entries.put(path, entry);
+	}
+
+	/** Adds the directory and its parents, unless they exist already */
+	private Directory addDirectory(String path) {
+		Directory dir = directories.get(path);
+		if (dir == null) {
+			dir = new Directory();
+			directories.put(path, dir);
+			addDirectory(parentOf(path)).directories.add(nameOf(path));
+		}
+		return dir;
+	}
+
+	/**
+	 * Appends the stored content of a new file to the archive and adds it to the
+	 * directory.
+	 */
+	private synchronized void append(String path, byte method, SpoolOutputStream stored, long size, int crc)
+			throws IOException {
+		if (entries.containsKey(path) || directories.containsKey(path)) {
+			throw new IOException("File " + this.file + "!/" + path + " already exists.");
+		}
+		if (!directories.containsKey(parentOf(path))) {
+			throw new FileNotFoundException(this.file + "!/" + parentOf(path) + " (No such directory)");
+		}
+		stored.writeTo(new ChannelOutputStream(end));
+		addFile(path, new Entry(method, end, stored.size(), size, crc));
+		end += stored.size();
+		modified = true;
+	}
+
+	private synchronized Entry getEntry(String path) {
+		return entries.get(path);
+	}
+
+	/** Wraps the stored content of an entry into a stream of its file content. */
+	private static InputStream openEntry(InputStream stored, Entry entry, String name) {
+		InputStream in = entry.method == DEFLATED ? new InflaterInputStream(stored) : stored;
+		return new VerifyingInputStream(in, entry, name);
+	}
+
+	private static String parentOf(String path) {
+		int slash = path.lastIndexOf('/');
+		return slash < 0 ? "" : path.substring(0, slash);
+	}
+
+	private static String nameOf(String path) {
+		return path.substring(path.lastIndexOf('/') + 1);
+	}
+
+	private class ArchivePath extends TreePath {
+		private final String path;
+
+		ArchivePath(String path) {
+			this.path = path;
+		}
+
+		@Override
+		public TreePath resolve(String name) {
+			return new ArchivePath(path.isEmpty() ? name : path + "/" + name);
+		}
+
+		@Override
+		public String getName() {
+			return nameOf(path);
+		}
+
+		@Override
+		public boolean isFile() {
+			return getEntry(path) != null;
+		}
+
+		@Override
+		public boolean isDirectory() {
+			synchronized (TreeArchive.this) {
+				return directories.containsKey(path);
+			}
+		}
+
+		@Override
+		public boolean mkdir() {
+			synchronized (TreeArchive.this) {
+				if (exists() || !directories.containsKey(parentOf(path))) {
+					return false;
+				}
+				addDirectory(path);
+				modified = true;
+				return true;
+			}
+		}
+
+		@Override
+		public boolean mkdirs() {
+			synchronized (TreeArchive.this) {
+				if (exists()) {
+					return false;
+				}
+				addDirectory(path);
+				modified = true;
+				return true;
+			}
+		}
+
+		/**
+		 * Removes the file or empty directory from the directory. Its content
+		 * stays in the archive as unused space.
+		 */
+		@Override
+		public boolean delete() {
+			synchronized (TreeArchive.this) {
+				Directory parent = directories.get(parentOf(path));
+				if (entries.remove(path) != null) {
+					parent.files.remove(getName());
+				} else {
+					Directory dir = directories.get(path);
+					if (path.isEmpty() || dir == null || !dir.files.isEmpty() || !dir.directories.isEmpty()) {
+						return false;
+					}
+					directories.remove(path);
+					parent.directories.remove(getName());
+				}
+				modified = true;
+				return true;
+			}
+		}
+
+		@Override
+		public long length() {
+			Entry entry = getEntry(path);
+			return entry == null ? 0 : entry.size;
+		}
+
+		@Override
+		public InputStream openInput() throws IOException {
+			Entry entry = getEntry(path);
+			if (entry == null) {
+				throw new FileNotFoundException(toString());
+			}
+			InputStream stored = new ChannelInputStream(channel, entry.offset, entry.storedSize, false);
+			int bufferSize = (int) Math.min(entry.storedSize + 1, Payload.BUFFER_SIZE);
+			return openEntry(new BufferedInputStream(stored, bufferSize), entry, toString());
+		}
+
+		@Override
+		public OutputStream createFile() throws IOException {
+			if (exists()) {
+				throw new IOException("File " + this + " already exists.");
+			}
+			return new EntryOutputStream(path);
+		}
+
+		@Override
+		public DirectoryListing list() throws IOException {
+			synchronized (TreeArchive.this) {
+				Directory dir = directories.get(path);
+				if (dir == null) {
+					throw new FileNotFoundException(toString());
+				}
+				return new DirectoryListing(dir.files, dir.directories);
+			}
+		}
+
+		@Override
+		public Payload toPayload() throws IOException {
+			Entry entry = getEntry(path);
+			if (entry == null) {
+				throw new FileNotFoundException(toString());
+			}
+			return new ArchivePayload(file, entry, toString());
+		}
+
+		@Override
+		public String toString() {
+			return file + "!/" + path;
+		}
+	}
+
+	/**
+	 * Compresses the content of a new file while it is written, and appends it
+	 * to the archive when the stream is closed.
+	 */
+	private class EntryOutputStream extends OutputStream {
+		private final String path;
+		private final Deflater deflater = new Deflater();
+		private final byte[] buffer = new byte[DEFLATE_BUFFER_SIZE];
+		private final CRC32 crc = new CRC32();
+		private final SpoolOutputStream deflated = new SpoolOutputStream();
+		/** The content as it is, until it gets larger than STORED_LIMIT */
+		private SpoolOutputStream raw = new SpoolOutputStream(STORED_LIMIT);
+		private long size;
+		private boolean closed;
+
+		EntryOutputStream(String path) {
+			this.path = path;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (closed) {
+				throw new IOException("Stream closed");
+			}
+			crc.update(b, off, len);
+			size += len;
+			if (raw != null) {
+				if (size <= STORED_LIMIT) {
+					raw.write(b, off, len);
+				} else {
+					raw = null;
+				}
+			}
+			deflater.setInput(b, off, len);
+			while (!deflater.needsInput()) {
+				deflated.write(buffer, 0, deflater.deflate(buffer));
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			try {
+				deflater.finish();
+				while (!deflater.finished()) {
+					deflated.write(buffer, 0, deflater.deflate(buffer));
+				}
+				deflated.close();
+				if (raw != null && deflated.size() >= size) {
+					append(path, STORED, raw, size, (int) crc.getValue());
+				} else {
+					append(path, DEFLATED, deflated, size, (int) crc.getValue());
+				}
+			} finally {
+				deflater.end();
+				deflated.release();
+			}
+		}
+	}
+
+	/** Writes to the archive from the given position on. Callers hold the lock. */
+	private class ChannelOutputStream extends OutputStream {
+		private long position;
+
+		ChannelOutputStream(long position) {
+			this.position = position;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			writeFully(b, off, len, position);
+			position += len;
+		}
+	}
+
+	/**
+	 * A file in the archive, read with a stream of its own, so the archive
+	 * can be closed before the payload is used.
+	 */
+	private static class ArchivePayload extends Payload {
+		private final File file;
+		private final Entry entry;
+		private final String name;
+
+		ArchivePayload(File file, Entry entry, String name) {
+			this.file = file;
+			this.entry = entry;
+			this.name = name;
+		}
+
+		@Override
+		public long length() {
+			return entry.size;
+		}
+
+		@Override
+		public InputStream openStream() throws IOException {
+			FileChannel fileChannel = new FileInputStream(file).getChannel();
+			InputStream stored = new ChannelInputStream(fileChannel, entry.offset, entry.storedSize, true);
+			return openEntry(new BufferedInputStream(stored, Payload.BUFFER_SIZE), entry, name);
+		}
+	}
+
+	/** Reads a range of a file with positional reads, so streams don't interfere. */
+	private static class ChannelInputStream extends InputStream {
+		private final FileChannel channel;
+		private final boolean closeChannel;
+		private long position;
+		private long left;
+
+		ChannelInputStream(FileChannel channel, long position, long length, boolean closeChannel) {
+			this.channel = channel;
+			this.position = position;
+			this.left = length;
+			this.closeChannel = closeChannel;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (left <= 0) {
+				return -1;
+			}
+			int n = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, left)), position);
+			if (n < 0) {
+				throw new IOException("Unexpected end of tree archive");
+			}
+			position += n;
+			left -= n;
+			return n;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (closeChannel) {
+				channel.close();
+			}
+		}
+	}
+
+	/** Checks size and CRC of the content once it has been read completely. */
+	private static class VerifyingInputStream extends FilterInputStream {
+		private final Entry entry;
+		private final String name;
+		private final CRC32 crc = new CRC32();
+		private long size;
+
+		VerifyingInputStream(InputStream in, Entry entry, String name) {
+			super(in);
+			this.entry = entry;
+			this.name = name;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = in.read(b, off, len);
+			if (n > 0) {
+				crc.update(b, off, n);
+				size += n;
+			} else if (n < 0 && (size != entry.size || (int) crc.getValue() != entry.crc)) {
+				throw new IOException("Corrupt file in tree archive: " + name);
+			}
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			byte[] buffer = new byte[(int) Math.min(n, 4096)];
+			int read = read(buffer, 0, buffer.length);
+			return Math.max(read, 0);
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+	}
+}
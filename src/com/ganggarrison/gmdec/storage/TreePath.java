@@ -0,0 +1,79 @@
+/*
+ * This file is part of GmkSplitter.
+ * GmkSplitter is free software and comes with ABSOLUTELY NO WARRANTY.
+ * See LICENSE for details.
+ */
+package com.ganggarrison.gmdec.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.lateralgm.file.Payload;
+
+import com.ganggarrison.gmdec.DirectoryListing;
+
+/**
+ * A file or directory of a split tree. The formats read and write the tree
+ * through this class, so the tree can be stored either as directories on disk
+ * ({@link #of(File)}) or in a single {@link TreeArchive}.
+ */
+public abstract class TreePath {
+	public static TreePath of(File file) {
+		return new FileSystemPath(file);
+	}
+
+	/** The file or directory with the given name in this directory */
+	public abstract TreePath resolve(String name);
+
+	public abstract String getName();
+
+	public abstract boolean isFile();
+
+	public abstract boolean isDirectory();
+
+	public boolean exists() {
+		return isFile() || isDirectory();
+	}
+
+	/**
+	 * Creates this directory. Returns false if it could not be created, e.g.
+	 * because it already exists or its parent doesn't.
+	 */
+	public abstract boolean mkdir();
+
+	/**
+	 * Creates this directory and any missing parents. Returns false if it
+	 * could not be created, e.g. because it already exists.
+	 */
+	public abstract boolean mkdirs();
+
+	/** Deletes the file or empty directory. Returns false if it can't. */
+	public abstract boolean delete();
+
+	/** The size of the file in bytes */
+	public abstract long length();
+
+	public abstract InputStream openInput() throws IOException;
+
+	/**
+	 * Creates the file and returns a stream for its content. Existing files
+	 * are never overwritten.
+	 */
+	public abstract OutputStream createFile() throws IOException;
+
+	/** The names of the files and directories in this directory */
+	public abstract DirectoryListing list() throws IOException;
+
+	/**
+	 * The content of the file, read only when it is needed. The payload stays
+	 * valid after the storage is closed.
+	 */
+	public abstract Payload toPayload() throws IOException;
+
+	/** The file on disk, or null if the tree is stored in an archive */
+	public File toFile() {
+		return null;
+	}
+}
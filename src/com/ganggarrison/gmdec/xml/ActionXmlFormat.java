@@ -11,7 +11,6 @@ package com.ganggarrison.gmdec.xml;
 import java.util.ArrayList;
 import java.util.List;
 
-import org.lateralgm.file.GmFile;
 import org.lateralgm.resources.GmObject;
 import org.lateralgm.resources.InstantiableResource;
 import org.lateralgm.resources.Resource;
@@ -23,15 +22,15 @@ import org.lateralgm.resources.sub.Argument;
 
 import com.ganggarrison.easyxml.XmlReader;
 import com.ganggarrison.easyxml.XmlWriter;
+import com.ganggarrison.gmdec.ConversionContext;
 import com.ganggarrison.gmdec.DeferredReferenceCreator;
-import com.ganggarrison.gmdec.DeferredReferenceCreatorNotifier;
-import com.ganggarrison.gmdec.GmkSplitter;
 import com.ganggarrison.gmdec.LgmConst;
+import com.ganggarrison.gmdec.ResourceNames;
 import com.ganggarrison.gmdec.Tools;
 
 public class ActionXmlFormat extends XmlFormat<Action> {
 	@Override
-	public void write(Action act, XmlWriter out) {
+	public void write(Action act, XmlWriter out, ConversionContext context) {
 		out.startElement("action");
 		{
 			LibAction la = act.getLibAction();
@@ -66,7 +65,7 @@ public class ActionXmlFormat extends XmlFormat<Action> {
 				if (Argument.getResourceKind(arg.kind) != null) {
 					ResourceReference<? extends Resource<?, ?>> ref = arg.getRes();
 					out.putText(getRefStr(ref));
-				} else if (GmkSplitter.convertLineEndings && la.execType == Action.EXEC_CODE && arg.kind == Argument.ARG_STRING) {
+				} else if (context.convertLineEndings && la.execType == Action.EXEC_CODE && arg.kind == Argument.ARG_STRING) {
 					out.putText(Tools.toLf(arg.getVal()));
 				} else {
 					out.putText(arg.getVal());
@@ -79,26 +78,36 @@ public class ActionXmlFormat extends XmlFormat<Action> {
 	}
 
 	@Override
-	public Action read(XmlReader reader, DeferredReferenceCreatorNotifier notifier) {
+	public Action read(XmlReader reader, ConversionContext context) {
 		reader.enterElement("action");
 
 		int library = reader.getIntAttribute("library");
 		int id = reader.getIntAttribute("id");
 
+		byte actionKind = LgmConst.fromString(reader.getStringElement("kind"), ActionKind.class);
+		boolean allowRelative = reader.getBoolElement("allowRelative");
+		boolean question = reader.getBoolElement("question");
+		boolean canApplyTo = reader.getBoolElement("canApplyTo");
+		byte execType = LgmConst.fromString(reader.getStringElement("actionType"), ExecType.class);
+		String execInfo = reader.getStringElement("functionName");
+
 		LibAction la = LibManager.getLibAction(library, id);
-		if (la == null) {
-			la = new LibAction();
+		if (la == null || la.actionKind != actionKind || la.allowRelative != allowRelative
+				|| la.question != question || la.canApplyTo != canApplyTo || la.execType != execType
+				|| !execInfo.equals(la.execInfo)) {
+			// The library actions are shared by all conversions, so they are
+			// copied instead of changed if the file doesn't match the library.
+			la = la == null ? new LibAction() : copyLibAction(la);
+			la.id = id;
+			la.parentId = library;
+			la.actionKind = actionKind;
+			la.allowRelative = allowRelative;
+			la.question = question;
+			la.canApplyTo = canApplyTo;
+			la.execType = execType;
+			la.execInfo = execInfo;
 		}
 
-		la.id = id;
-		la.parentId = library;
-		la.actionKind = LgmConst.fromString(reader.getStringElement("kind"), ActionKind.class);
-		la.allowRelative = reader.getBoolElement("allowRelative");
-		la.question = reader.getBoolElement("question");
-		la.canApplyTo = reader.getBoolElement("canApplyTo");
-		la.execType = LgmConst.fromString(reader.getStringElement("actionType"), ExecType.class);
-		la.execInfo = reader.getStringElement("functionName");
-
 		boolean relative = reader.getBoolElement("relative");
 		boolean not = reader.getBoolElement("not");
 
@@ -115,9 +124,9 @@ public class ActionXmlFormat extends XmlFormat<Action> {
 				if (!ref.isEmpty()) {
 					ArgumentReferenceCreator arc = new ArgumentReferenceCreator(arg);
 					arc.setReference(ref, Argument.getResourceKind(kind));
-					notifier.addDeferredReferenceCreator(arc);
+					context.getNotifier().addDeferredReferenceCreator(arc);
 				}
-			} else if (GmkSplitter.convertLineEndings && la.execType == Action.EXEC_CODE && arg.kind == Argument.ARG_STRING) {
+			} else if (context.convertLineEndings && la.execType == Action.EXEC_CODE && arg.kind == Argument.ARG_STRING) {
 				arg.setVal(Tools.toCrlf(reader.getTextContent()));
 			} else {
 				arg.setVal(reader.getTextContent());
@@ -140,11 +149,27 @@ public class ActionXmlFormat extends XmlFormat<Action> {
 		} else {
 			ActionReferenceCreator rc = new ActionReferenceCreator(act);
 			rc.setReference(appliesTo);
-			notifier.addDeferredReferenceCreator(rc);
+			context.getNotifier().addDeferredReferenceCreator(rc);
 		}
 		return act;
 	}
 
+	private static LibAction copyLibAction(LibAction original) {
+		LibAction copy = new LibAction();
+		copy.parent = original.parent;
+		copy.name = original.name;
+		copy.actImage = original.actImage;
+		copy.hidden = original.hidden;
+		copy.advanced = original.advanced;
+		copy.registeredOnly = original.registeredOnly;
+		copy.description = original.description;
+		copy.listText = original.listText;
+		copy.hintText = original.hintText;
+		copy.interfaceKind = original.interfaceKind;
+		copy.libArguments = original.libArguments;
+		return copy;
+	}
+
 	private static enum ArgumentKind implements LgmConst.Provider {
 		EXPRESSION(Argument.ARG_EXPRESSION),
 		STRING(Argument.ARG_STRING),
@@ -230,13 +255,13 @@ public class ActionXmlFormat extends XmlFormat<Action> {
 		}
 
 		@Override
-		public void createReferences(GmFile gmf) {
+		public void createReferences(ResourceNames resources, ConversionContext context) {
 			if (name != null && !name.isEmpty()) {
-				GmObject refObj = gmf.resMap.getList(GmObject.class).get(name);
+				GmObject refObj = resources.get(GmObject.class, name);
 				if (refObj != null) {
 					action.setAppliesTo(refObj.reference);
 				} else {
-					System.err.println("Warning: Action references unknown "
+					context.warn("Warning: Action references unknown "
 							+ "object " + name);
 				}
 			}
@@ -259,13 +284,13 @@ public class ActionXmlFormat extends XmlFormat<Action> {
 		}
 
 		@Override
-		public void createReferences(GmFile gmf) {
+		public void createReferences(ResourceNames resources, ConversionContext context) {
 			if (name != null && !name.isEmpty()) {
-				Resource<?, ?> refObj = gmf.resMap.getList((Class) reskind).get(name);
+				Resource<?, ?> refObj = resources.get((Class) reskind, name);
 				if (refObj != null) {
 					arg.setRes(refObj.reference);
 				} else {
-					System.err.println("Warning: Argument references unknown "
+					context.warn("Warning: Argument references unknown "
 							+ reskind + " " + name);
 				}
 			}
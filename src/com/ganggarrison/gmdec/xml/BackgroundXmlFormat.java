@@ -7,38 +7,28 @@
  */
 package com.ganggarrison.gmdec.xml;
 
-import java.awt.Dimension;
-import java.awt.Point;
-
 import org.lateralgm.resources.Background;
 import org.lateralgm.resources.Background.PBackground;
+import org.lateralgm.util.PropertyMap;
 
 import com.ganggarrison.easyxml.XmlReader;
 import com.ganggarrison.easyxml.XmlWriter;
-import com.ganggarrison.gmdec.DeferredReferenceCreatorNotifier;
-import com.ganggarrison.gmdec.GmkSplitter;
+import com.ganggarrison.gmdec.ConversionContext;
 
 public class BackgroundXmlFormat extends XmlFormat<Background> {
 	@Override
-	public void write(Background background, XmlWriter writer) {
+	public void write(Background background, XmlWriter writer, ConversionContext context) {
 		writer.startElement("background");
 		{
-			writeIdAttribute(background, writer);
+			writeIdAttribute(background, writer, context);
 			boolean useAsTileset = background.get(PBackground.USE_AS_TILESET);
 			writer.putElement("useAsTileset", useAsTileset);
-			if (useAsTileset || !GmkSplitter.omitDisabledFields) {
+			if (useAsTileset || !context.omitDisabledFields) {
 				writer.startElement("tiles");
-				int width = background.get(PBackground.TILE_WIDTH);
-				int height = background.get(PBackground.TILE_HEIGHT);
-				writeDimension(writer, "size", new Dimension(width, height));
-
-				int offsetX = background.get(PBackground.H_OFFSET);
-				int offsetY = background.get(PBackground.V_OFFSET);
-				writePoint(writer, "offset", new Point(offsetX, offsetY));
-
-				int sepX = background.get(PBackground.H_SEP);
-				int sepY = background.get(PBackground.V_SEP);
-				writePoint(writer, "separation", new Point(sepX, sepY));
+				PropertyMap<PBackground> properties = background.properties;
+				writeDimension(writer, "size", properties, PBackground.TILE_WIDTH, PBackground.TILE_HEIGHT);
+				writePoint(writer, "offset", properties, PBackground.H_OFFSET, PBackground.V_OFFSET);
+				writePoint(writer, "separation", properties, PBackground.H_SEP, PBackground.V_SEP);
 				writer.endElement();
 			}
 			writer.putElement("preload", background.get(PBackground.PRELOAD));
@@ -49,26 +39,19 @@ public class BackgroundXmlFormat extends XmlFormat<Background> {
 	}
 
 	@Override
-	public Background read(XmlReader reader, DeferredReferenceCreatorNotifier notifier) {
+	public Background read(XmlReader reader, ConversionContext context) {
 		Background background = new Background();
 		reader.enterElement("background");
 		{
-			readIdAttribute(background, reader);
+			readIdAttribute(background, reader, context);
 			boolean useAsTileset = reader.getBoolElement("useAsTileset");
 			background.put(PBackground.USE_AS_TILESET, useAsTileset);
-			if (useAsTileset || !GmkSplitter.omitDisabledFields) {
+			if (useAsTileset || !context.omitDisabledFields) {
 				reader.enterElement("tiles");
-				Dimension size = readDimension(reader, "size");
-				background.put(PBackground.TILE_WIDTH, size.width);
-				background.put(PBackground.TILE_HEIGHT, size.height);
-
-				Point offset = readPoint(reader, "offset");
-				background.put(PBackground.H_OFFSET, offset.x);
-				background.put(PBackground.V_OFFSET, offset.y);
-
-				Point separation = readPoint(reader, "separation");
-				background.put(PBackground.H_SEP, separation.x);
-				background.put(PBackground.V_SEP, separation.y);
+				PropertyMap<PBackground> properties = background.properties;
+				readDimension(reader, "size", properties, PBackground.TILE_WIDTH, PBackground.TILE_HEIGHT);
+				readPoint(reader, "offset", properties, PBackground.H_OFFSET, PBackground.V_OFFSET);
+				readPoint(reader, "separation", properties, PBackground.H_SEP, PBackground.V_SEP);
 				reader.leaveElement();
 			}
 			background.put(PBackground.PRELOAD, reader.getBoolElement("preload"));
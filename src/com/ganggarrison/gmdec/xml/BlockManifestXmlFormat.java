@@ -0,0 +1,58 @@
+/*
+ * This file is part of GmkSplitter.
+ * GmkSplitter is free software and comes with ABSOLUTELY NO WARRANTY.
+ * See LICENSE for details.
+ */
+package com.ganggarrison.gmdec.xml;
+
+import com.ganggarrison.easyxml.XmlReader;
+import com.ganggarrison.easyxml.XmlWriter;
+import com.ganggarrison.gmdec.BlockManifest;
+import com.ganggarrison.gmdec.BlockManifest.Entry;
+import com.ganggarrison.gmdec.ConversionContext;
+import com.ganggarrison.gmdec.PrimaryResourceType;
+
+public class BlockManifestXmlFormat extends XmlFormat<BlockManifest> {
+
+	@Override
+	public void write(BlockManifest manifest, XmlWriter writer, ConversionContext context) {
+		writer.startElement("blocks");
+		writer.putAttribute("version", BlockManifest.VERSION);
+		writer.putAttribute("settings", manifest.settings);
+		for (PrimaryResourceType type : PrimaryResourceType.values()) {
+			for (Entry entry : manifest.getEntries(type)) {
+				writer.startElement("block");
+				writer.putAttribute("type", entry.type);
+				writer.putAttribute("id", entry.id);
+				writer.putAttribute("hash", entry.hash);
+				writer.putAttribute("name", entry.name);
+				writer.putAttribute("path", entry.path);
+				writer.endElement();
+			}
+		}
+		writer.endElement();
+	}
+
+	/**
+	 * Reads the manifest. A manifest of another format version is read as an
+	 * empty one.
+	 */
+	@Override
+	public BlockManifest read(XmlReader reader, ConversionContext context) {
+		BlockManifest manifest = new BlockManifest();
+		reader.enterElement("blocks");
+		if (reader.getIntAttribute("version") != BlockManifest.VERSION) {
+			return manifest;
+		}
+		manifest.settings = reader.getStringAttribute("settings");
+		while (reader.hasNextElement()) {
+			reader.enterElement("block");
+			PrimaryResourceType type = PrimaryResourceType.valueOf(reader.getStringAttribute("type"));
+			manifest.add(new Entry(type, reader.getIntAttribute("id"), reader.getStringAttribute("hash"),
+					reader.getStringAttribute("name"), reader.getStringAttribute("path")));
+			reader.leaveElement();
+		}
+		reader.leaveElement();
+		return manifest;
+	}
+}
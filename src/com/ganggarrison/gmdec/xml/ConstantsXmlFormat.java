@@ -14,12 +14,12 @@ import org.lateralgm.resources.sub.Constant;
 
 import com.ganggarrison.easyxml.XmlReader;
 import com.ganggarrison.easyxml.XmlWriter;
-import com.ganggarrison.gmdec.DeferredReferenceCreatorNotifier;
+import com.ganggarrison.gmdec.ConversionContext;
 
 public class ConstantsXmlFormat extends XmlFormat<List<Constant>> {
 
 	@Override
-	public void write(List<Constant> constants, XmlWriter writer) {
+	public void write(List<Constant> constants, XmlWriter writer, ConversionContext context) {
 		writer.startElement("constants");
 		for (Constant c : constants) {
 			writer.startElement("constant");
@@ -31,7 +31,7 @@ public class ConstantsXmlFormat extends XmlFormat<List<Constant>> {
 	}
 
 	@Override
-	public List<Constant> read(XmlReader reader, DeferredReferenceCreatorNotifier notifier) {
+	public List<Constant> read(XmlReader reader, ConversionContext context) {
 		return read(reader);
 	}
 
@@ -0,0 +1,43 @@
+/*
+ * This file is part of GmkSplitter.
+ * GmkSplitter is free software and comes with ABSOLUTELY NO WARRANTY.
+ * See LICENSE for details.
+ */
+package com.ganggarrison.gmdec.xml;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.lateralgm.resources.sub.Event;
+
+import com.ganggarrison.easyxml.XmlReader;
+import com.ganggarrison.easyxml.XmlWriter;
+import com.ganggarrison.gmdec.ConversionContext;
+
+/**
+ * All events of an object in one document, for the packed event layout. Each
+ * event is stored like in its own file, see {@link EventXmlFormat}.
+ */
+public class EventListXmlFormat extends XmlFormat<List<Event>> {
+	private static final EventXmlFormat EVENT_FORMAT = new EventXmlFormat();
+
+	@Override
+	public void write(List<Event> events, XmlWriter writer, ConversionContext context) {
+		writer.startElement("events");
+		for (Event event : events) {
+			EVENT_FORMAT.write(event, writer, context);
+		}
+		writer.endElement();
+	}
+
+	@Override
+	public List<Event> read(XmlReader reader, ConversionContext context) {
+		List<Event> events = new ArrayList<Event>();
+		reader.enterElement("events");
+		while (reader.hasNextElement()) {
+			events.add(EVENT_FORMAT.read(reader, context));
+		}
+		reader.leaveElement();
+		return events;
+	}
+}
@@ -8,7 +8,6 @@
  */
 package com.ganggarrison.gmdec.xml;
 
-import org.lateralgm.file.GmFile;
 import org.lateralgm.resources.GmObject;
 import org.lateralgm.resources.sub.Action;
 import org.lateralgm.resources.sub.Event;
@@ -16,13 +15,16 @@ import org.lateralgm.resources.sub.MainEvent;
 
 import com.ganggarrison.easyxml.XmlReader;
 import com.ganggarrison.easyxml.XmlWriter;
+import com.ganggarrison.gmdec.ConversionContext;
 import com.ganggarrison.gmdec.DeferredReferenceCreator;
-import com.ganggarrison.gmdec.DeferredReferenceCreatorNotifier;
 import com.ganggarrison.gmdec.LgmConst;
+import com.ganggarrison.gmdec.ResourceNames;
 
 public class EventXmlFormat extends XmlFormat<Event> {
+	private static final ActionXmlFormat ACTION_FORMAT = new ActionXmlFormat();
+
 	@Override
-	public void write(Event event, XmlWriter out) {
+	public void write(Event event, XmlWriter out, ConversionContext context) {
 		out.startElement("event");
 		{
 			out.putAttribute("category", LgmConst.toString((byte) event.mainId, MainEventType.class));
@@ -34,7 +36,7 @@ public class EventXmlFormat extends XmlFormat<Event> {
 			}
 			out.startElement("actions");
 			for (Action act : event.actions) {
-				new ActionXmlFormat().write(act, out);
+				ACTION_FORMAT.write(act, out, context);
 			}
 			out.endElement();
 		}
@@ -42,7 +44,7 @@ public class EventXmlFormat extends XmlFormat<Event> {
 	}
 
 	@Override
-	public Event read(XmlReader reader, DeferredReferenceCreatorNotifier notifier) {
+	public Event read(XmlReader reader, ConversionContext context) {
 		Event event = new Event();
 
 		reader.enterElement("event");
@@ -53,14 +55,14 @@ public class EventXmlFormat extends XmlFormat<Event> {
 			if (event.mainId == MainEvent.EV_COLLISION) {
 				ReferenceCreator rc = new ReferenceCreator(event);
 				rc.setRef(reader.getStringAttribute("with"));
-				notifier.addDeferredReferenceCreator(rc);
+				context.getNotifier().addDeferredReferenceCreator(rc);
 			} else {
 				event.id = reader.getIntAttribute("id");
 			}
 
 			reader.enterElement("actions");
 			while (reader.hasNextElement()) {
-				event.actions.add(new ActionXmlFormat().read(reader, notifier));
+				event.actions.add(ACTION_FORMAT.read(reader, context));
 			}
 			reader.leaveElement();
 		}
@@ -107,13 +109,13 @@ public class EventXmlFormat extends XmlFormat<Event> {
 		}
 
 		@Override
-		public void createReferences(GmFile gmf) {
-			GmObject collisionObject = gmf.resMap.getList(GmObject.class).get(name);
+		public void createReferences(ResourceNames resources, ConversionContext context) {
+			GmObject collisionObject = resources.get(GmObject.class, name);
 			if (collisionObject != null) {
 				event.other = collisionObject.reference;
 				event.id = collisionObject.getId();
 			} else {
-				System.err.println("Warning: GM-Event references unknown "
+				context.warn("Warning: GM-Event references unknown "
 						+ "collision object " + name);
 			}
 		}
@@ -12,12 +12,12 @@ import java.util.List;
 
 import com.ganggarrison.easyxml.XmlReader;
 import com.ganggarrison.easyxml.XmlWriter;
-import com.ganggarrison.gmdec.DeferredReferenceCreatorNotifier;
+import com.ganggarrison.gmdec.ConversionContext;
 
 public class ExtensionsXmlFormat extends XmlFormat<List<String>> {
 
 	@Override
-	public void write(List<String> extensions, XmlWriter writer) {
+	public void write(List<String> extensions, XmlWriter writer, ConversionContext context) {
 		writer.startElement("extensionPackages");
 		for (String packageName : extensions) {
 			writer.putElement("package", packageName);
@@ -26,7 +26,7 @@ public class ExtensionsXmlFormat extends XmlFormat<List<String>> {
 	}
 
 	@Override
-	public List<String> read(XmlReader reader, DeferredReferenceCreatorNotifier notifier) {
+	public List<String> read(XmlReader reader, ConversionContext context) {
 		ArrayList<String> extensions = new ArrayList<String>();
 		reader.enterElement("extensionPackages");
 		while (reader.hasNextElement()) {
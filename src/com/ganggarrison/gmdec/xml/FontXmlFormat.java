@@ -12,23 +12,22 @@ import org.lateralgm.resources.Font.PFont;
 
 import com.ganggarrison.easyxml.XmlReader;
 import com.ganggarrison.easyxml.XmlWriter;
-import com.ganggarrison.gmdec.DeferredReferenceCreatorNotifier;
-import com.ganggarrison.gmdec.GmkSplitter;
+import com.ganggarrison.gmdec.ConversionContext;
 
 public class FontXmlFormat extends XmlFormat<Font> {
 
 	@Override
-	public void write(Font font, XmlWriter writer) {
+	public void write(Font font, XmlWriter writer, ConversionContext context) {
 		writer.startElement("font");
 		{
-			writeIdAttribute(font, writer);
+			writeIdAttribute(font, writer, context);
 			writer.putElement("fontName", font.get(PFont.FONT_NAME));
 			writer.putElement("bold", font.get(PFont.BOLD));
 			writer.putElement("italic", font.get(PFont.ITALIC));
 			writer.putElement("rangeMin", font.get(PFont.RANGE_MIN));
 			writer.putElement("rangeMax", font.get(PFont.RANGE_MAX));
 			writer.putElement("size", font.get(PFont.SIZE));
-			if (GmkSplitter.targetVersion >= 810) {
+			if (context.targetVersion >= 810) {
 				writer.putElement("charset", font.get(PFont.CHARSET));
 				writer.putElement("antialias", font.get(PFont.ANTIALIAS));
 			}
@@ -37,11 +36,11 @@ public class FontXmlFormat extends XmlFormat<Font> {
 	}
 
 	@Override
-	public Font read(XmlReader reader, DeferredReferenceCreatorNotifier notifier) {
+	public Font read(XmlReader reader, ConversionContext context) {
 		Font font = new Font();
 		reader.enterElement("font");
 		{
-			readIdAttribute(font, reader);
+			readIdAttribute(font, reader, context);
 			font.put(PFont.FONT_NAME, reader.getStringElement("fontName"));
 			font.put(PFont.BOLD, reader.getBoolElement("bold"));
 			font.put(PFont.ITALIC, reader.getBoolElement("italic"));
@@ -51,8 +50,8 @@ public class FontXmlFormat extends XmlFormat<Font> {
 			if (reader.hasNextElement()) {
 				font.put(PFont.CHARSET, reader.getIntElement("charset"));
 				font.put(PFont.ANTIALIAS, reader.getIntElement("antialias"));
-				if (GmkSplitter.targetVersion < 810) {
-					GmkSplitter.issueVersionWarning("Font/Charset and Antialias");
+				if (context.targetVersion < 810) {
+					context.issueVersionWarning("Font/Charset and Antialias");
 				}
 			}
 		}
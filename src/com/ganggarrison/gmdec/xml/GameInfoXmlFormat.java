@@ -14,13 +14,13 @@ import org.lateralgm.resources.GameInformation.PGameInformation;
 
 import com.ganggarrison.easyxml.XmlReader;
 import com.ganggarrison.easyxml.XmlWriter;
-import com.ganggarrison.gmdec.DeferredReferenceCreatorNotifier;
+import com.ganggarrison.gmdec.ConversionContext;
 import com.ganggarrison.gmdec.Tools;
 
 public class GameInfoXmlFormat extends XmlFormat<GameInformation> {
 
 	@Override
-	public void write(GameInformation info, XmlWriter writer) {
+	public void write(GameInformation info, XmlWriter writer, ConversionContext context) {
 		writer.startElement("gameInformation");
 		{
 			writer.startElement("windowPosition");
@@ -44,7 +44,7 @@ public class GameInfoXmlFormat extends XmlFormat<GameInformation> {
 	}
 
 	@Override
-	public GameInformation read(XmlReader reader, DeferredReferenceCreatorNotifier notifier) {
+	public GameInformation read(XmlReader reader, ConversionContext context) {
 		GameInformation info = new GameInformation();
 		reader.enterElement("gameInformation");
 		{
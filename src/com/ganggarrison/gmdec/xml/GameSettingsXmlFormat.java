@@ -23,8 +23,7 @@ import org.lateralgm.resources.GameSettings.Resolution;
 
 import com.ganggarrison.easyxml.XmlReader;
 import com.ganggarrison.easyxml.XmlWriter;
-import com.ganggarrison.gmdec.DeferredReferenceCreatorNotifier;
-import com.ganggarrison.gmdec.GmkSplitter;
+import com.ganggarrison.gmdec.ConversionContext;
 import com.ganggarrison.gmdec.Tools;
 
 public class GameSettingsXmlFormat extends XmlFormat<GameSettings> {
@@ -73,7 +72,7 @@ public class GameSettingsXmlFormat extends XmlFormat<GameSettings> {
 	}
 
 	@Override
-	public void write(GameSettings settings, XmlWriter writer) {
+	public void write(GameSettings settings, XmlWriter writer, ConversionContext context) {
 		writer.startElement("settings");
 		writer.startElement("graphics");
 		{
@@ -93,7 +92,7 @@ public class GameSettingsXmlFormat extends XmlFormat<GameSettings> {
 			writer.putElement("alwaysOnTop", settings.get(PGameSettings.ALWAYS_ON_TOP));
 			writer.putElement("dontShowButtons", settings.get(PGameSettings.DONT_SHOW_BUTTONS));
 			writer.putElement("switchVideoMode", settings.get(PGameSettings.SET_RESOLUTION));
-			if ((Boolean) settings.get(PGameSettings.SET_RESOLUTION) || !GmkSplitter.omitDisabledFields) {
+			if ((Boolean) settings.get(PGameSettings.SET_RESOLUTION) || !context.omitDisabledFields) {
 				writer.startElement("videoMode");
 				writer.putElement("colorDepth", colorDepthStrings.get(settings.get(PGameSettings.COLOR_DEPTH)));
 				writer.putElement("resolution", resolutionStrings.get(settings.get(PGameSettings.RESOLUTION)));
@@ -131,7 +130,7 @@ public class GameSettingsXmlFormat extends XmlFormat<GameSettings> {
 			writer.putElement("writeToLog", settings.get(PGameSettings.WRITE_TO_LOG));
 			writer.putElement("abortOnError", settings.get(PGameSettings.ABORT_ON_ERROR));
 			writer.putElement("treatUninitializedAsZero", settings.get(PGameSettings.TREAT_UNINIT_AS_0));
-			if (GmkSplitter.targetVersion >= 810) {
+			if (context.targetVersion >= 810) {
 				writer.putElement("checkScriptArgumentCount", settings.get(PGameSettings.ERROR_ON_ARGS));
 			}
 		}
@@ -184,7 +183,7 @@ public class GameSettingsXmlFormat extends XmlFormat<GameSettings> {
 	}
 
 	@Override
-	public GameSettings read(XmlReader reader, DeferredReferenceCreatorNotifier notifier) {
+	public GameSettings read(XmlReader reader, ConversionContext context) {
 		GameSettings settings = new GameSettings();
 		reader.enterElement("settings");
 		reader.enterElement("graphics");
@@ -205,7 +204,7 @@ public class GameSettingsXmlFormat extends XmlFormat<GameSettings> {
 			settings.put(PGameSettings.ALWAYS_ON_TOP, reader.getBoolElement("alwaysOnTop"));
 			settings.put(PGameSettings.DONT_SHOW_BUTTONS, reader.getBoolElement("dontShowButtons"));
 			settings.put(PGameSettings.SET_RESOLUTION, reader.getBoolElement("switchVideoMode"));
-			if ((Boolean) settings.get(PGameSettings.SET_RESOLUTION) || !GmkSplitter.omitDisabledFields) {
+			if ((Boolean) settings.get(PGameSettings.SET_RESOLUTION) || !context.omitDisabledFields) {
 				reader.enterElement("videoMode");
 				settings.put(PGameSettings.COLOR_DEPTH,
 						lookupReverse(colorDepthStrings, reader.getStringElement("colorDepth")));
@@ -249,8 +248,8 @@ public class GameSettingsXmlFormat extends XmlFormat<GameSettings> {
 			settings.put(PGameSettings.TREAT_UNINIT_AS_0, reader.getBoolElement("treatUninitializedAsZero"));
 			if (reader.hasNextElement()) {
 				settings.put(PGameSettings.ERROR_ON_ARGS, reader.getBoolElement("checkScriptArgumentCount"));
-				if (GmkSplitter.targetVersion < 810) {
-					GmkSplitter.issueVersionWarning("GameSettings/checkScriptArgumentCount");
+				if (context.targetVersion < 810) {
+					context.issueVersionWarning("GameSettings/checkScriptArgumentCount");
 				}
 			} else {
 				/*
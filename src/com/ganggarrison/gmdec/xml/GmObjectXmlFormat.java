@@ -15,17 +15,17 @@ import org.lateralgm.resources.Sprite;
 
 import com.ganggarrison.easyxml.XmlReader;
 import com.ganggarrison.easyxml.XmlWriter;
+import com.ganggarrison.gmdec.ConversionContext;
 import com.ganggarrison.gmdec.DeferredPropertyReferenceCreator;
 import com.ganggarrison.gmdec.DeferredReferenceCreator;
-import com.ganggarrison.gmdec.DeferredReferenceCreatorNotifier;
 
 public class GmObjectXmlFormat extends XmlFormat<GmObject> {
 
 	@Override
-	public void write(GmObject gmObject, XmlWriter out) {
+	public void write(GmObject gmObject, XmlWriter out, ConversionContext context) {
 		out.startElement("object");
 		{
-			writeIdAttribute(gmObject, out);
+			writeIdAttribute(gmObject, out, context);
 			writeResourceRef(out, "sprite", (ResourceReference<?>) gmObject.get(PGmObject.SPRITE));
 			out.putElement("solid", gmObject.get(PGmObject.SOLID));
 			out.putElement("visible", gmObject.get(PGmObject.VISIBLE));
@@ -38,15 +38,15 @@ public class GmObjectXmlFormat extends XmlFormat<GmObject> {
 	}
 
 	@Override
-	public GmObject read(XmlReader reader, DeferredReferenceCreatorNotifier notifier) {
+	public GmObject read(XmlReader reader, ConversionContext context) {
 		GmObject gmObject = new GmObject();
 		reader.enterElement("object");
 		{
-			readIdAttribute(gmObject, reader);
+			readIdAttribute(gmObject, reader, context);
 			String spriteRef = readResourceRef(reader, "sprite");
 			DeferredReferenceCreator rc = new DeferredPropertyReferenceCreator<PGmObject>(
 					gmObject.properties, PGmObject.SPRITE, Sprite.class, spriteRef);
-			notifier.addDeferredReferenceCreator(rc);
+			context.getNotifier().addDeferredReferenceCreator(rc);
 			gmObject.put(PGmObject.SOLID, reader.getBoolElement("solid"));
 			gmObject.put(PGmObject.VISIBLE, reader.getBoolElement("visible"));
 			gmObject.put(PGmObject.DEPTH, reader.getIntElement("depth"));
@@ -54,11 +54,11 @@ public class GmObjectXmlFormat extends XmlFormat<GmObject> {
 			String parentRef = readResourceRef(reader, "parent");
 			rc = new DeferredPropertyReferenceCreator<PGmObject>(
 					gmObject.properties, PGmObject.PARENT, GmObject.class, parentRef);
-			notifier.addDeferredReferenceCreator(rc);
+			context.getNotifier().addDeferredReferenceCreator(rc);
 			String maskRef = readResourceRef(reader, "mask");
 			rc = new DeferredPropertyReferenceCreator<PGmObject>(
 					gmObject.properties, PGmObject.MASK, Sprite.class, maskRef);
-			notifier.addDeferredReferenceCreator(rc);
+			context.getNotifier().addDeferredReferenceCreator(rc);
 		}
 		reader.leaveElement();
 		return gmObject;
@@ -1,10 +1,11 @@
 package com.ganggarrison.gmdec.xml;
 
+import org.lateralgm.file.Payload;
 import org.lateralgm.resources.Include;
 
 import com.ganggarrison.easyxml.XmlReader;
 import com.ganggarrison.easyxml.XmlWriter;
-import com.ganggarrison.gmdec.DeferredReferenceCreatorNotifier;
+import com.ganggarrison.gmdec.ConversionContext;
 import com.ganggarrison.gmdec.LgmConst;
 
 public class IncludedFileXmlFormat extends XmlFormat<Include> {
@@ -26,7 +27,7 @@ public class IncludedFileXmlFormat extends XmlFormat<Include> {
 	}
 
 	@Override
-	public Include read(XmlReader reader, DeferredReferenceCreatorNotifier notifier) {
+	public Include read(XmlReader reader, ConversionContext context) {
 		Include include = new Include();
 		reader.enterElement("include");
 		{
@@ -36,7 +37,7 @@ public class IncludedFileXmlFormat extends XmlFormat<Include> {
 			include.size = reader.getIntElement("originalSize");
 
 			if (reader.getBoolElement("hasContent")) {
-				include.data = new byte[0];
+				include.data = Payload.EMPTY;
 			} else {
 				include.data = null;
 			}
@@ -52,7 +53,7 @@ public class IncludedFileXmlFormat extends XmlFormat<Include> {
 	}
 
 	@Override
-	public void write(Include include, XmlWriter writer) {
+	public void write(Include include, XmlWriter writer, ConversionContext context) {
 		writer.startElement("include");
 		{
 			writer.putElement("filename", include.filename);
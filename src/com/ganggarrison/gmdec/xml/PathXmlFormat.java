@@ -7,8 +7,6 @@
  */
 package com.ganggarrison.gmdec.xml;
 
-import java.awt.Point;
-
 import org.lateralgm.resources.Path;
 import org.lateralgm.resources.Path.PPath;
 import org.lateralgm.resources.ResourceReference;
@@ -17,17 +15,17 @@ import org.lateralgm.resources.sub.PathPoint;
 
 import com.ganggarrison.easyxml.XmlReader;
 import com.ganggarrison.easyxml.XmlWriter;
+import com.ganggarrison.gmdec.ConversionContext;
 import com.ganggarrison.gmdec.DeferredPropertyReferenceCreator;
 import com.ganggarrison.gmdec.DeferredReferenceCreator;
-import com.ganggarrison.gmdec.DeferredReferenceCreatorNotifier;
 
 public class PathXmlFormat extends XmlFormat<Path> {
 
 	@Override
-	public void write(Path path, XmlWriter writer) {
+	public void write(Path path, XmlWriter writer, ConversionContext context) {
 		writer.startElement("path");
 		{
-			writeIdAttribute(path, writer);
+			writeIdAttribute(path, writer, context);
 			writer.startElement("points");
 			for (PathPoint pp : path.points) {
 				writer.startElement("point");
@@ -42,20 +40,18 @@ public class PathXmlFormat extends XmlFormat<Path> {
 			writer.putElement("precision", path.get(PPath.PRECISION));
 			writer.putElement("smooth", path.get(PPath.SMOOTH));
 
-			int snapX = path.get(PPath.SNAP_X);
-			int snapY = path.get(PPath.SNAP_Y);
-			writePoint(writer, "snap", new Point(snapX, snapY));
+			writePoint(writer, "snap", path.properties, PPath.SNAP_X, PPath.SNAP_Y);
 		}
 		writer.endElement();
 	}
 
 	@Override
-	public Path read(XmlReader reader, DeferredReferenceCreatorNotifier notifier) {
+	public Path read(XmlReader reader, ConversionContext context) {
 		Path path = new Path();
 
 		reader.enterElement("path");
 		{
-			readIdAttribute(path, reader);
+			readIdAttribute(path, reader, context);
 			reader.enterElement("points");
 			while (reader.hasNextElement()) {
 				reader.enterElement("point");
@@ -69,14 +65,12 @@ public class PathXmlFormat extends XmlFormat<Path> {
 			String backgroundRoomRef = readResourceRef(reader, "backgroundRoom");
 			DeferredReferenceCreator rc = new DeferredPropertyReferenceCreator<PPath>(
 					path.properties, PPath.BACKGROUND_ROOM, Room.class, backgroundRoomRef);
-			notifier.addDeferredReferenceCreator(rc);
+			context.getNotifier().addDeferredReferenceCreator(rc);
 			path.put(PPath.CLOSED, reader.getBoolElement("closed"));
 			path.put(PPath.PRECISION, reader.getIntElement("precision"));
 			path.put(PPath.SMOOTH, reader.getBoolElement("smooth"));
 
-			Point snap = readPoint(reader, "snap");
-			path.put(PPath.SNAP_X, snap.x);
-			path.put(PPath.SNAP_Y, snap.y);
+			readPoint(reader, "snap", path.properties, PPath.SNAP_X, PPath.SNAP_Y);
 		}
 		reader.leaveElement();
 		return path;
@@ -12,14 +12,14 @@ import java.util.List;
 
 import com.ganggarrison.easyxml.XmlReader;
 import com.ganggarrison.easyxml.XmlWriter;
-import com.ganggarrison.gmdec.DeferredReferenceCreatorNotifier;
+import com.ganggarrison.gmdec.ConversionContext;
 import com.ganggarrison.gmdec.ResourceTreeEntry;
 import com.ganggarrison.gmdec.ResourceTreeEntry.Type;
 
 public class ResourceListXmlFormat extends XmlFormat<List<ResourceTreeEntry>> {
 
 	@Override
-	public void write(List<ResourceTreeEntry> resources, XmlWriter writer) {
+	public void write(List<ResourceTreeEntry> resources, XmlWriter writer, ConversionContext context) {
 		writer.startElement("resources");
 		for (ResourceTreeEntry rte : resources) {
 			writer.startElement("resource");
@@ -34,7 +34,7 @@ public class ResourceListXmlFormat extends XmlFormat<List<ResourceTreeEntry>> {
 	}
 
 	@Override
-	public List<ResourceTreeEntry> read(XmlReader reader, DeferredReferenceCreatorNotifier notifier) {
+	public List<ResourceTreeEntry> read(XmlReader reader, ConversionContext context) {
 		return read(reader);
 	}
 
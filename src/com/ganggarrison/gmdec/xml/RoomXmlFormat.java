@@ -9,8 +9,7 @@
 package com.ganggarrison.gmdec.xml;
 
 import java.awt.Color;
-import java.awt.Dimension;
-import java.awt.Point;
+import java.util.List;
 
 import org.lateralgm.resources.Background;
 import org.lateralgm.resources.GmObject;
@@ -20,41 +19,45 @@ import org.lateralgm.resources.Room.PRoom;
 import org.lateralgm.resources.sub.BackgroundDef;
 import org.lateralgm.resources.sub.BackgroundDef.PBackgroundDef;
 import org.lateralgm.resources.sub.Instance;
+import org.lateralgm.resources.sub.Instance.PInstance;
 import org.lateralgm.resources.sub.Tile;
+import org.lateralgm.resources.sub.Tile.PTile;
 import org.lateralgm.resources.sub.View;
 import org.lateralgm.resources.sub.View.PView;
 import org.lateralgm.util.PropertyMap;
 
 import com.ganggarrison.easyxml.XmlReader;
 import com.ganggarrison.easyxml.XmlWriter;
+import com.ganggarrison.gmdec.ConversionContext;
 import com.ganggarrison.gmdec.DeferredPropertyReferenceCreator;
 import com.ganggarrison.gmdec.DeferredReferenceCreator;
-import com.ganggarrison.gmdec.DeferredReferenceCreatorNotifier;
-import com.ganggarrison.gmdec.GmkSplitter;
 import com.ganggarrison.gmdec.Tools;
+import com.ganggarrison.gmdec.ConversionContext.IdPreservation;
 
 public class RoomXmlFormat extends XmlFormat<Room> {
+	/** The number of chunk files of a room, as given in its room file */
+	public static class ChunkCounts {
+		public int instances;
+		public int tiles;
+	}
+
 	@Override
-	public void write(Room room, XmlWriter writer) {
+	public void write(Room room, XmlWriter writer, ConversionContext context) {
 		writer.startElement("room");
 		{
-			writeIdAttribute(room, writer);
+			writeIdAttribute(room, writer, context);
 			writer.putElement("caption", room.get(PRoom.CAPTION));
-			int width = room.get(PRoom.WIDTH);
-			int height = room.get(PRoom.HEIGHT);
-			writeDimension(writer, "size", new Dimension(width, height));
+			writeDimension(writer, "size", room.properties, PRoom.WIDTH, PRoom.HEIGHT);
 			writer.startElement("grid");
 			{
 				writer.putElement("isometric", room.get(PRoom.ISOMETRIC));
-				int snapX = room.get(PRoom.SNAP_X);
-				int snapY = room.get(PRoom.SNAP_Y);
-				writePoint(writer, "snap", new Point(snapX, snapY));
+				writePoint(writer, "snap", room.properties, PRoom.SNAP_X, PRoom.SNAP_Y);
 			}
 			writer.endElement();
 			writer.putElement("speed", room.get(PRoom.SPEED));
 			writer.putElement("persistent", room.get(PRoom.PERSISTENT));
 			String creationCode = room.get(PRoom.CREATION_CODE);
-			if (GmkSplitter.convertLineEndings) {
+			if (context.convertLineEndings) {
 				creationCode = Tools.toLf(creationCode);
 			}
 			writer.putElement("creationCode", creationCode);
@@ -68,32 +71,35 @@ public class RoomXmlFormat extends XmlFormat<Room> {
 			writer.endElement();
 			boolean enableViews = room.get(PRoom.ENABLE_VIEWS);
 			writer.putElement("enableViews", enableViews);
-			if (enableViews || !GmkSplitter.omitDisabledFields) {
+			if (enableViews || !context.omitDisabledFields) {
 				writer.startElement("views");
 				for (View view : room.views) {
 					writeView(writer, view);
 				}
 				writer.endElement();
 			}
-			writer.startElement("instances");
-			InstanceXmlFormat instFormat = new InstanceXmlFormat(room);
-			for (Instance instance : room.instances) {
-				instFormat.write(instance, writer);
+			int instanceChunks = getChunkCount(room.instances.size(), context);
+			if (instanceChunks > 0) {
+				writer.startElement("instances");
+				writer.putAttribute("chunks", instanceChunks);
+				writer.endElement();
+			} else {
+				writeInstances(writer, room.instances, context);
 			}
-			writer.endElement();
-			writer.startElement("tiles");
-			for (Tile tile : room.tiles) {
-				new TileXmlFormat(room).write(tile, writer);
+			int tileChunks = getChunkCount(room.tiles.size(), context);
+			if (tileChunks > 0) {
+				writer.startElement("tiles");
+				writer.putAttribute("chunks", tileChunks);
+				writer.endElement();
+			} else {
+				writeTiles(writer, room.tiles, context);
 			}
-			writer.endElement();
 			writer.startElement("editorSettings");
 			{
 				boolean rememberEditorSettings = room.get(PRoom.REMEMBER_WINDOW_SIZE);
 				writer.putAttribute("remember", rememberEditorSettings);
-				if (rememberEditorSettings || !GmkSplitter.omitDisabledFields) {
-					int editorWidth = room.get(PRoom.EDITOR_WIDTH);
-					int editorHeight = room.get(PRoom.EDITOR_HEIGHT);
-					writeDimension(writer, "size", new Dimension(editorWidth, editorHeight));
+				if (rememberEditorSettings || !context.omitDisabledFields) {
+					writeDimension(writer, "size", room.properties, PRoom.EDITOR_WIDTH, PRoom.EDITOR_HEIGHT);
 					writer.putElement("showGrid", room.get(PRoom.SHOW_GRID));
 					writer.putElement("showObjects", room.get(PRoom.SHOW_OBJECTS));
 					writer.putElement("showTiles", room.get(PRoom.SHOW_TILES));
@@ -120,12 +126,8 @@ public class RoomXmlFormat extends XmlFormat<Room> {
 			writer.putElement("isForeground", properties.get(PBackgroundDef.FOREGROUND));
 			ResourceReference<Background> imageRef = properties.get(PBackgroundDef.BACKGROUND);
 			writeResourceRef(writer, "backgroundImage", imageRef);
-			int offsetX = properties.get(PBackgroundDef.X);
-			int offsetY = properties.get(PBackgroundDef.Y);
-			writePoint(writer, "offset", new Point(offsetX, offsetY));
-			int speedX = properties.get(PBackgroundDef.H_SPEED);
-			int speedY = properties.get(PBackgroundDef.V_SPEED);
-			writePoint(writer, "speed", new Point(speedX, speedY));
+			writePoint(writer, "offset", properties, PBackgroundDef.X, PBackgroundDef.Y);
+			writePoint(writer, "speed", properties, PBackgroundDef.H_SPEED, PBackgroundDef.V_SPEED);
 			writer.putElement("tileHorizontally", properties.get(PBackgroundDef.TILE_HORIZ));
 			writer.putElement("tileVertically", properties.get(PBackgroundDef.TILE_VERT));
 			writer.putElement("stretch", properties.get(PBackgroundDef.STRETCH));
@@ -168,28 +170,101 @@ public class RoomXmlFormat extends XmlFormat<Room> {
 		writer.endElement();
 	}
 
+	/**
+	 * The number of chunk files the instances or tiles of a room are split
+	 * into, or 0 if there are few enough of them to be kept in the room file.
+	 * See {@link ConversionContext#roomChunkSize}.
+	 */
+	public static int getChunkCount(int pieces, ConversionContext context) {
+		int size = context.roomChunkSize;
+		if (size <= 0 || pieces <= size) {
+			return 0;
+		}
+		return (pieces + size - 1) / size;
+	}
+
+	/** Writes an instances element, in the room file or as a chunk file of its own */
+	public void writeInstances(XmlWriter writer, List<Instance> instances, ConversionContext context) {
+		writer.startElement("instances");
+		for (Instance instance : instances) {
+			writeInstance(writer, instance, context);
+		}
+		writer.endElement();
+	}
+
+	/** Writes a tiles element, in the room file or as a chunk file of its own */
+	public void writeTiles(XmlWriter writer, List<Tile> tiles, ConversionContext context) {
+		writer.startElement("tiles");
+		for (Tile tile : tiles) {
+			writeTile(writer, tile, context);
+		}
+		writer.endElement();
+	}
+
+	private void writeInstance(XmlWriter writer, Instance instance, ConversionContext context) {
+		writer.startElement("instance");
+		{
+			PropertyMap<PInstance> properties = instance.properties;
+			if (context.preserveIds == IdPreservation.ALL) {
+				writer.putAttribute("id", properties.get(PInstance.ID));
+			}
+			ResourceReference<GmObject> object = properties.get(PInstance.OBJECT);
+			writeResourceRef(writer, "object", object);
+			writePoint(writer, "position", properties, PInstance.X, PInstance.Y);
+			String creationCode = instance.getCreationCode();
+			if (context.convertLineEndings) {
+				creationCode = Tools.toLf(creationCode);
+			}
+			writer.putElement("creationCode", creationCode);
+			writer.putElement("locked", instance.isLocked());
+		}
+		writer.endElement();
+	}
+
+	private void writeTile(XmlWriter writer, Tile tile, ConversionContext context) {
+		writer.startElement("tile");
+		{
+			PropertyMap<PTile> properties = tile.properties;
+			if (context.preserveIds == IdPreservation.ALL) {
+				writer.putAttribute("id", properties.get(PTile.ID));
+			}
+			ResourceReference<Background> bgRef = properties.get(PTile.BACKGROUND);
+			writeResourceRef(writer, "background", bgRef);
+			writePoint(writer, "backgroundPosition", properties, PTile.BG_X, PTile.BG_Y);
+			writePoint(writer, "roomPosition", properties, PTile.ROOM_X, PTile.ROOM_Y);
+			writeDimension(writer, "size", properties, PTile.WIDTH, PTile.HEIGHT);
+			writer.putElement("depth", tile.getDepth());
+			writer.putElement("locked", tile.isLocked());
+		}
+		writer.endElement();
+	}
+
 	@Override
-	public Room read(XmlReader reader, DeferredReferenceCreatorNotifier notifier) {
+	public Room read(XmlReader reader, ConversionContext context) {
+		return read(reader, context, new ChunkCounts());
+	}
+
+	/**
+	 * Reads a room file and sets the number of chunk files its instances and
+	 * tiles are split into, which it doesn't read.
+	 */
+	public Room read(XmlReader reader, ConversionContext context, ChunkCounts chunks) {
 		Room room = new Room();
 		reader.enterElement("room");
 		{
-			readIdAttribute(room, reader);
+			readIdAttribute(room, reader, context);
 			room.put(PRoom.CAPTION, reader.getStringElement("caption"));
-			Dimension size = readDimension(reader, "size");
-			room.put(PRoom.WIDTH, size.width);
-			room.put(PRoom.HEIGHT, size.height);
+			readDimension(reader, "size", room.properties, PRoom.WIDTH, PRoom.HEIGHT);
 			reader.enterElement("grid");
 			{
 				room.put(PRoom.ISOMETRIC, reader.getBoolElement("isometric"));
-				Point snap = readPoint(reader, "snap");
-				room.put(PRoom.SNAP_X, snap.x);
-				room.put(PRoom.SNAP_Y, snap.y);
+				readPoint(reader, "snap", room.properties, PRoom.SNAP_X, PRoom.SNAP_Y);
 			}
 			reader.leaveElement();
 			room.put(PRoom.SPEED, reader.getIntElement("speed"));
 			room.put(PRoom.PERSISTENT, reader.getBoolElement("persistent"));
 			String creationCode = reader.getStringElement("creationCode");
-			if (GmkSplitter.convertLineEndings) {
+			if (context.convertLineEndings) {
 				creationCode = Tools.toCrlf(creationCode);
 			}
 			room.put(PRoom.CREATION_CODE, creationCode);
@@ -198,40 +273,27 @@ public class RoomXmlFormat extends XmlFormat<Room> {
 			room.put(PRoom.DRAW_BACKGROUND_COLOR, reader.getBoolElement("drawBackgroundColor"));
 			reader.enterElement("backgrounds");
 			for (int i = 0; i < room.backgroundDefs.size() && reader.hasNextElement(); i++) {
-				readBackgroundDef(reader, room.backgroundDefs.get(i), notifier);
+				readBackgroundDef(reader, room.backgroundDefs.get(i), context);
 			}
 			reader.leaveElement();
 			boolean enableViews = reader.getBoolElement("enableViews");
 			room.put(PRoom.ENABLE_VIEWS, enableViews);
-			if (enableViews || !GmkSplitter.omitDisabledFields) {
+			if (enableViews || !context.omitDisabledFields) {
 				reader.enterElement("views");
 				for (int i = 0; i < room.views.size() && reader.hasNextElement(); i++) {
-					readView(reader, room.views.get(i), notifier);
+					readView(reader, room.views.get(i), context);
 				}
 				reader.leaveElement();
 			}
-			reader.enterElement("instances");
-			InstanceXmlFormat instFormat = new InstanceXmlFormat(room);
-			while (reader.hasNextElement()) {
-				Instance instance = instFormat.read(reader, notifier);
-				room.instances.add(instance);
-			}
-			reader.leaveElement();
-			reader.enterElement("tiles");
-			TileXmlFormat tileFormat = new TileXmlFormat(room);
-			while (reader.hasNextElement()) {
-				Tile tile = tileFormat.read(reader, notifier);
-				room.tiles.add(tile);
-			}
-			reader.leaveElement();
+			// Chunked instances and tiles are read by RoomFormat
+			chunks.instances = readInstances(reader, room, context);
+			chunks.tiles = readTiles(reader, room, context);
 			reader.enterElement("editorSettings");
 			{
 				boolean rememberEditorSettings = reader.getBoolAttribute("remember");
 				room.put(PRoom.REMEMBER_WINDOW_SIZE, rememberEditorSettings);
-				if (rememberEditorSettings || !GmkSplitter.omitDisabledFields) {
-					Dimension editorSize = readDimension(reader, "size");
-					room.put(PRoom.EDITOR_WIDTH, editorSize.width);
-					room.put(PRoom.EDITOR_HEIGHT, editorSize.height);
+				if (rememberEditorSettings || !context.omitDisabledFields) {
+					readDimension(reader, "size", room.properties, PRoom.EDITOR_WIDTH, PRoom.EDITOR_HEIGHT);
 					room.put(PRoom.SHOW_GRID, reader.getBoolElement("showGrid"));
 					room.put(PRoom.SHOW_OBJECTS, reader.getBoolElement("showObjects"));
 					room.put(PRoom.SHOW_TILES, reader.getBoolElement("showTiles"));
@@ -252,7 +314,7 @@ public class RoomXmlFormat extends XmlFormat<Room> {
 	}
 
 	private void readBackgroundDef(XmlReader reader, BackgroundDef backgroundDef,
-			DeferredReferenceCreatorNotifier notifier) {
+			ConversionContext context) {
 		reader.enterElement("backgroundDef");
 		{
 			PropertyMap<PBackgroundDef> properties = backgroundDef.properties;
@@ -261,13 +323,9 @@ public class RoomXmlFormat extends XmlFormat<Room> {
 			String backgroundRef = readResourceRef(reader, "backgroundImage");
 			DeferredReferenceCreator rc = new DeferredPropertyReferenceCreator<PBackgroundDef>(
 					properties, PBackgroundDef.BACKGROUND, Background.class, backgroundRef);
-			notifier.addDeferredReferenceCreator(rc);
-			Point offset = readPoint(reader, "offset");
-			properties.put(PBackgroundDef.X, offset.x);
-			properties.put(PBackgroundDef.Y, offset.y);
-			Point speed = readPoint(reader, "speed");
-			properties.put(PBackgroundDef.H_SPEED, speed.x);
-			properties.put(PBackgroundDef.V_SPEED, speed.y);
+			context.getNotifier().addDeferredReferenceCreator(rc);
+			readPoint(reader, "offset", properties, PBackgroundDef.X, PBackgroundDef.Y);
+			readPoint(reader, "speed", properties, PBackgroundDef.H_SPEED, PBackgroundDef.V_SPEED);
 			properties.put(PBackgroundDef.TILE_HORIZ, reader.getBoolElement("tileHorizontally"));
 			properties.put(PBackgroundDef.TILE_VERT, reader.getBoolElement("tileVertically"));
 			properties.put(PBackgroundDef.STRETCH, reader.getBoolElement("stretch"));
@@ -275,7 +333,7 @@ public class RoomXmlFormat extends XmlFormat<Room> {
 		reader.leaveElement();
 	}
 
-	private void readView(XmlReader reader, View view, DeferredReferenceCreatorNotifier notifier) {
+	private void readView(XmlReader reader, View view, ConversionContext context) {
 		reader.enterElement("view");
 		{
 			PropertyMap<PView> properties = view.properties;
@@ -302,7 +360,7 @@ public class RoomXmlFormat extends XmlFormat<Room> {
 				if (!objRef.isEmpty()) {
 					DeferredReferenceCreator rc = new DeferredPropertyReferenceCreator<PView>(
 							properties, PView.OBJECT, GmObject.class, objRef);
-					notifier.addDeferredReferenceCreator(rc);
+					context.getNotifier().addDeferredReferenceCreator(rc);
 				}
 				properties.put(PView.BORDER_H, reader.getIntAttribute("hBorder"));
 				properties.put(PView.BORDER_V, reader.getIntAttribute("vBorder"));
@@ -313,4 +371,82 @@ public class RoomXmlFormat extends XmlFormat<Room> {
 		}
 		reader.leaveElement();
 	}
+
+	/**
+	 * Reads an instances element and adds the instances to the room. Returns
+	 * the number of chunk files the instances are split into, or 0.
+	 */
+	public int readInstances(XmlReader reader, Room room, ConversionContext context) {
+		reader.enterElement("instances");
+		int chunks = readChunkCount(reader);
+		while (reader.hasNextElement()) {
+			room.instances.add(readInstance(reader, room, context));
+		}
+		reader.leaveElement();
+		return chunks;
+	}
+
+	/**
+	 * Reads a tiles element and adds the tiles to the room. Returns the number
+	 * of chunk files the tiles are split into, or 0.
+	 */
+	public int readTiles(XmlReader reader, Room room, ConversionContext context) {
+		reader.enterElement("tiles");
+		int chunks = readChunkCount(reader);
+		while (reader.hasNextElement()) {
+			room.tiles.add(readTile(reader, room, context));
+		}
+		reader.leaveElement();
+		return chunks;
+	}
+
+	private static int readChunkCount(XmlReader reader) {
+		return reader.hasAttribute("chunks") ? reader.getIntAttribute("chunks") : 0;
+	}
+
+	private Instance readInstance(XmlReader reader, Room room, ConversionContext context) {
+		Instance instance = new Instance(room);
+		reader.enterElement("instance");
+		{
+			PropertyMap<PInstance> properties = instance.properties;
+			if (context.preserveIds == IdPreservation.ALL && reader.hasAttribute("id")) {
+				properties.put(PInstance.ID, reader.getIntAttribute("id"));
+			}
+			String objRef = readResourceRef(reader, "object");
+			DeferredReferenceCreator rc = new DeferredPropertyReferenceCreator<PInstance>(
+					properties, PInstance.OBJECT, GmObject.class, objRef);
+			context.getNotifier().addDeferredReferenceCreator(rc);
+			readPoint(reader, "position", properties, PInstance.X, PInstance.Y);
+			String creationCode = reader.getStringElement("creationCode");
+			if (context.convertLineEndings) {
+				creationCode = Tools.toCrlf(creationCode);
+			}
+			instance.setCreationCode(creationCode);
+			instance.setLocked(reader.getBoolElement("locked"));
+		}
+		reader.leaveElement();
+		return instance;
+	}
+
+	private Tile readTile(XmlReader reader, Room room, ConversionContext context) {
+		Tile tile = new Tile(room);
+		reader.enterElement("tile");
+		{
+			PropertyMap<PTile> properties = tile.properties;
+			if (context.preserveIds == IdPreservation.ALL && reader.hasAttribute("id")) {
+				properties.put(PTile.ID, reader.getIntAttribute("id"));
+			}
+			String objRef = readResourceRef(reader, "background");
+			DeferredReferenceCreator rc = new DeferredPropertyReferenceCreator<PTile>(
+					properties, PTile.BACKGROUND, Background.class, objRef);
+			context.getNotifier().addDeferredReferenceCreator(rc);
+			readPoint(reader, "backgroundPosition", properties, PTile.BG_X, PTile.BG_Y);
+			readPoint(reader, "roomPosition", properties, PTile.ROOM_X, PTile.ROOM_Y);
+			readDimension(reader, "size", properties, PTile.WIDTH, PTile.HEIGHT);
+			tile.setDepth(reader.getIntElement("depth"));
+			tile.setLocked(reader.getBoolElement("locked"));
+		}
+		reader.leaveElement();
+		return tile;
+	}
 }
@@ -12,14 +12,14 @@ import org.lateralgm.resources.Sound.PSound;
 
 import com.ganggarrison.easyxml.XmlReader;
 import com.ganggarrison.easyxml.XmlWriter;
-import com.ganggarrison.gmdec.DeferredReferenceCreatorNotifier;
+import com.ganggarrison.gmdec.ConversionContext;
 
 public class SoundXmlFormat extends XmlFormat<Sound> {
 	@Override
-	public void write(Sound sound, XmlWriter writer) {
+	public void write(Sound sound, XmlWriter writer, ConversionContext context) {
 		writer.startElement("sound");
 		{
-			writeIdAttribute(sound, writer);
+			writeIdAttribute(sound, writer, context);
 			writer.putElement("filename", sound.get(PSound.FILE_NAME));
 			writer.putElement("filetype", sound.get(PSound.FILE_TYPE));
 			writer.putElement("kind", sound.get(PSound.KIND));
@@ -40,12 +40,11 @@ public class SoundXmlFormat extends XmlFormat<Sound> {
 	}
 
 	@Override
-	public Sound read(XmlReader reader,
-			DeferredReferenceCreatorNotifier notifier) {
+	public Sound read(XmlReader reader, ConversionContext context) {
 		Sound sound = new Sound();
 		reader.enterElement("sound");
 		{
-			readIdAttribute(sound, reader);
+			readIdAttribute(sound, reader, context);
 			sound.put(PSound.FILE_NAME, reader.getStringElement("filename"));
 			sound.put(PSound.FILE_TYPE, reader.getStringElement("filetype"));
 			String kind = reader.getStringElement("kind");
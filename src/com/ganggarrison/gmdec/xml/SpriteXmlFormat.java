@@ -7,25 +7,25 @@
  */
 package com.ganggarrison.gmdec.xml;
 
-import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.lateralgm.resources.Sprite;
 import org.lateralgm.resources.Sprite.PSprite;
 
 import com.ganggarrison.easyxml.XmlReader;
 import com.ganggarrison.easyxml.XmlWriter;
-import com.ganggarrison.gmdec.DeferredReferenceCreatorNotifier;
-import com.ganggarrison.gmdec.GmkSplitter;
+import com.ganggarrison.gmdec.ConversionContext;
 
 public class SpriteXmlFormat extends XmlFormat<Sprite> {
 	@Override
-	public void write(Sprite sprite, XmlWriter writer) {
+	public void write(Sprite sprite, XmlWriter writer, ConversionContext context) {
 		writer.startElement("sprite");
 		{
-			writeIdAttribute(sprite, writer);
-			int originX = sprite.get(PSprite.ORIGIN_X);
-			int originY = sprite.get(PSprite.ORIGIN_Y);
-			writePoint(writer, "origin", new Point(originX, originY));
+			writeIdAttribute(sprite, writer, context);
+			writePoint(writer, "origin", sprite.properties, PSprite.ORIGIN_X, PSprite.ORIGIN_Y);
 			writer.startElement("mask");
 			{
 				writer.putElement("separate", sprite.get(PSprite.SEPARATE_MASK));
@@ -35,7 +35,7 @@ public class SpriteXmlFormat extends XmlFormat<Sprite> {
 					Sprite.BBMode mode = sprite.get(PSprite.BB_MODE);
 					writer.putAttribute("mode", mode);
 					writer.putAttribute("alphaTolerance", sprite.get(PSprite.ALPHA_TOLERANCE));
-					if (mode == Sprite.BBMode.MANUAL || !GmkSplitter.omitDisabledFields) {
+					if (mode == Sprite.BBMode.MANUAL || !context.omitDisabledFields) {
 						writer.putElement("left", sprite.get(PSprite.BB_LEFT));
 						writer.putElement("right", sprite.get(PSprite.BB_RIGHT));
 						writer.putElement("top", sprite.get(PSprite.BB_TOP));
@@ -48,19 +48,52 @@ public class SpriteXmlFormat extends XmlFormat<Sprite> {
 			writer.putElement("preload", sprite.get(PSprite.PRELOAD));
 			writer.putElement("smoothEdges", sprite.get(PSprite.SMOOTH_EDGES));
 			writer.putElement("transparent", sprite.get(PSprite.TRANSPARENT));
+			if (context.spriteStrips && !sprite.subImages.isEmpty()) {
+				writer.startElement("strip");
+				for (Rectangle frame : getStripFrames(sprite.subImages)) {
+					writer.startElement("frame");
+					writer.putAttribute("x", frame.x);
+					writer.putAttribute("y", frame.y);
+					writer.putAttribute("width", frame.width);
+					writer.putAttribute("height", frame.height);
+					writer.endElement();
+				}
+				writer.endElement();
+			}
 		}
 		writer.endElement();
 	}
 
+	/**
+	 * Where the subimages are placed in the strip image of a sprite stored
+	 * with {@link ConversionContext#spriteStrips}: one below the other, at
+	 * the left edge. The strip is as wide as the widest subimage.
+	 */
+	public static List<Rectangle> getStripFrames(List<BufferedImage> images) {
+		List<Rectangle> frames = new ArrayList<Rectangle>(images.size());
+		int y = 0;
+		for (BufferedImage image : images) {
+			frames.add(new Rectangle(0, y, image.getWidth(), image.getHeight()));
+			y += image.getHeight();
+		}
+		return frames;
+	}
+
 	@Override
-	public Sprite read(XmlReader reader, DeferredReferenceCreatorNotifier notifier) {
+	public Sprite read(XmlReader reader, ConversionContext context) {
+		return read(reader, context, new ArrayList<Rectangle>());
+	}
+
+	/**
+	 * Reads the sprite, and adds the frames of its strip image to stripFrames
+	 * if the subimages are stored in one.
+	 */
+	public Sprite read(XmlReader reader, ConversionContext context, List<Rectangle> stripFrames) {
 		Sprite sprite = new Sprite();
 		reader.enterElement("sprite");
 		{
-			readIdAttribute(sprite, reader);
-			Point origin = readPoint(reader, "origin");
-			sprite.put(PSprite.ORIGIN_X, origin.x);
-			sprite.put(PSprite.ORIGIN_Y, origin.y);
+			readIdAttribute(sprite, reader, context);
+			readPoint(reader, "origin", sprite.properties, PSprite.ORIGIN_X, PSprite.ORIGIN_Y);
 			reader.enterElement("mask");
 			{
 				sprite.put(PSprite.SEPARATE_MASK, reader.getBoolElement("separate"));
@@ -71,7 +104,7 @@ public class SpriteXmlFormat extends XmlFormat<Sprite> {
 					Sprite.BBMode mode = Sprite.BBMode.valueOf(reader.getStringAttribute("mode"));
 					sprite.put(PSprite.BB_MODE, mode);
 					sprite.put(PSprite.ALPHA_TOLERANCE, reader.getIntAttribute("alphaTolerance"));
-					if (mode == Sprite.BBMode.MANUAL || !GmkSplitter.omitDisabledFields) {
+					if (mode == Sprite.BBMode.MANUAL || !context.omitDisabledFields) {
 						sprite.put(PSprite.BB_LEFT, reader.getIntElement("left"));
 						sprite.put(PSprite.BB_RIGHT, reader.getIntElement("right"));
 						sprite.put(PSprite.BB_TOP, reader.getIntElement("top"));
@@ -84,6 +117,16 @@ public class SpriteXmlFormat extends XmlFormat<Sprite> {
 			sprite.put(PSprite.PRELOAD, reader.getBoolElement("preload"));
 			sprite.put(PSprite.SMOOTH_EDGES, reader.getBoolElement("smoothEdges"));
 			sprite.put(PSprite.TRANSPARENT, reader.getBoolElement("transparent"));
+			if (reader.hasNextElement("strip")) {
+				reader.enterElement("strip");
+				while (reader.hasNextElement("frame")) {
+					reader.enterElement("frame");
+					stripFrames.add(new Rectangle(reader.getIntAttribute("x"), reader.getIntAttribute("y"),
+							reader.getIntAttribute("width"), reader.getIntAttribute("height")));
+					reader.leaveElement();
+				}
+				reader.leaveElement();
+			}
 		}
 		reader.leaveElement();
 		return sprite;
@@ -13,21 +13,21 @@ import org.lateralgm.resources.sub.Moment;
 
 import com.ganggarrison.easyxml.XmlReader;
 import com.ganggarrison.easyxml.XmlWriter;
-import com.ganggarrison.gmdec.DeferredReferenceCreatorNotifier;
+import com.ganggarrison.gmdec.ConversionContext;
 
 public class TimelineXmlFormat extends XmlFormat<Timeline> {
+	private static final ActionXmlFormat ACTION_FORMAT = new ActionXmlFormat();
 
 	@Override
-	public void write(Timeline timeline, XmlWriter writer) {
+	public void write(Timeline timeline, XmlWriter writer, ConversionContext context) {
 		writer.startElement("timeline");
 		{
-			writeIdAttribute(timeline, writer);
+			writeIdAttribute(timeline, writer, context);
 			for (Moment moment : timeline.moments) {
 				writer.startElement("moment");
 				writer.putAttribute("stepNo", moment.stepNo);
-				ActionXmlFormat actionFormat = new ActionXmlFormat();
 				for (Action action : moment.actions) {
-					actionFormat.write(action, writer);
+					ACTION_FORMAT.write(action, writer, context);
 				}
 				writer.endElement();
 			}
@@ -36,18 +36,17 @@ public class TimelineXmlFormat extends XmlFormat<Timeline> {
 	}
 
 	@Override
-	public Timeline read(XmlReader reader, DeferredReferenceCreatorNotifier notifier) {
+	public Timeline read(XmlReader reader, ConversionContext context) {
 		Timeline timeline = new Timeline();
 		reader.enterElement("timeline");
 		{
-			readIdAttribute(timeline, reader);
+			readIdAttribute(timeline, reader, context);
 			while (reader.hasNextElement()) {
 				Moment moment = timeline.addMoment();
 				reader.enterElement("moment");
 				moment.stepNo = reader.getIntAttribute("stepNo");
-				ActionXmlFormat actionFormat = new ActionXmlFormat();
 				while (reader.hasNextElement()) {
-					moment.actions.add(actionFormat.read(reader, notifier));
+					moment.actions.add(ACTION_FORMAT.read(reader, context));
 				}
 				reader.leaveElement();
 			}
@@ -7,38 +7,45 @@
  */
 package com.ganggarrison.gmdec.xml;
 
-import java.awt.Dimension;
-import java.awt.Point;
 import java.io.File;
 import java.io.IOException;
 
 import org.lateralgm.resources.GmObject;
 import org.lateralgm.resources.InstantiableResource;
 import org.lateralgm.resources.ResourceReference;
+import org.lateralgm.util.PropertyMap;
 
 import com.ganggarrison.easyxml.XmlReader;
 import com.ganggarrison.easyxml.XmlWriter;
-import com.ganggarrison.gmdec.DeferredReferenceCreatorNotifier;
-import com.ganggarrison.gmdec.GmkSplitter;
-import com.ganggarrison.gmdec.GmkSplitter.IdPreservation;
+import com.ganggarrison.gmdec.ConversionContext;
+import com.ganggarrison.gmdec.ConversionContext.IdPreservation;
+import com.ganggarrison.gmdec.storage.TreePath;
 
 public abstract class XmlFormat<T> {
-	public abstract void write(T object, XmlWriter writer);
+	public abstract void write(T object, XmlWriter writer, ConversionContext context);
 
-	public abstract T read(XmlReader reader, DeferredReferenceCreatorNotifier notifier);
+	public abstract T read(XmlReader reader, ConversionContext context);
 
-	public final void write(T object, File file) throws IOException {
+	public final void write(T object, File file, ConversionContext context) throws IOException {
+		write(object, TreePath.of(file), context);
+	}
+
+	public final void write(T object, TreePath file, ConversionContext context) throws IOException {
 		if (file.exists()) {
 			throw new IOException("File " + file + " already exists.");
 		}
 		XmlWriter out = new XmlWriter();
-		write(object, out);
+		write(object, out, context);
 		out.write(file);
 	}
 
-	public final T read(File file, DeferredReferenceCreatorNotifier notifier) throws IOException {
+	public final T read(File file, ConversionContext context) throws IOException {
+		return read(TreePath.of(file), context);
+	}
+
+	public final T read(TreePath file, ConversionContext context) throws IOException {
 		XmlReader reader = new XmlReader(file);
-		return read(reader, notifier);
+		return read(reader, context);
 	}
 
 	protected static String getRefStr(ResourceReference<?> ref) {
@@ -57,53 +64,69 @@ public abstract class XmlFormat<T> {
 		return in.getStringElement(elemName);
 	}
 
-	protected static void writePoint(XmlWriter writer, String elementName, Point point) {
+	protected static void writePoint(XmlWriter writer, String elementName, int x, int y) {
 		writer.startElement(elementName);
-		writer.putAttribute("x", point.x);
-		writer.putAttribute("y", point.y);
+		writer.putAttribute("x", x);
+		writer.putAttribute("y", y);
 		writer.endElement();
 	}
 
-	protected static Point readPoint(XmlReader reader, String elementName) {
+	protected static <K extends Enum<K>> void writePoint(XmlWriter writer, String elementName,
+			PropertyMap<K> properties, K xKey, K yKey) {
+		int x = properties.get(xKey);
+		int y = properties.get(yKey);
+		writePoint(writer, elementName, x, y);
+	}
+
+	/** Reads the coordinates of a point element into two properties */
+	protected static <K extends Enum<K>> void readPoint(XmlReader reader, String elementName,
+			PropertyMap<K> properties, K xKey, K yKey) {
 		reader.enterElement(elementName);
-		int x = reader.getIntAttribute("x");
-		int y = reader.getIntAttribute("y");
+		properties.put(xKey, reader.getIntAttribute("x"));
+		properties.put(yKey, reader.getIntAttribute("y"));
 		reader.leaveElement();
-		return new Point(x, y);
 	}
 
-	protected static void writeDimension(XmlWriter writer, String elementName, Dimension d) {
+	protected static void writeDimension(XmlWriter writer, String elementName, int width, int height) {
 		writer.startElement(elementName);
-		writer.putAttribute("width", d.width);
-		writer.putAttribute("height", d.height);
+		writer.putAttribute("width", width);
+		writer.putAttribute("height", height);
 		writer.endElement();
 	}
 
-	protected static Dimension readDimension(XmlReader reader, String elementName) {
+	protected static <K extends Enum<K>> void writeDimension(XmlWriter writer, String elementName,
+			PropertyMap<K> properties, K widthKey, K heightKey) {
+		int width = properties.get(widthKey);
+		int height = properties.get(heightKey);
+		writeDimension(writer, elementName, width, height);
+	}
+
+	/** Reads the size of a dimension element into two properties */
+	protected static <K extends Enum<K>> void readDimension(XmlReader reader, String elementName,
+			PropertyMap<K> properties, K widthKey, K heightKey) {
 		reader.enterElement(elementName);
-		int width = reader.getIntAttribute("width");
-		int height = reader.getIntAttribute("height");
+		properties.put(widthKey, reader.getIntAttribute("width"));
+		properties.put(heightKey, reader.getIntAttribute("height"));
 		reader.leaveElement();
-		return new Dimension(width, height);
 	}
-	
-	protected void writeIdAttribute(InstantiableResource<?, ?> resource, XmlWriter writer) {
-		if (preserveId(resource)) {
+
+	protected void writeIdAttribute(InstantiableResource<?, ?> resource, XmlWriter writer, ConversionContext context) {
+		if (preserveId(resource, context)) {
 			writer.putAttribute("id", resource.getId());
 		}
 	}
 	
-	protected void readIdAttribute(InstantiableResource<?, ?> resource, XmlReader reader) {
-		if (preserveId(resource) && reader.hasAttribute("id")) {
+	protected void readIdAttribute(InstantiableResource<?, ?> resource, XmlReader reader, ConversionContext context) {
+		if (preserveId(resource, context) && reader.hasAttribute("id")) {
 			resource.setId(reader.getIntAttribute("id"));
 		}
 	}
 
-	private boolean preserveId(InstantiableResource<?, ?> resource) {
-		if (GmkSplitter.preserveIds == IdPreservation.ALL) {
+	private boolean preserveId(InstantiableResource<?, ?> resource, ConversionContext context) {
+		if (context.preserveIds == IdPreservation.ALL) {
 			return true;
 		}
-		if (GmkSplitter.preserveIds == IdPreservation.OBJECTS && (resource instanceof GmObject)) {
+		if (context.preserveIds == IdPreservation.OBJECTS && (resource instanceof GmObject)) {
 			return true;
 		}
 		return false;
@@ -25,9 +25,14 @@ package org.lateralgm.compare;
 import java.lang.reflect.AccessibleObject;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.Stack;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @author Tim Ducheyne
@@ -35,6 +40,46 @@ import java.util.Stack;
  */
 public class ObjectComparator extends ReflectionComparator
 	{
+	/**
+	 * How objects of a class are compared: by their equals method, or field by field. Working this
+	 * out takes reflection, so it is done once per class and shared by all comparators.
+	 */
+	private static final class ClassPlan
+		{
+		final boolean hasEqualsImpl;
+		/** The fields of the class and its superclasses, except static and transient ones */
+		final Field[] fields;
+
+		ClassPlan(Class<?> clazz)
+			{
+			hasEqualsImpl = hasEqualsImpl(clazz);
+			List<Field> list = new ArrayList<Field>();
+			for (Class<?> c = clazz; c != null; c = c.getSuperclass())
+				{
+				if (c != clazz && c.getName().startsWith("java.lang")) break; //$NON-NLS-1$
+				Field[] declared = c.getDeclaredFields();
+				AccessibleObject.setAccessible(declared,true);
+				for (Field f : declared)
+					if (!Modifier.isTransient(f.getModifiers()) && !Modifier.isStatic(f.getModifiers()))
+						list.add(f);
+				}
+			fields = list.toArray(new Field[list.size()]);
+			}
+		}
+
+	private static final ConcurrentHashMap<Class<?>,ClassPlan> PLANS = new ConcurrentHashMap<Class<?>,ClassPlan>();
+
+	private static ClassPlan getPlan(Class<?> clazz)
+		{
+		ClassPlan plan = PLANS.get(clazz);
+		if (plan == null)
+			{
+			plan = new ClassPlan(clazz);
+			PLANS.putIfAbsent(clazz,plan);
+			}
+		return plan;
+		}
+
 	public ObjectComparator(ReflectionComparator chainedComparator)
 		{
 		super(chainedComparator);
@@ -57,7 +102,7 @@ public class ObjectComparator extends ReflectionComparator
 			}
 
 		// If an equals method is implemented, use it
-		if (hasEqualsImpl(clazz))
+		if (getPlan(clazz).hasEqualsImpl)
 			return left.equals(right) ? null : new Difference("inequality by use of equals method",left,
 					right,fieldStack);
 
@@ -66,7 +111,8 @@ public class ObjectComparator extends ReflectionComparator
 		}
 
 	/**
-	 * Compares the values of all fields in the given objects by use of reflection.
+	 * Compares the values of all fields in the given objects by use of reflection, including the
+	 * fields declared in superclasses.
 	 * 
 	 * @param left the left object for the comparison, not null
 	 * @param right the right object for the comparison, not null
@@ -78,25 +124,15 @@ public class ObjectComparator extends ReflectionComparator
 	protected Difference compareFields(Object left, Object right, Class<?> clazz,
 			Stack<String> fieldStack, Set<TraversedInstancePair> traversedInstancePairs)
 		{
-		Field[] fields = clazz.getDeclaredFields();
-		AccessibleObject.setAccessible(fields,true);
-		traversedInstancePairs.add(new TraversedInstancePair(left,right));
-
-		String[] excludes = exclusions.get(clazz);
-		for (Field f : fields)
+		for (Field f : getPlan(clazz).fields)
 			{
-			fieldStack.push(f.getName());
+			// skip excluded fields
+			Set<String> excludes = exclusions.get(f.getDeclaringClass());
+			if (excludes != null && excludes.contains(f.getName())) continue;
 
-			// skip transient, static and excluded fields
-			if (Modifier.isTransient(f.getModifiers()) || Modifier.isStatic(f.getModifiers())
-					|| contains(excludes,f.getName()))
-				{
-				fieldStack.pop();
-				continue;
-				}
+			fieldStack.push(f.getName());
 			try
 				{
-
 				// recursively check the value of the fields
 				Difference difference = rootComparator.getDifference(f.get(left),f.get(right),fieldStack,
 						traversedInstancePairs);
@@ -104,7 +140,6 @@ public class ObjectComparator extends ReflectionComparator
 					{
 					return difference;
 					}
-
 				}
 			catch (IllegalAccessException e)
 				{
@@ -119,18 +154,6 @@ public class ObjectComparator extends ReflectionComparator
 				}
 			fieldStack.pop();
 			}
-
-		// compare fields declared in superclass
-		Class<?> superclazz = clazz.getSuperclass();
-		while (superclazz != null && !superclazz.getName().startsWith("java.lang"))
-			{
-			Difference dif = compareFields(left,right,superclazz,fieldStack,traversedInstancePairs);
-			if (dif != null)
-				{
-				return dif;
-				}
-			superclazz = superclazz.getSuperclass();
-			}
 		return null;
 		}
 
@@ -155,10 +178,10 @@ public class ObjectComparator extends ReflectionComparator
 		return false;
 		}
 
-	protected HashMap<Class<?>,String[]> exclusions = new HashMap<Class<?>,String[]>();
+	protected HashMap<Class<?>,Set<String>> exclusions = new HashMap<Class<?>,Set<String>>();
 
 	public void addExclusions(Class<?> clazz, String...fieldNames)
 		{
-		exclusions.put(clazz,fieldNames);
+		exclusions.put(clazz,new HashSet<String>(Arrays.asList(fieldNames)));
 		}
 	}
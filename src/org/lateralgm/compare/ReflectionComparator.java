@@ -119,7 +119,9 @@ public abstract class ReflectionComparator
 	protected Difference getDifference(Object left, Object right, Stack<String> fieldStack,
 			Set<TraversedInstancePair> traversedInstancePairs)
 		{
-		if (isAlreadyTraversedInstancePair(left,right,traversedInstancePairs))
+		// Only the root needs to check, the pair can't be registered further down the chain
+		if (this == rootComparator
+				&& isAlreadyTraversedInstancePair(left,right,traversedInstancePairs))
 			{
 			return null;
 			}
@@ -382,13 +384,15 @@ public abstract class ReflectionComparator
 			}
 
 		/**
-		 * @return This object's hashcode
+		 * @return This object's hashcode, based on the identity of the instances like
+		 *         {@link #equals(Object)}. The hashcodes of the instances themselves can take as long
+		 *         as comparing them, e.g. for lists.
 		 */
 		public int hashCode()
 			{
 			int result;
-			result = leftObject.hashCode();
-			result = 31 * result + rightObject.hashCode();
+			result = System.identityHashCode(leftObject);
+			result = 31 * result + System.identityHashCode(rightObject);
 			return result;
 			}
 		}
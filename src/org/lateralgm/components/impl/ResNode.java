@@ -317,7 +317,7 @@ public class ResNode extends DefaultMutableTreeNode implements Transferable,Upda
 					}
 				}
 			//FIXME: Update the tree by having it listen to its root node instead of here
-			LGM.tree.updateUI();
+			if (LGM.tree != null) LGM.tree.updateUI();
 			}
 		}
 
@@ -227,7 +227,7 @@ public class RoomEditor extends VisualPanel
 					{
 					ResourceReference<GmObject> obj = frame.oNew.getSelected();
 					if (obj == null) return; //I'd rather just break out of this IF, but this works
-					Instance i = room.addInstance();
+					Instance i = room.addInstance(LGM.currentFile);
 					i.properties.put(PInstance.OBJECT,obj);
 					i.setPosition(p);
 					setCursor(i);
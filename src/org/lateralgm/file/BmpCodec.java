@@ -0,0 +1,181 @@
+/*
+ * This file is part of LateralGM.
+ * LateralGM is free software and comes with ABSOLUTELY NO WARRANTY.
+ * See LICENSE for details.
+ */
+
+package org.lateralgm.file;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.lateralgm.util.RawImage;
+
+/**
+ * Reads and writes the BMP images that GM versions before 8 store zlib compressed,
+ * straight from and to the packed ARGB pixels of a {@link RawImage}, one row at a time.
+ * No BMP file or intermediate image is ever held in memory as a whole.
+ */
+public final class BmpCodec
+	{
+	private static final int FILE_HEADER_SIZE = 14;
+	private static final int INFO_HEADER_SIZE = 40;
+
+	private BmpCodec()
+		{
+		}
+
+	/**
+	 * Inflates and decodes an uncompressed 1, 4, 8, 24 or 32 bit BMP image with a plain
+	 * info header, bottom-up or top-down. Like ImageIO, all pixels are opaque.
+	 * @return The image, or null if it is in another format. The inflater has then been used,
+	 * and has to be reset to read the image in another way.
+	 */
+	public static RawImage read(Inflater inflater) throws DataFormatException
+		{
+		byte[] header = new byte[FILE_HEADER_SIZE + INFO_HEADER_SIZE];
+		if (!inflateFully(inflater,header,header.length) || header[0] != 'B' || header[1] != 'M')
+			return null;
+		int dataOffset = getInt(header,10);
+		int infoSize = getInt(header,14);
+		int width = getInt(header,18);
+		int height = getInt(header,22);
+		int planes = getShort(header,26);
+		int bitCount = getShort(header,28);
+		int compression = getInt(header,30);
+		int colorsUsed = getInt(header,46);
+		boolean topDown = height < 0;
+		height = Math.abs(height);
+		if (infoSize != INFO_HEADER_SIZE || planes != 1 || compression != 0 || width <= 0
+				|| width > Integer.MAX_VALUE / 32 || height <= 0
+				|| (long) width * height > Integer.MAX_VALUE / 4) return null;
+		if (bitCount != 1 && bitCount != 4 && bitCount != 8 && bitCount != 24 && bitCount != 32)
+			return null;
+
+		int[] palette = null;
+		int read = header.length;
+		if (bitCount <= 8)
+			{
+			int size = colorsUsed > 0 && colorsUsed < 1 << bitCount ? colorsUsed : 1 << bitCount;
+			byte[] entries = new byte[size * 4];
+			if (!inflateFully(inflater,entries,entries.length)) throw truncated();
+			read += entries.length;
+			// Indices past the end of a short palette are black
+			palette = new int[1 << bitCount];
+			for (int i = 0; i < palette.length; i++)
+				palette[i] = 0xFF000000 | (i < size ? getInt(entries,i * 4) & 0x00FFFFFF : 0);
+			}
+		if (dataOffset < read) return null;
+		if (dataOffset > read && !inflateFully(inflater,new byte[dataOffset - read],dataOffset - read))
+			throw truncated();
+
+		RawImage image = new RawImage(width,height);
+		int[] pixels = image.pixels;
+		byte[] row = new byte[((width * bitCount + 31) >>> 5) * 4];
+		for (int i = 0; i < height; i++)
+			{
+			if (!inflateFully(inflater,row,row.length)) throw truncated();
+			int p = (topDown ? i : height - 1 - i) * width;
+			switch (bitCount)
+				{
+				case 32:
+					for (int x = 0, b = 0; x < width; x++, b += 4)
+						pixels[p + x] = 0xFF000000 | (row[b + 2] & 0xFF) << 16 | (row[b + 1] & 0xFF) << 8
+								| row[b] & 0xFF;
+					break;
+				case 24:
+					for (int x = 0, b = 0; x < width; x++, b += 3)
+						pixels[p + x] = 0xFF000000 | (row[b + 2] & 0xFF) << 16 | (row[b + 1] & 0xFF) << 8
+								| row[b] & 0xFF;
+					break;
+				default:
+					int perByte = 8 / bitCount;
+					int mask = (1 << bitCount) - 1;
+					for (int x = 0; x < width; x++)
+						{
+						int shift = 8 - bitCount * (x % perByte + 1);
+						pixels[p + x] = palette[(row[x / perByte] >> shift) & mask];
+						}
+				}
+			}
+		return image;
+		}
+
+	/**
+	 * Writes the image as 24 bit bottom-up BMP, byte for byte the way ImageIO writes an RGB
+	 * image, so files written by earlier versions don't change. Alpha is dropped.
+	 */
+	public static void write(RawImage image, OutputStream out) throws IOException
+		{
+		int width = image.width;
+		int height = image.height;
+		byte[] row = new byte[((width * 24 + 31) >>> 5) * 4];
+		int imageSize = row.length * height;
+
+		byte[] header = new byte[FILE_HEADER_SIZE + INFO_HEADER_SIZE];
+		header[0] = 'B';
+		header[1] = 'M';
+		putInt(header,2,header.length + imageSize);
+		putInt(header,10,header.length);
+		putInt(header,14,INFO_HEADER_SIZE);
+		putInt(header,18,width);
+		putInt(header,22,height);
+		header[26] = 1; // planes
+		header[28] = 24; // bits per pixel
+		putInt(header,34,imageSize);
+		out.write(header);
+
+		int[] pixels = image.pixels;
+		for (int y = height - 1; y >= 0; y--)
+			{
+			for (int x = 0, p = y * width, b = 0; x < width; x++, b += 3)
+				{
+				int px = pixels[p + x];
+				row[b] = (byte) px;
+				row[b + 1] = (byte) (px >>> 8);
+				row[b + 2] = (byte) (px >>> 16);
+				}
+			out.write(row);
+			}
+		}
+
+	/** Returns false if the data ends before <code>len</code> bytes are inflated. */
+	private static boolean inflateFully(Inflater inflater, byte[] b, int len)
+			throws DataFormatException
+		{
+		for (int n = 0; n < len;)
+			{
+			int r = inflater.inflate(b,n,len - n);
+			if (r == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()))
+				return false;
+			n += r;
+			}
+		return true;
+		}
+
+	private static DataFormatException truncated()
+		{
+		return new DataFormatException("Image data ends before the image is complete"); //$NON-NLS-1$
+		}
+
+	private static int getInt(byte[] b, int off)
+		{
+		return (b[off] & 0xFF) | (b[off + 1] & 0xFF) << 8 | (b[off + 2] & 0xFF) << 16
+				| (b[off + 3] & 0xFF) << 24;
+		}
+
+	private static int getShort(byte[] b, int off)
+		{
+		return (b[off] & 0xFF) | (b[off + 1] & 0xFF) << 8;
+		}
+
+	private static void putInt(byte[] b, int off, int value)
+		{
+		b[off] = (byte) value;
+		b[off + 1] = (byte) (value >>> 8);
+		b[off + 2] = (byte) (value >>> 16);
+		b[off + 3] = (byte) (value >>> 24);
+		}
+	}
@@ -0,0 +1,346 @@
+/*
+ * This file is part of LateralGM.
+ * LateralGM is free software and comes with ABSOLUTELY NO WARRANTY.
+ * See LICENSE for details.
+ */
+
+package org.lateralgm.file;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches directories for changes with a {@link WatchService}, so the cost does not grow with
+ * the number of files like polling every file does.
+ * <p>
+ * Changes are collected until nothing happened for the quiet period, and then passed to the
+ * listener as one set of paths. A file that is saved several times in a row, or a tool that
+ * writes many files at once, therefore causes a single notification. If the system dropped
+ * events, the watched directory itself is reported as changed.
+ * <p>
+ * All listeners are called on the single thread of the watcher. Directories are watched as
+ * long as a registration covers them, and until they are deleted.
+ */
+public class DirectoryWatcher implements Closeable
+	{
+	public interface Listener
+		{
+		/**
+		 * @param changed The created, modified or deleted files and directories. Contains
+		 *          the watched directory itself if events have been lost.
+		 */
+		void filesChanged(Set<Path> changed);
+		}
+
+	private static class Registration
+		{
+		final Path root;
+		final boolean recursive;
+		final Listener listener;
+		final Set<Path> pending = new LinkedHashSet<Path>();
+
+		Registration(Path root, boolean recursive, Listener listener)
+			{
+			this.root = root;
+			this.recursive = recursive;
+			this.listener = listener;
+			}
+
+		boolean covers(Path dir)
+			{
+			return recursive ? dir.startsWith(root) : dir.equals(root);
+			}
+		}
+
+	private final WatchService service;
+	private final long quietMillis;
+	private final PrintStream err;
+	private final Map<WatchKey,Path> keys = new HashMap<WatchKey,Path>();
+	private final List<Registration> registrations = new ArrayList<Registration>();
+	private final Thread thread;
+	private long lastEvent;
+
+	/**
+	 * @param quietMillis How long no change must happen before the collected changes are
+	 *          passed on.
+	 */
+	public DirectoryWatcher(long quietMillis) throws IOException
+		{
+		this(quietMillis,System.err);
+		}
+
+	/**
+	 * @param quietMillis How long no change must happen before the collected changes are
+	 *          passed on.
+	 * @param err Where exceptions thrown by listeners are reported.
+	 */
+	public DirectoryWatcher(long quietMillis, PrintStream err) throws IOException
+		{
+		this.quietMillis = quietMillis;
+		this.err = err;
+		service = FileSystems.getDefault().newWatchService();
+		thread = new Thread(new Runnable()
+			{
+				public void run()
+					{
+					processEvents();
+					}
+			},"DirectoryWatcher"); //$NON-NLS-1$
+		thread.setDaemon(true);
+		thread.start();
+		}
+
+	/**
+	 * Starts watching a directory, and all directories below it if recursive is true.
+	 * Directories created later are watched as well.
+	 */
+	public void watch(Path dir, boolean recursive, Listener listener) throws IOException
+		{
+		dir = dir.toAbsolutePath().normalize();
+		synchronized (this)
+			{
+			registrations.add(new Registration(dir,recursive,listener));
+			}
+		if (recursive)
+			registerTree(dir);
+		else
+			register(dir);
+		}
+
+	/**
+	 * Stops passing changes to the listener. Directories that no other registration covers
+	 * are not watched any more.
+	 */
+	public synchronized void unwatch(Path dir, Listener listener)
+		{
+		dir = dir.toAbsolutePath().normalize();
+		for (int i = 0; i < registrations.size(); i++)
+			{
+			Registration r = registrations.get(i);
+			if (r.root.equals(dir) && r.listener == listener)
+				{
+				registrations.remove(i);
+				dropKeys(null);
+				return;
+				}
+			}
+		}
+
+	public void close() throws IOException
+		{
+		service.close();
+		}
+
+	private void register(Path dir) throws IOException
+		{
+		WatchKey key = dir.register(service,ENTRY_CREATE,ENTRY_DELETE,ENTRY_MODIFY);
+		synchronized (this)
+			{
+			keys.put(key,dir);
+			}
+		}
+
+	/**
+	 * Registers the directory and its subdirectories.
+	 *
+	 * @param created Collects the files found, or null. Used for new directories, whose files
+	 *          may have been created before the directory was registered.
+	 */
+	private void registerTree(Path dir, final Set<Path> created) throws IOException
+		{
+		Files.walkFileTree(dir,new SimpleFileVisitor<Path>()
+			{
+				@Override
+				public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes attrs)
+						throws IOException
+					{
+					register(d);
+					if (created != null) created.add(d);
+					return FileVisitResult.CONTINUE;
+					}
+
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+					{
+					if (created != null) created.add(file);
+					return FileVisitResult.CONTINUE;
+					}
+			});
+		}
+
+	private void registerTree(Path dir) throws IOException
+		{
+		registerTree(dir,null);
+		}
+
+	private void processEvents()
+		{
+		try
+			{
+			while (true)
+				{
+				WatchKey key = service.poll(quietMillis,TimeUnit.MILLISECONDS);
+				if (key != null)
+					{
+					handleKey(key);
+					lastEvent = System.currentTimeMillis();
+					}
+				else if (System.currentTimeMillis() - lastEvent >= quietMillis)
+					{
+					deliverPending();
+					}
+				}
+			}
+		catch (InterruptedException e)
+			{
+			Thread.currentThread().interrupt();
+			}
+		catch (ClosedWatchServiceException e)
+			{
+			//Closed, stop watching
+			}
+		}
+
+	private void handleKey(WatchKey key)
+		{
+		Path dir;
+		synchronized (this)
+			{
+			dir = keys.get(key);
+			}
+		for (WatchEvent<?> event : key.pollEvents())
+			{
+			if (dir == null) continue;
+			if (event.kind() == OVERFLOW)
+				{
+				addPendingOverflow(dir);
+				continue;
+				}
+			Path changed = dir.resolve((Path) event.context());
+			Set<Path> paths = new LinkedHashSet<Path>();
+			paths.add(changed);
+			if (event.kind() == ENTRY_CREATE && Files.isDirectory(changed) && isWatchedRecursively(dir))
+				{
+				try
+					{
+					registerTree(changed,paths);
+					}
+				catch (IOException e)
+					{
+					//Deleted again already, the delete event follows
+					}
+				}
+			else if (event.kind() == ENTRY_DELETE)
+				{
+				dropKeys(changed);
+				}
+			addPending(dir,paths);
+			}
+		if (!key.reset())
+			{
+			synchronized (this)
+				{
+				keys.remove(key);
+				}
+			}
+		}
+
+	/**
+	 * Cancels and forgets the keys that became invalid, of directories no registration covers,
+	 * and of the deleted directory and those below it if deleted is not null.
+	 */
+	private synchronized void dropKeys(Path deleted)
+		{
+		Iterator<Map.Entry<WatchKey,Path>> i = keys.entrySet().iterator();
+		while (i.hasNext())
+			{
+			Map.Entry<WatchKey,Path> e = i.next();
+			Path dir = e.getValue();
+			if (!e.getKey().isValid() || (deleted != null && dir.startsWith(deleted)) || !isCovered(dir))
+				{
+				e.getKey().cancel();
+				i.remove();
+				}
+			}
+		}
+
+	private boolean isCovered(Path dir)
+		{
+		for (Registration r : registrations)
+			if (r.covers(dir)) return true;
+		return false;
+		}
+
+	private synchronized boolean isWatchedRecursively(Path dir)
+		{
+		for (Registration r : registrations)
+			if (r.recursive && dir.startsWith(r.root)) return true;
+		return false;
+		}
+
+	private synchronized void addPending(Path dir, Set<Path> paths)
+		{
+		for (Registration r : registrations)
+			if (r.covers(dir)) r.pending.addAll(paths);
+		}
+
+	private synchronized void addPendingOverflow(Path dir)
+		{
+		for (Registration r : registrations)
+			if (r.covers(dir) || r.root.startsWith(dir)) r.pending.add(r.root);
+		}
+
+	private void deliverPending()
+		{
+		List<Registration> ready = new ArrayList<Registration>();
+		List<Set<Path>> changes = new ArrayList<Set<Path>>();
+		synchronized (this)
+			{
+			for (Registration r : registrations)
+				if (!r.pending.isEmpty())
+					{
+					ready.add(r);
+					changes.add(new LinkedHashSet<Path>(r.pending));
+					r.pending.clear();
+					}
+			}
+		for (int i = 0; i < ready.size(); i++)
+			{
+			try
+				{
+				ready.get(i).listener.filesChanged(changes.get(i));
+				}
+			catch (RuntimeException e)
+				{
+				//Keep watching for the other listeners and later changes
+				err.println("Error while handling changes in " + ready.get(i).root //$NON-NLS-1$
+						+ ": " + e); //$NON-NLS-1$
+				e.printStackTrace(err);
+				}
+			}
+		}
+	}
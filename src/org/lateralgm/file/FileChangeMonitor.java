@@ -10,32 +10,38 @@
 package org.lateralgm.file;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Set;
 import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.TimeUnit;
 
 import org.lateralgm.main.UpdateSource;
 import org.lateralgm.main.UpdateSource.UpdateEvent;
 import org.lateralgm.main.UpdateSource.UpdateTrigger;
 
-public class FileChangeMonitor implements Runnable
+/**
+ * Reports when a file is changed or deleted. All monitors share one {@link DirectoryWatcher},
+ * which is told about changes by the system instead of polling every file.
+ */
+public class FileChangeMonitor implements DirectoryWatcher.Listener
 	{
-	private static final int POLL_INTERVAL = 1000;
+	/** How long a file must stay unchanged before a change is reported */
+	private static final int QUIET_PERIOD = 500;
 
 	public enum Flag
 		{
 		CHANGED,DELETED
 		}
 
-	private static ScheduledExecutorService monitorService;
+	private static DirectoryWatcher watcher;
 
 	public final File file;
 	public final Executor executor;
 
 	private final UpdateRunnable changedRunnable, deletedRunnable;
-	private final ScheduledFuture<?> future;
+	private final Path path;
+	private final Path dir;
+	private volatile boolean stopped;
 
 	private final UpdateTrigger trigger = new UpdateTrigger();
 	public final UpdateSource updateSource = new UpdateSource(this,trigger);
@@ -47,11 +53,16 @@ public class FileChangeMonitor implements Runnable
 		executor = e;
 		changedRunnable = new UpdateRunnable(new FileUpdateEvent(updateSource,Flag.CHANGED));
 		deletedRunnable = new UpdateRunnable(new FileUpdateEvent(updateSource,Flag.DELETED));
-		if (monitorService == null) monitorService = Executors.newSingleThreadScheduledExecutor();
-		lastModified = file.lastModified();
-		length = file.length();
-		future = monitorService.scheduleWithFixedDelay(this,POLL_INTERVAL,POLL_INTERVAL,
-				TimeUnit.MILLISECONDS);
+		path = f.toPath().toAbsolutePath().normalize();
+		dir = path.getParent();
+		try
+			{
+			getWatcher().watch(dir,false,this);
+			}
+		catch (IOException ex)
+			{
+			throw new IllegalArgumentException(ex);
+			}
 		}
 
 	public FileChangeMonitor(String f, Executor e)
@@ -59,35 +70,28 @@ public class FileChangeMonitor implements Runnable
 		this(new File(f),e);
 		}
 
-	public void stop()
+	private static synchronized DirectoryWatcher getWatcher() throws IOException
 		{
-		future.cancel(false);
+		if (watcher == null) watcher = new DirectoryWatcher(QUIET_PERIOD);
+		return watcher;
 		}
 
-	private long lastModified, length;
-	private boolean changed;
+	public void stop()
+		{
+		stopped = true;
+		watcher.unwatch(dir,this);
+		}
 
-	public void run()
+	public void filesChanged(Set<Path> changed)
 		{
+		if (stopped || !(changed.contains(path) || changed.contains(dir))) return;
 		if (!file.exists())
 			{
 			executor.execute(deletedRunnable);
-			future.cancel(false);
+			stop();
 			return;
 			}
-		long m = file.lastModified();
-		long l = file.length();
-		if (m != lastModified || l != length)
-			{
-			changed = true;
-			lastModified = m;
-			length = l;
-			}
-		else if (changed)
-			{
-			executor.execute(changedRunnable);
-			changed = false;
-			}
+		executor.execute(changedRunnable);
 		}
 
 	public class FileUpdateEvent extends UpdateEvent
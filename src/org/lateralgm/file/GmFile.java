@@ -60,6 +60,7 @@ import org.lateralgm.resources.Include;
 import org.lateralgm.resources.InstantiableResource;
 import org.lateralgm.resources.Path;
 import org.lateralgm.resources.Resource;
+import org.lateralgm.resources.ResourceReference;
 import org.lateralgm.resources.Room;
 import org.lateralgm.resources.Script;
 import org.lateralgm.resources.Sound;
@@ -251,6 +252,9 @@ public class GmFile implements UpdateListener
 	private final UpdateTrigger updateTrigger = new UpdateTrigger();
 	public final UpdateSource updateSource = new UpdateSource(this,updateTrigger);
 
+	/** The references of the resources of each kind in id order, see {@link #rememberIds()} */
+	private Map<Class<?>,ResourceReference<?>[]> rememberedIds;
+
 	public static class FormatFlavor
 		{
 		public static final String GM_OWNER = "GM";
@@ -326,7 +330,10 @@ public class GmFile implements UpdateListener
 
 		Random random = new Random();
 		gameSettings.put(PGameSettings.GAME_ID,random.nextInt(100000001));
-		random.nextBytes((byte[]) gameSettings.get(PGameSettings.DPLAY_GUID));
+		//A new array, the default one is shared by all files
+		byte[] dplayGuid = new byte[16];
+		random.nextBytes(dplayGuid);
+		gameSettings.put(PGameSettings.DPLAY_GUID,dplayGuid);
 		try
 			{
 			String loc = "org/lateralgm/file/default.ico";
@@ -395,6 +402,65 @@ public class GmFile implements UpdateListener
 			}
 		}
 
+	/**
+	 * Remembers which resource has which id. The stored blocks of the resources refer to
+	 * other resources by id, so they are only copied while {@link #hasRememberedIds()}.
+	 */
+	public void rememberIds()
+		{
+		rememberedIds = new HashMap<Class<?>,ResourceReference<?>[]>();
+		for (Map.Entry<Class<?>,ResourceHolder<?>> e : resMap.entrySet())
+			{
+			if (!(e.getValue() instanceof ResourceList<?>)) continue;
+			ResourceList<?> list = (ResourceList<?>) e.getValue();
+			ResourceReference<?>[] refs = new ResourceReference<?>[list.lastId + 1];
+			for (InstantiableResource<?,?> res : list)
+				if (res.getId() >= 0 && res.getId() < refs.length) refs[res.getId()] = res.reference;
+			rememberedIds.put(e.getKey(),refs);
+			}
+		}
+
+	/**
+	 * Returns true if no resource has been removed or got another id since
+	 * {@link #rememberIds()}. Resources may have been added or replaced by a new
+	 * resource with the same reference.
+	 */
+	public boolean hasRememberedIds()
+		{
+		if (rememberedIds == null) return false;
+		for (Map.Entry<Class<?>,ResourceReference<?>[]> e : rememberedIds.entrySet())
+			{
+			ResourceReference<?>[] refs = e.getValue();
+			int found = 0;
+			for (InstantiableResource<?,?> res : (ResourceList<?>) resMap.get(e.getKey()))
+				{
+				int id = res.getId();
+				if (id < 0) return false;
+				if (id >= refs.length) continue;
+				if (refs[id] != res.reference) return false;
+				found++;
+				}
+			int remembered = 0;
+			for (ResourceReference<?> ref : refs)
+				if (ref != null) remembered++;
+			if (found != remembered) return false;
+			}
+		return true;
+		}
+
+	/**
+	 * Releases the data of all sounds and included files, see {@link Payload#release()}.
+	 * Called once the file has been converted, since large data read from a gmk file is
+	 * kept in temporary files.
+	 */
+	public void releasePayloads()
+		{
+		for (Sound s : resMap.getList(Sound.class))
+			if (s.data != null) s.data.release();
+		for (Include i : includes)
+			if (i.data != null) i.data.release();
+		}
+
 	public static List<Constant> copyConstants(List<Constant> source)
 		{
 		List<Constant> dest = new ArrayList<Constant>();
@@ -16,13 +16,17 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
+import java.util.Collection;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
+import java.util.Map;
 import java.util.Queue;
 import java.util.Stack;
 import java.util.zip.DataFormatException;
 
 import org.lateralgm.components.impl.ResNode;
 import org.lateralgm.file.GmFile.ResourceHolder;
+import org.lateralgm.file.Metrics.Counter;
 import org.lateralgm.file.iconio.ICOFile;
 import org.lateralgm.main.Util;
 import org.lateralgm.messages.Messages;
@@ -79,11 +83,26 @@ import org.lateralgm.util.PropertyMap;
 
 public final class GmFileReader
 	{
+	/** Name of the {@link Metrics} phases for reading a gmk and its sections */
+	public static final String PHASE = "gmk.read"; //$NON-NLS-1$
+
 	private GmFileReader()
 		{
 		}
 
-	static Queue<PostponedRef> postpone = new LinkedList<PostponedRef>();
+	/**
+	 * Lets the caller leave out resources whose blocks it already knows, e.g. from an
+	 * earlier version of the same file. The blocks are hashed while they are read,
+	 * see {@link StoredBlock#getHash()}.
+	 */
+	public static interface BlockFilter
+		{
+		/**
+		 * Returns true if the block of the resource is known, in which case only the
+		 * name of the resource is read. Blocks of empty resource slots are not passed.
+		 */
+		boolean isKnown(Class<? extends Resource<?,?>> kind, int id, byte[] hash);
+		}
 
 	static interface PostponedRef
 		{
@@ -121,20 +140,36 @@ public final class GmFileReader
 		RefList<Timeline> timeids;
 		RefList<GmObject> objids;
 		RefList<Room> rmids;
+		/** References to resources that are read later in the file, shared by all copies */
+		Queue<PostponedRef> postpone;
+		/** The blocks of the resources, shared by all copies */
+		Map<Resource<?,?>,StoredBlock> blocks;
+		BlockFilter filter;
 
 		public GmFileContext(GmFile f, GmStreamDecoder in, RefList<Timeline> timeids,
-				RefList<GmObject> objids, RefList<Room> rmids)
+				RefList<GmObject> objids, RefList<Room> rmids, BlockFilter filter)
+			{
+			this(f,in,timeids,objids,rmids,new LinkedList<PostponedRef>(),
+					new IdentityHashMap<Resource<?,?>,StoredBlock>(),filter);
+			}
+
+		private GmFileContext(GmFile f, GmStreamDecoder in, RefList<Timeline> timeids,
+				RefList<GmObject> objids, RefList<Room> rmids, Queue<PostponedRef> postpone,
+				Map<Resource<?,?>,StoredBlock> blocks, BlockFilter filter)
 			{
 			this.f = f;
 			this.in = in;
 			this.timeids = timeids;
 			this.objids = objids;
 			this.rmids = rmids;
+			this.postpone = postpone;
+			this.blocks = blocks;
+			this.filter = filter;
 			}
 
 		public GmFileContext copy()
 			{
-			return new GmFileContext(f,in,timeids,objids,rmids);
+			return new GmFileContext(f,in,timeids,objids,rmids,postpone,blocks,filter);
 			}
 		}
 
@@ -153,6 +188,22 @@ public final class GmFileReader
 	public static GmFile readGmFile(InputStream stream, URI uri, ResNode root)
 			throws GmFormatException
 		{
+		long startTime = System.currentTimeMillis();
+		GmFile f = readGmFile(stream,uri,root,null);
+		System.out.println(Messages.format("GmFileReader.LOADTIME",System.currentTimeMillis() //$NON-NLS-1$
+				- startTime));
+		return f;
+		}
+
+	/**
+	 * Reads the file, leaving out the resources whose blocks are known to the filter.
+	 * The filter may be null, otherwise the blocks of GM8 files are hashed. Unlike the
+	 * overload above, this doesn't print the time it took, so callers can report it
+	 * where their other output goes.
+	 */
+	public static GmFile readGmFile(InputStream stream, URI uri, ResNode root, BlockFilter filter)
+			throws GmFormatException
+		{
 		GmFile f = new GmFile();
 		f.uri = uri;
 		GmStreamDecoder in = null;
@@ -161,9 +212,12 @@ public final class GmFileReader
 		RefList<Room> rmids = new RefList<Room>(Room.class); // room id
 		try
 			{
-			long startTime = System.currentTimeMillis();
+			Metrics.get().begin(PHASE,(String) null);
 			in = new GmStreamDecoder(stream);
-			GmFileContext c = new GmFileContext(f,in,timeids,objids,rmids);
+			if (uri != null && "file".equals(uri.getScheme())) //$NON-NLS-1$
+				in.setBlockSource(new StoredBlock.Source(new File(uri)));
+			in.setHashBlocks(filter != null);
+			GmFileContext c = new GmFileContext(f,in,timeids,objids,rmids,filter);
 			int identifier = in.read4();
 			if (identifier != 1234321)
 				throw new GmFormatException(f,Messages.format("GmFileReader.ERROR_INVALID",uri, //$NON-NLS-1$
@@ -192,34 +246,64 @@ public final class GmFileReader
 				f.gameSettings.put(PGameSettings.GAME_ID,in.read4());
 			in.read((byte[]) f.gameSettings.get(PGameSettings.DPLAY_GUID)); //16 bytes
 
+			Metrics.get().begin(PHASE,"Settings");
 			readSettings(c);
+			endSection(null);
 
 			if (ver >= 800)
 				{
+				Metrics.get().begin(PHASE,"Triggers");
 				readTriggers(c);
+				endSection(f.triggers);
+				Metrics.get().begin(PHASE,"Constants");
 				readConstants(c);
+				endSection(f.constants);
 				}
 
+			Metrics.get().begin(PHASE,Sound.class);
 			readSounds(c);
+			endSection(f.resMap.getList(Sound.class));
+			Metrics.get().begin(PHASE,Sprite.class);
 			readSprites(c);
+			endSection(f.resMap.getList(Sprite.class));
+			Metrics.get().begin(PHASE,Background.class);
 			readBackgrounds(c);
+			endSection(f.resMap.getList(Background.class));
+			Metrics.get().begin(PHASE,Path.class);
 			readPaths(c);
+			endSection(f.resMap.getList(Path.class));
+			Metrics.get().begin(PHASE,Script.class);
 			readScripts(c);
+			endSection(f.resMap.getList(Script.class));
+			Metrics.get().begin(PHASE,Font.class);
 			readFonts(c);
+			endSection(f.resMap.getList(Font.class));
+			Metrics.get().begin(PHASE,Timeline.class);
 			readTimelines(c);
+			endSection(f.resMap.getList(Timeline.class));
+			Metrics.get().begin(PHASE,GmObject.class);
 			readGmObjects(c);
+			endSection(f.resMap.getList(GmObject.class));
+			Metrics.get().begin(PHASE,Room.class);
 			readRooms(c);
+			endSection(f.resMap.getList(Room.class));
 
 			f.lastInstanceId = in.read4();
 			f.lastTileId = in.read4();
 
 			if (ver >= 700)
 				{
+				Metrics.get().begin(PHASE,"Included Files");
 				readIncludedFiles(c);
+				endSection(f.includes);
+				Metrics.get().begin(PHASE,"Extensions");
 				readPackages(c);
+				endSection(f.packages);
 				}
 
+			Metrics.get().begin(PHASE,"Game Information");
 			readGameInformation(c);
+			endSection(null);
 
 			//Library Creation Code
 			ver = in.read4();
@@ -237,9 +321,20 @@ public final class GmFileReader
 						Messages.getString("GmFileReader.AFTERINFO2"),ver)); //$NON-NLS-1$
 			in.skip(in.read4() * 4);
 
+			Metrics.get().begin(PHASE,"Tree");
 			readTree(c,root,ver);
-			System.out.println(Messages.format("GmFileReader.LOADTIME",System.currentTimeMillis() //$NON-NLS-1$
-					- startTime));
+			endSection(null);
+
+			//Resolve the references to resources that were read after the referring action
+			for (PostponedRef pr : c.postpone)
+				pr.invoke();
+			c.postpone.clear();
+
+			//Only now, resolving the references changes the resources
+			for (Map.Entry<Resource<?,?>,StoredBlock> e : c.blocks.entrySet())
+				e.getKey().setStoredBlock(e.getValue());
+			f.rememberIds();
+			Metrics.get().end();
 			}
 		catch (Exception e)
 			{
@@ -265,6 +360,126 @@ public final class GmFileReader
 		return f;
 		}
 
+	/** Ends the zlib block of a resource, remembering the block so it can be copied later. */
+	private static void endInflate(GmFileContext c, Resource<?,?> res) throws IOException
+		{
+		c.in.endInflate();
+		StoredBlock block = c.in.getLastBlock();
+		if (block != null) c.blocks.put(res,block);
+		}
+
+	/**
+	 * Adds the resource with only its name and ends its block, if the filter knows
+	 * the block. Otherwise returns false, and the rest of the block must be read as
+	 * usual, starting with the name.
+	 * @param ref the reference that includes the ID, or null to add a new resource
+	 */
+	private static <R extends InstantiableResource<R,?>>boolean readKnown(GmFileContext c,
+			Class<R> kind, int id, ResourceReference<R> ref) throws IOException
+		{
+		byte[] hash = c.in.getBlockHash();
+		if (c.filter == null || hash == null) return false;
+		if (!c.filter.isKnown(kind,id,hash)) return false;
+		ResourceList<R> list = c.f.resMap.getList(kind);
+		R res;
+		if (ref == null)
+			res = list.add();
+		else
+			{
+			res = ref.get();
+			list.add(res);
+			}
+		res.setName(c.in.readStr());
+		endInflate(c,res);
+		return true;
+		}
+
+	/**
+	 * Reads a resource in full from its stored block, after the block was left out because it
+	 * was known to the {@link BlockFilter}. The references of the resource are resolved right
+	 * away, to the resources of the file, which must all have been read at least up to their
+	 * names.
+	 */
+	public static void readStoredBlock(GmFile f, InstantiableResource<?,?> res)
+			throws GmFormatException
+		{
+		StoredBlock block = res.getStoredBlock();
+		if (block == null)
+			throw new GmFormatException(f,"No stored block to read " + res.getName()); //$NON-NLS-1$
+		//Instances and tiles are numbered by the file, but their IDs are read from the block
+		int lastInstanceId = f.lastInstanceId;
+		int lastTileId = f.lastTileId;
+		GmStreamDecoder in = null;
+		try
+			{
+			in = new GmStreamDecoder(block.open());
+			GmFileContext c = new GmFileContext(f,in,refList(f,Timeline.class),refList(f,GmObject.class),
+					refList(f,Room.class),null);
+			in.beginInflate(block.length);
+			in.readBool(); //exists
+			int id = res.getId();
+			if (res instanceof Sound)
+				readSound(c,(Sound) res,id,800);
+			else if (res instanceof Sprite)
+				readSprite(c,(Sprite) res,id,800);
+			else if (res instanceof Background)
+				readBackground(c,(Background) res,id,800);
+			else if (res instanceof Path)
+				readPath(c,(Path) res,id,800);
+			else if (res instanceof Script)
+				readScript(c,(Script) res,id,800);
+			else if (res instanceof Font)
+				readFont(c,(Font) res,id,800);
+			else if (res instanceof Timeline)
+				readTimeline(c,(Timeline) res,id,800);
+			else if (res instanceof GmObject)
+				readGmObject(c,(GmObject) res,id,800);
+			else if (res instanceof Room)
+				readRoom(c,(Room) res,id,800);
+			else
+				throw new GmFormatException(f,"Resources of this kind have no blocks: " + res.getName()); //$NON-NLS-1$
+			in.endInflate();
+			//References that still don't resolve are left as they are, like when reading the file
+			for (PostponedRef pr : c.postpone)
+				pr.invoke();
+			}
+		catch (Exception e)
+			{
+			if ((e instanceof GmFormatException)) throw (GmFormatException) e;
+			throw new GmFormatException(f,e);
+			}
+		finally
+			{
+			f.lastInstanceId = lastInstanceId;
+			f.lastTileId = lastTileId;
+			if (in != null) try
+				{
+				in.close();
+				}
+			catch (IOException e)
+				{
+				//the block was read
+				}
+			}
+		}
+
+	/** The references of the resources of a kind that was read, by ID */
+	private static <R extends InstantiableResource<R,?>>RefList<R> refList(GmFile f, Class<R> kind)
+		{
+		RefList<R> refs = new RefList<R>(kind);
+		for (R res : f.resMap.getList(kind))
+			refs.put(res);
+		return refs;
+		}
+
+	/** Ends the current section phase, counting the given resources. */
+	private static void endSection(Collection<?> resources)
+		{
+		Metrics m = Metrics.get();
+		if (resources != null) m.count(Counter.RESOURCES,resources.size());
+		m.end();
+		}
+
 	private static void readSettings(GmFileContext c) throws IOException,GmFormatException,
 			DataFormatException
 		{
@@ -486,48 +701,55 @@ public final class GmFileReader
 				in.endInflate();
 				continue;
 				}
+			if (readKnown(c,Sound.class,i,null)) continue;
 			Sound snd = f.resMap.getList(Sound.class).add();
-			snd.setName(in.readStr());
-			if (ver == 800) in.skip(8); //last changed
-			ver = in.read4();
-			if (ver != 440 && ver != 600 && ver != 800) throw versionError(f,"IN","SND",i,ver); //$NON-NLS-1$ //$NON-NLS-2$
-			int kind53 = -1;
-			if (ver == 440)
-				kind53 = in.read4(); //kind (wav, mp3, etc)
-			else
-				snd.put(PSound.KIND,GmFile.SOUND_KIND[in.read4()]); //normal, background, etc
-			in.readStr(snd.properties,PSound.FILE_TYPE);
-			if (ver == 440)
+			readSound(c,snd,i,ver);
+			endInflate(c,snd);
+			}
+		}
+
+	/** Reads the rest of the block of a sound, starting with its name. */
+	private static void readSound(GmFileContext c, Sound snd, int i, int ver)
+			throws IOException,GmFormatException,DataFormatException
+		{
+		GmFile f = c.f;
+		GmStreamDecoder in = c.in;
+
+		snd.setName(in.readStr());
+		if (ver == 800) in.skip(8); //last changed
+		ver = in.read4();
+		if (ver != 440 && ver != 600 && ver != 800) throw versionError(f,"IN","SND",i,ver); //$NON-NLS-1$ //$NON-NLS-2$
+		int kind53 = -1;
+		if (ver == 440)
+			kind53 = in.read4(); //kind (wav, mp3, etc)
+		else
+			snd.put(PSound.KIND,GmFile.SOUND_KIND[in.read4()]); //normal, background, etc
+		in.readStr(snd.properties,PSound.FILE_TYPE);
+		if (ver == 440)
+			{
+			//-1 = no sound
+			if (kind53 != -1) snd.data = in.decompressPayload(in.read4());
+			in.skip(8);
+			snd.put(PSound.PRELOAD,!in.readBool());
+			}
+		else
+			{
+			snd.put(PSound.FILE_NAME,in.readStr());
+			if (in.readBool())
 				{
-				//-1 = no sound
-				if (kind53 != -1) snd.data = in.decompress(in.read4());
-				in.skip(8);
-				snd.put(PSound.PRELOAD,!in.readBool());
+				if (ver == 600)
+					snd.data = in.decompressPayload(in.read4());
+				else
+					snd.data = in.readPayload(in.read4());
 				}
-			else
+			int effects = in.read4();
+			for (PSound k : GmFile.SOUND_FX_FLAGS)
 				{
-				snd.put(PSound.FILE_NAME,in.readStr());
-				if (in.readBool())
-					{
-					if (ver == 600)
-						snd.data = in.decompress(in.read4());
-					else
-						{
-						int s = in.read4();
-						snd.data = new byte[s];
-						in.read(snd.data);
-						}
-					}
-				int effects = in.read4();
-				for (PSound k : GmFile.SOUND_FX_FLAGS)
-					{
-					snd.put(k,(effects & 1) != 0);
-					effects >>= 1;
-					}
-				in.readD(snd.properties,PSound.VOLUME,PSound.PAN);
-				snd.put(PSound.PRELOAD,in.readBool());
+				snd.put(k,(effects & 1) != 0);
+				effects >>= 1;
 				}
-			in.endInflate();
+			in.readD(snd.properties,PSound.VOLUME,PSound.PAN);
+			snd.put(PSound.PRELOAD,in.readBool());
 			}
 		}
 
@@ -550,62 +772,73 @@ public final class GmFileReader
 				in.endInflate();
 				continue;
 				}
+			if (readKnown(c,Sprite.class,i,null)) continue;
 			Sprite spr = f.resMap.getList(Sprite.class).add();
-			spr.setName(in.readStr());
-			if (ver == 800) in.skip(8); //last changed
-			ver = in.read4();
-			if (ver != 400 && ver != 542 && ver != 800) throw versionError(f,"IN","SPR",i,ver); //$NON-NLS-1$ //$NON-NLS-2$
-			int w = 0, h = 0;
-			if (ver < 800)
+			readSprite(c,spr,i,ver);
+			endInflate(c,spr);
+			}
+		}
+
+	/** Reads the rest of the block of a sprite, starting with its name. */
+	private static void readSprite(GmFileContext c, Sprite spr, int i, int ver)
+			throws IOException,GmFormatException,DataFormatException
+		{
+		GmFile f = c.f;
+		GmStreamDecoder in = c.in;
+
+		spr.setName(in.readStr());
+		if (ver == 800) in.skip(8); //last changed
+		ver = in.read4();
+		if (ver != 400 && ver != 542 && ver != 800) throw versionError(f,"IN","SPR",i,ver); //$NON-NLS-1$ //$NON-NLS-2$
+		int w = 0, h = 0;
+		if (ver < 800)
+			{
+			w = in.read4();
+			h = in.read4();
+			//temporarily set bbmode to manual so bbox doesn't get recalculated until bbmode is ready
+			spr.put(PSprite.BB_MODE,BBMode.MANUAL);
+			in.read4(spr.properties,PSprite.BB_LEFT,PSprite.BB_RIGHT,PSprite.BB_BOTTOM,PSprite.BB_TOP);
+			spr.put(PSprite.TRANSPARENT,in.readBool()); //XXX: tends to cause an update...
+			if (ver > 400)
 				{
-				w = in.read4();
-				h = in.read4();
-				//temporarily set bbmode to manual so bbox doesn't get recalculated until bbmode is ready
-				spr.put(PSprite.BB_MODE,BBMode.MANUAL);
-				in.read4(spr.properties,PSprite.BB_LEFT,PSprite.BB_RIGHT,PSprite.BB_BOTTOM,PSprite.BB_TOP);
-				spr.put(PSprite.TRANSPARENT,in.readBool()); //XXX: tends to cause an update...
-				if (ver > 400)
-					{
-					in.readBool(spr.properties,PSprite.SMOOTH_EDGES,PSprite.PRELOAD);
-					}
-				spr.put(PSprite.BB_MODE,GmFile.SPRITE_BB_MODE[in.read4()]); //now bbmode is ready
-				boolean precise = in.readBool();
-				spr.put(PSprite.SHAPE,precise ? Sprite.MaskShape.PRECISE : Sprite.MaskShape.RECTANGLE);
-				if (ver == 400)
-					{
-					in.skip(4); //use video memory
-					spr.put(PSprite.PRELOAD,!in.readBool());
-					}
+				in.readBool(spr.properties,PSprite.SMOOTH_EDGES,PSprite.PRELOAD);
 				}
-			else
-				spr.put(PSprite.TRANSPARENT,false);
-			in.read4(spr.properties,PSprite.ORIGIN_X,PSprite.ORIGIN_Y);
-			int nosub = in.read4();
-			for (int j = 0; j < nosub; j++)
+			spr.put(PSprite.BB_MODE,GmFile.SPRITE_BB_MODE[in.read4()]); //now bbmode is ready
+			boolean precise = in.readBool();
+			spr.put(PSprite.SHAPE,precise ? Sprite.MaskShape.PRECISE : Sprite.MaskShape.RECTANGLE);
+			if (ver == 400)
 				{
-				if (ver >= 800)
-					{
-					ver = in.read4();
-					if (ver != 800) throw versionError(f,"IN","SPR",i,ver); //$NON-NLS-1$ //$NON-NLS-2$
-					w = in.read4();
-					h = in.read4();
-					if (w != 0 && h != 0) spr.subImages.add(in.readBGRAImage(w,h));
-					}
-				else
-					{
-					if (in.read4() == -1) continue;
-					spr.subImages.add(in.readZlibImage(w,h));
-					}
+				in.skip(4); //use video memory
+				spr.put(PSprite.PRELOAD,!in.readBool());
 				}
+			}
+		else
+			spr.put(PSprite.TRANSPARENT,false);
+		in.read4(spr.properties,PSprite.ORIGIN_X,PSprite.ORIGIN_Y);
+		int nosub = in.read4();
+		for (int j = 0; j < nosub; j++)
+			{
 			if (ver >= 800)
 				{
-				spr.put(PSprite.SHAPE,GmFile.SPRITE_MASK_SHAPE[in.read4()]);
-				spr.put(PSprite.ALPHA_TOLERANCE,in.read4());
-				spr.put(PSprite.SEPARATE_MASK,in.readBool());
-				spr.put(PSprite.BB_MODE,GmFile.SPRITE_BB_MODE[in.read4()]);
-				in.read4(spr.properties,PSprite.BB_LEFT,PSprite.BB_RIGHT,PSprite.BB_BOTTOM,PSprite.BB_TOP);
+				ver = in.read4();
+				if (ver != 800) throw versionError(f,"IN","SPR",i,ver); //$NON-NLS-1$ //$NON-NLS-2$
+				w = in.read4();
+				h = in.read4();
+				if (w != 0 && h != 0) spr.subImages.add(in.readBGRAImage(w,h));
 				}
-			in.endInflate();
+			else
+				{
+				if (in.read4() == -1) continue;
+				spr.subImages.add(in.readZlibImage(w,h));
+				}
+			}
+		if (ver >= 800)
+			{
+			spr.put(PSprite.SHAPE,GmFile.SPRITE_MASK_SHAPE[in.read4()]);
+			spr.put(PSprite.ALPHA_TOLERANCE,in.read4());
+			spr.put(PSprite.SEPARATE_MASK,in.readBool());
+			spr.put(PSprite.BB_MODE,GmFile.SPRITE_BB_MODE[in.read4()]);
+			in.read4(spr.properties,PSprite.BB_LEFT,PSprite.BB_RIGHT,PSprite.BB_BOTTOM,PSprite.BB_TOP);
 			}
 		}
 
@@ -627,47 +860,58 @@ public final class GmFileReader
 				in.endInflate();
 				continue;
 				}
+			if (readKnown(c,Background.class,i,null)) continue;
 			Background back = f.resMap.getList(Background.class).add();
-			back.setName(in.readStr());
-			if (ver == 800) in.skip(8); //last changed
-			ver = in.read4();
-			if (ver != 400 && ver != 543 && ver != 710) throw versionError(f,"IN","BKG",i,ver); //$NON-NLS-1$ //$NON-NLS-2$
-			if (ver < 710)
+			readBackground(c,back,i,ver);
+			endInflate(c,back);
+			}
+		}
+
+	/** Reads the rest of the block of a background, starting with its name. */
+	private static void readBackground(GmFileContext c, Background back, int i, int ver)
+			throws IOException,GmFormatException,DataFormatException
+		{
+		GmFile f = c.f;
+		GmStreamDecoder in = c.in;
+
+		back.setName(in.readStr());
+		if (ver == 800) in.skip(8); //last changed
+		ver = in.read4();
+		if (ver != 400 && ver != 543 && ver != 710) throw versionError(f,"IN","BKG",i,ver); //$NON-NLS-1$ //$NON-NLS-2$
+		if (ver < 710)
+			{
+			int w = in.read4();
+			int h = in.read4();
+			back.put(PBackground.TRANSPARENT,in.readBool());
+			if (ver > 400)
 				{
-				int w = in.read4();
-				int h = in.read4();
-				back.put(PBackground.TRANSPARENT,in.readBool());
-				if (ver > 400)
-					{
-					in.readBool(back.properties,PBackground.SMOOTH_EDGES,PBackground.PRELOAD,
-							PBackground.USE_AS_TILESET);
-					in.read4(back.properties,PBackground.TILE_WIDTH,PBackground.TILE_HEIGHT,
-							PBackground.H_OFFSET,PBackground.V_OFFSET,PBackground.H_SEP,PBackground.V_SEP);
-					}
-				else
-					{
-					in.skip(4); //use video memory
-					back.put(PBackground.PRELOAD,!in.readBool());
-					}
-				if (in.readBool())
-					{
-					if (in.read4() == -1) continue;
-					back.setBackgroundImage(in.readZlibImage(w,h));
-					}
+				in.readBool(back.properties,PBackground.SMOOTH_EDGES,PBackground.PRELOAD,
+						PBackground.USE_AS_TILESET);
+				in.read4(back.properties,PBackground.TILE_WIDTH,PBackground.TILE_HEIGHT,
+						PBackground.H_OFFSET,PBackground.V_OFFSET,PBackground.H_SEP,PBackground.V_SEP);
 				}
-			//ver >= 710
 			else
 				{
-				back.put(PBackground.USE_AS_TILESET,in.readBool());
-				in.read4(back.properties,PBackground.TILE_WIDTH,PBackground.TILE_HEIGHT,
-						PBackground.H_OFFSET,PBackground.V_OFFSET,PBackground.H_SEP,PBackground.V_SEP);
-				ver = in.read4();
-				if (ver != 800) throw versionError(f,"IN","BKG",i,ver); //$NON-NLS-1$ //$NON-NLS-2$
-				int w = in.read4();
-				int h = in.read4();
-				if (w != 0 && h != 0) back.setBackgroundImage(in.readBGRAImage(w,h));
+				in.skip(4); //use video memory
+				back.put(PBackground.PRELOAD,!in.readBool());
+				}
+			if (in.readBool())
+				{
+				if (in.read4() == -1) return;
+				back.setBackgroundImage(in.readZlibImage(w,h));
 				}
-			in.endInflate();
+			}
+		//ver >= 710
+		else
+			{
+			back.put(PBackground.USE_AS_TILESET,in.readBool());
+			in.read4(back.properties,PBackground.TILE_WIDTH,PBackground.TILE_HEIGHT,
+					PBackground.H_OFFSET,PBackground.V_OFFSET,PBackground.H_SEP,PBackground.V_SEP);
+			ver = in.read4();
+			if (ver != 800) throw versionError(f,"IN","BKG",i,ver); //$NON-NLS-1$ //$NON-NLS-2$
+			int w = in.read4();
+			int h = in.read4();
+			if (w != 0 && h != 0) back.setBackgroundImage(in.readBGRAImage(w,h));
 			}
 		}
 
@@ -689,21 +933,32 @@ public final class GmFileReader
 				in.endInflate();
 				continue;
 				}
+			if (readKnown(c,Path.class,i,null)) continue;
 			Path path = f.resMap.getList(Path.class).add();
-			path.setName(in.readStr());
-			if (ver == 800) in.skip(8); //last changed
-			int ver2 = in.read4();
-			if (ver2 != 530) throw versionError(f,"IN","PTH",i,ver2); //$NON-NLS-1$ //$NON-NLS-2$
-			in.readBool(path.properties,PPath.SMOOTH,PPath.CLOSED);
-			path.put(PPath.PRECISION,in.read4());
-			path.put(PPath.BACKGROUND_ROOM,c.rmids.get(in.read4()));
-			in.read4(path.properties,PPath.SNAP_X,PPath.SNAP_Y);
-			int nopoints = in.read4();
-			for (int j = 0; j < nopoints; j++)
-				{
-				path.points.add(new PathPoint((int) in.readD(),(int) in.readD(),(int) in.readD()));
-				}
-			in.endInflate();
+			readPath(c,path,i,ver);
+			endInflate(c,path);
+			}
+		}
+
+	/** Reads the rest of the block of a path, starting with its name. */
+	private static void readPath(GmFileContext c, Path path, int i, int ver)
+			throws IOException,GmFormatException
+		{
+		GmFile f = c.f;
+		GmStreamDecoder in = c.in;
+
+		path.setName(in.readStr());
+		if (ver == 800) in.skip(8); //last changed
+		int ver2 = in.read4();
+		if (ver2 != 530) throw versionError(f,"IN","PTH",i,ver2); //$NON-NLS-1$ //$NON-NLS-2$
+		in.readBool(path.properties,PPath.SMOOTH,PPath.CLOSED);
+		path.put(PPath.PRECISION,in.read4());
+		path.put(PPath.BACKGROUND_ROOM,c.rmids.get(in.read4()));
+		in.read4(path.properties,PPath.SNAP_X,PPath.SNAP_Y);
+		int nopoints = in.read4();
+		for (int j = 0; j < nopoints; j++)
+			{
+			path.points.add(new PathPoint((int) in.readD(),(int) in.readD(),(int) in.readD()));
 			}
 		}
 
@@ -725,18 +980,29 @@ public final class GmFileReader
 				in.endInflate();
 				continue;
 				}
+			if (readKnown(c,Script.class,i,null)) continue;
 			Script scr = f.resMap.getList(Script.class).add();
-			scr.setName(in.readStr());
-			if (ver == 800) in.skip(8); //last changed
-			ver = in.read4();
-			if (ver != 400 && ver != 800) throw versionError(f,"IN","SCR",i,ver); //$NON-NLS-1$ //$NON-NLS-2$
-			String code = in.readStr();
-			scr.put(PScript.CODE,code);
-
-			in.endInflate();
+			readScript(c,scr,i,ver);
+			endInflate(c,scr);
 			}
 		}
 
+	/** Reads the rest of the block of a script, starting with its name. */
+	private static void readScript(GmFileContext c, Script scr, int i, int ver)
+			throws IOException,GmFormatException
+		{
+		GmFile f = c.f;
+		GmStreamDecoder in = c.in;
+
+		scr.setName(in.readStr());
+		if (ver == 800) in.skip(8); //last changed
+		ver = in.read4();
+		if (ver != 400 && ver != 800) throw versionError(f,"IN","SCR",i,ver); //$NON-NLS-1$ //$NON-NLS-2$
+		String code = in.readStr();
+		scr.put(PScript.CODE,code);
+
+		}
+
 	private static void readFonts(GmFileContext c) throws IOException,GmFormatException
 		{
 		GmFile f = c.f;
@@ -763,8 +1029,7 @@ public final class GmFileReader
 				if (in.readBool()) //file data exists?
 					{
 					inc.size = in.read4();
-					inc.data = new byte[inc.size];
-					in.read(inc.data,0,inc.size);
+					inc.data = in.readPayload(inc.size);
 					}
 				inc.export = in.read4();
 				//FIXME: Deal with Font Includes
@@ -786,24 +1051,35 @@ public final class GmFileReader
 				in.endInflate();
 				continue;
 				}
+			if (readKnown(c,Font.class,i,null)) continue;
 			Font font = f.resMap.getList(Font.class).add();
-			font.setName(in.readStr());
-			if (ver == 800) in.skip(8); //last changed
-			ver = in.read4();
-			if (ver != 540 && ver != 800) throw versionError(f,"IN","FNT",i,ver); //$NON-NLS-1$ //$NON-NLS-2$
-			font.put(PFont.FONT_NAME,in.readStr());
-			font.put(PFont.SIZE,in.read4());
-			in.readBool(font.properties,PFont.BOLD,PFont.ITALIC);
-			font.put(PFont.RANGE_MIN,in.read2());
-			font.put(PFont.CHARSET,in.read());
-			int aa = in.read();
-			if (aa == 0 && f.format != GmFile.FormatFlavor.GM_810) aa = 3;
-			font.put(PFont.ANTIALIAS,aa);
-			font.put(PFont.RANGE_MAX,in.read4());
-			in.endInflate();
+			readFont(c,font,i,ver);
+			endInflate(c,font);
 			}
 		}
 
+	/** Reads the rest of the block of a font, starting with its name. */
+	private static void readFont(GmFileContext c, Font font, int i, int ver)
+			throws IOException,GmFormatException
+		{
+		GmFile f = c.f;
+		GmStreamDecoder in = c.in;
+
+		font.setName(in.readStr());
+		if (ver == 800) in.skip(8); //last changed
+		ver = in.read4();
+		if (ver != 540 && ver != 800) throw versionError(f,"IN","FNT",i,ver); //$NON-NLS-1$ //$NON-NLS-2$
+		font.put(PFont.FONT_NAME,in.readStr());
+		font.put(PFont.SIZE,in.read4());
+		in.readBool(font.properties,PFont.BOLD,PFont.ITALIC);
+		font.put(PFont.RANGE_MIN,in.read2());
+		font.put(PFont.CHARSET,in.read());
+		int aa = in.read();
+		if (aa == 0 && f.format != GmFile.FormatFlavor.GM_810) aa = 3;
+		font.put(PFont.ANTIALIAS,aa);
+		font.put(PFont.RANGE_MAX,in.read4());
+		}
+
 	private static void readTimelines(GmFileContext c) throws IOException,GmFormatException
 		{
 		GmFile f = c.f;
@@ -821,27 +1097,38 @@ public final class GmFileReader
 				in.endInflate();
 				continue;
 				}
+			if (readKnown(c,Timeline.class,i,c.timeids.get(i))) continue;
 			ResourceReference<Timeline> r = c.timeids.get(i); //includes ID
 			Timeline time = r.get();
 			f.resMap.getList(Timeline.class).add(time);
-			time.setName(in.readStr());
-			if (ver == 800) in.skip(8); //last changed
-			int ver2 = in.read4();
-			if (ver2 != 500) throw versionError(f,"IN","TML",i,ver2); //$NON-NLS-1$ //$NON-NLS-2$
-			int nomoms = in.read4();
-			for (int j = 0; j < nomoms; j++)
-				{
-				Moment mom = time.addMoment();
-				mom.stepNo = in.read4();
-				GmFileContext fc = c.copy();
-				fc.in = in;
-				readActions(fc,mom,"INTIMELINEACTION",i,mom.stepNo); //$NON-NLS-1$
-				}
-			in.endInflate();
+			readTimeline(c,time,i,ver);
+			endInflate(c,time);
 			}
 		f.resMap.getList(Timeline.class).lastId = noTimelines - 1;
 		}
 
+	/** Reads the rest of the block of a timeline, starting with its name. */
+	private static void readTimeline(GmFileContext c, Timeline time, int i, int ver)
+			throws IOException,GmFormatException
+		{
+		GmFile f = c.f;
+		GmStreamDecoder in = c.in;
+
+		time.setName(in.readStr());
+		if (ver == 800) in.skip(8); //last changed
+		int ver2 = in.read4();
+		if (ver2 != 500) throw versionError(f,"IN","TML",i,ver2); //$NON-NLS-1$ //$NON-NLS-2$
+		int nomoms = in.read4();
+		for (int j = 0; j < nomoms; j++)
+			{
+			Moment mom = time.addMoment();
+			mom.stepNo = in.read4();
+			GmFileContext fc = c.copy();
+			fc.in = in;
+			readActions(fc,mom,"INTIMELINEACTION",i,mom.stepNo); //$NON-NLS-1$
+			}
+		}
+
 	private static void readGmObjects(GmFileContext c) throws IOException,GmFormatException
 		{
 		GmFile f = c.f;
@@ -859,49 +1146,60 @@ public final class GmFileReader
 				in.endInflate();
 				continue;
 				}
+			if (readKnown(c,GmObject.class,i,c.objids.get(i))) continue;
 			ResourceReference<GmObject> r = c.objids.get(i); //includes ID
 			GmObject obj = r.get();
 			f.resMap.getList(GmObject.class).add(obj);
-			obj.setName(in.readStr());
-			if (ver == 800) in.skip(8); //last changed
-			int ver2 = in.read4();
-			if (ver2 != 430) throw versionError(f,"IN","OBJ",i,ver2); //$NON-NLS-1$ //$NON-NLS-2$
-			Sprite temp = f.resMap.getList(Sprite.class).getUnsafe(in.read4());
-			if (temp != null) obj.put(PGmObject.SPRITE,temp.reference);
-			in.readBool(obj.properties,PGmObject.SOLID,PGmObject.VISIBLE);
-			obj.put(PGmObject.DEPTH,in.read4());
-			obj.put(PGmObject.PERSISTENT,in.readBool());
-			obj.put(PGmObject.PARENT,c.objids.get(in.read4()));
-			temp = f.resMap.getList(Sprite.class).getUnsafe(in.read4());
-			if (temp != null) obj.put(PGmObject.MASK,temp.reference);
-			int noEvents = in.read4() + 1;
-			for (int j = 0; j < noEvents; j++)
+			readGmObject(c,obj,i,ver);
+			endInflate(c,obj);
+			}
+		f.resMap.getList(GmObject.class).lastId = noGmObjects - 1;
+		}
+
+	/** Reads the rest of the block of a object, starting with its name. */
+	private static void readGmObject(GmFileContext c, GmObject obj, int i, int ver)
+			throws IOException,GmFormatException
+		{
+		GmFile f = c.f;
+		GmStreamDecoder in = c.in;
+
+		obj.setName(in.readStr());
+		if (ver == 800) in.skip(8); //last changed
+		int ver2 = in.read4();
+		if (ver2 != 430) throw versionError(f,"IN","OBJ",i,ver2); //$NON-NLS-1$ //$NON-NLS-2$
+		Sprite temp = f.resMap.getList(Sprite.class).getUnsafe(in.read4());
+		if (temp != null) obj.put(PGmObject.SPRITE,temp.reference);
+		in.readBool(obj.properties,PGmObject.SOLID,PGmObject.VISIBLE);
+		obj.put(PGmObject.DEPTH,in.read4());
+		obj.put(PGmObject.PERSISTENT,in.readBool());
+		obj.put(PGmObject.PARENT,c.objids.get(in.read4()));
+		temp = f.resMap.getList(Sprite.class).getUnsafe(in.read4());
+		if (temp != null) obj.put(PGmObject.MASK,temp.reference);
+		int noEvents = in.read4() + 1;
+		for (int j = 0; j < noEvents; j++)
+			{
+			MainEvent me = obj.mainEvents.get(j);
+			boolean done = false;
+			while (!done)
 				{
-				MainEvent me = obj.mainEvents.get(j);
-				boolean done = false;
-				while (!done)
+				int first = in.read4();
+				if (first != -1)
 					{
-					int first = in.read4();
-					if (first != -1)
-						{
-						Event ev = new Event();
-						me.events.add(0,ev);
-						if (j == MainEvent.EV_COLLISION)
-							ev.other = c.objids.get(first);
-						else
-							ev.id = first;
-						ev.mainId = j;
-						GmFileContext fc = c.copy();
-						fc.in = in;
-						readActions(fc,ev,"INOBJECTACTION",i,j * 1000 + ev.id); //$NON-NLS-1$
-						}
+					Event ev = new Event();
+					me.events.add(0,ev);
+					if (j == MainEvent.EV_COLLISION)
+						ev.other = c.objids.get(first);
 					else
-						done = true;
+						ev.id = first;
+					ev.mainId = j;
+					GmFileContext fc = c.copy();
+					fc.in = in;
+					readActions(fc,ev,"INOBJECTACTION",i,j * 1000 + ev.id); //$NON-NLS-1$
 					}
+				else
+					done = true;
 				}
-			in.endInflate();
 			}
-		f.resMap.getList(GmObject.class).lastId = noGmObjects - 1;
 		}
 
 	private static void readRooms(GmFileContext c) throws IOException,GmFormatException
@@ -921,86 +1219,97 @@ public final class GmFileReader
 				in.endInflate();
 				continue;
 				}
+			if (readKnown(c,Room.class,i,c.rmids.get(i))) continue;
 			ResourceReference<Room> r = c.rmids.get(i); //includes ID
 			Room rm = r.get();
 			f.resMap.getList(Room.class).add(rm);
-			rm.setName(in.readStr());
-			if (ver == 800) in.skip(8); //last changed
-			int ver2 = in.read4();
-			if (ver2 != 520 && ver2 != 541) throw versionError(f,"IN","RMM",i,ver2); //$NON-NLS-1$ //$NON-NLS-2$
-			rm.put(PRoom.CAPTION,in.readStr());
-			in.read4(rm.properties,PRoom.WIDTH,PRoom.HEIGHT,PRoom.SNAP_Y,PRoom.SNAP_X);
-			rm.put(PRoom.ISOMETRIC,in.readBool());
-			rm.put(PRoom.SPEED,in.read4());
-			rm.put(PRoom.PERSISTENT,in.readBool());
-			rm.put(PRoom.BACKGROUND_COLOR,Util.convertGmColor(in.read4()));
-			rm.put(PRoom.DRAW_BACKGROUND_COLOR,in.readBool());
-			rm.put(PRoom.CREATION_CODE,in.readStr());
-			int nobackgrounds = in.read4();
-			for (int j = 0; j < nobackgrounds; j++)
-				{
-				BackgroundDef bk = rm.backgroundDefs.get(j);
-				in.readBool(bk.properties,PBackgroundDef.VISIBLE,PBackgroundDef.FOREGROUND);
-				Background temp = f.resMap.getList(Background.class).getUnsafe(in.read4());
-				if (temp != null) bk.properties.put(PBackgroundDef.BACKGROUND,temp.reference);
-				in.read4(bk.properties,PBackgroundDef.X,PBackgroundDef.Y);
-				in.readBool(bk.properties,PBackgroundDef.TILE_HORIZ,PBackgroundDef.TILE_VERT);
-				in.read4(bk.properties,PBackgroundDef.H_SPEED,PBackgroundDef.V_SPEED);
-				bk.properties.put(PBackgroundDef.STRETCH,in.readBool());
-				}
-			rm.put(PRoom.ENABLE_VIEWS,in.readBool());
-			int noviews = in.read4();
-			for (int j = 0; j < noviews; j++)
-				{
-				View vw = rm.views.get(j);
-				in.readBool(vw.properties,PView.VISIBLE);
-				//vw.properties.put(PView.VISIBLE,in.readBool());
-				in.read4(vw.properties,PView.VIEW_X,PView.VIEW_Y,PView.VIEW_W,PView.VIEW_H,PView.PORT_X,
-						PView.PORT_Y);
-				if (ver2 > 520) in.read4(vw.properties,PView.PORT_W,PView.PORT_H);
-				in.read4(vw.properties,PView.BORDER_H,PView.BORDER_V,PView.SPEED_H,PView.SPEED_V);
-				GmObject temp = f.resMap.getList(GmObject.class).getUnsafe(in.read4());
-				if (temp != null) vw.properties.put(PView.OBJECT,temp.reference);
-				}
-			int noinstances = in.read4();
-			for (int j = 0; j < noinstances; j++)
-				{
-				Instance inst = rm.addInstance();
-				inst.setPosition(new Point(in.read4(),in.read4()));
-				GmObject temp = f.resMap.getList(GmObject.class).getUnsafe(in.read4());
-				if (temp != null) inst.properties.put(PInstance.OBJECT,temp.reference);
-				inst.properties.put(PInstance.ID,in.read4());
-				inst.setCreationCode(in.readStr());
-				inst.setLocked(in.readBool());
-				}
-			int notiles = in.read4();
-			for (int j = 0; j < notiles; j++)
-				{
-				Tile t = new Tile(rm);
-				t.setRoomPosition(new Point(in.read4(),in.read4()));
-				Background temp = f.resMap.getList(Background.class).getUnsafe(in.read4());
-				ResourceReference<Background> bkg = null;
-				if (temp != null) bkg = temp.reference;
-				t.properties.put(PTile.BACKGROUND,bkg);
-				t.setBackgroundPosition(new Point(in.read4(),in.read4()));
-				t.setSize(new Dimension(in.read4(),in.read4()));
-				t.setDepth(in.read4());
-				t.properties.put(PTile.ID,in.read4());
-				t.setLocked(in.readBool());
-				rm.tiles.add(t);
-				}
-			rm.put(PRoom.REMEMBER_WINDOW_SIZE,in.readBool());
-			in.read4(rm.properties,PRoom.EDITOR_WIDTH,PRoom.EDITOR_HEIGHT);
-			in.readBool(rm.properties,PRoom.SHOW_GRID,PRoom.SHOW_OBJECTS,PRoom.SHOW_TILES,
-					PRoom.SHOW_BACKGROUNDS,PRoom.SHOW_FOREGROUNDS,PRoom.SHOW_VIEWS,
-					PRoom.DELETE_UNDERLYING_OBJECTS,PRoom.DELETE_UNDERLYING_TILES);
-			if (ver2 == 520) in.skip(6 * 4); //tile info
-			in.read4(rm.properties,PRoom.CURRENT_TAB,PRoom.SCROLL_BAR_X,PRoom.SCROLL_BAR_Y);
-			in.endInflate();
+			readRoom(c,rm,i,ver);
+			endInflate(c,rm);
 			}
 		f.resMap.getList(Room.class).lastId = noRooms - 1;
 		}
 
+	/** Reads the rest of the block of a room, starting with its name. */
+	private static void readRoom(GmFileContext c, Room rm, int i, int ver)
+			throws IOException,GmFormatException
+		{
+		GmFile f = c.f;
+		GmStreamDecoder in = c.in;
+
+		rm.setName(in.readStr());
+		if (ver == 800) in.skip(8); //last changed
+		int ver2 = in.read4();
+		if (ver2 != 520 && ver2 != 541) throw versionError(f,"IN","RMM",i,ver2); //$NON-NLS-1$ //$NON-NLS-2$
+		rm.put(PRoom.CAPTION,in.readStr());
+		in.read4(rm.properties,PRoom.WIDTH,PRoom.HEIGHT,PRoom.SNAP_Y,PRoom.SNAP_X);
+		rm.put(PRoom.ISOMETRIC,in.readBool());
+		rm.put(PRoom.SPEED,in.read4());
+		rm.put(PRoom.PERSISTENT,in.readBool());
+		rm.put(PRoom.BACKGROUND_COLOR,Util.convertGmColor(in.read4()));
+		rm.put(PRoom.DRAW_BACKGROUND_COLOR,in.readBool());
+		rm.put(PRoom.CREATION_CODE,in.readStr());
+		int nobackgrounds = in.read4();
+		for (int j = 0; j < nobackgrounds; j++)
+			{
+			BackgroundDef bk = rm.backgroundDefs.get(j);
+			in.readBool(bk.properties,PBackgroundDef.VISIBLE,PBackgroundDef.FOREGROUND);
+			Background temp = f.resMap.getList(Background.class).getUnsafe(in.read4());
+			if (temp != null) bk.properties.put(PBackgroundDef.BACKGROUND,temp.reference);
+			in.read4(bk.properties,PBackgroundDef.X,PBackgroundDef.Y);
+			in.readBool(bk.properties,PBackgroundDef.TILE_HORIZ,PBackgroundDef.TILE_VERT);
+			in.read4(bk.properties,PBackgroundDef.H_SPEED,PBackgroundDef.V_SPEED);
+			bk.properties.put(PBackgroundDef.STRETCH,in.readBool());
+			}
+		rm.put(PRoom.ENABLE_VIEWS,in.readBool());
+		int noviews = in.read4();
+		for (int j = 0; j < noviews; j++)
+			{
+			View vw = rm.views.get(j);
+			in.readBool(vw.properties,PView.VISIBLE);
+			//vw.properties.put(PView.VISIBLE,in.readBool());
+			in.read4(vw.properties,PView.VIEW_X,PView.VIEW_Y,PView.VIEW_W,PView.VIEW_H,PView.PORT_X,
+					PView.PORT_Y);
+			if (ver2 > 520) in.read4(vw.properties,PView.PORT_W,PView.PORT_H);
+			in.read4(vw.properties,PView.BORDER_H,PView.BORDER_V,PView.SPEED_H,PView.SPEED_V);
+			GmObject temp = f.resMap.getList(GmObject.class).getUnsafe(in.read4());
+			if (temp != null) vw.properties.put(PView.OBJECT,temp.reference);
+			}
+		int noinstances = in.read4();
+		for (int j = 0; j < noinstances; j++)
+			{
+			Instance inst = rm.addInstance(f);
+			inst.setPosition(new Point(in.read4(),in.read4()));
+			GmObject temp = f.resMap.getList(GmObject.class).getUnsafe(in.read4());
+			if (temp != null) inst.properties.put(PInstance.OBJECT,temp.reference);
+			inst.properties.put(PInstance.ID,in.read4());
+			inst.setCreationCode(in.readStr());
+			inst.setLocked(in.readBool());
+			}
+		int notiles = in.read4();
+		for (int j = 0; j < notiles; j++)
+			{
+			Tile t = new Tile(rm);
+			t.setRoomPosition(new Point(in.read4(),in.read4()));
+			Background temp = f.resMap.getList(Background.class).getUnsafe(in.read4());
+			ResourceReference<Background> bkg = null;
+			if (temp != null) bkg = temp.reference;
+			t.properties.put(PTile.BACKGROUND,bkg);
+			t.setBackgroundPosition(new Point(in.read4(),in.read4()));
+			t.setSize(new Dimension(in.read4(),in.read4()));
+			t.setDepth(in.read4());
+			t.properties.put(PTile.ID,in.read4());
+			t.setLocked(in.readBool());
+			rm.tiles.add(t);
+			}
+		rm.put(PRoom.REMEMBER_WINDOW_SIZE,in.readBool());
+		in.read4(rm.properties,PRoom.EDITOR_WIDTH,PRoom.EDITOR_HEIGHT);
+		in.readBool(rm.properties,PRoom.SHOW_GRID,PRoom.SHOW_OBJECTS,PRoom.SHOW_TILES,
+				PRoom.SHOW_BACKGROUNDS,PRoom.SHOW_FOREGROUNDS,PRoom.SHOW_VIEWS,
+				PRoom.DELETE_UNDERLYING_OBJECTS,PRoom.DELETE_UNDERLYING_TILES);
+		if (ver2 == 520) in.skip(6 * 4); //tile info
+		in.read4(rm.properties,PRoom.CURRENT_TAB,PRoom.SCROLL_BAR_X,PRoom.SCROLL_BAR_Y);
+		}
+
 	private static void readIncludedFiles(GmFileContext c) throws IOException,GmFormatException
 		{
 		GmFile f = c.f;
@@ -1030,9 +1339,7 @@ public final class GmFileReader
 			inc.size = in.read4();
 			if (in.readBool()) //store in editable?
 				{
-				int s = in.read4();
-				inc.data = new byte[s];
-				in.read(inc.data,0,s);
+				inc.data = in.readPayload(in.read4());
 				}
 			inc.export = in.read4();
 			inc.exportFolder = in.readStr();
@@ -1236,7 +1543,7 @@ public final class GmFileReader
 								return temp != null;
 								}
 						};
-					if (!pr.invoke()) postpone.add(pr);
+					if (!pr.invoke()) c.postpone.add(pr);
 					}
 				catch (NumberFormatException e)
 					{
@@ -15,12 +15,16 @@ import static org.lateralgm.main.Util.deRef;
 import java.awt.Color;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Collection;
 import java.util.Enumeration;
 import java.util.List;
+import java.util.Map;
 
 import org.lateralgm.components.impl.ResNode;
+import org.lateralgm.file.Metrics.Counter;
 import org.lateralgm.file.iconio.ICOFile;
 import org.lateralgm.main.Util;
 import org.lateralgm.resources.Background;
@@ -71,6 +75,9 @@ import org.lateralgm.util.PropertyMap;
 
 public final class GmFileWriter
 	{
+	/** Name of the {@link Metrics} phases for writing a gmk and its sections */
+	public static final String PHASE = "gmk.write"; //$NON-NLS-1$
+
 	private GmFileWriter()
 		{
 		}
@@ -78,9 +85,42 @@ public final class GmFileWriter
 	public static void writeGmFile(OutputStream os, GmFile f, ResNode root, int ver)
 			throws IOException
 		{
+		writeGmFile(new GmStreamEncoder(os),f,root,ver);
+		}
+
+	/**
+	 * Writes the file and remembers where the block of each resource is in it, so unchanged
+	 * resources can be copied from it when the file is written again.
+	 * @return the source of the blocks. If the file is moved, e.g. over the file it replaces,
+	 * {@link StoredBlock.Source#moveTo(File)} points the blocks to the new location.
+	 */
+	public static StoredBlock.Source writeGmFile(File file, GmFile f, ResNode root, int ver)
+			throws IOException
+		{
+		StoredBlock.Source target = new StoredBlock.Source(file);
+		GmStreamEncoder out = new GmStreamEncoder(file);
+		try
+			{
+			out.keepBlocks(target);
+			writeGmFile(out,f,root,ver);
+			}
+		finally
+			{
+			out.close();
+			}
+		target.update();
+		for (Map.Entry<Resource<?,?>,StoredBlock> e : out.getWrittenBlocks().entrySet())
+			e.getKey().setStoredBlock(e.getValue());
+		f.rememberIds();
+		return target;
+		}
+
+	private static void writeGmFile(GmStreamEncoder out, GmFile f, ResNode root, int ver)
+			throws IOException
+		{
 		f.format = GmFile.FormatFlavor.getVersionFlavor(ver);
 		long savetime = System.currentTimeMillis();
-		GmStreamEncoder out = new GmStreamEncoder(os);
+		Metrics.get().begin(PHASE,(String) null);
 		out.write4(1234321);
 		out.write4(ver);
 		if (ver == 530) out.write4(0);
@@ -98,34 +138,64 @@ public final class GmFileWriter
 			out.write4(gameId);
 		out.write((byte[]) f.gameSettings.get(PGameSettings.DPLAY_GUID)); //16 bytes
 
+		Metrics.get().begin(PHASE,"Settings");
 		writeSettings(f,out,ver,savetime);
+		endSection(null);
 
 		if (ver >= 800)
 			{
+			Metrics.get().begin(PHASE,"Triggers");
 			writeTriggers(f,out,ver);
+			endSection(f.triggers);
+			Metrics.get().begin(PHASE,"Constants");
 			writeConstants(f,out,ver);
+			endSection(f.constants);
 			}
 
+		Metrics.get().begin(PHASE,Sound.class);
 		writeSounds(f,out,ver);
+		endSection(f.resMap.getList(Sound.class));
+		Metrics.get().begin(PHASE,Sprite.class);
 		writeSprites(f,out,ver);
+		endSection(f.resMap.getList(Sprite.class));
+		Metrics.get().begin(PHASE,Background.class);
 		writeBackgrounds(f,out,ver);
+		endSection(f.resMap.getList(Background.class));
+		Metrics.get().begin(PHASE,Path.class);
 		writePaths(f,out,ver);
+		endSection(f.resMap.getList(Path.class));
+		Metrics.get().begin(PHASE,Script.class);
 		writeScripts(f,out,ver);
+		endSection(f.resMap.getList(Script.class));
+		Metrics.get().begin(PHASE,Font.class);
 		writeFonts(f,out,ver);
+		endSection(f.resMap.getList(Font.class));
+		Metrics.get().begin(PHASE,Timeline.class);
 		writeTimelines(f,out,ver);
+		endSection(f.resMap.getList(Timeline.class));
+		Metrics.get().begin(PHASE,GmObject.class);
 		writeGmObjects(f,out,ver);
+		endSection(f.resMap.getList(GmObject.class));
+		Metrics.get().begin(PHASE,Room.class);
 		writeRooms(f,out,ver);
+		endSection(f.resMap.getList(Room.class));
 
 		out.write4(f.lastInstanceId);
 		out.write4(f.lastTileId);
 
 		if (ver >= 700)
 			{
+			Metrics.get().begin(PHASE,"Included Files");
 			writeIncludedFiles(f,out,ver);
+			endSection(f.includes);
+			Metrics.get().begin(PHASE,"Extensions");
 			writePackages(f,out,ver);
+			endSection(f.packages);
 			}
 
+		Metrics.get().begin(PHASE,"Game Information");
 		writeGameInformation(f,out,ver);
+		endSection(null);
 
 		//Library Creation Code
 		out.write4(500);
@@ -135,8 +205,19 @@ public final class GmFileWriter
 		out.write4(ver >= 700 ? 700 : 540);
 		out.write4(0);
 
+		Metrics.get().begin(PHASE,"Tree");
 		writeTree(out,root);
+		endSection(null);
 		out.close();
+		Metrics.get().end();
+		}
+
+	/** Ends the current section phase, counting the given resources. */
+	private static void endSection(Collection<?> resources)
+		{
+		Metrics m = Metrics.get();
+		if (resources != null) m.count(Counter.RESOURCES,resources.size());
+		m.end();
 		}
 
 	public static void writeSettings(GmFile f, GmStreamEncoder out, int ver, long savetime)
@@ -294,10 +375,12 @@ public final class GmFileWriter
 		ver = ver >= 800 ? 800 : ver >= 600 ? 600 : 440;
 		out.write4(ver == 800 ? 800 : 400);
 		out.write4(f.resMap.getList(Sound.class).lastId + 1);
+		boolean reuse = ver == 800 && f.hasRememberedIds();
 		for (int i = 0; i <= f.resMap.getList(Sound.class).lastId; i++)
 			{
-			if (ver == 800) out.beginDeflate();
 			Sound snd = f.resMap.getList(Sound.class).getUnsafe(i);
+			if (reuse && out.copyBlock(snd)) continue;
+			if (ver == 800) out.beginDeflate();
 			out.writeBool(snd != null);
 			if (snd != null)
 				{
@@ -310,10 +393,7 @@ public final class GmFileWriter
 					{
 					out.writeBool(true);
 					if (ver == 800)
-						{
-						out.write4(snd.data.length);
-						out.write(snd.data);
-						}
+						out.writePayload(snd.data);
 					else
 						out.compress(snd.data);
 					}
@@ -331,6 +411,7 @@ public final class GmFileWriter
 				out.writeBool(snd.properties,PSound.PRELOAD);
 				}
 			out.endDeflate();
+			out.keepBlock(snd);
 			}
 		}
 
@@ -339,10 +420,12 @@ public final class GmFileWriter
 		ver = ver >= 800 ? 800 : ver >= 542 ? 542 : 400;
 		out.write4(ver == 800 ? 800 : 400);
 		out.write4(f.resMap.getList(Sprite.class).lastId + 1);
+		boolean reuse = ver == 800 && f.hasRememberedIds();
 		for (int i = 0; i <= f.resMap.getList(Sprite.class).lastId; i++)
 			{
-			if (ver == 800) out.beginDeflate();
 			Sprite spr = f.resMap.getList(Sprite.class).getUnsafe(i);
+			if (reuse && out.copyBlock(spr)) continue;
+			if (ver == 800) out.beginDeflate();
 			out.writeBool(spr != null);
 			if (spr != null)
 				{
@@ -390,6 +473,7 @@ public final class GmFileWriter
 					}
 				}
 			out.endDeflate();
+			out.keepBlock(spr);
 			}
 		}
 
@@ -398,10 +482,12 @@ public final class GmFileWriter
 		ver = ver >= 710 ? 710 : ver >= 543 ? 543 : 400;
 		out.write4(ver == 710 ? 800 : 400);
 		out.write4(f.resMap.getList(Background.class).lastId + 1);
+		boolean reuse = ver == 710 && f.hasRememberedIds();
 		for (int i = 0; i <= f.resMap.getList(Background.class).lastId; i++)
 			{
-			if (ver == 710) out.beginDeflate();
 			Background back = f.resMap.getList(Background.class).getUnsafe(i);
+			if (reuse && out.copyBlock(back)) continue;
+			if (ver == 710) out.beginDeflate();
 			out.writeBool(back != null);
 			if (back != null)
 				{
@@ -442,6 +528,7 @@ public final class GmFileWriter
 					}
 				}
 			out.endDeflate();
+			out.keepBlock(back);
 			}
 		}
 
@@ -450,10 +537,12 @@ public final class GmFileWriter
 		if (ver > 800) ver = 800;
 		out.write4(ver == 800 ? 800 : 420);
 		out.write4(f.resMap.getList(Path.class).lastId + 1);
+		boolean reuse = ver == 800 && f.hasRememberedIds();
 		for (int i = 0; i <= f.resMap.getList(Path.class).lastId; i++)
 			{
-			if (ver == 800) out.beginDeflate();
 			Path path = f.resMap.getList(Path.class).getUnsafe(i);
+			if (reuse && out.copyBlock(path)) continue;
+			if (ver == 800) out.beginDeflate();
 			out.writeBool(path != null);
 			if (path != null)
 				{
@@ -473,6 +562,7 @@ public final class GmFileWriter
 					}
 				}
 			out.endDeflate();
+			out.keepBlock(path);
 			}
 		}
 
@@ -481,10 +571,12 @@ public final class GmFileWriter
 		ver = ver >= 800 ? 800 : 400;
 		out.write4(ver);
 		out.write4(f.resMap.getList(Script.class).lastId + 1);
+		boolean reuse = ver == 800 && f.hasRememberedIds();
 		for (int i = 0; i <= f.resMap.getList(Script.class).lastId; i++)
 			{
-			if (ver == 800) out.beginDeflate();
 			Script scr = f.resMap.getList(Script.class).getUnsafe(i);
+			if (reuse && out.copyBlock(scr)) continue;
+			if (ver == 800) out.beginDeflate();
 			out.writeBool(scr != null);
 			if (scr != null)
 				{
@@ -494,6 +586,7 @@ public final class GmFileWriter
 				out.writeStr(scr.properties,PScript.CODE);
 				}
 			out.endDeflate();
+			out.keepBlock(scr);
 			}
 		}
 
@@ -501,10 +594,12 @@ public final class GmFileWriter
 		{
 		out.write4(ver >= 800 ? 800 : 540);
 		out.write4(f.resMap.getList(Font.class).lastId + 1);
+		boolean reuse = ver >= 800 && f.hasRememberedIds();
 		for (int i = 0; i <= f.resMap.getList(Font.class).lastId; i++)
 			{
-			if (ver >= 800) out.beginDeflate();
 			Font font = f.resMap.getList(Font.class).getUnsafe(i);
+			if (reuse && out.copyBlock(font)) continue;
+			if (ver >= 800) out.beginDeflate();
 			out.writeBool(font != null);
 			if (font != null)
 				{
@@ -525,6 +620,7 @@ public final class GmFileWriter
 				out.write4(font.properties,PFont.RANGE_MAX);
 				}
 			out.endDeflate();
+			out.keepBlock(font);
 			}
 		}
 
@@ -533,10 +629,12 @@ public final class GmFileWriter
 		if (ver > 800) ver = 800;
 		out.write4(ver == 800 ? 800 : 500);
 		out.write4(f.resMap.getList(Timeline.class).lastId + 1);
+		boolean reuse = ver == 800 && f.hasRememberedIds();
 		for (int i = 0; i <= f.resMap.getList(Timeline.class).lastId; i++)
 			{
-			if (ver == 800) out.beginDeflate();
 			Timeline time = f.resMap.getList(Timeline.class).getUnsafe(i);
+			if (reuse && out.copyBlock(time)) continue;
+			if (ver == 800) out.beginDeflate();
 			out.writeBool(time != null);
 			if (time != null)
 				{
@@ -551,6 +649,7 @@ public final class GmFileWriter
 					}
 				}
 			out.endDeflate();
+			out.keepBlock(time);
 			}
 		}
 
@@ -559,10 +658,12 @@ public final class GmFileWriter
 		if (ver > 800) ver = 800;
 		out.write4(ver == 800 ? 800 : 400);
 		out.write4(f.resMap.getList(GmObject.class).lastId + 1);
+		boolean reuse = ver == 800 && f.hasRememberedIds();
 		for (int i = 0; i <= f.resMap.getList(GmObject.class).lastId; i++)
 			{
-			if (ver == 800) out.beginDeflate();
 			GmObject obj = f.resMap.getList(GmObject.class).getUnsafe(i);
+			if (reuse && out.copyBlock(obj)) continue;
+			if (ver == 800) out.beginDeflate();
 			out.writeBool(obj != null);
 			if (obj != null)
 				{
@@ -592,6 +693,7 @@ public final class GmFileWriter
 					}
 				}
 			out.endDeflate();
+			out.keepBlock(obj);
 			}
 		}
 
@@ -600,10 +702,12 @@ public final class GmFileWriter
 		if (ver > 800) ver = 800;
 		out.write4(ver == 800 ? 800 : 420);
 		out.write4(f.resMap.getList(Room.class).lastId + 1);
+		boolean reuse = ver == 800 && f.hasRememberedIds();
 		for (int i = 0; i <= f.resMap.getList(Room.class).lastId; i++)
 			{
-			if (ver == 800) out.beginDeflate();
 			Room rm = f.resMap.getList(Room.class).getUnsafe(i);
+			if (reuse && out.copyBlock(rm)) continue;
+			if (ver == 800) out.beginDeflate();
 			out.writeBool(rm != null);
 			if (rm != null)
 				{
@@ -672,6 +776,7 @@ public final class GmFileWriter
 				out.write4(rm.properties,PRoom.CURRENT_TAB,PRoom.SCROLL_BAR_X,PRoom.SCROLL_BAR_Y);
 				}
 			out.endDeflate();
+			out.keepBlock(rm);
 			}
 		}
 
@@ -697,8 +802,7 @@ public final class GmFileWriter
 			if (i.data != null)
 				{
 				out.writeBool(true);
-				out.write4(i.data.length);
-				out.write(i.data);
+				out.writePayload(i.data);
 				}
 			else
 				out.writeBool(false);
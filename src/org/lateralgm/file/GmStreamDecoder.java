@@ -10,28 +10,32 @@
 package org.lateralgm.file;
 
 import java.awt.image.BufferedImage;
-import java.awt.image.DataBufferInt;
-import java.awt.image.DirectColorModel;
-import java.awt.image.WritableRaster;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.zip.DataFormatException;
 import java.util.zip.Inflater;
 
 import javax.imageio.ImageIO;
 
+import org.lateralgm.file.Metrics.Counter;
 import org.lateralgm.messages.Messages;
 import org.lateralgm.util.PropertyMap;
+import org.lateralgm.util.RawImage;
 
 public class GmStreamDecoder extends StreamDecoder
 	{
 	protected int originalPos = -1;
 	protected InputStream originalStream;
 	private int[] table = null;
+	private final StringPool strings = StringPool.get();
+	/** Holds the bytes of the string being read */
+	private byte[] strBuffer = new byte[64];
 
 	public GmStreamDecoder(InputStream in)
 		{
@@ -108,16 +112,20 @@ public class GmStreamDecoder extends StreamDecoder
 
 	public String readStr() throws IOException
 		{
-		byte data[] = new byte[read4()];
-		read(data);
-		return new String(data,CHARSET);
+		return readStr(read4());
 		}
 
 	public String readStr1() throws IOException
 		{
-		byte data[] = new byte[read()];
-		read(data);
-		return new String(data,CHARSET);
+		return readStr(read());
+		}
+
+	/** Reads a string of len bytes and shares it with equal strings in the {@link StringPool}. */
+	private String readStr(int len) throws IOException
+		{
+		if (len > strBuffer.length) strBuffer = new byte[Math.max(len,strBuffer.length * 2)];
+		read(strBuffer,0,len);
+		return strings.intern(strBuffer,0,len);
 		}
 
 	public boolean readBool() throws IOException
@@ -162,9 +170,14 @@ public class GmStreamDecoder extends StreamDecoder
 
 	public byte[] decompress(int length, int initialCapacity) throws IOException,DataFormatException
 		{
-		Inflater decompresser = new Inflater();
 		byte[] compressedData = new byte[length];
 		read(compressedData,0,length);
+		return inflate(compressedData,initialCapacity);
+		}
+
+	private static byte[] inflate(byte[] compressedData, int initialCapacity) throws DataFormatException
+		{
+		Inflater decompresser = new Inflater();
 		decompresser.setInput(compressedData);
 		byte[] result = new byte[131072];
 		ByteArrayOutputStream baos = new ByteArrayOutputStream(initialCapacity);
@@ -174,18 +187,192 @@ public class GmStreamDecoder extends StreamDecoder
 			baos.write(result,0,len);
 			}
 		decompresser.end();
+		Metrics.get().count(Counter.BYTES_INFLATED,baos.size());
 		return baos.toByteArray();
 		}
 
+	/** Payloads up to this size are kept in memory, larger ones are spooled to disk. */
+	public static final int PAYLOAD_MEMORY_LIMIT = 1 << 20;
+
+	/**
+	 * Reads <code>length</code> bytes of resource data. Large data is streamed to a
+	 * temporary file through a fixed-size buffer rather than being read into the heap.
+	 */
+	public Payload readPayload(int length) throws IOException
+		{
+		return Payload.read(this,length,PAYLOAD_MEMORY_LIMIT);
+		}
+
+	/**
+	 * Reads <code>length</code> bytes of zlib data as a payload that stays compressed
+	 * and is only inflated when it is streamed.
+	 */
+	public Payload decompressPayload(int length) throws IOException,DataFormatException
+		{
+		byte[] compressedData = new byte[length];
+		read(compressedData,0,length);
+		Inflater decompresser = new Inflater();
+		decompresser.setInput(compressedData);
+		byte[] scratch = new byte[Payload.BUFFER_SIZE];
+		long size = 0;
+		while (!decompresser.finished())
+			{
+			int len = decompresser.inflate(scratch);
+			if (len == 0 && decompresser.needsInput())
+				throw new DataFormatException("Truncated zlib data"); //$NON-NLS-1$
+			size += len;
+			}
+		decompresser.end();
+		Metrics.get().count(Counter.BYTES_INFLATED,size);
+		return Payload.deflated(compressedData,size);
+		}
+
+	private StoredBlock.Source blockSource;
+	private MessageDigest blockDigest;
+	private int blockLength;
+	private byte[] blockData;
+	private byte[] blockHash;
+	private StoredBlock lastBlock;
+
+	/**
+	 * Sets the file this stream reads from, so the blocks which are too large to be kept
+	 * in memory can be copied from it later. The stream must start at the start of the file.
+	 */
+	public void setBlockSource(StoredBlock.Source source)
+		{
+		blockSource = source;
+		}
+
+	/**
+	 * Makes {@link #beginInflate()} hash the data of each zlib block,
+	 * see {@link #getBlockHash()}.
+	 */
+	public void setHashBlocks(boolean hash)
+		{
+		if (!hash)
+			blockDigest = null;
+		else if (blockDigest == null)
+			{
+			try
+				{
+				blockDigest = MessageDigest.getInstance(StoredBlock.HASH_ALGORITHM);
+				}
+			catch (NoSuchAlgorithmException e)
+				{
+				throw new IllegalStateException(e);
+				}
+			}
+		}
+
+	/**
+	 * Returns the hash of the inflated data of the current zlib block, or null if
+	 * blocks are not hashed or no block is being read. The time the resource was last
+	 * changed is left out, see {@link #hashResourceBlock(byte[])}.
+	 */
+	public byte[] getBlockHash()
+		{
+		return blockHash;
+		}
+
+	/**
+	 * Returns the zlib block finished by the last {@link #endInflate()}, or null if
+	 * it can't be copied later.
+	 */
+	public StoredBlock getLastBlock()
+		{
+		return lastBlock;
+		}
+
 	public void beginInflate() throws IOException
 		{
-		int limit = read4();
+		beginInflate(read4());
+		}
+
+	/** Starts a zlib block whose length is already known, e.g. from a {@link StoredBlock}. */
+	public void beginInflate(int limit) throws IOException
+		{
 		originalStream = in;
-		in = new LimitedInflaterInputStream(originalStream,limit);
 		originalPos = pos;
+		blockLength = limit;
+		blockData = null;
+		blockHash = null;
+		if (limit <= StoredBlock.MAX_INLINE_SIZE || blockDigest != null)
+			{
+			//small blocks are kept, and blocks to hash are needed before they are inflated
+			byte[] buffer = new byte[limit];
+			for (int n = 0; n < limit;)
+				{
+				int r = originalStream.read(buffer,n,limit - n);
+				if (r < 0)
+					{
+					String error = Messages.format("StreamDecoder.UNEXPECTED_EOF",getPosString()); //$NON-NLS-1$
+					throw new IOException(error);
+					}
+				n += r;
+				}
+			if (limit <= StoredBlock.MAX_INLINE_SIZE) blockData = buffer;
+			if (blockDigest != null) blockHash = hashResourceBlock(buffer);
+			in = new LimitedInflaterInputStream(new ByteArrayInputStream(buffer),limit);
+			}
+		else
+			in = new LimitedInflaterInputStream(originalStream,limit);
 		pos = 0;
 		}
 
+	/**
+	 * Hashes the inflated data of a resource block. GM8 resource blocks start with a flag
+	 * whether the resource exists, its name and the time it was last changed. That time is
+	 * the time the whole file was last saved, so it is left out of the hash, which then only
+	 * changes with the resource.
+	 */
+	private byte[] hashResourceBlock(byte[] compressed) throws IOException
+		{
+		Inflater inflater = new Inflater();
+		try
+			{
+			inflater.setInput(compressed);
+			byte[] chunk = new byte[8192];
+			if (inflate(inflater,8,chunk,blockDigest) == 8 && readInt(chunk,0) != 0)
+				{
+				inflate(inflater,readInt(chunk,4) & 0xFFFFFFFFL,chunk,blockDigest); //name
+				inflate(inflater,8,chunk,null); //last changed
+				}
+			inflate(inflater,Long.MAX_VALUE,chunk,blockDigest);
+			return blockDigest.digest();
+			}
+		catch (DataFormatException e)
+			{
+			throw new IOException(e);
+			}
+		finally
+			{
+			inflater.end();
+			}
+		}
+
+	/**
+	 * Inflates up to count bytes through the chunk, adding them to the digest unless it's
+	 * null. Returns the number of bytes, which is less than count at the end of the data.
+	 */
+	private static long inflate(Inflater inflater, long count, byte[] chunk, MessageDigest digest)
+			throws DataFormatException
+		{
+		long done = 0;
+		while (done < count && !inflater.finished())
+			{
+			int n = inflater.inflate(chunk,0,(int) Math.min(chunk.length,count - done));
+			if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+			if (digest != null) digest.update(chunk,0,n);
+			done += n;
+			}
+		return done;
+		}
+
+	private static int readInt(byte[] b, int off)
+		{
+		return (b[off] & 0xFF) | (b[off + 1] & 0xFF) << 8 | (b[off + 2] & 0xFF) << 16 | b[off + 3] << 24;
+		}
+
 	/**
 	 * Safely finishes this stream if it's an inflater, otherwise this call does nothing.
 	 * This places the file reader after the end of the compressed data in the underlying stream.
@@ -196,18 +383,51 @@ public class GmStreamDecoder extends StreamDecoder
 			{
 			LimitedInflaterInputStream inf = (LimitedInflaterInputStream) in;
 			inf.finish();
-			pos = originalPos + (int) inf.getLimit();
+			Metrics.get().count(Counter.BYTES_INFLATED,pos);
+			if (blockData != null)
+				lastBlock = new StoredBlock(blockData,blockHash);
+			else if (blockSource != null)
+				lastBlock = new StoredBlock(blockSource,originalPos,blockLength,blockHash);
+			else
+				lastBlock = null;
+			blockData = null;
+			blockHash = null;
+			pos = originalPos + blockLength;
 			originalPos = -1;
 			in = originalStream;
 			originalStream = null;
 			}
+		else
+			lastBlock = null;
 		}
 
+	/**
+	 * Reads a zlib compressed BMP image. Common BMP formats are inflated row by row straight
+	 * into the pixels of the image by {@link BmpCodec}, others are left to ImageIO.
+	 */
 	public BufferedImage readZlibImage(int width, int height) throws IOException,DataFormatException
 		{
 		int length = read4();
+		byte[] compressedData = new byte[length];
+		read(compressedData,0,length);
+		Metrics.get().count(Counter.IMAGES_DECODED,1);
+		Inflater inflater = new Inflater();
+		try
+			{
+			inflater.setInput(compressedData);
+			RawImage image = BmpCodec.read(inflater);
+			if (image != null)
+				{
+				Metrics.get().count(Counter.BYTES_INFLATED,inflater.getBytesWritten());
+				return image.toBufferedImage();
+				}
+			}
+		finally
+			{
+			inflater.end();
+			}
 		int estimate = height * width * 4 + 100; //100 for generous header
-		return ImageIO.read(new ByteArrayInputStream(decompress(length,estimate)));
+		return ImageIO.read(new ByteArrayInputStream(inflate(compressedData,estimate)));
 		}
 
 	public BufferedImage readZlibImage() throws IOException,DataFormatException
@@ -217,20 +437,33 @@ public class GmStreamDecoder extends StreamDecoder
 
 	public BufferedImage readBGRAImage(int w, int h) throws IOException
 		{
-		DirectColorModel cm = new DirectColorModel(32,0x00FF0000,0x0000FF00,0x000000FF,0xFF000000);
-		WritableRaster raster = cm.createCompatibleWritableRaster(w,h);
+		return readRawBGRAImage(w,h).toBufferedImage();
+		}
 
-		int[] data = ((DataBufferInt) raster.getDataBuffer()).getData();
+	/**
+	 * Reads a GM8 BGRA image straight into a raw ARGB pixel array.
+	 * Rows are read in bulk; little endian BGRA is the same as packed ARGB.
+	 */
+	public RawImage readRawBGRAImage(int w, int h) throws IOException
+		{
+		RawImage img = new RawImage(w,h);
+		int[] data = img.pixels;
 
 		int s = read4();
 		if (s != data.length * 4)
 			throw new IOException(Messages.format(
 					"GmStreamDecoder.IMAGE_SIZE_MISMATCH",s,data.length,getPosString())); //$NON-NLS-1$
 
-		for (int i = 0; i < data.length; i++)
-			data[i] = read4();
-
-		return new BufferedImage(cm,raster,false,null);
+		byte[] row = new byte[w * 4];
+		for (int y = 0, p = 0; y < h; y++)
+			{
+			read(row,0,row.length);
+			for (int i = 0; i < row.length; i += 4)
+				data[p++] = (row[i] & 0xFF) | (row[i + 1] & 0xFF) << 8 | (row[i + 2] & 0xFF) << 16
+						| row[i + 3] << 24;
+			}
+		Metrics.get().count(Counter.IMAGES_DECODED,1);
+		return img;
 		}
 
 	/**
@@ -13,22 +13,29 @@ package org.lateralgm.file;
 import static org.lateralgm.main.Util.deRef;
 
 import java.awt.image.BufferedImage;
-import java.awt.image.DataBufferInt;
-import java.awt.image.DirectColorModel;
-import java.awt.image.WritableRaster;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
 import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
 
-import javax.imageio.ImageIO;
-
+import org.lateralgm.file.Metrics.Counter;
 import org.lateralgm.resources.InstantiableResource;
 import org.lateralgm.resources.Resource;
 import org.lateralgm.resources.ResourceReference;
 import org.lateralgm.util.PropertyMap;
+import org.lateralgm.util.RawImage;
 
 public class GmStreamEncoder extends StreamEncoder
 	{
@@ -36,19 +43,23 @@ public class GmStreamEncoder extends StreamEncoder
 	protected OutputStream originalStream;
 	private int[] table = null;
 
+	/** The stream given to the constructor, which blocks are copied to */
+	private final OutputStream sink;
+
 	public GmStreamEncoder(OutputStream o)
 		{
 		super(o);
+		sink = o;
 		}
 
 	public GmStreamEncoder(File f) throws FileNotFoundException
 		{
-		super(f);
+		this(new FileOutputStream(f));
 		}
 
 	public GmStreamEncoder(String filePath) throws FileNotFoundException
 		{
-		super(filePath);
+		this(new FileOutputStream(filePath));
 		}
 
 	public void write(byte b[]) throws IOException
@@ -60,12 +71,20 @@ public class GmStreamEncoder extends StreamEncoder
 		{
 		if (table != null)
 			{
-			for (int i = 0; i < len; i++)
+			//encode a copy, the caller's array may be resource data
+			byte[] enc = new byte[Math.min(len,Payload.BUFFER_SIZE)];
+			for (int done = 0; done < len;)
 				{
-				int t = b[off + i] & 0xFF;
-				int x = table[(t + pos + i) & 0xFF];
-				b[off + i] = (byte) x;
+				int n = Math.min(enc.length,len - done);
+				for (int i = 0; i < n; i++)
+					{
+					int t = b[off + done + i] & 0xFF;
+					enc[i] = (byte) table[(t + pos + i) & 0xFF];
+					}
+				super.write(enc,0,n);
+				done += n;
 				}
+			return;
 			}
 		super.write(b,off,len);
 		}
@@ -132,6 +151,34 @@ public class GmStreamEncoder extends StreamEncoder
 			write4(noneval);
 		}
 
+	/** Writes the payload length followed by the payload, streamed with a fixed-size buffer. */
+	public void writePayload(Payload data) throws IOException
+		{
+		write4((int) data.length());
+		data.writeTo(this);
+		}
+
+	/** Compresses a payload like {@link #compress(byte[])}, without reading it into memory. */
+	public void compress(Payload data) throws IOException
+		{
+		SpoolOutputStream spool = new SpoolOutputStream();
+		Deflater compresser = new Deflater();
+		DeflaterOutputStream dos = new DeflaterOutputStream(spool,compresser,Payload.BUFFER_SIZE);
+		data.writeTo(dos);
+		dos.close();
+		Metrics.get().count(Counter.BYTES_DEFLATED,compresser.getBytesRead());
+		compresser.end();
+		try
+			{
+			write4((int) spool.size());
+			spool.writeTo(this);
+			}
+		finally
+			{
+			spool.release();
+			}
+		}
+
 	public void compress(byte[] data) throws IOException
 		{
 		Deflater compresser = new Deflater();
@@ -144,14 +191,25 @@ public class GmStreamEncoder extends StreamEncoder
 			int len = compresser.deflate(buffer);
 			baos.write(buffer,0,len);
 			}
+		compresser.end();
+		Metrics.get().count(Counter.BYTES_DEFLATED,data.length);
 		write4(baos.size());
 		write(baos.toByteArray());
 		}
 
+	private SpoolOutputStream deflateSpool;
+	private Deflater deflater;
+
+	/**
+	 * Starts a zlib block. Everything written until {@link #endDeflate()} is compressed
+	 * on the fly into a spool, so large blocks are never held uncompressed in memory.
+	 */
 	public void beginDeflate()
 		{
 		originalStream = out;
-		out = new ByteArrayOutputStream();
+		deflateSpool = new SpoolOutputStream();
+		deflater = new Deflater();
+		out = new BufferedOutputStream(new DeflaterOutputStream(deflateSpool,deflater,8192),8192);
 		originalPos = pos;
 		pos = 0;
 		}
@@ -164,55 +222,195 @@ public class GmStreamEncoder extends StreamEncoder
 		{
 		if (originalStream != null)
 			{
-			flush();
-			ByteArrayOutputStream baos = (ByteArrayOutputStream) out;
+			out.close();
+			Metrics.get().count(Counter.BYTES_DEFLATED,deflater.getBytesRead());
+			deflater.end();
+			SpoolOutputStream spool = deflateSpool;
+			deflateSpool = null;
+			deflater = null;
 			pos = originalPos;
 			originalPos = -1;
 			out = originalStream;
 			originalStream = null;
-			compress(baos.toByteArray());
+			try
+				{
+				int length = (int) spool.size();
+				write4(length);
+				if (blockTarget != null && length <= StoredBlock.MAX_INLINE_SIZE)
+					{
+					ByteArrayOutputStream data = new ByteArrayOutputStream(length);
+					spool.writeTo(data);
+					lastBlock = new StoredBlock(data.toByteArray(),null);
+					data.writeTo(this);
+					}
+				else
+					{
+					if (blockTarget != null) lastBlock = new StoredBlock(blockTarget,pos,length,null);
+					spool.writeTo(this);
+					}
+				}
+			finally
+				{
+				spool.release();
+				}
 			}
 		}
 
-	public void writeZlibImage(BufferedImage image) throws IOException
+	private StoredBlock.Source blockTarget;
+	private StoredBlock lastBlock;
+	private final Map<Resource<?,?>,StoredBlock> writtenBlocks = new IdentityHashMap<Resource<?,?>,StoredBlock>();
+	private final Map<StoredBlock.Source,FileChannel> sourceChannels = new HashMap<StoredBlock.Source,FileChannel>();
+	private WritableByteChannel sinkChannel;
+
+	/**
+	 * Remembers where the block of each resource is written, see {@link #getWrittenBlocks()}.
+	 * The stream must start at the start of the given file.
+	 */
+	public void keepBlocks(StoredBlock.Source target)
+		{
+		blockTarget = target;
+		}
+
+	/**
+	 * Remembers the block just written as the one of the given resource.
+	 * This does nothing unless {@link #keepBlocks(StoredBlock.Source)} was called.
+	 */
+	public void keepBlock(Resource<?,?> res)
+		{
+		if (blockTarget != null && res != null && lastBlock != null) writtenBlocks.put(res,lastBlock);
+		lastBlock = null;
+		}
+
+	/** The blocks written for each resource, once the file is complete */
+	public Map<Resource<?,?>,StoredBlock> getWrittenBlocks()
+		{
+		return writtenBlocks;
+		}
+
+	/**
+	 * Copies the stored block of a resource, with its length in front, if the resource hasn't
+	 * changed since the block was read or written, and the file the block is in hasn't either.
+	 * @return false if the resource must be written normally
+	 */
+	public boolean copyBlock(Resource<?,?> res) throws IOException
 		{
-		//original image pixels
-		int[] pixels = image.getRGB(0,0,image.getWidth(),image.getHeight(),null,0,image.getWidth());
-		//copy into 3-byte dest image with no alpha for bmp-compatible
-		DirectColorModel cm = new DirectColorModel(24,0x00FF0000,0x0000FF00,0x000000FF); //BGR
-		WritableRaster raster = cm.createCompatibleWritableRaster(image.getWidth(),image.getHeight());
-		int[] data = ((DataBufferInt) raster.getDataBuffer()).getData();
+		StoredBlock block = res == null ? null : res.getStoredBlock();
+		if (block == null || originalStream != null) return false;
+		if (block.isInline())
+			{
+			write4(block.length);
+			write(block.data);
+			lastBlock = block;
+			}
+		else
+			{
+			FileChannel channel = openSource(block.source);
+			if (channel == null) return false;
+			write4(block.length);
+			if (blockTarget != null) lastBlock = new StoredBlock(blockTarget,pos,block.length,block.getHash());
+			out.flush();
+			if (sinkChannel == null)
+				sinkChannel = sink instanceof FileOutputStream ? ((FileOutputStream) sink).getChannel()
+						: Channels.newChannel(sink);
+			for (long done = 0; done < block.length;)
+				{
+				long n = channel.transferTo(block.offset + done,block.length - done,sinkChannel);
+				if (n <= 0) throw new IOException("Stored block is truncated: " + block.source.getFile()); //$NON-NLS-1$
+				done += n;
+				}
+			pos += block.length;
+			}
+		keepBlock(res);
+		Metrics.get().count(Counter.BYTES_COPIED,block.length);
+		return true;
+		}
 
-		//assume the two buffers are the same size...
-		for (int i = 0; i < pixels.length; i++)
-			data[i] = pixels[i] & 0x00FFFFFF; //forcibly drop alpha channel
+	/** Returns the channel to copy blocks from, or null if the file has changed */
+	private FileChannel openSource(StoredBlock.Source source) throws IOException
+		{
+		if (sourceChannels.containsKey(source)) return sourceChannels.get(source);
+		FileChannel channel = null;
+		if (source.isUnchanged())
+			{
+			channel = new FileInputStream(source.getFile()).getChannel();
+			//it might have changed between the check and opening it
+			if (!source.isUnchanged())
+				{
+				channel.close();
+				channel = null;
+				}
+			}
+		sourceChannels.put(source,channel);
+		return channel;
+		}
 
+	public void close() throws IOException
+		{
+		try
+			{
+			for (FileChannel channel : sourceChannels.values())
+				if (channel != null) channel.close();
+			sourceChannels.clear();
+			}
+		finally
+			{
+			super.close();
+			}
+		}
+
+	/**
+	 * Writes the image as zlib compressed 24 bit BMP. The rows are encoded by {@link BmpCodec}
+	 * straight from the pixels into the deflater.
+	 */
+	public void writeZlibImage(BufferedImage image) throws IOException
+		{
 		ByteArrayOutputStream out = new ByteArrayOutputStream();
-		ImageIO.write(new BufferedImage(cm,raster,false,null),"bmp",out); //$NON-NLS-1$
-		compress(out.toByteArray());
+		Deflater compresser = new Deflater();
+		DeflaterOutputStream dos = new DeflaterOutputStream(out,compresser,Payload.BUFFER_SIZE);
+		BmpCodec.write(RawImage.wrap(image),dos);
+		dos.close();
+		Metrics.get().count(Counter.IMAGES_ENCODED,1);
+		Metrics.get().count(Counter.BYTES_DEFLATED,compresser.getBytesRead());
+		compresser.end();
+		write4(out.size());
+		out.writeTo(this);
 		}
 
 	public void writeBGRAImage(BufferedImage image, boolean useTransp) throws IOException
 		{
-		int width = image.getWidth();
-		int height = image.getHeight();
+		writeBGRAImage(RawImage.wrap(image),useTransp);
+		}
+
+	/**
+	 * Writes the raw pixels as GM8 BGRA, one row at a time.
+	 * Packed ARGB written little endian is already BGRA, so no conversion is needed
+	 * beyond clearing the alpha of transparent-colored pixels.
+	 */
+	public void writeBGRAImage(RawImage image, boolean useTransp) throws IOException
+		{
+		int width = image.width;
+		int height = image.height;
+		int[] pixels = image.pixels;
 
-		int pixels[] = image.getRGB(0,0,width,height,null,0,width);
 		write4(pixels.length * 4);
-		int trans = image.getRGB(0,height - 1) & 0x00FFFFFF;
-		//Because apparently there's no pretty way of fetching the
-		//pixels of a BufferedImage in the desired format (BGRA)...
-		//ARGB => BGRA
-		for (int p = 0; p < pixels.length; p++)
+		int trans = pixels[(height - 1) * width] & 0x00FFFFFF;
+		byte[] row = new byte[width * 4];
+		for (int y = 0, p = 0; y < height; y++)
 			{
-			write(pixels[p] & 0xFF);
-			write(pixels[p] >>> 8 & 0xFF);
-			write(pixels[p] >>> 16 & 0xFF);
-			if (useTransp && ((pixels[p] & 0x00FFFFFF) == trans))
-				write(0);
-			else
-				write(pixels[p] >>> 24);
+			for (int i = 0; i < row.length; i += 4, p++)
+				{
+				int px = pixels[p];
+				row[i] = (byte) px;
+				row[i + 1] = (byte) (px >>> 8);
+				row[i + 2] = (byte) (px >>> 16);
+				if (useTransp && ((px & 0x00FFFFFF) == trans))
+					row[i + 3] = 0;
+				else
+					row[i + 3] = (byte) (px >>> 24);
+				}
+			write(row,0,row.length);
 			}
+		Metrics.get().count(Counter.IMAGES_ENCODED,1);
 		}
 
 	/**
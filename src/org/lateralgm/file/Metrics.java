@@ -0,0 +1,208 @@
+/*
+ * This file is part of LateralGM.
+ * LateralGM is free software and comes with ABSOLUTELY NO WARRANTY.
+ * See LICENSE for details.
+ */
+
+package org.lateralgm.file;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+
+/**
+ * Per-phase timing and throughput instrumentation for reading and writing projects.
+ * <p>
+ * Code that does measurable work brackets it with {@link #begin(String,String)} and
+ * {@link #end()}, and reports work items with {@link #count(Counter,long)}. Each finished
+ * phase is passed to the {@link Listener}, with its wall and CPU time, allocated bytes and
+ * the counters reported while it was open (including those of nested phases).
+ * <p>
+ * Instrumentation is per thread. Unless a Metrics object has been installed for the current
+ * thread, {@link #get()} returns a disabled instance and all calls return immediately.
+ */
+public class Metrics
+	{
+	public enum Counter
+		{
+		/** Resources read or written */
+		RESOURCES,
+		/** Uncompressed bytes read from zlib blocks */
+		BYTES_INFLATED,
+		/** Uncompressed bytes written to zlib blocks */
+		BYTES_DEFLATED,
+		/** Compressed bytes of unchanged resources copied instead of written again */
+		BYTES_COPIED,
+		IMAGES_DECODED,
+		IMAGES_ENCODED,
+		XML_PARSED,
+		XML_WRITTEN,
+		/** Size of all XML files parsed or written */
+		XML_BYTES,
+		/** Strings looked up in the {@link StringPool} */
+		STRINGS_POOLED,
+		/** Pooled strings that were already there and shared instead of kept twice */
+		STRINGS_DEDUPLICATED
+		}
+
+	public interface Listener
+		{
+		void phaseEnded(Sample sample);
+		}
+
+	/** The measurements of one finished phase. */
+	public static final class Sample
+		{
+		public final String phase;
+		/** The resource kind or section this phase worked on, or null. */
+		public final String kind;
+		/** Nesting depth, 0 for outermost phases. */
+		public final int depth;
+		public long wallNanos;
+		/** CPU time of the current thread, -1 if the JVM can't measure it. */
+		public long cpuNanos;
+		/** Bytes allocated by the current thread, -1 if the JVM can't measure it. */
+		public long allocatedBytes;
+		final long[] counters = new long[Counter.values().length];
+
+		Sample(String phase, String kind, int depth)
+			{
+			this.phase = phase;
+			this.kind = kind;
+			this.depth = depth;
+			}
+
+		public long get(Counter c)
+			{
+			return counters[c.ordinal()];
+			}
+		}
+
+	private static final Metrics DISABLED = new Metrics(null);
+	private static final ThreadLocal<Metrics> CURRENT = new ThreadLocal<Metrics>()
+		{
+			protected Metrics initialValue()
+				{
+				return DISABLED;
+				}
+		};
+
+	private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+	private static final boolean CPU_TIME = THREADS.isCurrentThreadCpuTimeSupported();
+	private static final com.sun.management.ThreadMXBean ALLOCATION;
+	static
+		{
+		com.sun.management.ThreadMXBean a = null;
+		if (THREADS instanceof com.sun.management.ThreadMXBean)
+			{
+			a = (com.sun.management.ThreadMXBean) THREADS;
+			if (!a.isThreadAllocatedMemorySupported()) a = null;
+			}
+		ALLOCATION = a;
+		}
+
+	private final Listener listener;
+	private final ArrayList<Open> open = new ArrayList<Open>();
+
+	public Metrics(Listener listener)
+		{
+		this.listener = listener;
+		}
+
+	/** Returns the instrumentation of the current thread. Never null. */
+	public static Metrics get()
+		{
+		return CURRENT.get();
+		}
+
+	/** Installs the instrumentation for the current thread. Null disables it. */
+	public static void install(Metrics m)
+		{
+		CURRENT.set(m == null ? DISABLED : m);
+		}
+
+	public boolean isEnabled()
+		{
+		return listener != null;
+		}
+
+	public void begin(String phase, Class<?> kind)
+		{
+		if (listener == null) return;
+		begin(phase,kind == null ? null : kind.getSimpleName());
+		}
+
+	public void begin(String phase, String kind)
+		{
+		if (listener == null) return;
+		open.add(new Open(new Sample(phase,kind,open.size())));
+		}
+
+	/** Ends the innermost open phase and reports it. */
+	public void end()
+		{
+		if (listener == null || open.isEmpty()) return;
+		Open o = open.remove(open.size() - 1);
+		o.finish();
+		listener.phaseEnded(o.sample);
+		}
+
+	public void count(Counter c, long n)
+		{
+		if (listener == null) return;
+		int i = c.ordinal();
+		for (Open o : open)
+			o.sample.counters[i] += n;
+		}
+
+	/**
+	 * Returns metrics for another thread that works on the current phases. The other thread
+	 * installs them, and once it is done, {@link #join(Metrics)} adds its counts to the phases
+	 * of this thread.
+	 */
+	public Metrics fork()
+		{
+		if (listener == null) return DISABLED;
+		Metrics m = new Metrics(listener);
+		m.open.add(new Open(new Sample(null,null,-1)));
+		return m;
+		}
+
+	/** Adds the counts of metrics returned by {@link #fork()} to the open phases. */
+	public void join(Metrics forked)
+		{
+		if (listener == null || forked.open.isEmpty()) return;
+		long[] counters = forked.open.get(0).sample.counters;
+		for (Open o : open)
+			for (int i = 0; i < counters.length; i++)
+				o.sample.counters[i] += counters[i];
+		}
+
+	private static final class Open
+		{
+		final Sample sample;
+		final long wallStart;
+		final long cpuStart;
+		final long allocStart;
+
+		Open(Sample sample)
+			{
+			this.sample = sample;
+			cpuStart = CPU_TIME ? THREADS.getCurrentThreadCpuTime() : -1;
+			allocStart = ALLOCATION != null ? allocatedBytes() : -1;
+			wallStart = System.nanoTime();
+			}
+
+		void finish()
+			{
+			sample.wallNanos = System.nanoTime() - wallStart;
+			sample.cpuNanos = CPU_TIME ? THREADS.getCurrentThreadCpuTime() - cpuStart : -1;
+			sample.allocatedBytes = ALLOCATION != null ? allocatedBytes() - allocStart : -1;
+			}
+
+		private static long allocatedBytes()
+			{
+			return ALLOCATION.getThreadAllocatedBytes(Thread.currentThread().getId());
+			}
+		}
+	}
@@ -0,0 +1,316 @@
+/*
+ * This file is part of LateralGM.
+ * LateralGM is free software and comes with ABSOLUTELY NO WARRANTY.
+ * See LICENSE for details.
+ */
+
+package org.lateralgm.file;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * An immutable blob of binary resource data, such as the contents of a sound or an
+ * included file. The data may live on the heap, in a file, or zlib-compressed in memory;
+ * consumers should stream it with {@link #writeTo(OutputStream)} or {@link #openStream()}
+ * so large payloads never have to be held on the heap as a whole.
+ */
+public abstract class Payload
+	{
+	/** Size of the buffers used when streaming payloads. */
+	public static final int BUFFER_SIZE = 65536;
+
+	public static final Payload EMPTY = new InMemory(new byte[0]);
+
+	/** The number of (uncompressed) bytes in this payload. */
+	public abstract long length();
+
+	public abstract InputStream openStream() throws IOException;
+
+	/** Copies the whole payload to <code>out</code> using a fixed-size buffer. */
+	public void writeTo(OutputStream out) throws IOException
+		{
+		InputStream in = openStream();
+		try
+			{
+			copy(in,out);
+			}
+		finally
+			{
+			in.close();
+			}
+		}
+
+	/**
+	 * Reads the whole payload into a new array. Only meant for small payloads
+	 * and for UI code that really needs the bytes.
+	 */
+	public byte[] toByteArray() throws IOException
+		{
+		long len = length();
+		if (len > Integer.MAX_VALUE) throw new IOException("Payload too large: " + len); //$NON-NLS-1$
+		byte[] b = new byte[(int) len];
+		DataInputStream in = new DataInputStream(openStream());
+		try
+			{
+			in.readFully(b);
+			}
+		finally
+			{
+			in.close();
+			}
+		return b;
+		}
+
+	public boolean isEmpty()
+		{
+		return length() == 0;
+		}
+
+	/**
+	 * Frees what the payload holds outside of the heap, i.e. deletes the temporary file of a
+	 * payload spooled to disk. The payload can't be read any more afterwards.
+	 */
+	public void release()
+		{
+		}
+
+	public static Payload of(byte[] data)
+		{
+		return data == null ? null : new InMemory(data);
+		}
+
+	/** A payload backed by the whole contents of a file, read only when needed. */
+	public static Payload of(File file)
+		{
+		return new FileBacked(file,0,file.length(),false);
+		}
+
+	/** A payload that is stored zlib-compressed and inflated only while it is streamed. */
+	public static Payload deflated(byte[] compressed, long length)
+		{
+		return new Deflated(compressed,length);
+		}
+
+	/**
+	 * Reads exactly <code>length</code> bytes from <code>in</code> into a payload.
+	 * Anything larger than <code>memoryLimit</code> is spooled to a temporary file
+	 * through a fixed-size buffer instead of being kept on the heap.
+	 */
+	public static Payload read(InputStream in, long length, int memoryLimit) throws IOException
+		{
+		if (length <= memoryLimit)
+			{
+			byte[] b = new byte[(int) length];
+			new DataInputStream(in).readFully(b);
+			return new InMemory(b);
+			}
+		SpoolOutputStream spool = new SpoolOutputStream(0);
+		try
+			{
+			byte[] buf = new byte[BUFFER_SIZE];
+			long left = length;
+			while (left > 0)
+				{
+				int n = in.read(buf,0,(int) Math.min(buf.length,left));
+				if (n < 0) throw new IOException("Unexpected end of payload data"); //$NON-NLS-1$
+				spool.write(buf,0,n);
+				left -= n;
+				}
+			}
+		finally
+			{
+			spool.close();
+			}
+		return spool.toPayload();
+		}
+
+	public static long copy(InputStream in, OutputStream out) throws IOException
+		{
+		byte[] buf = new byte[BUFFER_SIZE];
+		long total = 0;
+		int n;
+		while ((n = in.read(buf)) > 0)
+			{
+			out.write(buf,0,n);
+			total += n;
+			}
+		return total;
+		}
+
+	/** Payloads are equal if their contents are. */
+	@Override
+	public boolean equals(Object obj)
+		{
+		if (obj == this) return true;
+		if (!(obj instanceof Payload)) return false;
+		Payload other = (Payload) obj;
+		if (length() != other.length()) return false;
+		try
+			{
+			InputStream a = openStream();
+			InputStream b = other.openStream();
+			try
+				{
+				byte[] ba = new byte[BUFFER_SIZE];
+				byte[] bb = new byte[BUFFER_SIZE];
+				DataInputStream db = new DataInputStream(b);
+				int n;
+				while ((n = a.read(ba)) > 0)
+					{
+					db.readFully(bb,0,n);
+					for (int i = 0; i < n; i++)
+						if (ba[i] != bb[i]) return false;
+					}
+				return true;
+				}
+			finally
+				{
+				a.close();
+				b.close();
+				}
+			}
+		catch (IOException e)
+			{
+			return false;
+			}
+		}
+
+	@Override
+	public int hashCode()
+		{
+		return (int) (length() ^ (length() >>> 32));
+		}
+
+	static final class InMemory extends Payload
+		{
+		private final byte[] data;
+
+		InMemory(byte[] data)
+			{
+			this.data = data;
+			}
+
+		public long length()
+			{
+			return data.length;
+			}
+
+		public InputStream openStream()
+			{
+			return new ByteArrayInputStream(data);
+			}
+
+		public void writeTo(OutputStream out) throws IOException
+			{
+			out.write(data);
+			}
+
+		public byte[] toByteArray()
+			{
+			return data.clone();
+			}
+
+		public boolean equals(Object obj)
+			{
+			if (obj instanceof InMemory) return Arrays.equals(data,((InMemory) obj).data);
+			return super.equals(obj);
+			}
+		}
+
+	static final class FileBacked extends Payload
+		{
+		private final File file;
+		private final long offset;
+		private final long length;
+		private final boolean temporary;
+
+		/** @param temporary true if the file is a spool file, which is deleted on release */
+		FileBacked(File file, long offset, long length, boolean temporary)
+			{
+			this.file = file;
+			this.offset = offset;
+			this.length = length;
+			this.temporary = temporary;
+			}
+
+		public long length()
+			{
+			return length;
+			}
+
+		public InputStream openStream() throws IOException
+			{
+			FileInputStream in = new FileInputStream(file);
+			if (offset > 0) in.getChannel().position(offset);
+			return new LimitedInputStream(in,length);
+			}
+
+		public void release()
+			{
+			if (temporary) SpoolOutputStream.deleteTempFile(file);
+			}
+		}
+
+	static final class Deflated extends Payload
+		{
+		private final byte[] compressed;
+		private final long length;
+
+		Deflated(byte[] compressed, long length)
+			{
+			this.compressed = compressed;
+			this.length = length;
+			}
+
+		public long length()
+			{
+			return length;
+			}
+
+		public InputStream openStream()
+			{
+			return new InflaterInputStream(new ByteArrayInputStream(compressed));
+			}
+		}
+
+	private static final class LimitedInputStream extends InputStream
+		{
+		private final InputStream in;
+		private long left;
+
+		LimitedInputStream(InputStream in, long limit)
+			{
+			this.in = in;
+			this.left = limit;
+			}
+
+		public int read() throws IOException
+			{
+			if (left <= 0) return -1;
+			int b = in.read();
+			if (b >= 0) left--;
+			return b;
+			}
+
+		public int read(byte[] b, int off, int len) throws IOException
+			{
+			if (left <= 0) return -1;
+			int n = in.read(b,off,(int) Math.min(len,left));
+			if (n > 0) left -= n;
+			return n;
+			}
+
+		public void close() throws IOException
+			{
+			in.close();
+			}
+		}
+	}
@@ -24,6 +24,12 @@ public class RefList<R extends InstantiableResource<R,?>>
 		this.clazz = clazz;
 		}
 
+	/** Makes {@link #get(int)} return the reference of a resource that already has its ID. */
+	public void put(R res)
+		{
+		rrt.put(res.getId(),new ResRef<R>(res));
+		}
+
 	public ResourceReference<R> get(int id)
 		{
 		if (id < 0) return null;
@@ -0,0 +1,133 @@
+/*
+ * This file is part of LateralGM.
+ * LateralGM is free software and comes with ABSOLUTELY NO WARRANTY.
+ * See LICENSE for details.
+ */
+
+package org.lateralgm.file;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An output stream that collects its data in memory until it exceeds a limit,
+ * and from then on spools it to a temporary file. The collected data is available
+ * as a {@link Payload} once the stream is closed.
+ * <p>
+ * The temporary file is deleted by {@link #release()}, or by {@link Payload#release()} once it
+ * has been handed out as a payload. Files that are still there when the JVM exits are deleted
+ * then, so long-running processes only keep the files that are in use.
+ */
+public class SpoolOutputStream extends OutputStream
+	{
+	/** Default amount of data kept in memory before spooling to disk. */
+	public static final int DEFAULT_MEMORY_LIMIT = 4 << 20;
+
+	/** The temporary files that haven't been released yet */
+	private static final Set<File> TEMP_FILES = Collections
+			.newSetFromMap(new ConcurrentHashMap<File,Boolean>());
+	static
+		{
+		Runtime.getRuntime().addShutdownHook(new Thread("Spool file cleanup") //$NON-NLS-1$
+			{
+				public void run()
+					{
+					for (File f : TEMP_FILES)
+						f.delete();
+					}
+			});
+		}
+
+	private final int memoryLimit;
+	private ByteArrayOutputStream memory = new ByteArrayOutputStream();
+	private File file;
+	private OutputStream fileOut;
+	private long size = 0;
+
+	public SpoolOutputStream()
+		{
+		this(DEFAULT_MEMORY_LIMIT);
+		}
+
+	public SpoolOutputStream(int memoryLimit)
+		{
+		this.memoryLimit = memoryLimit;
+		}
+
+	public void write(int b) throws IOException
+		{
+		ensureCapacity(1).write(b);
+		size++;
+		}
+
+	public void write(byte[] b, int off, int len) throws IOException
+		{
+		ensureCapacity(len).write(b,off,len);
+		size += len;
+		}
+
+	private OutputStream ensureCapacity(int len) throws IOException
+		{
+		if (fileOut != null) return fileOut;
+		if (size + len <= memoryLimit) return memory;
+		file = File.createTempFile("lgm",".spool"); //$NON-NLS-1$ //$NON-NLS-2$
+		TEMP_FILES.add(file);
+		fileOut = new BufferedOutputStream(new FileOutputStream(file),Payload.BUFFER_SIZE);
+		memory.writeTo(fileOut);
+		memory = null;
+		return fileOut;
+		}
+
+	public long size()
+		{
+		return size;
+		}
+
+	/** Copies everything written so far to <code>out</code>. The stream must be closed. */
+	public void writeTo(OutputStream out) throws IOException
+		{
+		if (file == null)
+			memory.writeTo(out);
+		else
+			new Payload.FileBacked(file,0,size,false).writeTo(out);
+		}
+
+	/**
+	 * Deletes the temporary file, if there is one. Only for streams whose data is not
+	 * used any more, and hasn't been handed out by {@link #toPayload()}.
+	 */
+	public void release() throws IOException
+		{
+		close();
+		deleteTempFile(file);
+		}
+
+	static void deleteTempFile(File f)
+		{
+		if (f != null && TEMP_FILES.remove(f)) f.delete();
+		}
+
+	public void flush() throws IOException
+		{
+		if (fileOut != null) fileOut.flush();
+		}
+
+	public void close() throws IOException
+		{
+		if (fileOut != null) fileOut.close();
+		}
+
+	/** Returns the spooled data. The stream must be closed. */
+	public Payload toPayload()
+		{
+		if (file == null) return new Payload.InMemory(memory.toByteArray());
+		return new Payload.FileBacked(file,0,size,true);
+		}
+	}
@@ -0,0 +1,138 @@
+/*
+ * This file is part of LateralGM.
+ * LateralGM is free software and comes with ABSOLUTELY NO WARRANTY.
+ * See LICENSE for details.
+ */
+
+package org.lateralgm.file;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The compressed block of a resource, as it is stored in a GM8 file. As long as the
+ * resource doesn't change, {@link GmFileWriter} copies the block instead of encoding
+ * and compressing the resource again.
+ * <p>
+ * Small blocks are kept in memory, larger ones are copied from the file they were
+ * read from, which must not have changed since.
+ */
+public final class StoredBlock
+	{
+	/** Blocks up to this size are kept in memory */
+	public static final int MAX_INLINE_SIZE = 4096;
+	/** The hash of the inflated data, see {@link #getHash()} */
+	public static final String HASH_ALGORITHM = "SHA-1"; //$NON-NLS-1$
+
+	/** A GM8 file that blocks are copied from, with its size and time at that point */
+	public static final class Source
+		{
+		private File file;
+		private long length;
+		private long lastModified;
+
+		public Source(File file)
+			{
+			this.file = file;
+			update();
+			}
+
+		/** Takes the current size and time of the file as the ones the blocks are valid for. */
+		public void update()
+			{
+			length = file.length();
+			lastModified = file.lastModified();
+			}
+
+		/** Points the blocks to the file after it has been moved, e.g. over an older version. */
+		public void moveTo(File dest)
+			{
+			file = dest;
+			update();
+			}
+
+		public File getFile()
+			{
+			return file;
+			}
+
+		/** Returns true if the file still looks like it did when the blocks were taken. */
+		public boolean isUnchanged()
+			{
+			return file.length() == length && file.lastModified() == lastModified;
+			}
+		}
+
+	final Source source;
+	final long offset;
+	final int length;
+	final byte[] data;
+	private final byte[] hash;
+
+	/** A block at the given offset of the source file */
+	StoredBlock(Source source, long offset, int length, byte[] hash)
+		{
+		this.source = source;
+		this.offset = offset;
+		this.length = length;
+		data = null;
+		this.hash = hash;
+		}
+
+	/** A block kept in memory */
+	StoredBlock(byte[] data, byte[] hash)
+		{
+		source = null;
+		offset = -1;
+		length = data.length;
+		this.data = data;
+		this.hash = hash;
+		}
+
+	/** The size of the compressed data, without the length field in front of it */
+	public int getLength()
+		{
+		return length;
+		}
+
+	public boolean isInline()
+		{
+		return data != null;
+		}
+
+	/**
+	 * Opens the compressed data of the block, e.g. to read a resource that was left out when
+	 * the file was read.
+	 * @throws IOException if the file the block is in has changed since
+	 */
+	public InputStream open() throws IOException
+		{
+		if (data != null) return new ByteArrayInputStream(data);
+		if (!source.isUnchanged())
+			throw new IOException("The file of a stored block has changed: " + source.getFile()); //$NON-NLS-1$
+		FileInputStream in = new FileInputStream(source.getFile());
+		try
+			{
+			in.getChannel().position(offset);
+			}
+		catch (IOException e)
+			{
+			in.close();
+			throw e;
+			}
+		return new BufferedInputStream(in);
+		}
+
+	/**
+	 * Returns the {@link #HASH_ALGORITHM} hash of the inflated data, without the time the
+	 * resource was last changed, or null if it wasn't computed when the block was read.
+	 */
+	public byte[] getHash()
+		{
+		return hash;
+		}
+	}
@@ -0,0 +1,138 @@
+/*
+ * This file is part of LateralGM.
+ * LateralGM is free software and comes with ABSOLUTELY NO WARRANTY.
+ * See LICENSE for details.
+ */
+
+package org.lateralgm.file;
+
+import org.lateralgm.file.Metrics.Counter;
+
+/**
+ * Lets equal strings read during one conversion share a single instance. Large projects repeat
+ * the same resource names, action arguments and code snippets many thousands of times.
+ * <p>
+ * The pool is a direct-mapped table: each string has one slot, chosen by its hash, and replaces
+ * whatever string was there before. Lookups neither block nor allocate, and the memory held is
+ * bounded by the number of slots. A pool is installed for the current thread like {@link Metrics}.
+ * Without one, strings are returned as they are.
+ * <p>
+ * Threads working for the same conversion can share the slots through {@link #share(Metrics)}.
+ * They race on the slots without locking, which at worst loses a string another thread just put
+ * there. Strings are immutable, so a thread never sees one half-constructed.
+ */
+public final class StringPool
+	{
+	public static final int DEFAULT_SIZE = 1 << 14;
+	/** Longer strings are rarely repeated, and aren't worth hashing */
+	public static final int MAX_LENGTH = 4096;
+
+	private static final StringPool DISABLED = new StringPool(0,null);
+	private static final ThreadLocal<StringPool> CURRENT = new ThreadLocal<StringPool>()
+		{
+			protected StringPool initialValue()
+				{
+				return DISABLED;
+				}
+		};
+
+	private final String[] slots;
+	private final int mask;
+	private final Metrics metrics;
+
+	/**
+	 * @param size The number of slots, rounded up to a power of two. 0 disables the pool.
+	 * @param metrics Counts the lookups and hits, or null.
+	 */
+	public StringPool(int size, Metrics metrics)
+		{
+		slots = new String[size <= 0 ? 0 : Integer.highestOneBit(size * 2 - 1)];
+		mask = slots.length - 1;
+		this.metrics = metrics;
+		}
+
+	private StringPool(String[] slots, Metrics metrics)
+		{
+		this.slots = slots;
+		mask = slots.length - 1;
+		this.metrics = metrics;
+		}
+
+	/** Returns a pool for another thread, which shares the slots of this one. */
+	public StringPool share(Metrics metrics)
+		{
+		return slots.length == 0 ? DISABLED : new StringPool(slots,metrics);
+		}
+
+	public static StringPool get()
+		{
+		return CURRENT.get();
+		}
+
+	public static void install(StringPool pool)
+		{
+		CURRENT.set(pool == null ? DISABLED : pool);
+		}
+
+	/** Returns the pooled string equal to s, or s after adding it to the pool. */
+	public String intern(String s)
+		{
+		if (s == null || slots.length == 0 || s.length() > MAX_LENGTH) return s;
+		int i = slot(s.hashCode());
+		String pooled = slots[i];
+		boolean hit = pooled != null && pooled.equals(s);
+		count(hit);
+		if (hit) return pooled;
+		slots[i] = s;
+		return s;
+		}
+
+	/**
+	 * Returns the string of the given ISO-8859-1 encoded bytes. If it is in the pool, no new
+	 * string is created at all.
+	 */
+	public String intern(byte[] b, int off, int len)
+		{
+		if (slots.length == 0 || len > MAX_LENGTH) return latin1(b,off,len);
+		// The same as String.hashCode(), since each byte is one char
+		int h = 0;
+		for (int j = 0; j < len; j++)
+			h = 31 * h + (b[off + j] & 0xFF);
+		int i = slot(h);
+		String pooled = slots[i];
+		boolean hit = pooled != null && equals(pooled,b,off,len);
+		count(hit);
+		if (hit) return pooled;
+		String s = latin1(b,off,len);
+		slots[i] = s;
+		return s;
+		}
+
+	private int slot(int h)
+		{
+		// Mix the high bits in, so strings differing only at the end don't collide
+		return (h ^ h >>> 16) & mask;
+		}
+
+	private void count(boolean hit)
+		{
+		if (metrics == null) return;
+		metrics.count(Counter.STRINGS_POOLED,1);
+		if (hit) metrics.count(Counter.STRINGS_DEDUPLICATED,1);
+		}
+
+	private static boolean equals(String s, byte[] b, int off, int len)
+		{
+		if (s.length() != len) return false;
+		for (int j = 0; j < len; j++)
+			if (s.charAt(j) != (b[off + j] & 0xFF)) return false;
+		return true;
+		}
+
+	@SuppressWarnings("deprecation")
+	private static String latin1(byte[] b, int off, int len)
+		{
+		// Each byte is the low byte of its char in ISO-8859-1
+		return new String(b,0,off,len);
+		}
+	}
@@ -27,6 +27,7 @@ import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.GraphicsEnvironment;
 import java.awt.Rectangle;
 import java.awt.SplashScreen;
 import java.io.File;
@@ -129,8 +130,9 @@ public final class LGM
 			e1.printStackTrace();
 			}
 		}
-	public static JFrame frame = new JFrame(Messages.format("LGM.TITLE", //$NON-NLS-1$
-			Messages.getString("LGM.NEWGAME"))); //$NON-NLS-1$
+	//no frame when running headless, e.g. as a command line tool on a build server
+	public static JFrame frame = GraphicsEnvironment.isHeadless() ? null : new JFrame(
+			Messages.format("LGM.TITLE",Messages.getString("LGM.NEWGAME"))); //$NON-NLS-1$ //$NON-NLS-2$
 	public static Listener listener = new Listener();
 	public static JToolBar tool;
 	public static JTree tree;
@@ -40,6 +40,7 @@ import org.lateralgm.file.ResourceList;
 import org.lateralgm.messages.Messages;
 import org.lateralgm.resources.Resource;
 import org.lateralgm.resources.ResourceReference;
+import org.lateralgm.resources.Sprite;
 
 public class Listener extends TransferHandler implements ActionListener,CellEditorListener
 	{
@@ -133,8 +134,12 @@ public class Listener extends TransferHandler implements ActionListener,CellEdit
 			pos = parent.getChildCount();
 			}
 
-		Resource<?,?> resource = res == null ? LGM.currentFile.resMap.get(parent.kind).getResource()
-				: res;
+		Resource<?,?> resource = res;
+		if (resource == null)
+			{
+			resource = LGM.currentFile.resMap.get(parent.kind).getResource();
+			if (resource instanceof Sprite) ((Sprite) resource).applyFormatDefaults(LGM.currentFile.format);
+			}
 		ResNode g = new ResNode(resource.getName(),ResNode.STATUS_SECONDARY,parent.kind,
 				resource.reference);
 		parent.insert(g,pos);
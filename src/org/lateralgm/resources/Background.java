@@ -17,6 +17,7 @@ import java.util.EnumMap;
 import org.lateralgm.main.Prefs;
 import org.lateralgm.main.Util;
 import org.lateralgm.util.PropertyMap;
+import org.lateralgm.util.RawImage;
 
 public class Background extends InstantiableResource<Background,Background.PBackground> implements
 		Resource.Viewable
@@ -85,6 +86,17 @@ public class Background extends InstantiableResource<Background,Background.PBack
 		return backgroundImage;
 		}
 
+	/** Returns the raw pixels of the background image, sharing them where possible. */
+	public RawImage getRawImage()
+		{
+		return RawImage.wrap(backgroundImage);
+		}
+
+	public void setBackgroundImage(RawImage backgroundImage)
+		{
+		setBackgroundImage(backgroundImage == null ? null : backgroundImage.toBufferedImage());
+		}
+
 	public void setBackgroundImage(BufferedImage backgroundImage)
 		{
 		this.backgroundImage = backgroundImage;
@@ -8,13 +8,15 @@
 
 package org.lateralgm.resources;
 
+import org.lateralgm.file.Payload;
+
 public class Include
 	{
 	public String filename = ""; //$NON-NLS-1$
 	public String filepath = ""; //$NON-NLS-1$
 	public boolean isOriginal;
 	public int size = 0;
-	public byte[] data =  null;
+	public Payload data = null;
 	public int export = 2;
 	public String exportFolder = ""; //$NON-NLS-1$
 	public boolean overwriteExisting = false;
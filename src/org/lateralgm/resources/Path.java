@@ -38,6 +38,7 @@ public class Path extends InstantiableResource<Path,Path.PPath>
 		{
 		super(r);
 		setName(Prefs.prefixes.get(getClass()));
+		points.updateSource.addListener(changeListener,false);
 		}
 
 	public Path makeInstance(ResourceReference<Path> r)
@@ -48,6 +49,7 @@ public class Path extends InstantiableResource<Path,Path.PPath>
 	public PathPoint addPoint()
 		{
 		PathPoint point = new PathPoint();
+		point.properties.updateSource.addListener(changeListener,false);
 		points.add(point);
 		return point;
 		}
@@ -27,6 +27,9 @@ import java.util.HashMap;
 import java.util.Map;
 
 import org.lateralgm.components.impl.ResNode;
+import org.lateralgm.file.StoredBlock;
+import org.lateralgm.main.UpdateSource.UpdateEvent;
+import org.lateralgm.main.UpdateSource.UpdateListener;
 import org.lateralgm.messages.Messages;
 import org.lateralgm.util.PropertyMap;
 import org.lateralgm.util.PropertyMap.PropertyValidator;
@@ -65,6 +68,9 @@ public abstract class Resource<R extends Resource<R,P>, P extends Enum<P>> imple
 	protected String name = new String();
 	public final ResourceReference<R> reference;
 	public final PropertyMap<P> properties = makePropertyMap();
+	private StoredBlock storedBlock;
+	/** Marks this resource dirty on any update it is registered for */
+	protected final UpdateListener changeListener = new ChangeListener();
 
 	public static interface Viewable
 		{
@@ -83,13 +89,40 @@ public abstract class Resource<R extends Resource<R,P>, P extends Enum<P>> imple
 			reference = new ResourceReference<R>((R) this);
 		else
 			reference = r;
+		properties.updateSource.addListener(changeListener,false);
 		}
 
 	protected void fireUpdate()
 		{
+		markDirty();
 		reference.updateTrigger.fire();
 		}
 
+	/**
+	 * The block this resource was last read from or written to in a GM8 file, or null
+	 * if it has changed since.
+	 */
+	public StoredBlock getStoredBlock()
+		{
+		return storedBlock;
+		}
+
+	public void setStoredBlock(StoredBlock block)
+		{
+		storedBlock = block;
+		}
+
+	/**
+	 * Drops the stored block, so the resource is encoded again when it is written.
+	 * Changes of the properties, name, id and of lists which report their updates do this
+	 * automatically. Code which changes parts that don't, like the moments of a timeline
+	 * or the data of a sound, has to call it.
+	 */
+	public void markDirty()
+		{
+		storedBlock = null;
+		}
+
 	public String getName()
 		{
 		return name;
@@ -162,6 +195,14 @@ public abstract class Resource<R extends Resource<R,P>, P extends Enum<P>> imple
 		return v;
 		}
 
+	private class ChangeListener implements UpdateListener
+		{
+		public void updated(UpdateEvent e)
+			{
+			markDirty();
+			}
+		}
+
 	@Override
 	public boolean equals(Object obj)
 		{
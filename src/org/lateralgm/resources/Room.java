@@ -16,7 +16,7 @@ import java.util.Collections;
 import java.util.EnumMap;
 import java.util.List;
 
-import org.lateralgm.main.LGM;
+import org.lateralgm.file.GmFile;
 import org.lateralgm.main.Prefs;
 import org.lateralgm.main.UpdateSource;
 import org.lateralgm.main.UpdateSource.UpdateEvent;
@@ -76,6 +76,12 @@ public class Room extends InstantiableResource<Room,Room.PRoom> implements CodeH
 		for (int j = 0; j < v.length; j++)
 			v[j] = new View();
 		views = Collections.unmodifiableList(Arrays.asList(v));
+		instances.updateSource.addListener(changeListener,false);
+		tiles.updateSource.addListener(changeListener,false);
+		for (BackgroundDef bd : backgroundDefs)
+			bd.properties.updateSource.addListener(changeListener,false);
+		for (View vw : views)
+			vw.properties.updateSource.addListener(changeListener,false);
 		}
 
 	public Room makeInstance(ResourceReference<Room> r)
@@ -83,10 +89,11 @@ public class Room extends InstantiableResource<Room,Room.PRoom> implements CodeH
 		return new Room(r);
 		}
 
-	public Instance addInstance()
+	/** Adds an instance with the next free instance id of the given file. */
+	public Instance addInstance(GmFile f)
 		{
 		Instance inst = new Instance(this);
-		inst.properties.put(PInstance.ID,++LGM.currentFile.lastInstanceId);
+		inst.properties.put(PInstance.ID,++f.lastInstanceId);
 		instances.add(inst);
 		return inst;
 		}
@@ -107,8 +114,10 @@ public class Room extends InstantiableResource<Room,Room.PRoom> implements CodeH
 		super.postCopy(dest);
 		for (Instance inst : instances)
 			{
-			Instance inst2 = dest.addInstance();
+			// The copy keeps the id of the instance, so it doesn't need a new one
+			Instance inst2 = new Instance(dest);
 			inst2.properties.putAll(inst.properties);
+			dest.instances.add(inst2);
 			}
 		for (Tile tile : tiles)
 			{
@@ -140,11 +149,13 @@ public class Room extends InstantiableResource<Room,Room.PRoom> implements CodeH
 
 	public void instanceUpdated(UpdateEvent e)
 		{
+		markDirty();
 		instanceUpdateTrigger.fire(new UpdateEvent(instanceUpdateSource,e));
 		}
 
 	public void tileUpdated(UpdateEvent e)
 		{
+		markDirty();
 		tileUpdateTrigger.fire(new UpdateEvent(tileUpdateSource,e));
 		}
 
@@ -12,12 +12,13 @@ package org.lateralgm.resources;
 
 import java.util.EnumMap;
 
+import org.lateralgm.file.Payload;
 import org.lateralgm.main.Prefs;
 import org.lateralgm.util.PropertyMap;
 
 public class Sound extends InstantiableResource<Sound,Sound.PSound>
 	{
-	public byte[] data = new byte[0];
+	public Payload data = Payload.EMPTY;
 
 	public enum SoundKind
 		{
@@ -52,8 +53,8 @@ public class Sound extends InstantiableResource<Sound,Sound.PSound>
 	protected void postCopy(Sound dest)
 		{
 		super.postCopy(dest);
-		dest.data = new byte[data.length];
-		System.arraycopy(data,0,dest.data,0,data.length);
+		//payloads are immutable, so the copy can share it
+		dest.data = data;
 		}
 
 	@Override
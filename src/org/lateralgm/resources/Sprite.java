@@ -24,11 +24,11 @@ import java.util.EnumMap;
 import javax.imageio.ImageIO;
 
 import org.lateralgm.file.GmFile;
-import org.lateralgm.main.LGM;
 import org.lateralgm.main.Prefs;
 import org.lateralgm.main.Util;
 import org.lateralgm.messages.Messages;
 import org.lateralgm.util.PropertyMap;
+import org.lateralgm.util.RawImage;
 import org.lateralgm.util.PropertyMap.PropertyUpdateEvent;
 import org.lateralgm.util.PropertyMap.PropertyUpdateListener;
 
@@ -147,6 +147,11 @@ public class Sprite extends InstantiableResource<Sprite,Sprite.PSprite> implemen
 		}
 
 	public static void getCropBounds(BufferedImage img, Rectangle u, boolean transPixel)
+		{
+		getCropBounds(RawImage.wrap(img),u,transPixel);
+		}
+
+	public static void getCropBounds(RawImage img, Rectangle u, boolean transPixel)
 		{
 		if (transPixel)
 			getCropBoundsPixel(img,u);
@@ -156,33 +161,39 @@ public class Sprite extends InstantiableResource<Sprite,Sprite.PSprite> implemen
 
 	public static void getCropBoundsAlpha(BufferedImage img, Rectangle u, int tolerance)
 		{
-		int width = img.getWidth();
-		int height = img.getHeight();
+		getCropBoundsAlpha(RawImage.wrap(img),u,tolerance);
+		}
+
+	public static void getCropBoundsAlpha(RawImage img, Rectangle u, int tolerance)
+		{
+		int width = img.width;
+		int height = img.height;
+		int[] px = img.pixels;
 		boolean unz = u.width > 0 && u.height > 0;
 
 		int uy2 = unz ? u.y + u.height - 1 : -1;
 		int y2 = height - 1;
 		y2loop: for (; y2 > uy2; y2--)
-			for (int i = 0; i < width; i++)
-				if (img.getRGB(i,y2) >> 24 < tolerance) break y2loop;
+			for (int i = 0, p = y2 * width; i < width; i++, p++)
+				if (px[p] >> 24 < tolerance) break y2loop;
 
 		int ux2 = unz ? u.x + u.width - 1 : -1;
 		int x2 = width - 1;
 		x2loop: for (; x2 > ux2; x2--)
-			for (int j = 0; j <= y2; j++)
-				if (img.getRGB(x2,j) >> 24 < tolerance) break x2loop;
+			for (int j = 0, p = x2; j <= y2; j++, p += width)
+				if (px[p] >> 24 < tolerance) break x2loop;
 
 		int uy1 = unz ? u.y : y2;
 		int y1 = 0;
 		y1loop: for (; y1 < uy1; y1++)
-			for (int i = 0; i < x2; i++)
-				if (img.getRGB(i,y1) >> 24 < tolerance) break y1loop;
+			for (int i = 0, p = y1 * width; i < x2; i++, p++)
+				if (px[p] >> 24 < tolerance) break y1loop;
 
 		int ux1 = unz ? u.x : x2;
 		int x1 = 0;
 		x1loop: for (; x1 < ux1; x1++)
-			for (int j = y1; j < y2; j++)
-				if (img.getRGB(x1,j) >> 24 < tolerance) break x1loop;
+			for (int j = y1, p = y1 * width + x1; j < y2; j++, p += width)
+				if (px[p] >> 24 < tolerance) break x1loop;
 
 		u.x = x1;
 		u.y = y1;
@@ -192,34 +203,40 @@ public class Sprite extends InstantiableResource<Sprite,Sprite.PSprite> implemen
 
 	public static void getCropBoundsPixel(BufferedImage img, Rectangle u)
 		{
-		int transparent = img.getRGB(0,img.getHeight() - 1);
-		int width = img.getWidth();
-		int height = img.getHeight();
+		getCropBoundsPixel(RawImage.wrap(img),u);
+		}
+
+	public static void getCropBoundsPixel(RawImage img, Rectangle u)
+		{
+		int width = img.width;
+		int height = img.height;
+		int[] px = img.pixels;
+		int transparent = px[(height - 1) * width];
 		boolean unz = u.width > 0 && u.height > 0;
 
 		int uy2 = unz ? u.y + u.height - 1 : -1;
 		int y2 = height - 1;
 		y2loop: for (; y2 > uy2; y2--)
-			for (int i = 0; i < width; i++)
-				if (img.getRGB(i,y2) != transparent) break y2loop;
+			for (int i = 0, p = y2 * width; i < width; i++, p++)
+				if (px[p] != transparent) break y2loop;
 
 		int ux2 = unz ? u.x + u.width - 1 : -1;
 		int x2 = width - 1;
 		x2loop: for (; x2 > ux2; x2--)
-			for (int j = 0; j <= y2; j++)
-				if (img.getRGB(x2,j) != transparent) break x2loop;
+			for (int j = 0, p = x2; j <= y2; j++, p += width)
+				if (px[p] != transparent) break x2loop;
 
 		int uy1 = unz ? u.y : y2;
 		int y1 = 0;
 		y1loop: for (; y1 < uy1; y1++)
-			for (int i = 0; i < x2; i++)
-				if (img.getRGB(i,y1) != transparent) break y1loop;
+			for (int i = 0, p = y1 * width; i < x2; i++, p++)
+				if (px[p] != transparent) break y1loop;
 
 		int ux1 = unz ? u.x : x2;
 		int x1 = 0;
 		x1loop: for (; x1 < ux1; x1++)
-			for (int j = y1; j < y2; j++)
-				if (img.getRGB(x1,j) != transparent) break x1loop;
+			for (int j = y1, p = y1 * width + x1; j < y2; j++, p += width)
+				if (px[p] != transparent) break x1loop;
 
 		u.x = x1;
 		u.y = y1;
@@ -278,6 +295,12 @@ public class Sprite extends InstantiableResource<Sprite,Sprite.PSprite> implemen
 			return 0;
 			}
 
+		/** Returns the raw pixels of the given subimage, sharing them where possible. */
+		public RawImage getRaw(int index)
+			{
+			return RawImage.wrap(get(index));
+			}
+
 		@Override
 		public boolean add(BufferedImage e)
 			{
@@ -375,12 +398,19 @@ public class Sprite extends InstantiableResource<Sprite,Sprite.PSprite> implemen
 	@Override
 	protected PropertyMap<PSprite> makePropertyMap()
 		{
-		if (LGM.currentFile.format != null
-				&& LGM.currentFile.format.getOwner() == GmFile.FormatFlavor.GM_OWNER)
-			DEFS.put(PSprite.TRANSPARENT,LGM.currentFile.format.getVersion() <= 600);
 		return new PropertyMap<PSprite>(PSprite.class,this,DEFS);
 		}
 
+	/**
+	 * Sets the defaults that depend on the format of the file a new sprite is created in.
+	 * Sprites read from a file get these properties from the file instead.
+	 */
+	public void applyFormatDefaults(GmFile.FormatFlavor format)
+		{
+		if (format != null && format.getOwner() == GmFile.FormatFlavor.GM_OWNER)
+			put(PSprite.TRANSPARENT,format.getVersion() <= 600);
+		}
+
 	private class SpritePropertyListener extends PropertyUpdateListener<PSprite>
 		{
 		@Override
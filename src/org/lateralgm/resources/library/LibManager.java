@@ -76,6 +76,20 @@ public final class LibManager
 		if (codeAction == null) codeAction = makeCodeAction();
 		}
 
+	private static boolean loaded;
+
+	/**
+	 * Calls {@link #autoLoad()} the first time it is invoked and does nothing afterwards,
+	 * so several conversions in one process share the libraries instead of loading
+	 * them again (which would add every library a second time).
+	 */
+	public static synchronized void ensureLoaded()
+		{
+		if (loaded) return;
+		autoLoad();
+		loaded = true;
+		}
+
 	/** Loads in all libs/lgls in a given location (directory or zip file) */
 	public static void autoLoad(File loc)
 		{
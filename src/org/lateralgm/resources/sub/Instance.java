@@ -51,7 +51,7 @@ public class Instance implements Room.Piece,UpdateListener,CodeHolder,
 		{
 		room = r.reference;
 		properties = new PropertyMap<PInstance>(PInstance.class,this,DEFS);
-		properties.getUpdateSource(PInstance.OBJECT).addListener(ipl);
+		properties.updateSource.addListener(ipl);
 		}
 
 	protected void fireUpdate(UpdateEvent e)
@@ -132,7 +132,14 @@ public class Instance implements Room.Piece,UpdateListener,CodeHolder,
 		@Override
 		public void updated(PropertyUpdateEvent<PInstance> e)
 			{
-			if (e.key == PInstance.OBJECT) fireUpdate(null);
+			if (e.key == PInstance.OBJECT)
+				fireUpdate(null);
+			else
+				{
+				//the room has to be written again
+				Room r = room == null ? null : room.get();
+				if (r != null) r.markDirty();
+				}
 			}
 		}
 
@@ -55,7 +55,7 @@ public class Tile implements Room.Piece,UpdateListener,PropertyValidator<Tile.PT
 		{
 		room = r.reference;
 		properties = new PropertyMap<PTile>(PTile.class,this,DEFS);
-		properties.getUpdateSource(PTile.BACKGROUND).addListener(tpl);
+		properties.updateSource.addListener(tpl);
 		}
 
 	public Tile(Room r, int id)
@@ -171,7 +171,14 @@ public class Tile implements Room.Piece,UpdateListener,PropertyValidator<Tile.PT
 		@Override
 		public void updated(PropertyUpdateEvent<PTile> e)
 			{
-			if (e.key == PTile.BACKGROUND) fireUpdate(null);
+			if (e.key == PTile.BACKGROUND)
+				fireUpdate(null);
+			else
+				{
+				//the room has to be written again
+				Room r = room == null ? null : room.get();
+				if (r != null) r.markDirty();
+				}
 			}
 		}
 
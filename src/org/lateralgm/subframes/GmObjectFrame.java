@@ -647,6 +647,7 @@ public class GmObjectFrame extends InstantiableResourceFrame<GmObject,PGmObject>
 	public void commitChanges()
 		{
 		saveEvents();
+		res.markDirty();
 		res.setName(name.getText());
 		}
 
@@ -656,6 +657,7 @@ public class GmObjectFrame extends InstantiableResourceFrame<GmObject,PGmObject>
 			{
 			ResNode n = Listener.getPrimaryParent(Sprite.class);
 			Sprite spr = LGM.currentFile.resMap.getList(Sprite.class).add();
+			spr.applyFormatDefaults(LGM.currentFile.format);
 			Listener.putNode(LGM.tree,n,n,Sprite.class,n.getChildCount(),spr);
 			res.put(PGmObject.SPRITE,spr.reference);
 			return;
@@ -1266,7 +1266,7 @@ public class RoomFrame extends InstantiableResourceFrame<Room,PRoom> implements
 		if (s == oAdd)
 			{
 			if (oNew.getSelected() == null) return;
-			Instance i = res.addInstance();
+			Instance i = res.addInstance(LGM.currentFile);
 			i.properties.put(PInstance.OBJECT,oNew.getSelected());
 			i.setPosition(new Point());
 			oList.setSelectedIndex(res.instances.size() - 1);
@@ -52,6 +52,7 @@ import org.lateralgm.components.CustomFileChooser;
 import org.lateralgm.components.impl.CustomFileFilter;
 import org.lateralgm.components.impl.ResNode;
 import org.lateralgm.file.FileChangeMonitor;
+import org.lateralgm.file.Payload;
 import org.lateralgm.file.FileChangeMonitor.FileUpdateEvent;
 import org.lateralgm.main.LGM;
 import org.lateralgm.main.Prefs;
@@ -151,7 +152,18 @@ public class SoundFrame extends InstantiableResourceFrame<Sound,PSound>
 		preload = new JCheckBox(Messages.getString("SoundFrame.PRELOAD")); //$NON-NLS-1$
 		plf.make(preload,PSound.PRELOAD);
 
-		data = res.data;
+		try
+			{
+			data = res.data.toByteArray();
+			}
+		catch (IOException e)
+			{
+			//leave res.data alone, so the sound keeps its data unless another is loaded
+			data = null;
+			JOptionPane.showMessageDialog(LGM.frame,
+					Messages.format("SoundFrame.DATA_UNREADABLE",e.getMessage()), //$NON-NLS-1$
+					res.getName(),JOptionPane.ERROR_MESSAGE);
+			}
 
 		layout.setHorizontalGroup(layout.createParallelGroup()
 		/**/.addComponent(filename,120,120,MAX_VALUE)
@@ -280,7 +292,11 @@ public class SoundFrame extends InstantiableResourceFrame<Sound,PSound>
 	public void commitChanges()
 		{
 		res.setName(name.getText());
-		res.data = data;
+		if (modified && data != null)
+			{
+			res.data = Payload.of(data);
+			res.markDirty();
+			}
 		}
 
 	public void updateResource()
@@ -382,7 +398,7 @@ public class SoundFrame extends InstantiableResourceFrame<Sound,PSound>
 			}
 		if (e.getSource() == store)
 			{
-			if (fc.showSaveDialog(LGM.frame) != JFileChooser.APPROVE_OPTION) return;
+			if (data == null || fc.showSaveDialog(LGM.frame) != JFileChooser.APPROVE_OPTION) return;
 			try
 				{
 				BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(
@@ -398,6 +414,7 @@ public class SoundFrame extends InstantiableResourceFrame<Sound,PSound>
 			}
 		if (e.getSource() == edit)
 			{
+			if (data == null) return;
 			try
 				{
 				if (editor == null)
@@ -173,6 +173,7 @@ public class TimelineFrame extends InstantiableResourceFrame<Timeline,PTimeline>
 	public void commitChanges()
 		{
 		actions.save();
+		res.markDirty();
 		res.setName(name.getText());
 		}
 
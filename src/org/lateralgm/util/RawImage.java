@@ -0,0 +1,150 @@
+/*
+ * This file is part of LateralGM.
+ * LateralGM is free software and comes with ABSOLUTELY NO WARRANTY.
+ * See LICENSE for details.
+ */
+
+package org.lateralgm.util;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+/**
+ * A compact 32 bit image: width, height and one packed ARGB int per pixel, row by row.
+ * Read as little endian, this is exactly the BGRA byte order GM8 stores its images in,
+ * so the file codecs can work on the pixel array directly.
+ * <p>
+ * UI code that needs an AWT image gets a lazily created {@link BufferedImage} view
+ * which shares the pixel array, so no pixel data is ever held twice.
+ */
+public final class RawImage
+	{
+	/** The color model of all views, matching the packed ARGB layout of the pixel array. */
+	public static final DirectColorModel ARGB_MODEL = new DirectColorModel(32,0x00FF0000,
+			0x0000FF00,0x000000FF,0xFF000000);
+
+	public final int width;
+	public final int height;
+	/** Packed ARGB pixels, <code>pixels[y * width + x]</code>. */
+	public final int[] pixels;
+
+	private BufferedImage view;
+
+	public RawImage(int width, int height)
+		{
+		this(width,height,new int[width * height]);
+		}
+
+	public RawImage(int width, int height, int[] pixels)
+		{
+		if (pixels.length != width * height)
+			throw new IllegalArgumentException("Pixel array doesn't match " + width + "x" + height); //$NON-NLS-1$ //$NON-NLS-2$
+		this.width = width;
+		this.height = height;
+		this.pixels = pixels;
+		}
+
+	private RawImage(int width, int height, int[] pixels, BufferedImage view)
+		{
+		this(width,height,pixels);
+		this.view = view;
+		}
+
+	public int getRGB(int x, int y)
+		{
+		return pixels[y * width + x];
+		}
+
+	public void setRGB(int x, int y, int argb)
+		{
+		pixels[y * width + x] = argb;
+		}
+
+	/**
+	 * Returns a BufferedImage backed by this image's pixel array.
+	 * The view is created on first use and cached afterwards.
+	 */
+	public BufferedImage toBufferedImage()
+		{
+		if (view == null)
+			{
+			DataBufferInt buffer = new DataBufferInt(pixels,pixels.length);
+			SampleModel sm = ARGB_MODEL.createCompatibleSampleModel(width,height);
+			WritableRaster raster = Raster.createWritableRaster(sm,buffer,null);
+			view = new BufferedImage(ARGB_MODEL,raster,false,null);
+			}
+		return view;
+		}
+
+	/**
+	 * Returns the raw pixels of <code>img</code>. If the image is already backed by a
+	 * packed ARGB int array (as all images created by this class and by the GM8 decoder are),
+	 * that array is shared and nothing is copied. Any other image is converted once.
+	 */
+	public static RawImage wrap(BufferedImage img)
+		{
+		if (img == null) return null;
+		int w = img.getWidth();
+		int h = img.getHeight();
+		int[] shared = sharedPixels(img);
+		if (shared != null) return new RawImage(w,h,shared,img);
+		return new RawImage(w,h,img.getRGB(0,0,w,h,null,0,w));
+		}
+
+	/** Convenience for <code>wrap(img).pixels</code>. */
+	public static int[] getPixels(BufferedImage img)
+		{
+		int[] shared = sharedPixels(img);
+		if (shared != null) return shared;
+		int w = img.getWidth();
+		int h = img.getHeight();
+		return img.getRGB(0,0,w,h,null,0,w);
+		}
+
+	/**
+	 * Makes sure <code>img</code> is backed by a packed ARGB array,
+	 * converting it if necessary. Images that already are are returned unchanged.
+	 */
+	public static BufferedImage toArgb(BufferedImage img)
+		{
+		if (img == null || sharedPixels(img) != null) return img;
+		return wrap(img).toBufferedImage();
+		}
+
+	/**
+	 * Whether <code>img</code> is backed by a packed ARGB array,
+	 * so that {@link #wrap(BufferedImage)} doesn't copy anything.
+	 */
+	public static boolean isPacked(BufferedImage img)
+		{
+		return sharedPixels(img) != null;
+		}
+
+	private static int[] sharedPixels(BufferedImage img)
+		{
+		ColorModel cm = img.getColorModel();
+		if (!(cm instanceof DirectColorModel) || cm.isAlphaPremultiplied()) return null;
+		DirectColorModel dcm = (DirectColorModel) cm;
+		if (dcm.getRedMask() != 0x00FF0000 || dcm.getGreenMask() != 0x0000FF00
+				|| dcm.getBlueMask() != 0x000000FF || dcm.getAlphaMask() != 0xFF000000) return null;
+		WritableRaster raster = img.getRaster();
+		if (raster.getParent() != null || raster.getSampleModelTranslateX() != 0
+				|| raster.getSampleModelTranslateY() != 0) return null;
+		DataBuffer db = raster.getDataBuffer();
+		if (!(db instanceof DataBufferInt) || db.getNumBanks() != 1 || db.getOffset() != 0)
+			return null;
+		SampleModel sm = raster.getSampleModel();
+		if (!(sm instanceof SinglePixelPackedSampleModel)
+				|| ((SinglePixelPackedSampleModel) sm).getScanlineStride() != img.getWidth()) return null;
+		int[] data = ((DataBufferInt) db).getData();
+		if (data.length != img.getWidth() * img.getHeight()) return null;
+		return data;
+		}
+	}